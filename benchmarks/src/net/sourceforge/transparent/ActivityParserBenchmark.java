@@ -0,0 +1,41 @@
+package net.sourceforge.transparent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "lsactivity" parsing of CCaseViewsManager.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class ActivityParserBenchmark
+{
+  @Param( { "2000" } )
+  public int lines;
+
+  @Param( { BenchmarkInputs.SYNTHETIC } )
+  public String source;
+
+  private List<String> output;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    output = BenchmarkInputs.lines( source, "lsactivity.txt", lines, BenchmarkInputs.ACTIVITIES );
+  }
+
+  @Benchmark
+  public void parse( Blackhole blackhole )
+  {
+    for( String line : output )
+      blackhole.consume( CCaseViewsManager.parseActivities( line ) );
+  }
+}
@@ -0,0 +1,46 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.vcs.VcsException;
+import net.sourceforge.transparent.Annotations.AnnotationLineParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "annotate" parsing, one AnnotationLineParser.parse call per output line.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class AnnotationParserBenchmark
+{
+  @Param( { "50000" } )
+  public int lines;
+
+  @Param( { BenchmarkInputs.SYNTHETIC } )
+  public String source;
+
+  private List<String> output;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    output = BenchmarkInputs.lines( source, "annotate.txt", lines, BenchmarkInputs.ANNOTATE );
+  }
+
+  @Benchmark
+  public void parse( Blackhole blackhole ) throws VcsException
+  {
+    for( String line : output )
+    {
+      if( line.length() != 0 )
+        blackhole.consume( AnnotationLineParser.parse( line ) );
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package net.sourceforge.transparent;
+
+import net.sourceforge.transparent.Annotations.AnnotationLineParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * cleartool outputs the benchmarks feed to the parsers.
+ *
+ * By default the outputs are synthetic, generated in the exact format the
+ * plugin asks cleartool for (same -fmt strings, same messages). Outputs
+ * recorded from a real VOB can be used instead: put them into a folder as
+ * "lshistory.txt", "annotate.txt", "ls.txt", "update.txt" and "lsactivity.txt",
+ * and run with -Dclearcase.bench.recorded=<folder> and "-p source=recorded".
+ */
+public class BenchmarkInputs
+{
+  public static final String SYNTHETIC = "synthetic";
+  public static final String RECORDED = "recorded";
+  public static final String RECORDED_DIR_PROPERTY = "clearcase.bench.recorded";
+
+  public static final String VIEW_ROOT = "/view/bench_view/vob";
+
+  private static final String MAGIC = "\1";
+  private static final String[] USERS = { "jdoe", "asmith", "build", "Irina Chernushina", "mkowalski" };
+  private static final String[] ACTIONS = { "create version", "checkin version", "create branch", "checkout version" };
+
+  private BenchmarkInputs() {}
+
+  public static List<String> lines( String source, String recordedName, int count, LineGenerator generator ) throws IOException
+  {
+    if( RECORDED.equals( source ) )
+      return readRecorded( recordedName );
+
+    Random random = new Random( 42 );
+    List<String> result = new ArrayList<>( count );
+    for( int i = 0; result.size() < count; i++ )
+      generator.generate( i, random, result );
+    return result;
+  }
+
+  /**
+   * Like {@link #lines}, but generates the output of exactly {@code count}
+   * items (versions, elements) rather than of {@code count} lines.
+   */
+  public static List<String> items( String source, String recordedName, int count, LineGenerator generator ) throws IOException
+  {
+    if( RECORDED.equals( source ) )
+      return readRecorded( recordedName );
+
+    Random random = new Random( 42 );
+    List<String> result = new ArrayList<>();
+    for( int i = 0; i < count; i++ )
+      generator.generate( i, random, result );
+    return result;
+  }
+
+  public static String join( List<String> lines )
+  {
+    StringBuilder buf = new StringBuilder();
+    for( String line : lines )
+      buf.append( line ).append( '\n' );
+    return buf.toString();
+  }
+
+  private static List<String> readRecorded( String name ) throws IOException
+  {
+    String dir = System.getProperty( RECORDED_DIR_PROPERTY );
+    if( dir == null )
+      throw new IOException( "Recorded outputs are requested but -D" + RECORDED_DIR_PROPERTY + " is not set" );
+    return Files.readAllLines( new File( dir, name ).toPath(), StandardCharsets.UTF_8 );
+  }
+
+  public interface LineGenerator
+  {
+    void generate( int index, Random random, List<String> out );
+  }
+
+  /**
+   * "lshistory" output for the -fmt built by CCaseHistoryParser: six tagged
+   * lines per version, some comments spread over several lines.
+   */
+  public static final LineGenerator HISTORY = ( index, random, out ) ->
+  {
+    out.add( "0" + MAGIC + "2026-0" + (1 + index % 9) + "-1" + (index % 10) + "T10:" + (10 + index % 50) + ":00" );
+    out.add( "1" + MAGIC + USERS[ random.nextInt( USERS.length ) ] );
+    out.add( "2" + MAGIC + ACTIONS[ random.nextInt( ACTIONS.length ) ] );
+    out.add( "3" + MAGIC + (index % 7 == 0 ? "REL_" + index : "") );
+    out.add( "4" + MAGIC + VIEW_ROOT + "/src/com/acme/Service.java@@/main/dev/" + index );
+    out.add( "5" + MAGIC + "Fix for defect " + (1000 + index) );
+    for( int i = random.nextInt( 3 ); i > 0; i-- )
+      out.add( "  continued comment line " + i );
+  };
+
+  /**
+   * The same versions as {@link #HISTORY} for the -fmt of
+   * CCaseHistoryRecordParser: fields separated by the unit separator, the
+   * record separator at the end of the last comment line.
+   */
+  public static final LineGenerator HISTORY_RECORDS = ( index, random, out ) ->
+  {
+    char fs = '\u001F';
+    String record = "2026-0" + (1 + index % 9) + "-1" + (index % 10) + "T10:" + (10 + index % 50) + ":00" + fs +
+                    USERS[ random.nextInt( USERS.length ) ] + fs +
+                    ACTIONS[ random.nextInt( ACTIONS.length ) ] + fs +
+                    (index % 7 == 0 ? "REL_" + index : "") + fs +
+                    VIEW_ROOT + "/src/com/acme/Service.java@@/main/dev/" + index + fs +
+                    "Fix for defect " + (1000 + index);
+    for( int i = random.nextInt( 3 ); i > 0; i-- )
+    {
+      out.add( record );
+      record = "  continued comment line " + i;
+    }
+    out.add( record + '\u001E' );
+  };
+
+  /**
+   * "annotate" output for the -fmt of CCaseAnnotationProvider; consecutive
+   * lines of the same version leave the date/user/revision columns blank.
+   */
+  public static final LineGenerator ANNOTATE = ( index, random, out ) ->
+  {
+    boolean sameVersion = index > 0 && random.nextInt( 4 ) != 0;
+    String d = AnnotationLineParser.FIELDS_DELIMITER;
+    if( sameVersion )
+      out.add( pad( "", 9 ) + d + pad( "", 16 ) + d + pad( " .", 40 ) + d + "    int field" + index + " = 0;" );
+    else
+      out.add( pad( "2026-0" + (1 + index % 9) + "-12", 9 ) + d + pad( USERS[ random.nextInt( USERS.length ) ], 16 ) + d +
+               pad( "/main/dev/" + random.nextInt( 200 ), 40 ) + d + "    int field" + index + " = 1;" );
+  };
+
+  /**
+   * "ls -recurse -fmt" output of StatusMultipleProcessor: mostly checked-in
+   * elements, with a share of checked out and view-private files and warnings.
+   * The paths do not exist, so every element is also taken as missing.
+   */
+  public static final LineGenerator LS = ( index, random, out ) ->
+  {
+    String path = VIEW_ROOT + "/D" + (index / 50) + "/F" + index + ".java";
+    String f = StatusMultipleProcessor.FIELD_SIG;
+    String r = StatusMultipleProcessor.RECORD_END_SIG;
+    int kind = random.nextInt( 1000 );
+    if( kind < 5 )
+      out.add( path + f + "/main/dev/CHECKEDOUT" + r );
+    else if( kind < 13 )
+      out.add( VIEW_ROOT + "/D" + (index / 50) + "/Private" + index + ".txt" + f + r );
+    else if( kind < 15 )
+      out.add( "cleartool: Warning: Can not find a group named \"DOMAIN\\ClearCase Users\"" );
+    else
+      out.add( path + f + "/main/dev/" + (index % 12) + r );
+  };
+
+  /**
+   * "update" output, as printed before the update log is written.
+   */
+  public static final LineGenerator UPDATE = ( index, random, out ) ->
+  {
+    String path = "D" + (index / 50) + File.separator + "F" + index + ".java";
+    int kind = random.nextInt( 100 );
+    if( kind < 80 )
+      out.add( "Loading \"" + path + "\" (" + (100 + index) + " bytes)." );
+    else if( kind < 90 )
+      out.add( "Keeping hijacked object \"" + path + "\" - base \"/main/dev/" + (index % 12) + "\"." );
+    else if( kind < 95 )
+      out.add( "Unloaded \"" + path + "\"." );
+    else
+      out.add( "Processing dir \"D" + (index / 50) + "\"." );
+  };
+
+  /**
+   * "lsactivity" output for LIST_ACTIVITY_FORMAT of CCaseViewsManager.
+   */
+  public static final LineGenerator ACTIVITIES = ( index, random, out ) ->
+  {
+    String view = index % 10 == 0 ? " <-> bench_view" : "";
+    out.add( "activity_" + index + " <-> unlocked <-> Work on defect " + (1000 + index) + view );
+  };
+
+  /**
+   * Renamed files and folders as TransparentVcs keeps them (new name -> old
+   * name), half of the entries being folders with files under them.
+   */
+  public static void fillRenames( int count, CCaseRenameMap files, CCaseRenameMap folders )
+  {
+    for( int i = 0; i < count; i++ )
+    {
+      if( i % 2 == 0 )
+        files.put( VIEW_ROOT + "/D" + (i / 50) + "/Renamed" + i + ".java", VIEW_ROOT + "/D" + (i / 50) + "/F" + i + ".java" );
+      else
+        folders.put( VIEW_ROOT + "/NewD" + i, VIEW_ROOT + "/D" + i );
+    }
+  }
+
+  private static String pad( String s, int width )
+  {
+    StringBuilder buf = new StringBuilder( s );
+    while( buf.length() < width )
+      buf.append( ' ' );
+    return buf.toString();
+  }
+}
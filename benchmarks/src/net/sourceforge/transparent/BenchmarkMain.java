@@ -0,0 +1,46 @@
+package net.sourceforge.transparent;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Runs the benchmarks (all of them or those matching the regexps given as
+ * arguments) with the allocation profiler and stores the results as JSON
+ * into "benchmarks/results", to be compared between revisions, e.g. with
+ * the JMH visualizer.
+ */
+public class BenchmarkMain
+{
+  private static final String RESULTS_DIR = "benchmarks/results";
+
+  public static void main( String[] args ) throws RunnerException
+  {
+    File results = new File( RESULTS_DIR );
+    results.mkdirs();
+    String stamp = new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( new Date() );
+
+    ChainedOptionsBuilder options = new OptionsBuilder()
+      .addProfiler( GCProfiler.class )
+      .resultFormat( ResultFormatType.JSON )
+      .result( new File( results, "jmh-" + stamp + ".json" ).getPath() );
+
+    String recorded = System.getProperty( BenchmarkInputs.RECORDED_DIR_PROPERTY );
+    if( recorded != null )
+      options.jvmArgsAppend( "-D" + BenchmarkInputs.RECORDED_DIR_PROPERTY + "=" + recorded );
+
+    if( args.length == 0 )
+      options.include( BenchmarkMain.class.getPackage().getName() + ".*Benchmark" );
+    for( String arg : args )
+      options.include( arg );
+
+    new Runner( options.build() ).run();
+  }
+}
@@ -0,0 +1,78 @@
+package net.sourceforge.transparent;
+
+import net.sourceforge.transparent.History.CCaseHistoryParser;
+import net.sourceforge.transparent.History.CCaseHistoryRecordParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "lshistory" parsing: the whole output at once as CCaseHistoryParser.parse
+ * does it, and line by line as the history provider streams it; then the
+ * same versions in the record format of CCaseHistoryRecordParser.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class HistoryParserBenchmark
+{
+  @Param( { "10000" } )
+  public int lines;
+
+  @Param( { BenchmarkInputs.SYNTHETIC } )
+  public String source;
+
+  private List<String> output;
+  private String content;
+  private List<String> recordsOutput;
+  private String recordsContent;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    output = BenchmarkInputs.lines( source, "lshistory.txt", lines, BenchmarkInputs.HISTORY );
+    content = BenchmarkInputs.join( output );
+    int versions = CCaseHistoryParser.parse( content ).size();
+    recordsOutput = BenchmarkInputs.items( source, "lshistory-records.txt", versions, BenchmarkInputs.HISTORY_RECORDS );
+    recordsContent = BenchmarkInputs.join( recordsOutput );
+  }
+
+  @Benchmark
+  public ArrayList<CCaseHistoryParser.SubmissionData> parse()
+  {
+    return CCaseHistoryParser.parse( content );
+  }
+
+  @Benchmark
+  public ArrayList<CCaseHistoryParser.SubmissionData> parseStreamed()
+  {
+    CCaseHistoryParser.LineParser parser = new CCaseHistoryParser.LineParser();
+    for( String line : output )
+      parser.onOutputLine( line );
+    return parser.getResult();
+  }
+
+  @Benchmark
+  public ArrayList<CCaseHistoryParser.SubmissionData> parseRecords() throws IOException
+  {
+    return CCaseHistoryRecordParser.parse( new StringReader( recordsContent ) );
+  }
+
+  @Benchmark
+  public List<CCaseHistoryParser.SubmissionData> parseRecordsStreamed()
+  {
+    List<CCaseHistoryParser.SubmissionData> result = new ArrayList<>();
+    CCaseHistoryRecordParser parser = new CCaseHistoryRecordParser( result::add );
+    for( String line : recordsOutput )
+      parser.onOutputLine( line );
+    parser.finish();
+    return result;
+  }
+}
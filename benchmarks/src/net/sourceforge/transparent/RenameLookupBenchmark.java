@@ -0,0 +1,82 @@
+package net.sourceforge.transparent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Old/new name lookups of TransparentVcs over the maps of renamed files and
+ * folders, for a renamed file, a file under a renamed folder and a file
+ * which was not renamed at all (the common and the worst case).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class RenameLookupBenchmark
+{
+  @Param( { "5000" } )
+  public int renames;
+
+  private final CCaseRenameMap renamedFiles = new CCaseRenameMap();
+  private final CCaseRenameMap renamedFolders = new CCaseRenameMap();
+
+  private String renamedFile;
+  private String oldFileName;
+  private String fileInRenamedFolder;
+  private String fileInOldFolder;
+  private String untouchedFile;
+
+  @Setup
+  public void setUp()
+  {
+    renamedFiles.clear();
+    renamedFolders.clear();
+    BenchmarkInputs.fillRenames( renames, renamedFiles, renamedFolders );
+
+    int last = (renames - 1) & ~1;
+    renamedFile = BenchmarkInputs.VIEW_ROOT + "/D" + (last / 50) + "/Renamed" + last + ".java";
+    oldFileName = BenchmarkInputs.VIEW_ROOT + "/D" + (last / 50) + "/F" + last + ".java";
+    fileInRenamedFolder = BenchmarkInputs.VIEW_ROOT + "/NewD" + (renames - 1 | 1) + "/Some.java";
+    fileInOldFolder = BenchmarkInputs.VIEW_ROOT + "/D" + (renames - 1 | 1) + "/Some.java";
+    untouchedFile = BenchmarkInputs.VIEW_ROOT + "/Untouched/Some.java";
+  }
+
+  @Benchmark
+  public String oldNameOfRenamedFile()
+  {
+    return TransparentVcs.discoverOldName( renamedFiles, renamedFolders, renamedFile );
+  }
+
+  @Benchmark
+  public String oldNameInRenamedFolder()
+  {
+    return TransparentVcs.discoverOldName( renamedFiles, renamedFolders, fileInRenamedFolder );
+  }
+
+  @Benchmark
+  public String oldNameOfUntouchedFile()
+  {
+    return TransparentVcs.discoverOldName( renamedFiles, renamedFolders, untouchedFile );
+  }
+
+  @Benchmark
+  public String newNameOfRenamedFile()
+  {
+    return TransparentVcs.discoverNewName( renamedFiles, renamedFolders, oldFileName );
+  }
+
+  @Benchmark
+  public String newNameInRenamedFolder()
+  {
+    return TransparentVcs.discoverNewName( renamedFiles, renamedFolders, fileInOldFolder );
+  }
+
+  @Benchmark
+  public String newNameOfUntouchedFile()
+  {
+    return TransparentVcs.discoverNewName( renamedFiles, renamedFolders, untouchedFile );
+  }
+}
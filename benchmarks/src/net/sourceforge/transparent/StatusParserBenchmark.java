@@ -0,0 +1,45 @@
+package net.sourceforge.transparent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "ls -fmt" parsing of StatusMultipleProcessor, without the process.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 1 )
+public class StatusParserBenchmark
+{
+  @Param( { "500000" } )
+  public int lines;
+
+  @Param( { BenchmarkInputs.SYNTHETIC } )
+  public String source;
+
+  private List<String> output;
+  private StatusMultipleProcessor processor;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    output = BenchmarkInputs.lines( source, "ls.txt", lines, BenchmarkInputs.LS );
+    processor = new StatusMultipleProcessor( Collections.singletonList( BenchmarkInputs.VIEW_ROOT ) );
+  }
+
+  @Benchmark
+  public StatusMultipleProcessor parse()
+  {
+    processor.resetResults();
+    for( String line : output )
+      processor.parseCleartoolOutputLine( line );
+    return processor;
+  }
+}
@@ -0,0 +1,42 @@
+package net.sourceforge.transparent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "update" output parsing of CCaseUpdateEnvironment.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class UpdateParserBenchmark
+{
+  @Param( { "50000" } )
+  public int lines;
+
+  @Param( { BenchmarkInputs.SYNTHETIC } )
+  public String source;
+
+  private List<String> output;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    output = BenchmarkInputs.lines( source, "update.txt", lines, BenchmarkInputs.UPDATE );
+  }
+
+  @Benchmark
+  public CCaseUpdateEnvironment.UpdateOutputParser parse()
+  {
+    CCaseUpdateEnvironment.UpdateOutputParser parser = new CCaseUpdateEnvironment.UpdateOutputParser( BenchmarkInputs.VIEW_ROOT );
+    for( String line : output )
+      parser.onOutputLine( line );
+    return parser;
+  }
+}
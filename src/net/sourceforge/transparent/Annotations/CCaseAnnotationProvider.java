@@ -1,7 +1,7 @@
 package net.sourceforge.transparent.Annotations;
 
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.FileStatusManager;
 import com.intellij.openapi.vcs.VcsException;
@@ -11,6 +11,7 @@ import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.History.CCaseFileRevision;
+import net.sourceforge.transparent.Runner;
 import net.sourceforge.transparent.TransparentVcs;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -54,19 +55,39 @@ public class CCaseAnnotationProvider implements AnnotationProvider
     @NonNls String format = "\"%Sd" + AnnotationLineParser.FIELDS_DELIMITER +
                             "%-16.16u" + AnnotationLineParser.FIELDS_DELIMITER +
                             "%-40.40Vn" + AnnotationLineParser.FIELDS_DELIMITER + "\"";
-    String output = TransparentVcs.cleartoolWithOutput( "annotate", "-out", "-", "-nco", "-nhe", "-fmt", format, path );
+    final CCaseFileAnnotation annotation = new CCaseFileAnnotation(project, file);
+    final Ref<VcsException> parseError = new Ref<>();
+    final Runner runner = TransparentVcs.cleartoolWithListener( new Runner.LineListener()
+    {
+      public void onOutputLine( @NotNull String line )
+      {
+        if( line.length() == 0 || !parseError.isNull() )
+          return;
+        try
+        {
+          AnnotationLineParser.AnnotationLineInfo info = AnnotationLineParser.parse( line );
+          annotation.addLineInfo( info.date, info.revision, info.committer, info.source );
+        }
+        catch( VcsException e )
+        {
+          parseError.set( e );
+        }
+      }
+
+      public void onErrorLine( @NotNull String line ) {}
+    }, "annotate", "-out", "-", "-nco", "-nhe", "-fmt", format, path );
 
     //  Show more or less descriptive message for this CCase error. 
-    if( output.contains( ERROR_SIG ) )
+    String errorOutput = runner.getOutput();
+    if( errorOutput != null && errorOutput.contains( ERROR_SIG ) )
+    {
+      annotation.dispose();
       throw new VcsException( ERROR_TEXT );
-    
-    CCaseFileAnnotation annotation = new CCaseFileAnnotation(project, file);
-    String[] lines = LineTokenizer.tokenize( output, false );
-
-    for( String line : lines )
+    }
+    if( !parseError.isNull() )
     {
-      AnnotationLineParser.AnnotationLineInfo info = AnnotationLineParser.parse( line );
-      annotation.addLineInfo( info.date, info.revision, info.committer, info.source );
+      annotation.dispose();
+      throw parseError.get();
     }
     return annotation;
   }
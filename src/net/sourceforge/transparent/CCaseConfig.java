@@ -29,6 +29,30 @@ public class CCaseConfig implements PersistentStateComponent<CCaseConfig> {
   public String lastScr = "";
   public String scrTextFileName = "";
   public int historyRevisionsNumber = 4;
+  public boolean useInteractiveSessions = true;
+  public int maxInteractiveSessions = 4;
+  public int maxConcurrentCommands = 8;
+  public int maxConcurrentCommandsPerVob = 4;
+  public int maxConcurrentRoots = 4;
+  public int queryCacheTimeToLive = 3000;
+  public int commandTimeout = 600;
+  public int longCommandTimeout = 3600;
+  public boolean useCircuitBreaker = true;
+  public int breakerFailureThreshold = 3;
+  public int breakerSlowCallSeconds = 60;
+  public int breakerProbePeriod = 15;
+  public boolean autoOfflineMode = true;
+  public String metricsExportFile = "";
+  public int metricsExportPeriod = 300;
+  public boolean useStatusIndex = true;
+  public boolean incrementalStatus = true;
+  public boolean useViewPrivateInventory = true;
+  public int viewPrivateInventoryTimeToLive = 300;
+  public boolean useContentBaseline = true;
+  public boolean useHistoryCache = true;
+  public int historyCacheTimeToLive = 30;
+  public int historyLabelsTimeToLive = 600;
+  public boolean useCompatibleHistoryParser = false;
 
   private TransparentVcs host;
 
@@ -0,0 +1,527 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Size, mtime and CRC32 of the content of the loaded version of the files,
+ * taken when the IDE knows that the file holds exactly that version: after
+ * "update" loaded it, after checkin, uncheckout and checkout, and when a
+ * read-only file becomes writable. A writable file is then compared with
+ * its baseline locally:
+ * - in the offline mode a writable file which is neither new nor checked
+ *   out is hijacked only if its content differs, instead of always;
+ * - online, a writable file known not to be checked out whose content is
+ *   that of the loaded version needs no "cleartool ls" - it is unchanged.
+ *
+ * The mtime is only a shortcut: equal size and mtime mean the same content,
+ * otherwise the content is hashed (and the new mtime remembered if it is
+ * still the same). A file which became writable outside of the IDE commands
+ * may be checked out elsewhere, so its baseline is not trusted online until
+ * a status query confirms that it is not (see {@link #statusKnown}).
+ *
+ * Recording a file only takes its size and mtime; the content is hashed in
+ * background, one file after another, so that neither the VFS events on
+ * the EDT nor an update of thousands of files wait for it. The hash is
+ * taken only if the file still has that size and mtime, otherwise it no
+ * longer holds the version and gets no baseline. Until it is hashed the
+ * file has no baseline for the lookups, but its state is already known.
+ *
+ * The baseline is one file in the IDE system folder, read in background at
+ * activation and written on {@link #flush}. Format (big endian): int magic,
+ * int format version, int count, then per file: path (modified UTF-8),
+ * byte state, long size, long mtime, int CRC32.
+ */
+public class CCaseContentBaseline
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CCaseContentBaseline");
+
+  private static final int MAGIC = 0x43434342;   //  "CCCB"
+  private static final int FORMAT_VERSION = 1;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  //  Stored, do not renumber.
+  private static final byte LOADED = 0;
+  private static final byte LOADED_UNCONFIRMED = 1;
+  private static final byte CHECKED_OUT = 2;
+
+  @NonNls private static final String BASELINE_FILE = "clearcase" + File.separator + "content-baseline.bin";
+  @NonNls private static final String TEMP_EXT = ".tmp";
+
+  private static final CCaseContentBaseline ourInstance = new CCaseContentBaseline();
+
+  private static class Entry
+  {
+    byte state;
+    final long size;
+    long mtime;
+    final int crc;
+
+    Entry( byte state, long size, long mtime, int crc )
+    {
+      this.state = state;
+      this.size = size;
+      this.mtime = mtime;
+      this.crc = crc;
+    }
+  }
+
+  //  Recorded, not hashed yet.
+  private static class Pending
+  {
+    byte state;
+    final long size;
+    final long mtime;
+
+    Pending( byte state, long size, long mtime )
+    {
+      this.state = state;
+      this.size = size;
+      this.mtime = mtime;
+    }
+  }
+
+  private Map<String, Entry> entries;
+  private final Map<String, Pending> pending = new LinkedHashMap<>();
+  private boolean hashing;
+  private Future<?> loading;
+  private boolean dirty;
+  private volatile boolean enabled = true;
+  private File storage;
+
+  public static CCaseContentBaseline getInstance() {  return ourInstance;  }
+
+  public void setEnabled( boolean value )
+  {
+    enabled = value;
+  }
+
+  public boolean isEnabled()  {  return enabled;  }
+
+  /**
+   * @param file where the baseline is kept; null for the default one in the
+   *             IDE system folder.
+   */
+  public synchronized void setStorage( @Nullable File file )
+  {
+    storage = file;
+    entries = null;
+    pending.clear();
+    loading = null;
+    dirty = false;
+  }
+
+  /**
+   * Start reading the baseline in background, the first lookup waits for it.
+   */
+  public synchronized void startLoading()
+  {
+    if( enabled && entries == null && loading == null )
+      loading = AppExecutorUtil.getAppExecutorService().submit( this::getEntries );
+  }
+
+  /**
+   * The file holds its loaded version: it was loaded by "update", checked
+   * in or its checkout was cancelled.
+   */
+  public void recordLoaded( @NotNull String path )
+  {
+    record( path, LOADED );
+  }
+
+  /**
+   * The file was checked out, its content is still that of the version it
+   * was checked out from.
+   */
+  public void recordCheckedOut( @NotNull String path )
+  {
+    record( path, CHECKED_OUT );
+  }
+
+  /**
+   * The writable flag of the file is about to change (not necessarily by a
+   * command of the IDE). A read-only file has the content of its loaded
+   * version, but a file which becomes writable may have been checked out
+   * elsewhere.
+   */
+  public void writableChanged( @NotNull String path, boolean writable )
+  {
+    if( !enabled )
+      return;
+
+    if( getState( path ) == CHECKED_OUT )
+    {
+      //  Checked in or out elsewhere; whatever the content now is, it is
+      //  not known to be the loaded version.
+      if( !writable )
+        record( path, LOADED_UNCONFIRMED );
+      return;
+    }
+    if( writable )
+      record( path, LOADED_UNCONFIRMED );
+  }
+
+  /**
+   * The status of the file was just computed by cleartool.
+   */
+  public void statusKnown( @NotNull String path, @NotNull Status status )
+  {
+    if( !enabled )
+      return;
+
+    String normalized = normalize( path );
+    byte known = Status.CHECKED_OUT.equals( status ) ? CHECKED_OUT : LOADED;
+    synchronized( this )
+    {
+      if( Status.NOT_AN_ELEMENT.equals( status ) )
+      {
+        pending.remove( normalized );
+        if( getEntries().remove( normalized ) != null )
+          dirty = true;
+        return;
+      }
+
+      Pending recorded = pending.get( normalized );
+      if( recorded != null )
+        recorded.state = known;
+      Entry entry = getEntries().get( normalized );
+      if( entry == null )
+        return;
+
+      byte state = entry.state;
+      entry.state = known;
+      dirty |= state != entry.state;
+    }
+  }
+
+  /**
+   * Online: the file is not checked out and has the content of its loaded
+   * version.
+   */
+  public boolean isUnmodified( @NotNull String path )
+  {
+    if( !enabled )
+      return false;
+
+    Entry entry = getEntry( path );
+    return entry != null && entry.state == LOADED && hasSameContent( path, entry );
+  }
+
+  /**
+   * Offline: the status the file most likely has by its baseline, null if
+   * there is none.
+   */
+  @Nullable
+  public Status guessStatus( @NotNull String path )
+  {
+    if( !enabled )
+      return null;
+
+    Entry entry = getEntry( path );
+    if( entry == null )
+      return null;
+    if( entry.state == CHECKED_OUT )
+      return Status.CHECKED_OUT;
+    return hasSameContent( path, entry ) ? Status.CHECKED_IN : Status.HIJACKED;
+  }
+
+  public void remove( @NotNull String path )
+  {
+    if( !enabled )
+      return;
+
+    String normalized = normalize( path );
+    synchronized( this )
+    {
+      pending.remove( normalized );
+      if( getEntries().remove( normalized ) != null )
+        dirty = true;
+    }
+  }
+
+  public void flush()
+  {
+    synchronized( this )
+    {
+      if( !dirty || entries == null )
+        return;
+      dirty = false;
+    }
+    if( !save() )
+    {
+      synchronized( this )
+      {
+        dirty = true;
+      }
+    }
+  }
+
+  private void record( String path, byte state )
+  {
+    if( !enabled )
+      return;
+
+    File file = new File( path );
+    Pending recorded = file.isFile() ? new Pending( state, file.length(), file.lastModified() ) : null;
+
+    String normalized = normalize( path );
+    synchronized( this )
+    {
+      getEntries().remove( normalized );
+      dirty = true;
+      if( recorded == null )
+      {
+        pending.remove( normalized );
+        return;
+      }
+
+      pending.put( normalized, recorded );
+      if( !hashing )
+      {
+        hashing = true;
+        AppExecutorUtil.getAppExecutorService().execute( this::hashPending );
+      }
+    }
+  }
+
+  /**
+   * Wait until the files recorded so far are hashed.
+   */
+  public synchronized void waitForPending() throws InterruptedException
+  {
+    while( hashing )
+      wait();
+  }
+
+  private void hashPending()
+  {
+    while( true )
+    {
+      String path;
+      Pending recorded;
+      synchronized( this )
+      {
+        Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator();
+        if( !it.hasNext() )
+        {
+          hashing = false;
+          notifyAll();
+          return;
+        }
+        Map.Entry<String, Pending> next = it.next();
+        path = next.getKey();
+        recorded = next.getValue();
+      }
+
+      //  Hashing is done outside of the lock.
+      File file = new File( path );
+      Integer crc = null;
+      try
+      {
+        if( isSame( file, recorded ) )
+        {
+          crc = computeCrc( file );
+          if( !isSame( file, recorded ) )
+            crc = null;
+        }
+      }
+      catch( RuntimeException e )
+      {
+        LOG.info( "Failed to hash " + path + ": " + e );
+      }
+
+      synchronized( this )
+      {
+        //  Removed, or recorded again meanwhile: the newer one counts.
+        if( pending.get( path ) != recorded )
+          continue;
+        pending.remove( path );
+        if( crc != null )
+        {
+          getEntries().put( path, new Entry( recorded.state, recorded.size, recorded.mtime, crc ) );
+          dirty = true;
+        }
+      }
+    }
+  }
+
+  private static boolean isSame( File file, Pending recorded )
+  {
+    return file.isFile() && file.length() == recorded.size && file.lastModified() == recorded.mtime;
+  }
+
+  private boolean hasSameContent( String path, Entry entry )
+  {
+    File file = new File( path );
+    long size = file.length();
+    long mtime = file.lastModified();
+    if( !file.isFile() || size != entry.size )
+      return false;
+    if( mtime == entry.mtime )
+      return true;
+
+    Integer crc = computeCrc( file );
+    if( crc == null || crc != entry.crc )
+      return false;
+
+    //  Touched or edited back: no need to hash it again next time.
+    if( file.lastModified() == mtime )
+    {
+      synchronized( this )
+      {
+        entry.mtime = mtime;
+        dirty = true;
+      }
+    }
+    return true;
+  }
+
+  @Nullable
+  private synchronized Entry getEntry( String path )
+  {
+    return getEntries().get( normalize( path ) );
+  }
+
+  //  The state of the file recorded last, hashed or not; -1 if none.
+  private synchronized byte getState( String path )
+  {
+    String normalized = normalize( path );
+    Pending recorded = pending.get( normalized );
+    if( recorded != null )
+      return recorded.state;
+    Entry entry = getEntries().get( normalized );
+    return entry != null ? entry.state : -1;
+  }
+
+  @Nullable
+  private static Integer computeCrc( File file )
+  {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[ BUFFER_SIZE ];
+    try( InputStream in = new FileInputStream( file ) )
+    {
+      for( int read; (read = in.read( buffer )) != -1; )
+        crc.update( buffer, 0, read );
+      return (int)crc.getValue();
+    }
+    catch( IOException e )
+    {
+      return null;
+    }
+  }
+
+  //---------------------------------------------------------------------------
+  //  Reading and writing the baseline file
+  //---------------------------------------------------------------------------
+
+  private synchronized Map<String, Entry> getEntries()
+  {
+    if( entries == null )
+      entries = load( getFile() );
+    return entries;
+  }
+
+  private File getFile()
+  {
+    return storage != null ? storage : new File( PathManager.getSystemPath(), BASELINE_FILE );
+  }
+
+  private static Map<String, Entry> load( File file )
+  {
+    Map<String, Entry> result = new HashMap<>();
+    if( !file.isFile() )
+      return result;
+
+    long start = System.currentTimeMillis();
+    try( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) ) )
+    {
+      if( in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION )
+      {
+        LOG.info( "Content baseline " + file + " has different format, ignored" );
+        return result;
+      }
+
+      int count = in.readInt();
+      for( int i = 0; i < count; i++ )
+      {
+        String path = in.readUTF();
+        byte state = in.readByte();
+        long size = in.readLong();
+        long mtime = in.readLong();
+        int crc = in.readInt();
+        result.put( path, new Entry( state, size, mtime, crc ) );
+      }
+      LOG.debug( "Content baseline: " + count + " files read in " + (System.currentTimeMillis() - start) + " ms" );
+    }
+    catch( IOException | RuntimeException e )
+    {
+      //  The baselines are taken anew as the files are loaded again.
+      LOG.info( "Failed to read content baseline " + file + ": " + e );
+      result.clear();
+    }
+    return result;
+  }
+
+  private boolean save()
+  {
+    File file;
+    Map<String, Entry> snapshot = new HashMap<>();
+    synchronized( this )
+    {
+      file = getFile();
+      for( Map.Entry<String, Entry> entry : entries.entrySet() )
+      {
+        Entry value = entry.getValue();
+        snapshot.put( entry.getKey(), new Entry( value.state, value.size, value.mtime, value.crc ) );
+      }
+    }
+
+    File temp = new File( file.getPath() + TEMP_EXT );
+    try
+    {
+      FileUtil.createParentDirs( temp );
+      try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ), BUFFER_SIZE ) ) )
+      {
+        out.writeInt( MAGIC );
+        out.writeInt( FORMAT_VERSION );
+        out.writeInt( snapshot.size() );
+        for( Map.Entry<String, Entry> entry : snapshot.entrySet() )
+        {
+          Entry value = entry.getValue();
+          out.writeUTF( entry.getKey() );
+          out.writeByte( value.state );
+          out.writeLong( value.size );
+          out.writeLong( value.mtime );
+          out.writeInt( value.crc );
+        }
+      }
+      Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      return true;
+    }
+    catch( IOException | RuntimeException e )
+    {
+      LOG.info( "Failed to write content baseline " + file + ": " + e );
+      return false;
+    }
+  }
+
+  private static String normalize( String path )
+  {
+    return FileUtil.toSystemIndependentName( path );
+  }
+}
@@ -48,6 +48,8 @@ public class CCaseEditFileProvider implements EditFileProvider
     final String comment = getEditComment(files, statusHelper[0]);
     if (comment == null) return;  // was cancelled
     ProgressManager.getInstance().runProcessWithProgressSynchronously(() -> {
+      //  Files which need just a checkout are checked out all at once at the end.
+      final List<VirtualFile> plain = new ArrayList<>();
       int cnt = 0;
       for( VirtualFile file : files )
       {
@@ -60,6 +62,10 @@ public class CCaseEditFileProvider implements EditFileProvider
         }
         ++ cnt;
         if(! ignoredFile) {
+          if (statusHelper[0].isPlainCheckout(file)) {
+            plain.add(file);
+            continue;
+          }
           try {
             statusHelper[0].checkOutOrHijackFile(file, errors, comment);
           }
@@ -69,6 +75,9 @@ public class CCaseEditFileProvider implements EditFileProvider
           }
         }
       }
+      if (! plain.isEmpty()) {
+        host.checkoutFiles(plain, Collections.emptySet(), comment, errors);
+      }
     }, "Checkout files", true, host.getProject());
     if( errors.size() > 0 )
     {
@@ -180,6 +189,11 @@ public class CCaseEditFileProvider implements EditFileProvider
       return myShouldHijackFiles.contains(file);
     }
 
+    public boolean isPlainCheckout(final VirtualFile file) {
+      final String oldName = myRenamedMap.get(file);
+      return !shouldHijack(file) && (oldName == null || file.getPath().equals(FileUtil.toSystemIndependentName(oldName)));
+    }
+
     public void checkOutOrHijackFile(VirtualFile file, List<VcsException> errors, String comment) throws VcsException {
       boolean toHijack = shouldHijack(file);
       try {
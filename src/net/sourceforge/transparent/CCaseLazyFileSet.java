@@ -0,0 +1,127 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of files part of which may be known only by their paths (restored
+ * from the pending changes journal at project open). A path is looked up
+ * in the VFS when its file is first asked about, and all of them at once
+ * only when the set is iterated or counted - not at the start, where most
+ * of them would never be asked about.
+ *
+ * Paths are system independent, as {@link VirtualFile#getPath} gives them;
+ * a path whose file no longer exists is dropped when resolved.
+ */
+public class CCaseLazyFileSet extends AbstractSet<VirtualFile>
+{
+  private final Set<VirtualFile> files = ConcurrentHashMap.newKeySet();
+  private final CCasePathSet unresolved;
+
+  public CCaseLazyFileSet()
+  {
+    this( new CCasePathTrie() );
+  }
+
+  public CCaseLazyFileSet( @NotNull CCasePathTrie trie )
+  {
+    unresolved = new CCasePathSet( trie );
+  }
+
+  public void addUnresolved( @NotNull Collection<String> paths )
+  {
+    unresolved.addAll( paths );
+  }
+
+  @Override
+  public boolean contains( Object o )
+  {
+    if( !(o instanceof VirtualFile) )
+      return false;
+
+    VirtualFile file = (VirtualFile)o;
+    if( files.contains( file ) )
+      return true;
+    if( unresolved.remove( file.getPath() ) )
+    {
+      files.add( file );
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean add( VirtualFile file )
+  {
+    boolean known = unresolved.remove( file.getPath() );
+    return files.add( file ) && !known;
+  }
+
+  @Override
+  public boolean remove( Object o )
+  {
+    if( !(o instanceof VirtualFile) )
+      return false;
+
+    boolean known = unresolved.remove( ((VirtualFile)o).getPath() );
+    return files.remove( o ) || known;
+  }
+
+  @Override
+  public void clear()
+  {
+    unresolved.clear();
+    files.clear();
+  }
+
+  @Override
+  public int size()
+  {
+    resolveAll();
+    return files.size();
+  }
+
+  @NotNull
+  @Override
+  public Iterator<VirtualFile> iterator()
+  {
+    resolveAll();
+    return files.iterator();
+  }
+
+  /**
+   * @return the files already resolved, without resolving the rest.
+   */
+  @NotNull
+  public List<VirtualFile> getResolvedFiles()
+  {
+    return new ArrayList<>( files );
+  }
+
+  /**
+   * @return the paths not yet resolved to files.
+   */
+  @NotNull
+  public List<String> getUnresolvedPaths()
+  {
+    return new ArrayList<>( unresolved );
+  }
+
+  private synchronized void resolveAll()
+  {
+    if( unresolved.isEmpty() )
+      return;
+
+    for( Iterator<String> it = unresolved.iterator(); it.hasNext(); )
+    {
+      VirtualFile file = VcsUtil.getVirtualFile( it.next() );
+      if( file != null )
+        files.add( file );
+      it.remove();
+    }
+  }
+}
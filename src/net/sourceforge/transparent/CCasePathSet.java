@@ -0,0 +1,265 @@
+package net.sourceforge.transparent;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Set of paths as a bitset over the ids of a {@link CCasePathTrie}, usually
+ * the one of the project ({@link TransparentVcs#getPathTrie}). Union with
+ * another set over the same trie is a bitwise "or"; the path strings are
+ * only built when the set is iterated.
+ *
+ * The set is synchronized itself (the host's sets are changed from the VFS
+ * listener and read by the change provider); as with
+ * {@link Collections#synchronizedSet}, iteration is not atomic. Readers
+ * which need a stable view take a {@link #snapshot}: an immutable copy,
+ * read without any lock.
+ */
+public class CCasePathSet extends AbstractSet<String>
+{
+  private final CCasePathTrie trie;
+  private final BitSet ids;
+  private final boolean frozen;
+  private int size;
+
+  /**
+   * Set over a trie of its own, for the paths not shared with other sets.
+   */
+  public CCasePathSet()
+  {
+    this( new CCasePathTrie() );
+  }
+
+  public CCasePathSet( @NotNull CCasePathTrie trie )
+  {
+    this( trie, new BitSet(), 0, false );
+  }
+
+  public CCasePathSet( @NotNull CCasePathTrie trie, @NotNull Collection<String> paths )
+  {
+    this( trie );
+    addAll( paths );
+  }
+
+  private CCasePathSet( CCasePathTrie trie, BitSet ids, int size, boolean frozen )
+  {
+    this.trie = trie;
+    this.ids = ids;
+    this.size = size;
+    this.frozen = frozen;
+  }
+
+  @NotNull
+  public CCasePathTrie getTrie()
+  {
+    return trie;
+  }
+
+  @Override
+  public synchronized boolean add( String path )
+  {
+    checkMutable();
+    int id = trie.intern( path );
+    if( ids.get( id ) )
+      return false;
+    ids.set( id );
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean contains( Object o )
+  {
+    if( frozen )
+      return containsPath( o );
+    synchronized( this )
+    {
+      return containsPath( o );
+    }
+  }
+
+  private boolean containsPath( Object o )
+  {
+    if( !(o instanceof String) || size == 0 )
+      return false;
+    int id = trie.find( (String)o );
+    return id != CCasePathTrie.NONE && ids.get( id );
+  }
+
+  @Override
+  public synchronized boolean remove( Object o )
+  {
+    checkMutable();
+    if( !(o instanceof String) || size == 0 )
+      return false;
+    int id = trie.find( (String)o );
+    if( id == CCasePathTrie.NONE || !ids.get( id ) )
+      return false;
+    ids.clear( id );
+    size--;
+    return true;
+  }
+
+  @Override
+  public boolean addAll( @NotNull Collection<? extends String> paths )
+  {
+    if( !(paths instanceof CCasePathSet) || ((CCasePathSet)paths).trie != trie )
+      return super.addAll( paths );
+
+    BitSet other = ((CCasePathSet)paths).getIds();
+    synchronized( this )
+    {
+      checkMutable();
+      int before = size;
+      ids.or( other );
+      size = ids.cardinality();
+      return size != before;
+    }
+  }
+
+  @Override
+  public int size()
+  {
+    if( frozen )
+      return size;
+    synchronized( this )
+    {
+      return size;
+    }
+  }
+
+  @Override
+  public synchronized void clear()
+  {
+    checkMutable();
+    ids.clear();
+    size = 0;
+  }
+
+  /**
+   * Remove the folder and everything under it (by whole path segments).
+   * @return number of the paths removed.
+   */
+  public synchronized int removeUnder( @NotNull String folder )
+  {
+    checkMutable();
+    int folderId = trie.find( folder );
+    if( folderId == CCasePathTrie.NONE || size == 0 )
+      return 0;
+
+    int removed = 0;
+    for( int id = ids.nextSetBit( 0 ); id >= 0; id = ids.nextSetBit( id + 1 ) )
+    {
+      if( trie.isUnder( id, folderId ) )
+      {
+        ids.clear( id );
+        removed++;
+      }
+    }
+    size -= removed;
+    return removed;
+  }
+
+  /**
+   * @return immutable copy of the set as it is now.
+   */
+  @NotNull
+  public synchronized CCasePathSet snapshot()
+  {
+    return frozen ? this : new CCasePathSet( trie, (BitSet)ids.clone(), size, true );
+  }
+
+  /**
+   * @return immutable set of the paths of this set which are not in the other.
+   */
+  @NotNull
+  public CCasePathSet minus( @NotNull CCasePathSet other )
+  {
+    BitSet result;
+    synchronized( this )
+    {
+      result = (BitSet)ids.clone();
+    }
+    if( other.trie == trie )
+    {
+      result.andNot( other.getIds() );
+    }
+    else
+    {
+      for( int id = result.nextSetBit( 0 ); id >= 0; id = result.nextSetBit( id + 1 ) )
+      {
+        if( other.contains( trie.getPath( id ) ) )
+          result.clear( id );
+      }
+    }
+    return new CCasePathSet( trie, result, result.cardinality(), true );
+  }
+
+  private BitSet getIds()
+  {
+    if( frozen )
+      return ids;
+    synchronized( this )
+    {
+      return (BitSet)ids.clone();
+    }
+  }
+
+  private void checkMutable()
+  {
+    if( frozen )
+      throw new UnsupportedOperationException( "Snapshot of a path set is immutable" );
+  }
+
+  @NotNull
+  @Override
+  public Iterator<String> iterator()
+  {
+    return new Iterator<String>()
+    {
+      private int next = nextId( 0 );
+      private int last = -1;
+
+      public boolean hasNext()
+      {
+        return next >= 0;
+      }
+
+      public String next()
+      {
+        if( next < 0 )
+          throw new NoSuchElementException();
+        last = next;
+        next = nextId( next + 1 );
+        return trie.getPath( last );
+      }
+
+      public void remove()
+      {
+        if( last < 0 )
+          throw new IllegalStateException();
+        synchronized( CCasePathSet.this )
+        {
+          checkMutable();
+          if( ids.get( last ) )
+          {
+            ids.clear( last );
+            size--;
+          }
+        }
+        last = -1;
+      }
+    };
+  }
+
+  private int nextId( int from )
+  {
+    if( frozen )
+      return ids.nextSetBit( from );
+    synchronized( this )
+    {
+      return ids.nextSetBit( from );
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package net.sourceforge.transparent;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Paths known to the plugin, stored once: a trie of interned path segments
+ * ('/'-separated) whose nodes are plain int ids. The path sets of the
+ * change provider, the writable files collector and the VCS host
+ * ({@link CCasePathSet}) are bitsets over these ids, so a path met by all
+ * of them costs a few ints per set instead of a String and a hash entry
+ * each, and "is it under that folder" is a walk up an int array.
+ *
+ * Any string round-trips: splitting on '/' keeps the empty segments of a
+ * leading or doubled slash, backslashes stay inside the segments. Nodes are
+ * never removed, the trie goes as a whole: every project keeps its own
+ * ({@link TransparentVcs#getPathTrie}), so its nodes are bounded by the
+ * distinct paths met in the project's views and are freed with it.
+ *
+ * Only adding a path takes the lock. Readers take none: they see the
+ * arrays of one {@link Nodes} and only the nodes published by
+ * {@link #nodeCount} before they started, so a path being added
+ * concurrently may not be found yet, but a node found is always complete.
+ */
+public class CCasePathTrie
+{
+  public static final int NONE = -1;
+
+  //  Node 0 is the root, the parent of the first segments; no path has it.
+  private static final int ROOT = 0;
+  private static final int INITIAL_NODES = 1024;
+
+  private static class Nodes
+  {
+    final String[] segments;
+    final int[] parents;
+    final int[] segmentOf;
+    //  Children by (parent, segment): open addressing, a zero value is a
+    //  free slot (the root is nobody's child).
+    final long[] childKeys;
+    final int[] childIds;
+
+    Nodes( String[] segments, int[] parents, int[] segmentOf, long[] childKeys, int[] childIds )
+    {
+      this.segments = segments;
+      this.parents = parents;
+      this.segmentOf = segmentOf;
+      this.childKeys = childKeys;
+      this.childIds = childIds;
+    }
+  }
+
+  private final Map<String, Integer> segmentIds = new ConcurrentHashMap<>();
+  //  Written under the lock; replaced (never changed in place) when an
+  //  array has to grow, before the node which needs it is published.
+  private volatile Nodes nodes = new Nodes( new String[ INITIAL_NODES ], new int[ INITIAL_NODES ], new int[ INITIAL_NODES ],
+                                            new long[ INITIAL_NODES * 2 ], new int[ INITIAL_NODES * 2 ] );
+  private int segmentCount;
+  //  Nodes below are complete and may be read without the lock.
+  private volatile int nodeCount = 1;
+
+  /**
+   * @return id of the path, added if it is new.
+   */
+  public int intern( @NotNull String path )
+  {
+    int id = find( path );
+    return id != NONE ? id : add( path );
+  }
+
+  private synchronized int add( String path )
+  {
+    int node = ROOT;
+    int start = 0;
+    while( true )
+    {
+      int slash = path.indexOf( '/', start );
+      String segment = slash == -1 ? path.substring( start ) : path.substring( start, slash );
+      node = getOrAddChild( node, internSegment( segment ) );
+      if( slash == -1 )
+        return node;
+      start = slash + 1;
+    }
+  }
+
+  /**
+   * @return id of the path, {@link #NONE} if it was never added.
+   */
+  public int find( @NotNull String path )
+  {
+    int limit = nodeCount;
+    Nodes current = nodes;
+    int node = ROOT;
+    int start = 0;
+    while( true )
+    {
+      int slash = path.indexOf( '/', start );
+      Integer segment = segmentIds.get( slash == -1 ? path.substring( start ) : path.substring( start, slash ) );
+      if( segment == null )
+        return NONE;
+      node = findChild( current, limit, node, segment );
+      if( node == NONE || slash == -1 )
+        return node;
+      start = slash + 1;
+    }
+  }
+
+  @NotNull
+  public String getPath( int id )
+  {
+    Nodes current = nodes;
+    int depth = 0;
+    int length = -1;
+    for( int node = id; node != ROOT; node = current.parents[ node ] )
+    {
+      depth++;
+      length += current.segments[ current.segmentOf[ node ] ].length() + 1;
+    }
+
+    int[] chain = new int[ depth ];
+    for( int node = id, i = depth - 1; node != ROOT; node = current.parents[ node ], i-- )
+      chain[ i ] = node;
+
+    StringBuilder buf = new StringBuilder( Math.max( 0, length ) );
+    for( int i = 0; i < depth; i++ )
+    {
+      if( i > 0 )
+        buf.append( '/' );
+      buf.append( current.segments[ current.segmentOf[ chain[ i ] ] ] );
+    }
+    return buf.toString();
+  }
+
+  /**
+   * @return id of the longest leading part of the path (by whole segments)
+   *         which was ever added, {@link #NONE} if not even the first one.
+   */
+  public int findLongestPrefix( @NotNull String path )
+  {
+    int limit = nodeCount;
+    Nodes current = nodes;
+    int node = ROOT;
+    int start = 0;
+    while( true )
+    {
+      int slash = path.indexOf( '/', start );
+      Integer segment = segmentIds.get( slash == -1 ? path.substring( start ) : path.substring( start, slash ) );
+      int child = segment == null ? NONE : findChild( current, limit, node, segment );
+      if( child == NONE )
+        return node == ROOT ? NONE : node;
+      node = child;
+      if( slash == -1 )
+        return node;
+      start = slash + 1;
+    }
+  }
+
+  /**
+   * @return id of the parent path, {@link #NONE} for a path of one segment.
+   */
+  public int getParent( int id )
+  {
+    int parent = nodes.parents[ id ];
+    return parent == ROOT ? NONE : parent;
+  }
+
+  /**
+   * @return true if the node is the ancestor itself or lies under it.
+   */
+  public boolean isUnder( int id, int ancestor )
+  {
+    int[] parents = nodes.parents;
+    for( int node = id; node != ROOT; node = parents[ node ] )
+    {
+      if( node == ancestor )
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return number of the paths (and their leading parts) added so far.
+   */
+  public int size()
+  {
+    return nodeCount - 1;
+  }
+
+  //  A child slot may be seen filled before the node is published: such a
+  //  child is not there yet.
+  private static int findChild( Nodes current, int limit, int parent, int segment )
+  {
+    long key = toKey( parent, segment );
+    long[] keys = current.childKeys;
+    int[] ids = current.childIds;
+    int mask = keys.length - 1;
+    for( int slot = hash( key ) & mask; ids[ slot ] != 0; slot = (slot + 1) & mask )
+    {
+      if( keys[ slot ] == key )
+        return ids[ slot ] < limit ? ids[ slot ] : NONE;
+    }
+    return NONE;
+  }
+
+  //---------------------------------------------------------------------------
+  //  Under the lock
+  //---------------------------------------------------------------------------
+
+  private int internSegment( String segment )
+  {
+    Integer id = segmentIds.get( segment );
+    if( id != null )
+      return id;
+
+    Nodes current = nodes;
+    if( segmentCount == current.segments.length )
+      nodes = current = new Nodes( Arrays.copyOf( current.segments, segmentCount * 2 ), current.parents, current.segmentOf,
+                                   current.childKeys, current.childIds );
+    current.segments[ segmentCount ] = segment;
+    segmentIds.put( segment, segmentCount );
+    return segmentCount++;
+  }
+
+  private int getOrAddChild( int parent, int segment )
+  {
+    int count = nodeCount;
+    int child = findChild( nodes, count, parent, segment );
+    if( child != NONE )
+      return child;
+
+    Nodes current = nodes;
+    if( count == current.parents.length )
+      nodes = current = new Nodes( current.segments, Arrays.copyOf( current.parents, count * 2 ),
+                                   Arrays.copyOf( current.segmentOf, count * 2 ), current.childKeys, current.childIds );
+    //  Keep the table at most half full.
+    if( (count + 1) * 2 > current.childKeys.length )
+      nodes = current = rehash( current, current.childKeys.length * 2 );
+
+    child = count;
+    current.parents[ child ] = parent;
+    current.segmentOf[ child ] = segment;
+    putChild( current, toKey( parent, segment ), child );
+    nodeCount = count + 1;
+    return child;
+  }
+
+  private static void putChild( Nodes current, long key, int child )
+  {
+    int mask = current.childKeys.length - 1;
+    int slot = hash( key ) & mask;
+    while( current.childIds[ slot ] != 0 )
+      slot = (slot + 1) & mask;
+    current.childKeys[ slot ] = key;
+    current.childIds[ slot ] = child;
+  }
+
+  private static Nodes rehash( Nodes current, int capacity )
+  {
+    Nodes result = new Nodes( current.segments, current.parents, current.segmentOf, new long[ capacity ], new int[ capacity ] );
+    for( int i = 0; i < current.childKeys.length; i++ )
+    {
+      if( current.childIds[ i ] != 0 )
+        putChild( result, current.childKeys[ i ], current.childIds[ i ] );
+    }
+    return result;
+  }
+
+  private static long toKey( int parent, int segment )
+  {
+    return ((long)parent << 32) | (segment & 0xFFFFFFFFL);
+  }
+
+  private static int hash( long key )
+  {
+    key *= 0x9E3779B97F4A7C15L;
+    return (int)(key ^ (key >>> 32));
+  }
+}
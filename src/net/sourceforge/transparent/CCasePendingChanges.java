@@ -0,0 +1,48 @@
+package net.sourceforge.transparent;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable snapshot of the pending changes the host keeps between the
+ * refreshes (removed, deleted and renamed files and folders), taken once per
+ * change provider pass or checkin so that a long reader sees one consistent
+ * state and never blocks the VFS listener, which keeps changing the live
+ * collections meanwhile.
+ *
+ * All the collections are copied together under the lock the host takes for
+ * every update ({@link TransparentVcs#updatePendingChanges}), so an event
+ * which changes several of them is seen either whole or not at all. The
+ * snapshot is published by the host and shared until the next update; its
+ * collections are frozen and are read without any lock.
+ */
+public class CCasePendingChanges
+{
+  public final CCasePathSet removedFiles;
+  public final CCasePathSet removedFolders;
+  public final CCasePathSet deletedFiles;
+  public final CCasePathSet deletedFolders;
+  // newName -> oldName
+  public final CCaseRenameMap renamedFiles;
+  public final CCaseRenameMap renamedFolders;
+
+  //  Under the lock of the host's pending changes.
+  CCasePendingChanges( @NotNull TransparentVcs host )
+  {
+    removedFiles = host.removedFiles.snapshot();
+    removedFolders = host.removedFolders.snapshot();
+    deletedFiles = host.deletedFiles.snapshot();
+    deletedFolders = host.deletedFolders.snapshot();
+    renamedFiles = host.renamedFiles.snapshot();
+    renamedFolders = host.renamedFolders.snapshot();
+  }
+
+  public String discoverOldName( @NotNull String file )
+  {
+    return TransparentVcs.discoverOldName( renamedFiles, renamedFolders, file );
+  }
+
+  public String discoverNewName( @NotNull String oldName )
+  {
+    return TransparentVcs.discoverNewName( renamedFiles, renamedFolders, oldName );
+  }
+}
@@ -0,0 +1,356 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Pending changes of the project (new, modified, removed, deleted and
+ * renamed files and folders, checked out folders) kept between the IDE
+ * sessions in an append-only journal instead of the workspace file: a save
+ * appends only what changed since the previous one, and the journal is
+ * rewritten with just the current state once most of its records are
+ * obsolete.
+ *
+ * The journal is one file per project in the IDE system folder. Format (big
+ * endian): int magic, int format version, then the records: byte type,
+ * byte kind (the ordinal of {@link Kind}), path (modified UTF-8) and, when a
+ * rename is added, its old name. Records of one save end with a COMMIT
+ * record; an unfinished batch at the end of the file (the IDE died while
+ * saving) is ignored and the journal rewritten on the next save.
+ */
+public class CCasePendingJournal
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CCasePendingJournal");
+
+  private static final int MAGIC = 0x4343504A;   //  "CCPJ"
+  private static final int FORMAT_VERSION = 1;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  //  Stored, do not renumber.
+  private static final byte ADD = 1;
+  private static final byte REMOVE = 2;
+  private static final byte COMMIT = 3;
+
+  //  Below this many records the journal is never rewritten.
+  private static final int MIN_RECORDS_TO_COMPACT = 4096;
+
+  @NonNls private static final String JOURNAL_FOLDER = "clearcase" + File.separator + "pending-changes";
+  @NonNls private static final String JOURNAL_EXT = ".journal";
+  @NonNls private static final String TEMP_EXT = ".tmp";
+
+  /**
+   * Collections kept in the journal; stored by ordinal, add new ones at the
+   * end only.
+   */
+  public enum Kind
+  {
+    REMOVED_FILES, REMOVED_FOLDERS, DELETED_FILES, DELETED_FOLDERS, NEW_FILES, MODIFIED_FILES,
+    CHECKED_OUT_FOLDERS, RENAMED_FILES, RENAMED_FOLDERS;
+
+    public boolean isRename()  {  return this == RENAMED_FILES || this == RENAMED_FOLDERS;  }
+  }
+
+  private static class Record
+  {
+    final byte type;
+    final Kind kind;
+    final String path;
+    final String oldName;
+
+    Record( byte type, Kind kind, String path, String oldName )
+    {
+      this.type = type;
+      this.kind = kind;
+      this.path = path;
+      this.oldName = oldName;
+    }
+  }
+
+  private final File file;
+  private final CCasePathTrie trie;
+
+  //  The state the journal holds, as of the last load or save.
+  private final Map<Kind, CCasePathSet> paths = new EnumMap<>( Kind.class );
+  private final Map<Kind, Map<String, String>> renames = new EnumMap<>( Kind.class );
+  private int records;
+  //  The file does not end with a complete batch, or does not hold the
+  //  state above at all: it must be rewritten rather than appended to.
+  private boolean rewrite = true;
+
+  public CCasePendingJournal( @NotNull File file )
+  {
+    this( file, new CCasePathTrie() );
+  }
+
+  /**
+   * @param trie the trie of the sets to be saved, so that the state held is
+   *             compared with them without building the paths.
+   */
+  public CCasePendingJournal( @NotNull File file, @NotNull CCasePathTrie trie )
+  {
+    this.file = file;
+    this.trie = trie;
+    clearState();
+  }
+
+  @NotNull
+  public static File getDefaultFile( @NotNull Project project )
+  {
+    return new File( new File( PathManager.getSystemPath(), JOURNAL_FOLDER ), project.getLocationHash() + JOURNAL_EXT );
+  }
+
+  /**
+   * Replay the journal. A missing or unreadable journal is an empty one.
+   */
+  public synchronized void load()
+  {
+    clearState();
+    rewrite = true;
+    if( !file.isFile() )
+      return;
+
+    long start = System.currentTimeMillis();
+    List<Record> batch = new ArrayList<>();
+    Kind[] kinds = Kind.values();
+    try( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) ) )
+    {
+      if( in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION )
+      {
+        LOG.info( "Pending changes journal " + file + " has different format, ignored" );
+        return;
+      }
+
+      while( true )
+      {
+        int type = in.read();
+        if( type == -1 )
+          break;
+        if( type == COMMIT )
+        {
+          for( Record record : batch )
+            apply( record );
+          records += batch.size();
+          batch.clear();
+          continue;
+        }
+
+        int kind = in.readUnsignedByte();
+        if( (type != ADD && type != REMOVE) || kind >= kinds.length )
+          throw new IOException( "Unknown record " + type + ", kind " + kind );
+        String path = in.readUTF();
+        String oldName = type == ADD && kinds[ kind ].isRename() ? in.readUTF() : null;
+        batch.add( new Record( (byte)type, kinds[ kind ], path, oldName ) );
+      }
+      rewrite = !batch.isEmpty();
+      LOG.debug( "Pending changes journal: " + records + " records read in " + (System.currentTimeMillis() - start) + " ms" );
+    }
+    catch( EOFException e )
+    {
+      LOG.info( "Pending changes journal " + file + " ends with an unfinished save, it is ignored" );
+    }
+    catch( IOException | RuntimeException e )
+    {
+      //  Whatever was read in complete batches is kept.
+      LOG.info( "Failed to read pending changes journal " + file + ": " + e );
+    }
+  }
+
+  /**
+   * Forget the journal: its content is superseded (by the workspace of an
+   * older version of the plugin), the next save rewrites it.
+   */
+  public synchronized void discard()
+  {
+    clearState();
+    rewrite = true;
+  }
+
+  /**
+   * @return the paths the journal holds for the kind (not a rename).
+   */
+  @NotNull
+  public synchronized Set<String> getPaths( @NotNull Kind kind )
+  {
+    return paths.get( kind );
+  }
+
+  /**
+   * @return the renames the journal holds for the kind, new name -> old name.
+   */
+  @NotNull
+  public synchronized Map<String, String> getRenames( @NotNull Kind kind )
+  {
+    return Collections.unmodifiableMap( renames.get( kind ) );
+  }
+
+  /**
+   * Bring the journal up to the given state: append the differences, or
+   * rewrite it if that is shorter.
+   *
+   * @param currentPaths   all the path kinds (snapshots, not changed later).
+   * @param currentRenames both rename kinds.
+   * @return false if the journal could not be written; it is rewritten
+   *         on the next save.
+   */
+  public synchronized boolean save( @NotNull Map<Kind, CCasePathSet> currentPaths,
+                                    @NotNull Map<Kind, Map<String, String>> currentRenames )
+  {
+    List<Record> batch = new ArrayList<>();
+    for( Map.Entry<Kind, CCasePathSet> entry : currentPaths.entrySet() )
+    {
+      Kind kind = entry.getKey();
+      CCasePathSet persisted = paths.get( kind );
+      for( String path : entry.getValue().minus( persisted ) )
+        batch.add( new Record( ADD, kind, path, null ) );
+      for( String path : persisted.minus( entry.getValue() ) )
+        batch.add( new Record( REMOVE, kind, path, null ) );
+    }
+    for( Map.Entry<Kind, Map<String, String>> entry : currentRenames.entrySet() )
+    {
+      Kind kind = entry.getKey();
+      Map<String, String> persisted = renames.get( kind );
+      Map<String, String> current = entry.getValue();
+      for( Map.Entry<String, String> rename : current.entrySet() )
+      {
+        if( !rename.getValue().equals( persisted.get( rename.getKey() ) ) )
+          batch.add( new Record( ADD, kind, rename.getKey(), rename.getValue() ) );
+      }
+      for( String newName : persisted.keySet() )
+      {
+        if( !current.containsKey( newName ) )
+          batch.add( new Record( REMOVE, kind, newName, null ) );
+      }
+    }
+    if( batch.isEmpty() && !rewrite )
+      return true;
+
+    for( Map.Entry<Kind, CCasePathSet> entry : currentPaths.entrySet() )
+      paths.put( entry.getKey(), entry.getValue().snapshot() );
+    for( Map.Entry<Kind, Map<String, String>> entry : currentRenames.entrySet() )
+      renames.put( entry.getKey(), new HashMap<>( entry.getValue() ) );
+
+    //  Rewrite once most of the records are obsolete.
+    int live = countEntries();
+    if( rewrite || !file.isFile() ||
+        (records + batch.size() > MIN_RECORDS_TO_COMPACT && records + batch.size() > 2 * live) )
+      return compact( live );
+    return append( batch );
+  }
+
+  //---------------------------------------------------------------------------
+  //  Under the lock
+  //---------------------------------------------------------------------------
+
+  private boolean append( List<Record> batch )
+  {
+    try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ), BUFFER_SIZE ) ) )
+    {
+      for( Record record : batch )
+        writeRecord( out, record );
+      out.writeByte( COMMIT );
+      records += batch.size();
+      return true;
+    }
+    catch( IOException e )
+    {
+      LOG.info( "Failed to append to pending changes journal " + file + ": " + e );
+      rewrite = true;
+      return false;
+    }
+  }
+
+  private boolean compact( int live )
+  {
+    File temp = new File( file.getPath() + TEMP_EXT );
+    try
+    {
+      FileUtil.createParentDirs( temp );
+      try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ), BUFFER_SIZE ) ) )
+      {
+        out.writeInt( MAGIC );
+        out.writeInt( FORMAT_VERSION );
+        for( Map.Entry<Kind, CCasePathSet> entry : paths.entrySet() )
+        {
+          for( String path : entry.getValue() )
+            writeRecord( out, new Record( ADD, entry.getKey(), path, null ) );
+        }
+        for( Map.Entry<Kind, Map<String, String>> entry : renames.entrySet() )
+        {
+          for( Map.Entry<String, String> rename : entry.getValue().entrySet() )
+            writeRecord( out, new Record( ADD, entry.getKey(), rename.getKey(), rename.getValue() ) );
+        }
+        out.writeByte( COMMIT );
+      }
+      Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      records = live;
+      rewrite = false;
+      return true;
+    }
+    catch( IOException | RuntimeException e )
+    {
+      LOG.info( "Failed to write pending changes journal " + file + ": " + e );
+      rewrite = true;
+      return false;
+    }
+  }
+
+  private static void writeRecord( DataOutputStream out, Record record ) throws IOException
+  {
+    out.writeByte( record.type );
+    out.writeByte( record.kind.ordinal() );
+    out.writeUTF( record.path );
+    if( record.oldName != null )
+      out.writeUTF( record.oldName );
+  }
+
+  private void apply( Record record )
+  {
+    if( record.kind.isRename() )
+    {
+      Map<String, String> map = renames.get( record.kind );
+      if( record.type == ADD )
+        map.put( record.path, record.oldName );
+      else
+        map.remove( record.path );
+    }
+    else
+    {
+      CCasePathSet set = paths.get( record.kind );
+      if( record.type == ADD )
+        set.add( record.path );
+      else
+        set.remove( record.path );
+    }
+  }
+
+  private int countEntries()
+  {
+    int count = 0;
+    for( CCasePathSet set : paths.values() )
+      count += set.size();
+    for( Map<String, String> map : renames.values() )
+      count += map.size();
+    return count;
+  }
+
+  private void clearState()
+  {
+    records = 0;
+    for( Kind kind : Kind.values() )
+    {
+      if( kind.isRename() )
+        renames.put( kind, new HashMap<>() );
+      else
+        paths.put( kind, new CCasePathSet( trie ) );
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package net.sourceforge.transparent;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renamed files or folders, new name -> old name, indexed both ways: the
+ * old names in a reverse map, and both names by their node in a
+ * {@link CCasePathTrie} (the project's one, shared with its path sets), so
+ * that "which renamed folder is this path under" is a walk up the path (its
+ * depth) rather than a scan of all the renames.
+ * Prefixes are matched by whole path segments.
+ *
+ * Reads take no lock: the maps are concurrent, and writers (the VFS
+ * listener, checkin and rollback) serialize on the map so that the indices
+ * agree with each other after every change. The entry set (and so the key
+ * set and the values) iterates over a copy and supports removal. A reader
+ * which needs all the renames as of one moment takes a {@link #snapshot}.
+ */
+public class CCaseRenameMap extends AbstractMap<String, String>
+{
+  private final CCasePathTrie trie;
+  private final Map<String, String> forward;
+  private final Map<String, String> reverse;
+  //  Trie node of the new (old) name -> the new name.
+  private final Map<Integer, String> newNodes;
+  private final Map<Integer, String> oldNodes;
+  private final boolean frozen;
+
+  public CCaseRenameMap()
+  {
+    this( new CCasePathTrie() );
+  }
+
+  public CCaseRenameMap( @NotNull CCasePathTrie trie )
+  {
+    this.trie = trie;
+    forward = new ConcurrentHashMap<>();
+    reverse = new ConcurrentHashMap<>();
+    newNodes = new ConcurrentHashMap<>();
+    oldNodes = new ConcurrentHashMap<>();
+    frozen = false;
+  }
+
+  //  Under the lock of the original.
+  private CCaseRenameMap( CCaseRenameMap original )
+  {
+    trie = original.trie;
+    forward = new HashMap<>( original.forward );
+    reverse = new HashMap<>( original.reverse );
+    newNodes = new HashMap<>( original.newNodes );
+    oldNodes = new HashMap<>( original.oldNodes );
+    frozen = true;
+  }
+
+  /**
+   * @return immutable copy of the renames as they are now.
+   */
+  @NotNull
+  public synchronized CCaseRenameMap snapshot()
+  {
+    return frozen ? this : new CCaseRenameMap( this );
+  }
+
+  @Override
+  public synchronized String put( String newName, String oldName )
+  {
+    checkMutable();
+    String previous = remove( newName );
+    forward.put( newName, oldName );
+    reverse.put( oldName, newName );
+    newNodes.put( trie.intern( newName ), newName );
+    oldNodes.put( trie.intern( oldName ), newName );
+    return previous;
+  }
+
+  @Override
+  public String get( Object newName )
+  {
+    return newName == null ? null : forward.get( newName );
+  }
+
+  @Override
+  public boolean containsKey( Object newName )
+  {
+    return newName != null && forward.containsKey( newName );
+  }
+
+  @Override
+  public boolean containsValue( Object oldName )
+  {
+    return oldName != null && reverse.containsKey( oldName );
+  }
+
+  @Override
+  public synchronized String remove( Object newName )
+  {
+    checkMutable();
+    if( !(newName instanceof String) )
+      return null;
+    String oldName = forward.remove( newName );
+    if( oldName == null )
+      return null;
+
+    newNodes.remove( trie.find( (String)newName ) );
+    if( newName.equals( reverse.get( oldName ) ) )
+    {
+      reverse.remove( oldName );
+      oldNodes.remove( trie.find( oldName ) );
+    }
+    return oldName;
+  }
+
+  @Override
+  public synchronized void clear()
+  {
+    checkMutable();
+    forward.clear();
+    reverse.clear();
+    newNodes.clear();
+    oldNodes.clear();
+  }
+
+  @Override
+  public int size()
+  {
+    return forward.size();
+  }
+
+  /**
+   * @return the new name of the file or folder renamed from the given name.
+   */
+  @Nullable
+  public String getNewName( @NotNull String oldName )
+  {
+    return reverse.get( oldName );
+  }
+
+  /**
+   * @return the new name of the innermost renamed folder the path is (or
+   *         is under), null if none.
+   */
+  @Nullable
+  public String findRenamedAncestor( @NotNull String path )
+  {
+    return findAncestor( newNodes, path );
+  }
+
+  /**
+   * @return the new names of all the renamed folders the path is (or is
+   *         under), the innermost first.
+   */
+  @NotNull
+  public List<String> findRenamedAncestors( @NotNull String path )
+  {
+    if( newNodes.isEmpty() )
+      return Collections.emptyList();
+
+    List<String> result = new ArrayList<>();
+    for( int node = trie.findLongestPrefix( path ); node != CCasePathTrie.NONE; node = trie.getParent( node ) )
+    {
+      String newName = newNodes.get( node );
+      if( newName != null )
+        result.add( newName );
+    }
+    return result;
+  }
+
+  /**
+   * @return the new name of the innermost folder whose old name the path
+   *         is (or is under), null if none.
+   */
+  @Nullable
+  public String findAncestorRenamedFrom( @NotNull String oldPath )
+  {
+    return findAncestor( oldNodes, oldPath );
+  }
+
+  @Nullable
+  private String findAncestor( Map<Integer, String> nodes, String path )
+  {
+    if( nodes.isEmpty() )
+      return null;
+
+    for( int node = trie.findLongestPrefix( path ); node != CCasePathTrie.NONE; node = trie.getParent( node ) )
+    {
+      String newName = nodes.get( node );
+      if( newName != null )
+        return newName;
+    }
+    return null;
+  }
+
+  @NotNull
+  @Override
+  public Set<Entry<String, String>> entrySet()
+  {
+    return new AbstractSet<Entry<String, String>>()
+    {
+      @NotNull
+      @Override
+      public Iterator<Entry<String, String>> iterator()
+      {
+        final Iterator<Entry<String, String>> copy = copyEntries().iterator();
+        return new Iterator<Entry<String, String>>()
+        {
+          private Entry<String, String> last;
+
+          public boolean hasNext()  {  return copy.hasNext();  }
+
+          public Entry<String, String> next()
+          {
+            last = copy.next();
+            return last;
+          }
+
+          public void remove()
+          {
+            if( last == null )
+              throw new IllegalStateException();
+            CCaseRenameMap.this.remove( last.getKey() );
+            last = null;
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return CCaseRenameMap.this.size();
+      }
+    };
+  }
+
+  private void checkMutable()
+  {
+    if( frozen )
+      throw new UnsupportedOperationException( "Snapshot of the renames is immutable" );
+  }
+
+  private List<Entry<String, String>> copyEntries()
+  {
+    List<Entry<String, String>> result = new ArrayList<>( forward.size() );
+    for( Entry<String, String> entry : forward.entrySet() )
+      result.add( new SimpleImmutableEntry<>( entry ) );
+    return result;
+  }
+}
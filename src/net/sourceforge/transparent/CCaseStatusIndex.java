@@ -0,0 +1,642 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last known ClearCase status of the interesting elements of every content
+ * root (writable files and folders), kept on disk between the IDE sessions
+ * so that the first refresh after a restart does not have to rediscover
+ * everything with "cleartool ls".
+ *
+ * Per element the index holds the status, the loaded version (if known),
+ * and the size, mtime and read-only flag the file had when the status was
+ * computed. An entry of a file is served only while the file still has the
+ * same size, mtime and RO flag - checkout, checkin, hijack and update all
+ * change at least one of them; the mutating commands run from the IDE drop
+ * the entries of their arguments explicitly (see {@link #commandExecuted}).
+ * A folder keeps its mtime when it is checked out or in elsewhere, so its
+ * entry is served only for a limited time after it was recorded. Elements
+ * deleted locally are kept as missing until they reappear, so that the
+ * incremental refresh can still report them as "locally deleted".
+ *
+ * There is one index file per root in the IDE system folder. It is read
+ * lazily: registering a root starts loading in background, the first lookup
+ * waits for it. The entries are sorted by path, so that the entries under a
+ * folder are a range.
+ *
+ * Format (big endian): int magic, int format version, root path, int count,
+ * then per entry: relative path, byte status, byte flags, long size,
+ * long mtime (for a folder or a missing element the time it was recorded),
+ * version. Strings are in modified UTF-8.
+ */
+public class CCaseStatusIndex
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CCaseStatusIndex");
+
+  private static final int MAGIC = 0x43435349;   //  "CCSI"
+  private static final int FORMAT_VERSION = 2;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  //  writeUTF takes at most 64K bytes, i.e. a third of that in chars.
+  private static final int MAX_STRING_CHARS = 0xFFFF / 3;
+  public static final long DEFAULT_FOLDER_TTL = TimeUnit.HOURS.toMillis( 1 );
+
+  private static final byte FLAG_READ_ONLY = 1;
+  private static final byte FLAG_DIRECTORY = 2;
+  private static final byte FLAG_MISSING = 4;
+
+  //  Stored as the index in this array, do not reorder.
+  private static final Status[] STATUSES = { Status.CHECKED_IN, Status.CHECKED_OUT, Status.HIJACKED, Status.NOT_AN_ELEMENT };
+
+  @NonNls private static final String INDEX_FOLDER = "clearcase" + File.separator + "status-index";
+  @NonNls private static final String INDEX_EXT = ".idx";
+  @NonNls private static final String TEMP_EXT = ".tmp";
+
+  private static final CCaseStatusIndex ourInstance = new CCaseStatusIndex();
+
+  public static class Entry
+  {
+    public final Status  status;
+    @Nullable
+    public final String  version;
+    public final long    size;
+    public final long    mtime;
+    public final boolean readOnly;
+    public final boolean directory;
+    public final boolean missing;
+
+    Entry( Status status, @Nullable String version, long size, long mtime, boolean readOnly, boolean directory,
+           boolean missing )
+    {
+      this.status = status;
+      this.version = version;
+      this.size = size;
+      this.mtime = mtime;
+      this.readOnly = readOnly;
+      this.directory = directory;
+      this.missing = missing;
+    }
+
+    /**
+     * Folders do not change their status with their content and expire,
+     * files are compared by size, mtime and RO flag. A missing element
+     * stays so until it is restored.
+     */
+    boolean matches( File file, long folderTtl )
+    {
+      if( missing )
+        return !file.exists();
+      if( directory )
+        return System.currentTimeMillis() - mtime < folderTtl && file.isDirectory();
+      return file.isFile() && file.length() == size && file.lastModified() == mtime && file.canWrite() != readOnly;
+    }
+  }
+
+  private static class RootIndex
+  {
+    final String root;
+    final File file;
+    TreeMap<String, Entry> entries;     //  null until loaded
+    //  Paths invalidated before the entries were loaded, applied on load.
+    final List<String> invalidated = new ArrayList<>();
+    boolean dirty;
+    //  Held while the entries are read or written, not while they are used.
+    final Object ioLock = new Object();
+
+    RootIndex( String root, File file )
+    {
+      this.root = root;
+      this.file = file;
+    }
+  }
+
+  //  Sorted, so that a nested root comes after its parent.
+  private final TreeMap<String, RootIndex> roots = new TreeMap<>();
+  private volatile boolean enabled = true;
+  private volatile long folderTtl = DEFAULT_FOLDER_TTL;
+  private volatile File storage;
+
+  public static CCaseStatusIndex getInstance() {  return ourInstance;  }
+
+  public void setEnabled( boolean value )
+  {
+    enabled = value;
+  }
+
+  public boolean isEnabled()  {  return enabled;  }
+
+  /**
+   * Folder for the index files, the IDE system folder by default.
+   */
+  public void setStorage( @Nullable File folder )
+  {
+    storage = folder;
+  }
+
+  /**
+   * @param millis how long the recorded status of a folder is served.
+   */
+  public void setFolderTimeToLive( long millis )
+  {
+    folderTtl = Math.max( 0, millis );
+  }
+
+  /**
+   * Makes the index of the root available and starts reading it from disk.
+   */
+  public void registerRoot( @NotNull String root )
+  {
+    if( !enabled )
+      return;
+
+    final RootIndex index;
+    synchronized( this )
+    {
+      String normalized = normalize( root );
+      if( roots.containsKey( normalized ) )
+        return;
+      index = new RootIndex( normalized, getIndexFile( normalized ) );
+      roots.put( normalized, index );
+    }
+    AppExecutorUtil.getAppExecutorService().execute( () -> ensureLoaded( index ) );
+  }
+
+  public void unregisterRoot( @NotNull String root )
+  {
+    RootIndex index;
+    synchronized( this )
+    {
+      index = roots.remove( normalize( root ) );
+    }
+    if( index != null )
+      save( index );
+  }
+
+  /**
+   * @return the entry of the path if the file did not change since its
+   *         status was recorded, null otherwise.
+   */
+  @Nullable
+  public Entry getValid( @NotNull String path )
+  {
+    RootIndex index = findRoot( path );
+    if( index == null )
+      return null;
+
+    String normalized = normalize( path );
+    ensureLoaded( index );
+    Entry entry;
+    synchronized( index )
+    {
+      entry = index.entries.get( normalized );
+    }
+    if( entry == null || entry.matches( new File( normalized ), folderTtl ) )
+      return entry;
+
+    synchronized( index )
+    {
+      if( index.entries.remove( normalized, entry ) )
+        index.dirty = true;
+    }
+    return null;
+  }
+
+  public boolean isVersionedFolder( @NotNull String path )
+  {
+    Entry entry = getValid( path );
+    return entry != null && entry.directory && entry.status != Status.NOT_AN_ELEMENT;
+  }
+
+  /**
+   * Remember the status just computed for the file or folder, together with
+   * its current size, mtime and RO flag.
+   */
+  public void record( @NotNull String path, @NotNull Status status, @Nullable String version )
+  {
+    RootIndex index = findRoot( path );
+    if( index == null )
+      return;
+
+    String normalized = normalize( path );
+    File file = new File( normalized );
+    if( !file.exists() )
+      return;
+
+    boolean directory = file.isDirectory();
+    Entry entry = new Entry( status, version, directory ? 0 : file.length(),
+                             directory ? System.currentTimeMillis() : file.lastModified(), !file.canWrite(), directory,
+                             false );
+    ensureLoaded( index );
+    synchronized( index )
+    {
+      index.entries.put( normalized, entry );
+      index.dirty = true;
+    }
+  }
+
+  /**
+   * The file or folder is being deleted locally. Unless it is known to be
+   * view-private it stays a candidate for "locally deleted" until it is
+   * restored, its element is removed or a query does not confirm it (see
+   * {@link #getMissingFiles}).
+   */
+  public void recordMissing( @NotNull String path, boolean directory )
+  {
+    RootIndex index = findRoot( path );
+    if( index == null )
+      return;
+
+    String normalized = normalize( path );
+    ensureLoaded( index );
+    synchronized( index )
+    {
+      Entry old = index.entries.get( normalized );
+      if( old != null && old.status == Status.NOT_AN_ELEMENT )
+        index.entries.remove( normalized );
+      else
+        index.entries.put( normalized, new Entry( old == null ? Status.CHECKED_IN : old.status, old == null ? null : old.version,
+                                                  0, System.currentTimeMillis(), false, old == null ? directory : old.directory,
+                                                  true ) );
+      index.dirty = true;
+    }
+  }
+
+  public void remove( @NotNull String path )
+  {
+    RootIndex index = findRoot( path );
+    if( index == null )
+      return;
+
+    String normalized = normalize( path );
+    ensureLoaded( index );
+    synchronized( index )
+    {
+      if( index.entries.remove( normalized ) != null )
+        index.dirty = true;
+    }
+  }
+
+  /**
+   * Drop the entries of the path and of everything under it. Indices which
+   * are not read yet are not waited for, the paths are dropped on load.
+   */
+  public void invalidate( @NotNull String path )
+  {
+    String normalized = normalize( path );
+    for( RootIndex index : getRootsCovering( normalized ) )
+    {
+      synchronized( index )
+      {
+        if( index.entries == null )
+          index.invalidated.add( normalized );
+        else
+        if( removeSubtree( index.entries, normalized ) )
+          index.dirty = true;
+      }
+    }
+  }
+
+  /**
+   * @return elements at or under the path which do not exist any more:
+   *         those deleted since they were indexed (see {@link #recordMissing})
+   *         and files which were checked out or hijacked - candidates for
+   *         "locally deleted". Their existence is checked outside of the lock.
+   */
+  @NotNull
+  public List<String> getMissingFiles( @NotNull String path )
+  {
+    String normalized = normalize( path );
+    List<String> candidates = new ArrayList<>();
+    for( RootIndex index : getRootsCovering( normalized ) )
+    {
+      ensureLoaded( index );
+      synchronized( index )
+      {
+        Entry own = index.entries.get( normalized );
+        if( own != null && isMissingCandidate( own ) )
+          candidates.add( normalized );
+        for( Map.Entry<String, Entry> entry : getDescendants( index.entries, normalized ).entrySet() )
+        {
+          if( isMissingCandidate( entry.getValue() ) )
+            candidates.add( entry.getKey() );
+        }
+      }
+    }
+
+    List<String> missing = new ArrayList<>();
+    for( String candidate : candidates )
+    {
+      if( !new File( candidate ).exists() )
+        missing.add( candidate );
+    }
+    return missing;
+  }
+
+  private static boolean isMissingCandidate( Entry entry )
+  {
+    return entry.missing || !entry.directory && (entry.status == Status.CHECKED_OUT || entry.status == Status.HIJACKED);
+  }
+
+  /**
+   * Drop the entries of the files under the root which are not in the given
+   * set of writable files - the files which became read-only or disappeared
+   * since. Folders and missing elements are kept.
+   */
+  public void retainFiles( @NotNull String root, @NotNull Set<String> writableFiles )
+  {
+    String normalizedRoot = normalize( root );
+    for( RootIndex index : getRootsCovering( normalizedRoot ) )
+    {
+      ensureLoaded( index );
+      synchronized( index )
+      {
+        for( Iterator<Map.Entry<String, Entry>> it = getDescendants( index.entries, normalizedRoot ).entrySet().iterator(); it.hasNext(); )
+        {
+          Map.Entry<String, Entry> entry = it.next();
+          if( !entry.getValue().directory && !entry.getValue().missing && !writableFiles.contains( entry.getKey() ) )
+          {
+            it.remove();
+            index.dirty = true;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Called for every cleartool command which has been run; the commands
+   * which change the status of elements drop the entries of their arguments.
+   */
+  public void commandExecuted( @NotNull String[] subcmd )
+  {
+    if( !Runner.changesView( subcmd ) || isEmpty() )
+      return;
+
+    for( int i = 1; i < subcmd.length; i++ )
+    {
+      String arg = subcmd[ i ];
+      if( !arg.startsWith( "-" ) && new File( arg ).isAbsolute() )
+        invalidate( arg );
+    }
+  }
+
+  /**
+   * Write the indices changed since the last flush.
+   */
+  public void flush()
+  {
+    for( RootIndex index : getRoots() )
+      save( index );
+  }
+
+  public synchronized void clear()
+  {
+    for( RootIndex index : roots.values() )
+    {
+      synchronized( index.ioLock )
+      {
+        synchronized( index )
+        {
+          index.entries = new TreeMap<>();
+          index.invalidated.clear();
+          index.dirty = false;
+          FileUtil.delete( index.file );
+        }
+      }
+    }
+  }
+
+  private synchronized boolean isEmpty()  {  return roots.isEmpty();  }
+
+  private synchronized List<RootIndex> getRoots()  {  return new ArrayList<>( roots.values() );  }
+
+  /**
+   * @return the root the path is under and the roots nested under the path -
+   *         the indices which may hold entries of the path or under it.
+   */
+  private List<RootIndex> getRootsCovering( String normalized )
+  {
+    List<RootIndex> result = new ArrayList<>();
+    RootIndex owner = findRoot( normalized );
+    if( owner != null )
+      result.add( owner );
+
+    synchronized( this )
+    {
+      for( RootIndex index : getDescendants( roots, normalized ).values() )
+      {
+        if( index != owner )
+          result.add( index );
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private RootIndex findRoot( String path )
+  {
+    if( !enabled )
+      return null;
+
+    String normalized = normalize( path );
+    synchronized( this )
+    {
+      //  The greatest root not above the path is either its root or the
+      //  sibling subtree before it; walk back over those.
+      for( Map.Entry<String, RootIndex> entry = roots.floorEntry( normalized ); entry != null;
+           entry = roots.lowerEntry( entry.getKey() ) )
+      {
+        String root = entry.getKey();
+        if( normalized.equals( root ) || normalized.startsWith( root.endsWith( "/" ) ? root : root + '/' ) )
+          return entry.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return view of the entries strictly under the path.
+   */
+  private static <T> SortedMap<String, T> getDescendants( TreeMap<String, T> map, String path )
+  {
+    String prefix = path.endsWith( "/" ) ? path : path + '/';
+    return map.subMap( prefix, prefix + Character.MAX_VALUE );
+  }
+
+  private static boolean removeSubtree( TreeMap<String, Entry> entries, String path )
+  {
+    SortedMap<String, Entry> descendants = getDescendants( entries, path );
+    boolean removed = entries.remove( path ) != null || !descendants.isEmpty();
+    descendants.clear();
+    return removed;
+  }
+
+  private File getIndexFile( String root )
+  {
+    File folder = storage;
+    if( folder == null )
+      folder = new File( PathManager.getSystemPath(), INDEX_FOLDER );
+
+    String name = new File( root ).getName().replaceAll( "[^\\w.-]", "_" );
+    return new File( folder, name + '-' + Integer.toHexString( root.hashCode() ) + INDEX_EXT );
+  }
+  //---------------------------------------------------------------------------
+  //  Reading and writing the index files
+  //---------------------------------------------------------------------------
+
+  /**
+   * Read the entries unless done yet. Must not be called with the index
+   * locked: reading is done outside of that lock, so that invalidations
+   * need not wait for it.
+   */
+  private static void ensureLoaded( RootIndex index )
+  {
+    synchronized( index.ioLock )
+    {
+      synchronized( index )
+      {
+        if( index.entries != null )
+          return;
+      }
+
+      TreeMap<String, Entry> entries = load( index );
+      synchronized( index )
+      {
+        for( String path : index.invalidated )
+          index.dirty |= removeSubtree( entries, path );
+        index.invalidated.clear();
+        index.entries = entries;
+      }
+    }
+  }
+
+  private static TreeMap<String, Entry> load( RootIndex index )
+  {
+    TreeMap<String, Entry> entries = new TreeMap<>();
+    if( !index.file.isFile() )
+      return entries;
+
+    long start = System.currentTimeMillis();
+    try( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( index.file ), BUFFER_SIZE ) ) )
+    {
+      if( in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !index.root.equals( in.readUTF() ) )
+      {
+        LOG.info( "Status index " + index.file + " has different format or root, ignored" );
+        return entries;
+      }
+
+      String prefix = index.root.endsWith( "/" ) ? index.root : index.root + '/';
+      int count = in.readInt();
+      for( int i = 0; i < count; i++ )
+      {
+        String relative = in.readUTF();
+        Status status = STATUSES[ in.readByte() ];
+        byte flags = in.readByte();
+        long size = in.readLong();
+        long mtime = in.readLong();
+        String version = in.readUTF();
+
+        entries.put( relative.isEmpty() ? index.root : prefix + relative,
+                     new Entry( status, version.isEmpty() ? null : version, size, mtime,
+                                (flags & FLAG_READ_ONLY) != 0, (flags & FLAG_DIRECTORY) != 0, (flags & FLAG_MISSING) != 0 ) );
+      }
+      LOG.debug( "Status index of " + index.root + ": " + count + " entries read in " +
+                 (System.currentTimeMillis() - start) + " ms" );
+    }
+    catch( IOException | RuntimeException e )
+    {
+      //  Truncated or garbled file: start from scratch, the entries are
+      //  recomputed on the next refresh.
+      LOG.info( "Failed to read status index " + index.file + ": " + e );
+      entries.clear();
+    }
+    return entries;
+  }
+
+  /**
+   * The entries are copied under the index lock and written outside of it
+   * into a temporary file, which then replaces the index file.
+   */
+  private static void save( RootIndex index )
+  {
+    synchronized( index.ioLock )
+    {
+      List<String> paths;
+      List<Entry> values;
+      synchronized( index )
+      {
+        if( !index.dirty || index.entries == null )
+          return;
+
+        String prefix = index.root.endsWith( "/" ) ? index.root : index.root + '/';
+        paths = new ArrayList<>( index.entries.size() );
+        values = new ArrayList<>( index.entries.size() );
+        for( Map.Entry<String, Entry> entry : index.entries.entrySet() )
+        {
+          String path = entry.getKey();
+          String relative = path.equals( index.root ) ? "" : path.substring( prefix.length() );
+          String version = entry.getValue().version;
+          if( relative.length() > MAX_STRING_CHARS || (version != null && version.length() > MAX_STRING_CHARS) )
+            continue;
+
+          paths.add( relative );
+          values.add( entry.getValue() );
+        }
+        index.dirty = false;
+      }
+
+      File temp = new File( index.file.getPath() + TEMP_EXT );
+      try
+      {
+        FileUtil.createParentDirs( temp );
+        try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ), BUFFER_SIZE ) ) )
+        {
+          out.writeInt( MAGIC );
+          out.writeInt( FORMAT_VERSION );
+          out.writeUTF( index.root );
+          out.writeInt( values.size() );
+          for( int i = 0; i < values.size(); i++ )
+          {
+            Entry entry = values.get( i );
+            out.writeUTF( paths.get( i ) );
+            out.writeByte( Arrays.asList( STATUSES ).indexOf( entry.status ) );
+            out.writeByte( (entry.readOnly ? FLAG_READ_ONLY : 0) | (entry.directory ? FLAG_DIRECTORY : 0) |
+                           (entry.missing ? FLAG_MISSING : 0) );
+            out.writeLong( entry.size );
+            out.writeLong( entry.mtime );
+            out.writeUTF( entry.version == null ? "" : entry.version );
+          }
+        }
+        Files.move( temp.toPath(), index.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      }
+      catch( IOException | RuntimeException e )
+      {
+        //  Retried on the next flush.
+        LOG.info( "Failed to write status index " + index.file + ": " + e );
+        synchronized( index )
+        {
+          index.dirty = true;
+        }
+      }
+    }
+  }
+
+  private static String normalize( String path )
+  {
+    String normalized = FileUtil.toSystemIndependentName( path );
+    while( normalized.length() > 1 && normalized.endsWith( "/" ) )
+      normalized = normalized.substring( 0, normalized.length() - 1 );
+    return normalized;
+  }
+}
@@ -9,9 +9,9 @@ import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Ref;
-import com.intellij.openapi.util.text.LineTokenizer;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.VcsKey;
@@ -20,6 +20,7 @@ import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.ChangeManagement.CCaseChangeProvider;
+import net.sourceforge.transparent.exceptions.ClearCaseAbortedException;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -71,14 +72,37 @@ public class CCaseUpdateEnvironment implements UpdateEnvironment
 
     for( FilePath root : contentRoots )
     {
-      String out = TransparentVcs.cleartoolWithOutput( "update", "-force", root.getPath() );
+      UpdateOutputParser parser = new UpdateOutputParser( root.getPath() );
+      Ref<Runner> runner = new Ref<>();
+      try
+      {
+        //  Bound to the indicator, the update is killed on "Cancel".
+        ProgressManager.getInstance().executeProcessUnderProgress(
+          () -> runner.set( TransparentVcs.cleartoolWithListener( parser, "update", "-force", root.getPath() ) ), progressIndicator );
+      }
+      catch( ClearCaseAbortedException e )
+      {
+        //  Files loaded before the abort are reported nevertheless.
+        parser.fillGroups( updatedFiles );
+        parser.updateStatusIndex();
+        parser.updateContentBaseline();
+        if( e.isCancelled() )
+          throw new ProcessCanceledException();
+        errors.add( new VcsException( e.getMessage() ) );
+        continue;
+      }
+      String errorOutput = runner.get().getOutput();
 
       //  Correctly process the case when "Update Project" is done over the
       //  dynamic view (only snapshot views can handle this operation).
-      if( out.indexOf( ERROR_MSG_SIG ) != -1 )
-        errors.add( new VcsException( "You can not update a dynamic view: " + out ) );
+      if( parser.isDynamicViewError() || (errorOutput != null && errorOutput.indexOf( ERROR_MSG_SIG ) != -1) )
+        errors.add( new VcsException( "You can not update a dynamic view: " + errorOutput ) );
       else
-        parseOutput( root.getPath(), out, updatedFiles );
+      {
+        parser.fillGroups( updatedFiles );
+        parser.updateStatusIndex();
+        parser.updateContentBaseline();
+      }
     }
 
     return new UpdateSession(){
@@ -89,20 +113,34 @@ public class CCaseUpdateEnvironment implements UpdateEnvironment
     };
   }
 
-  private static void parseOutput( String contentRoot, String output, UpdatedFiles updatedFiles )
+  /**
+   * Parses "update" output line by line while cleartool is still working.
+   */
+  static class UpdateOutputParser implements Runner.LineListener
   {
-    String sepSymbol = new String( new char[] { File.separatorChar } );
-    HashSet<String> updated = new HashSet<>();
-    HashSet<String> skipped = new HashSet<>();
-    HashSet<String> deleted = new HashSet<>();
+    private final HashSet<String> updated = new HashSet<>();
+    private final HashSet<String> skipped = new HashSet<>();
+    private final HashSet<String> deleted = new HashSet<>();
+    private String rootPath;
+    private boolean isDynamicViewError;
 
-    String rootPath = contentRoot;
-    if( !rootPath.endsWith( sepSymbol ) )
-      rootPath += sepSymbol;
+    UpdateOutputParser( String contentRoot )
+    {
+      String sepSymbol = new String( new char[] { File.separatorChar } );
+      rootPath = contentRoot;
+      if( !rootPath.endsWith( sepSymbol ) )
+        rootPath += sepSymbol;
+    }
+
+    boolean isDynamicViewError() {  return isDynamicViewError;  }
 
-    String[] lines = LineTokenizer.tokenize( output.toCharArray(), false, true );
-    for( String line : lines )
+    public void onErrorLine( @NotNull String line ) {}
+
+    public void onOutputLine( @NotNull String line )
     {
+      if( line.length() == 0 )
+        return;
+
       if( line.startsWith( LOADING_SIG ) )
       {
         int lastQuote = line.lastIndexOf( "\"" );
@@ -132,15 +170,51 @@ public class CCaseUpdateEnvironment implements UpdateEnvironment
           rootPath = line.substring( VIEW_BASE_PATH_SIG.length() + 2 );
         }
       }
+      else
+      if( line.indexOf( ERROR_MSG_SIG ) != -1 )
+      {
+        isDynamicViewError = true;
+      }
+    }
+
+    void fillGroups( UpdatedFiles updatedFiles )
+    {
+      final VcsKey vcsKey = TransparentVcs.getKey();
+      for( String path : updated )
+        updatedFiles.getGroupById( FileGroup.UPDATED_ID ).add(rootPath + path, vcsKey, null);
+      for( String path : skipped )
+        updatedFiles.getGroupById( FileGroup.SKIPPED_ID ).add(rootPath + path, vcsKey, null);
+      for( String path : deleted )
+        updatedFiles.getGroupById( FileGroup.REMOVED_FROM_REPOSITORY_ID ).add(rootPath + path, vcsKey, null);
     }
 
-    final VcsKey vcsKey = TransparentVcs.getKey();
-    for( String path : updated )
-      updatedFiles.getGroupById( FileGroup.UPDATED_ID ).add(rootPath + path, vcsKey, null);
-    for( String path : skipped )
-      updatedFiles.getGroupById( FileGroup.SKIPPED_ID ).add(rootPath + path, vcsKey, null);
-    for( String path : deleted )
-      updatedFiles.getGroupById( FileGroup.REMOVED_FROM_REPOSITORY_ID ).add(rootPath + path, vcsKey, null);
+    /**
+     * Loaded and unloaded elements get their status computed anew; hijacked
+     * files kept by the update did not change.
+     */
+    void updateStatusIndex()
+    {
+      CCaseStatusIndex index = CCaseStatusIndex.getInstance();
+      for( String path : updated )
+        index.invalidate( rootPath + path );
+      for( String path : deleted )
+        index.invalidate( rootPath + path );
+    }
+
+    /**
+     * Loaded files hold their new version now. Hijacked files kept by the
+     * update are left alone: their content is not that of any version.
+     */
+    void updateContentBaseline()
+    {
+      CCaseContentBaseline baseline = CCaseContentBaseline.getInstance();
+      if( !baseline.isEnabled() )
+        return;
+      for( String path : updated )
+        baseline.recordLoaded( rootPath + path );
+      for( String path : deleted )
+        baseline.remove( rootPath + path );
+    }
   }
 
   @Nullable
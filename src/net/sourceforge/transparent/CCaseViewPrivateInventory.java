@@ -0,0 +1,286 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * The view-private files and folders and the checkouts under a content
+ * root, as "cleartool lsprivate" lists them. It reads the view database
+ * instead of walking the VOB tree, and one such call answers "is this
+ * folder versioned / checked out?" for every folder under the root,
+ * instead of an "ls -directory" process per folder. A folder it does not
+ * list is a loaded element; a file may still be hijacked, which only
+ * "ls" tells, so files are answered only by an inventory taken from a
+ * recursive view-only listing made for another purpose (see {@link #store}).
+ *
+ * An inventory is kept for the configured time. Paths which changed since
+ * it was taken - created, deleted, moved or renamed in VFS, or given to a
+ * mutating cleartool command - and everything under them are not answered
+ * from it any more; callers query those one by one.
+ */
+public class CCaseViewPrivateInventory
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CCaseViewPrivateInventory");
+
+  private static final long DEFAULT_TTL = 300000;
+
+  @NonNls private static final String LIST_PRIVATE_COMMAND = "lsprivate";
+  @NonNls private static final String IN_VOB_SWITCH = "-invob";
+  @NonNls private static final String CHECKEDOUT_SIG = " [checkedout]";
+
+  private static final CCaseViewPrivateInventory ourInstance = new CCaseViewPrivateInventory();
+
+  private static class Inventory
+  {
+    final String root;
+    final long created = System.currentTimeMillis();
+    final Set<String> privates;
+    final Set<String> checkouts;
+    //  Null unless the inventory lists the hijacked files too.
+    @Nullable
+    final Set<String> hijacked;
+    final Set<String> changed = new HashSet<>();
+
+    Inventory( String root, Set<String> privates, Set<String> checkouts, @Nullable Set<String> hijacked )
+    {
+      this.root = root;
+      this.privates = privates;
+      this.checkouts = checkouts;
+      this.hijacked = hijacked;
+    }
+
+    boolean covers( String path )
+    {
+      return path.equals( root ) || path.startsWith( root.endsWith( "/" ) ? root : root + '/' );
+    }
+
+    //  Under the lock of the owner.
+    boolean isChanged( String path )
+    {
+      return !changed.isEmpty() && containsPathOrParent( changed, path );
+    }
+
+    //  Everything under a view-private folder is view-private too.
+    boolean isPrivate( String path )
+    {
+      return !privates.isEmpty() && containsPathOrParent( privates, path );
+    }
+
+    private boolean containsPathOrParent( Set<String> paths, String path )
+    {
+      for( String current = path; current.length() >= root.length(); )
+      {
+        if( paths.contains( current ) )
+          return true;
+        int slash = current.lastIndexOf( '/' );
+        if( slash <= 0 )
+          break;
+        current = current.substring( 0, slash );
+      }
+      return false;
+    }
+  }
+
+  private final Map<String, Inventory> inventories = new HashMap<>();
+  private volatile long ttl = DEFAULT_TTL;
+  private volatile boolean enabled = true;
+
+  public static CCaseViewPrivateInventory getInstance() {  return ourInstance;  }
+
+  public void setEnabled( boolean value )
+  {
+    enabled = value;
+    if( !value )
+      invalidateAll();
+  }
+
+  public boolean isEnabled()  {  return enabled;  }
+
+  /**
+   * @param millis how long an inventory is used, zero disables them.
+   */
+  public void setTimeToLive( long millis )
+  {
+    ttl = Math.max( 0, millis );
+    if( ttl == 0 )
+      invalidateAll();
+  }
+
+  public synchronized boolean hasInventory( @NotNull String root )
+  {
+    Inventory inventory = inventories.get( normalize( root ) );
+    return inventory != null && isFresh( inventory );
+  }
+
+  /**
+   * Take the inventory of the root now, replacing the previous one. The
+   * listing is restricted to the VOB of the root, objects outside of the
+   * root are dropped.
+   *
+   * @throws ClearCaseException if cleartool fails; no inventory is kept then.
+   */
+  public void build( @NotNull String root )
+  {
+    if( !enabled || ttl == 0 )
+      return;
+
+    long start = System.currentTimeMillis();
+    final String normalized = normalize( root );
+    final String prefix = normalized.endsWith( "/" ) ? normalized : normalized + '/';
+    final Set<String> privates = new HashSet<>();
+    final Set<String> checkouts = new HashSet<>();
+    Runner runner = new Runner();
+    runner.workingDir = root;
+    runner.run( Runner.getCommand( TransparentVcs.CLEARTOOL_CMD, new String[] { LIST_PRIVATE_COMMAND, IN_VOB_SWITCH, root } ), true,
+                new Runner.LineListener()
+                {
+                  public void onOutputLine( @NotNull String line )
+                  {
+                    boolean checkedOut = line.endsWith( CHECKEDOUT_SIG );
+                    String path = normalize( checkedOut ? line.substring( 0, line.length() - CHECKEDOUT_SIG.length() ) : line );
+                    if( !path.startsWith( prefix ) )
+                      return;
+                    (checkedOut ? checkouts : privates).add( path );
+                  }
+
+                  public void onErrorLine( @NotNull String line )
+                  {
+                    LOG.debug( line );
+                  }
+                } );
+    if( !runner.isSuccessfull() )
+      throw new ClearCaseException( "lsprivate failed for " + root );
+
+    put( new Inventory( normalized, privates, checkouts, null ) );
+    LOG.debug( "View-private inventory of " + root + " taken in " + (System.currentTimeMillis() - start) + " ms" );
+  }
+
+  /**
+   * Use the results of a recursive view-only listing of the whole root made
+   * for another purpose; it lists the hijacked files as well.
+   */
+  public void store( @NotNull String root, @NotNull StatusMultipleProcessor recursiveViewOnly )
+  {
+    if( !enabled || ttl == 0 )
+      return;
+
+    put( new Inventory( normalize( root ), normalizeAll( recursiveViewOnly.getUnversioned() ),
+                        normalizeAll( recursiveViewOnly.getCheckoutFiles() ), normalizeAll( recursiveViewOnly.getHijackedFiles() ) ) );
+  }
+
+  private synchronized void put( Inventory inventory )
+  {
+    inventories.put( inventory.root, inventory );
+  }
+
+  /**
+   * @return status of the file or folder by the inventory of its root, null
+   *         if there is no fresh inventory, the path changed since, or it is
+   *         a file whose status the inventory can not tell.
+   */
+  @Nullable
+  public synchronized Status getStatus( @NotNull String path )
+  {
+    if( inventories.isEmpty() )
+      return null;
+
+    String normalized = normalize( path );
+    Inventory inventory = findInventory( normalized );
+    //  The listing does not show the root itself.
+    if( inventory == null || !isFresh( inventory ) || normalized.equals( inventory.root ) || inventory.isChanged( normalized ) )
+      return null;
+
+    if( inventory.isPrivate( normalized ) )
+      return Status.NOT_AN_ELEMENT;
+    if( inventory.checkouts.contains( normalized ) )
+      return Status.CHECKED_OUT;
+    if( inventory.hijacked != null )
+      return inventory.hijacked.contains( normalized ) ? Status.HIJACKED : Status.CHECKED_IN;
+    return new File( normalized ).isDirectory() ? Status.CHECKED_IN : null;
+  }
+
+  /**
+   * The path and everything under it are not answered from the inventory
+   * any more.
+   */
+  public synchronized void markChanged( @NotNull String path )
+  {
+    if( inventories.isEmpty() )
+      return;
+
+    String normalized = normalize( path );
+    for( Iterator<Inventory> it = inventories.values().iterator(); it.hasNext(); )
+    {
+      Inventory inventory = it.next();
+      if( inventory.covers( normalized ) )
+        inventory.changed.add( normalized );
+      else
+      if( normalized.equals( "/" ) || inventory.root.startsWith( normalized + '/' ) )
+        it.remove();
+    }
+  }
+
+  public void commandExecuted( @NotNull String[] subcmd )
+  {
+    if( !Runner.changesView( subcmd ) )
+      return;
+
+    boolean hasPaths = false;
+    for( int i = 1; i < subcmd.length; i++ )
+    {
+      String arg = subcmd[ i ];
+      if( !arg.startsWith( "-" ) && new File( arg ).isAbsolute() )
+      {
+        markChanged( arg );
+        hasPaths = true;
+      }
+    }
+    if( !hasPaths )
+      invalidateAll();
+  }
+
+  public synchronized void invalidateAll()
+  {
+    inventories.clear();
+  }
+
+  @Nullable
+  private Inventory findInventory( String path )
+  {
+    Inventory best = null;
+    for( Inventory inventory : inventories.values() )
+    {
+      if( inventory.covers( path ) && (best == null || inventory.root.length() > best.root.length()) )
+        best = inventory;
+    }
+    return best;
+  }
+
+  private boolean isFresh( Inventory inventory )
+  {
+    return System.currentTimeMillis() - inventory.created < ttl;
+  }
+
+  private static Set<String> normalizeAll( Collection<String> paths )
+  {
+    Set<String> result = new HashSet<>( paths.size() * 2 );
+    for( String path : paths )
+      result.add( normalize( path ) );
+    return result;
+  }
+
+  private static String normalize( String path )
+  {
+    String normalized = FileUtil.toSystemIndependentName( path ).trim();
+    while( normalized.length() > 1 && normalized.endsWith( "/" ) )
+      normalized = normalized.substring( 0, normalized.length() - 1 );
+    return normalized;
+  }
+}
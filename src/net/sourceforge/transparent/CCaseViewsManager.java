@@ -223,6 +223,7 @@ public class CCaseViewsManager extends AbstractProjectComponent implements Chang
 
         extractViewType(root.getPath(), info);
         viewsMapByRoot.put(root.getPath(), info);
+        if (info.tag != null) CleartoolMetrics.getInstance().registerView(root.getPath(), info.tag);
       }
     }
   }
@@ -243,6 +244,7 @@ public class CCaseViewsManager extends AbstractProjectComponent implements Chang
       }
       if (!isFound) {
         viewsMapByRoot.remove(storedRoot);
+        CleartoolMetrics.getInstance().unregisterView(storedRoot);
       }
     }
   }
@@ -428,7 +430,7 @@ public class CCaseViewsManager extends AbstractProjectComponent implements Chang
   }
 
   @Nullable
-  private static ActivityInfo parseActivities(String str) {
+  static ActivityInfo parseActivities(String str) {
     ActivityInfo info = null;
     String[] tokens = str.split(FIELDS_DELIMITER);
     if (tokens.length == 4) //  successful extraction
@@ -6,7 +6,9 @@ package net.sourceforge.transparent.ChangeManagement;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.diff.impl.patch.formove.FilePathComparator;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.Key;
@@ -17,16 +19,20 @@ import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.*;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.WaitForProgressToShow;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.*;
+import net.sourceforge.transparent.exceptions.ClearCaseAbortedException;
 import net.sourceforge.transparent.exceptions.ClearCaseException;
+import net.sourceforge.transparent.exceptions.ClearCaseNoServerException;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static com.intellij.util.containers.ContainerUtil.map;
 import static net.sourceforge.transparent.TransparentVcs.MERGE_CONFLICT;
@@ -53,15 +59,12 @@ public class CCaseChangeProvider implements ChangeProvider {
   @NonNls private final static String CURR_VIEW_ONLY_SWITCH = "-cview";
   @NonNls private final static String SHORT_SWITCH = "-short";
   @NonNls private final static String RECURSE_SWITCH = "-recurse";
+  @NonNls private final static String LIST_PRIVATE_CMD = "lsprivate";
+  @NonNls private final static String OTHER_SWITCH = "-other";
+  @NonNls private final static String IN_VOB_SWITCH = "-invob";
 
-  /**
-   * If amount of writable files during the batch call exceeds this number,
-   * switch from iterative calls to cleartool's LS command to the different
-   * scheme: call "cleartool findcheckouts" to find all "honestly" modified
-   * files, others are considered NEW (since we will not analyze them for
-   * "HIJACKED" status).
-   */
-  private static final int MAX_FILES_FOR_ITERATIVE_STATUS = 200;
+  //  Fewer folders under a root are cheaper to ask about one by one.
+  private static final int MIN_FOLDERS_FOR_INVENTORY = 10;
 
   private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.ChangeManagement.CCaseChangeProvider");
 
@@ -73,14 +76,22 @@ public class CCaseChangeProvider implements ChangeProvider {
   private ProgressIndicator progress;
   private boolean isBatchUpdate;
   private boolean isFirstShow;
-
-  private final HashSet<String> filesWritable = new HashSet<>();
-  private final HashSet<String> filesNew = new HashSet<>();
-  private final HashSet<String> filesChanged = new HashSet<>();
-  private final HashSet<String> filesHijacked = new HashSet<>();
-  private final HashSet<String> filesIgnored = new HashSet<>();
-  private final HashSet<String> filesMerge = new HashSet<>();
-  private final HashSet<String> filesLocallyDeleted = new HashSet<>();
+  //  The user asked to refresh everything: the status index is not trusted
+  //  in this pass, only updated.
+  private boolean isFullRefresh;
+  //  Renames and removals as of the start of the pass.
+  private CCasePendingChanges pending;
+
+  private final CCasePathSet filesWritable;
+  private final CCasePathSet filesDirty;
+  //  Number of files and folders under each recursively dirty folder.
+  private final HashMap<String, Integer> elementsUnder = new HashMap<>();
+  private final CCasePathSet filesNew;
+  private final CCasePathSet filesChanged;
+  private final CCasePathSet filesHijacked;
+  private final CCasePathSet filesIgnored;
+  private final CCasePathSet filesMerge;
+  private final CCasePathSet filesLocallyDeleted;
   private final ChangeListManager myChangeListManager;
   private TreeSet<VirtualFile> myDirs;
 
@@ -90,6 +101,17 @@ public class CCaseChangeProvider implements ChangeProvider {
     myViewManager = CCaseViewsManager.getInstance(project);
     host = hostVcs;
     isFirstShow = true;
+    //  Over the trie of the host, so that its pending changes and the
+    //  results of the collector are merged and compared as bitsets.
+    final CCasePathTrie trie = host.getPathTrie();
+    filesWritable = new CCasePathSet( trie );
+    filesDirty = new CCasePathSet( trie );
+    filesNew = new CCasePathSet( trie );
+    filesChanged = new CCasePathSet( trie );
+    filesHijacked = new CCasePathSet( trie );
+    filesIgnored = new CCasePathSet( trie );
+    filesMerge = new CCasePathSet( trie );
+    filesLocallyDeleted = new CCasePathSet( trie );
     myChangeListManager = ChangeListManager.getInstance(this.project);
     myDirs = new TreeSet<>(FilePathComparator.getInstance());
   }
@@ -120,6 +142,9 @@ public class CCaseChangeProvider implements ChangeProvider {
     mySharedConfig = CCaseSharedConfig.getInstance(project);
     progress = progressIndicator;
     isBatchUpdate = isBatchUpdate( dirtyScope );
+    //  The first pass after the project is opened marks everything dirty
+    //  too, that is exactly when the index pays off.
+    isFullRefresh = isBatchUpdate && dirtyScope.wasEveryThingDirty() && !isFirstShow;
 
     showOptionalReminder();
     initInternals();
@@ -127,41 +152,19 @@ public class CCaseChangeProvider implements ChangeProvider {
 
     try
     {
-      iterateOverRecursiveFolders( dirtyScope );
-      iterateOverDirtyDirectories( dirtyScope );
-      iterateOverDirtyFiles( dirtyScope );
-
-      //  Perform status computation only if we operate in the online mode.
-      //  For offline mode just display the last valid state (for new and
-      //  modified files, others are hijacked).
-      if(! config.isOffline() ) {
-        if(isBatchUpdate && config.synchActivitiesOnRefresh) {
-          myViewManager.extractViewActivities();
-          myViewManager.synchActivities2ChangeLists(addGate);
-        }
-        computeStatuses(dirtyScope);
-      } else {
-        restoreStatusesFromCached();
-      }
-      processStatusExceptions();
-
-      getUnversioned();
-      addCheckedOutFolders();
-
-      //-----------------------------------------------------------------------
-      //  For an UCM view we must determine the corresponding changes list name
-      //  which is associated with the "activity" of the particular view.
-      //-----------------------------------------------------------------------
-      if(mySharedConfig.isUseUcmModel()) {
-        setActivityInfoOnChangedFiles();
-      }
-
-      addLocallyDeletedFiles(builder);
-      addAddedFiles( builder );
-      addChangedFiles( builder );
-      addRemovedFiles( builder );
-      addIgnoredFiles( builder );
-      addMergeConflictFiles( builder );
+      //  Bind the indicator to this thread, so that the cleartool commands
+      //  are killed when the refresh is cancelled (see CleartoolDeadline).
+      if( ProgressManager.getInstance().getProgressIndicator() == progressIndicator )
+        collectChanges( dirtyScope, builder, addGate );
+      else
+        ProgressManager.getInstance().executeProcessUnderProgress( () -> collectChanges( dirtyScope, builder, addGate ), progressIndicator );
+    }
+    catch( ClearCaseAbortedException e )
+    {
+      LOG.info( e );
+      if( e.isCancelled() )
+        throw new ProcessCanceledException();
+      throw new VcsException( FAIL_2_CONNECT_MSG + e.getMessage() );
     }
     catch( ClearCaseException e )
     {
@@ -169,7 +172,7 @@ public class CCaseChangeProvider implements ChangeProvider {
       excMessage = excMessage == null ? "" : excMessage;
       @NonNls String message = FAIL_2_CONNECT_MSG + excMessage;
 
-      if( TransparentVcs.isServerDownMessage( excMessage ))
+      if( e instanceof ClearCaseNoServerException || TransparentVcs.isServerDownMessage( excMessage ))
       {
         message += "\n\nSwitching to the offline mode";
         config.setOfflineMode(true);
@@ -198,12 +201,64 @@ public class CCaseChangeProvider implements ChangeProvider {
     }
   }
 
+  private void collectChanges( VcsDirtyScope dirtyScope, ChangelistBuilder builder, ChangeListManagerGate addGate )
+  {
+    pending = host.getPendingChanges();
+    for( VirtualFile root : dirtyScope.getAffectedContentRoots() )
+      CCaseStatusIndex.getInstance().registerRoot( root.getPath() );
+
+    iterateOverRecursiveFolders( dirtyScope );
+    iterateOverDirtyDirectories( dirtyScope );
+    iterateOverDirtyFiles( dirtyScope );
+
+    //  Perform status computation only if we operate in the online mode.
+    //  For offline mode just display the last valid state (for new and
+    //  modified files, others are hijacked).
+    if(! config.isOffline() ) {
+      if(isBatchUpdate && config.synchActivitiesOnRefresh) {
+        myViewManager.extractViewActivities();
+        myViewManager.synchActivities2ChangeLists(addGate);
+      }
+      computeStatuses(dirtyScope);
+    } else {
+      restoreStatusesFromCached();
+    }
+    processStatusExceptions();
+
+    getUnversioned();
+    addCheckedOutFolders();
+
+    //-----------------------------------------------------------------------
+    //  For an UCM view we must determine the corresponding changes list name
+    //  which is associated with the "activity" of the particular view.
+    //-----------------------------------------------------------------------
+    if(mySharedConfig.isUseUcmModel()) {
+      setActivityInfoOnChangedFiles();
+    }
+
+    addLocallyDeletedFiles(builder);
+    addAddedFiles( builder );
+    addChangedFiles( builder );
+    addRemovedFiles( builder );
+    addIgnoredFiles( builder );
+    addMergeConflictFiles( builder );
+
+    CCaseStatusIndex.getInstance().flush();
+    CCaseContentBaseline.getInstance().flush();
+  }
+
   private void addCheckedOutFolders() {
     final Set<String> checkedOutFolders = new HashSet<>(host.getCheckedOutFolders());
+    final List<String> dirs = new ArrayList<>();
     for (String dir : checkedOutFolders) {
-      if (host.renamedFolders.containsKey(dir) || host.renamedFolders.containsValue(dir)) continue;
-      final File file = new File(dir);
-      final Status status = file.exists() ? host.getStatus(file) : null;
+      if (pending.renamedFolders.containsKey(dir) || pending.renamedFolders.containsValue(dir)) continue;
+      dirs.add(dir);
+    }
+
+    final List<Status> results = getFolderStatuses(dirs);
+    for (int i = 0; i < dirs.size(); i++) {
+      final String dir = dirs.get(i);
+      final Status status = results.get(i);
       if (Status.HIJACKED.equals(status) || Status.CHECKED_OUT.equals(status)) {
         filesChanged.add(dir);
       } else {
@@ -213,14 +268,23 @@ public class CCaseChangeProvider implements ChangeProvider {
   }
 
   private void getUnversioned() {
+    final List<VirtualFile> dirs = new ArrayList<>();
     for (VirtualFile dir : myDirs) {
-      if (host.renamedFolders.containsKey(dir.getPath())) continue;
-      final Status status = host.getStatus(dir);
+      if (pending.renamedFolders.containsKey(dir.getPath())) continue;
+      dirs.add(dir);
+    }
+
+    final List<Status> results = getFolderStatuses(map(dirs, VirtualFile::getPath));
+    for (int i = 0; i < dirs.size(); i++) {
+      final VirtualFile dir = dirs.get(i);
+      final Status status = results.get(i);
       if (Status.NOT_AN_ELEMENT.equals(status)) {
         filesNew.add(dir.getPath());
         dir.putUserData(ourVersionedKey, null);
+        CCaseStatusIndex.getInstance().remove(dir.getPath());
       } else {
         dir.putUserData(ourVersionedKey, Boolean.TRUE);
+        if (status != null) CCaseStatusIndex.getInstance().record(dir.getPath(), status, null);
         if (Status.HIJACKED.equals(status) || Status.CHECKED_OUT.equals(status)) {
           filesChanged.add(dir.getPath());
           host.checkedOutFolders.add(dir.getPath());
@@ -229,6 +293,75 @@ public class CCaseChangeProvider implements ChangeProvider {
     }
   }
 
+  /**
+   * @return statuses of the folders, null for the missing ones. Folders under
+   *         a content root whose view-private inventory is fresh, or which has
+   *         enough folders to ask about to make taking one (a single
+   *         "lsprivate") cheaper than an "ls -directory" per folder, are answered
+   *         from it; the rest one by one.
+   */
+  private List<Status> getFolderStatuses(final List<String> dirs) {
+    final CCaseViewPrivateInventory inventory = CCaseViewPrivateInventory.getInstance();
+    if (inventory.isEnabled() && !config.isOffline()) {
+      final Map<String, Integer> foldersPerRoot = new HashMap<>();
+      for (String dir : dirs) {
+        final String root = findVcsRoot(dir);
+        if (root != null) {
+          foldersPerRoot.merge(root, 1, Integer::sum);
+        }
+      }
+
+      final List<CompletableFuture<Boolean>> builds = new ArrayList<>();
+      for (Map.Entry<String, Integer> entry : foldersPerRoot.entrySet()) {
+        final String root = entry.getKey();
+        if (entry.getValue() >= MIN_FOLDERS_FOR_INVENTORY && !inventory.hasInventory(root)) {
+          builds.add(CleartoolExecutor.getInstance().submitTask(() -> buildInventory(root)));
+        }
+      }
+      CleartoolExecutor.joinAll(builds);
+    }
+
+    final List<CompletableFuture<Status>> statuses = new ArrayList<>();
+    for (String dir : dirs) {
+      final File file = new File(dir);
+      final Status known = file.exists() ? inventory.getStatus(dir) : null;
+      statuses.add(!file.exists() ? CompletableFuture.completedFuture(null)
+                                  : known != null ? CompletableFuture.completedFuture(known) : host.getStatusAsync(file));
+    }
+    return CleartoolExecutor.joinAll(statuses);
+  }
+
+  /**
+   * Runs on a pooled thread. A failed inventory only means that the folders
+   * are asked about one by one.
+   */
+  private static Boolean buildInventory(final String root) {
+    try {
+      CCaseViewPrivateInventory.getInstance().build(root);
+      return Boolean.TRUE;
+    }
+    catch (ClearCaseAbortedException | ClearCaseNoServerException e) {
+      throw e;
+    }
+    catch (ClearCaseException e) {
+      LOG.warn("Failed to list the view-private files of " + root + ": " + e.getMessage());
+      return Boolean.FALSE;
+    }
+  }
+
+  @Nullable
+  private String findVcsRoot(final String path) {
+    String result = null;
+    for (VirtualFile root : ProjectLevelVcsManager.getInstance(project).getRootsUnderVcs(host)) {
+      final String rootPath = root.getPath();
+      if (CCaseStatusPlanner.isUnderAny(path, Collections.singletonList(rootPath)) &&
+          (result == null || rootPath.length() > result.length())) {
+        result = rootPath;
+      }
+    }
+    return result;
+  }
+
   /**
    * When we start for the very first time - show reminder that user possibly
    * forgot that last time he set option to "Work offline".
@@ -254,7 +387,7 @@ public class CCaseChangeProvider implements ChangeProvider {
       if( progress != null )
         progress.setText( COLLECT_MSG );
 
-      collectWritableFiles(path);
+      elementsUnder.put( path.getPath(), collectWritableFiles( path ) );
 
       LOG.debug( "-- ChangeProvider - Total: " + filesWritable.size() + " writable files after the last root." );
       if( progress != null )
@@ -282,7 +415,7 @@ public class CCaseChangeProvider implements ChangeProvider {
           filesIgnored.add( fileName );
         else
         {
-          String refName = host.discoverOldName(fileName);
+          String refName = pending.discoverOldName(fileName);
 
           //  Check that folder physically exists.
           if( !host.fileExistsInVcs( refName ))
@@ -313,7 +446,10 @@ public class CCaseChangeProvider implements ChangeProvider {
       else
 //        if( isFileCCaseProcessable( file ) && isProperNotification( path ) )
         if( (file != null) && file.isWritable() && isProperNotification( path ) )
+        {
           filesWritable.add( fileName );
+          filesDirty.add( fileName );
+        }
     }
   }
 
@@ -321,52 +457,456 @@ public class CCaseChangeProvider implements ChangeProvider {
    * Iterate over the project structure and collect two types of files:
    * - writable files, they are the subject for subsequent analysis
    * - "ignored" files - which will be shown in a separate changes folder.
+   * @return number of files and folders visited.
    */
-  private void collectWritableFiles( final FilePath filePath ) {
-    final CCaseWriteableAndUnversionedCollector collector = new CCaseWriteableAndUnversionedCollector(project, host);
+  private int collectWritableFiles( final FilePath filePath ) {
+    final CCaseWriteableAndUnversionedCollector collector = new CCaseWriteableAndUnversionedCollector(project, host, host.getPathTrie());
     collector.collectWritableFiles(filePath);
 
     filesIgnored.addAll(collector.getFilesIgnored());
     filesWritable.addAll(collector.getFilesWritable());
     myDirs.addAll(collector.getDirs());
+    return collector.getFilesVisited();
   }
 
   private void computeStatuses(VcsDirtyScope dirtyScope) {
     LOG.debug( "---ChangeProvider - " + filesIgnored.size() + " ignored files accumulated so far.");
 
-    if (filesWritable.size() < MAX_FILES_FOR_ITERATIVE_STATUS) {
-      analyzeWritableFiles( filesWritable );
+    //  Files which did not change since their status was computed last time
+    //  (maybe in the previous IDE session) are taken from the status index.
+    //  Elements deleted since, and indexed files which disappeared, may be
+    //  "locally deleted".
+    final HashSet<String> staleFiles;
+    if (isIncrementalStatus()) {
+      final CCaseStatusIndex index = CCaseStatusIndex.getInstance();
+      staleFiles = filterOutIndexedFiles( filesWritable );
+      for (FilePath path : dirtyScope.getDirtyFiles()) {
+        if (path.getVirtualFile() == null) staleFiles.addAll(index.getMissingFiles(path.getPath()));
+      }
+      if (isBatchUpdate) {
+        for (FilePath path : dirtyScope.getRecursivelyDirtyDirectories()) {
+          staleFiles.addAll(index.getMissingFiles(path.getPath()));
+        }
+      }
     } else {
-      final Collection<VirtualFile> roots = dirtyScope.getAffectedContentRoots();
-      List<String> pathsAsString = map(roots, VirtualFile::getPath);
-      final StatusMultipleProcessor processor = new StatusMultipleProcessor(pathsAsString);
-      processor.setRecursive(true);
-      processor.setViewOnly(true);
-      processor.execute();
-      processViewStatusResults(processor);
+      staleFiles = new HashSet<>( filesWritable );
+    }
+
+    //  Writable files known not to be checked out, with the content of their
+    //  loaded version, are not changed.
+    final CCaseContentBaseline baseline = CCaseContentBaseline.getInstance();
+    if (baseline.isEnabled()) {
+      staleFiles.removeIf(baseline::isUnmodified);
+    }
+
+    //  Files whose status is known after the checkout or merge need no query.
+    final List<String> filesToQuery = filterOutMarkedFiles( staleFiles );
+
+    //  Roots (often in different views) are queried concurrently; the
+    //  results are merged here, in the order of the roots.
+    final List<CCaseStatusPlanner.RootWork> works = splitByRoots(dirtyScope, filesToQuery);
+    final List<CompletableFuture<RootStatus>> futures = new ArrayList<>();
+    for (CCaseStatusPlanner.RootWork work : works) {
+      final CCaseStatusPlanner.Plan plan = CCaseStatusPlanner.getInstance().plan(work);
+      if (isBatchUpdate) {
+        LOG.info( "Status plan: " + plan );
+      } else {
+        LOG.debug( "Status plan: " + plan );
+      }
+      futures.add(plan.strategy == CCaseStatusPlanner.Strategy.CACHE_ONLY
+                  ? CompletableFuture.completedFuture(new RootStatus())
+                  : CleartoolExecutor.getInstance().submitTask(() -> executePlan(plan)));
+    }
+    mergeRootStatuses(works, futures);
+
+    //  Entries of the files which are not writable any more are useless.
+    if (isBatchUpdate) {
+      for (FilePath path : dirtyScope.getRecursivelyDirtyDirectories()) {
+        CCaseStatusIndex.getInstance().retainFiles(path.getPath(), filesWritable);
+      }
+    }
+  }
+
+  /**
+   * Group the files to be queried by the content roots (files outside of
+   * all of them form a group of their own, only listed by "ls -directory"),
+   * together with the recursively dirty folders under each root.
+   */
+  private List<CCaseStatusPlanner.RootWork> splitByRoots(VcsDirtyScope dirtyScope, Collection<String> staleFiles) {
+    final List<VirtualFile> roots = new ArrayList<>(dirtyScope.getAffectedContentRoots());
+    //  Nested roots first, so that a file goes to the innermost one.
+    roots.sort((root1, root2) -> root2.getPath().length() - root1.getPath().length());
+
+    final List<String> dirtyDirs = map(dirtyScope.getRecursivelyDirtyDirectories(), FilePath::getPath);
+    final Set<String> remaining = new HashSet<>(staleFiles);
+    final List<CCaseStatusPlanner.RootWork> result = new ArrayList<>();
+    for (VirtualFile root : roots) {
+      final String rootPath = root.getPath();
+      final List<String> rootPaths = Collections.singletonList(rootPath);
+
+      final List<String> files = new ArrayList<>();
+      for (Iterator<String> it = remaining.iterator(); it.hasNext(); ) {
+        final String path = it.next();
+        if (CCaseStatusPlanner.isUnderAny(path, rootPaths)) {
+          files.add(path);
+          it.remove();
+        }
+      }
+
+      final List<String> dirs = new ArrayList<>();
+      for (String dir : dirtyDirs) {
+        if (CCaseStatusPlanner.isUnderAny(dir, rootPaths)) dirs.add(dir);
+      }
+      final List<String> covering = CCaseStatusPlanner.getCoveringSet(dirs);
+      int elements = 0;
+      for (String dir : covering) {
+        final Integer count = elementsUnder.get(dir);
+        elements += count == null ? 0 : count;
+      }
+
+      final CCaseViewsManager.ViewInfo view = myViewManager.getViewByRoot(root);
+      result.add(new CCaseStatusPlanner.RootWork(rootPath, CleartoolMetrics.getInstance().findView(ArrayUtil.EMPTY_STRING_ARRAY, rootPath),
+                                                 view != null && view.isSnapshot, files, covering, elements));
+    }
+    if (!remaining.isEmpty()) {
+      result.add(new CCaseStatusPlanner.RootWork("", CleartoolMetrics.NO_VIEW, false, new ArrayList<>(remaining),
+                                                 Collections.emptyList(), 0));
+    }
+    return result;
+  }
+
+  /**
+   * Statuses found under one root, to be merged into the provider's sets
+   * on the calling thread.
+   */
+  private static class RootStatus {
+    final List<String> unversioned = new ArrayList<>();
+    final List<String> checkedOut = new ArrayList<>();
+    final List<String> hijacked = new ArrayList<>();
+    final List<String> locallyDeleted = new ArrayList<>();
+
+    void add(final StatusMultipleProcessor processor) {
+      unversioned.addAll(processor.getUnversioned());
+      checkedOut.addAll(processor.getCheckoutFiles());
+      hijacked.addAll(processor.getHijackedFiles());
+      locallyDeleted.addAll(processor.getLocallyDeleted());
+    }
+  }
+
+  /**
+   * A root which failed does not spoil the results of the others: its files
+   * keep the statuses they had before this pass and are marked dirty again,
+   * so that the next pass retries them, and the failure is logged.
+   * Cancellation, an unavailable server (the caller switches to the offline
+   * mode), or the failure of all the roots is rethrown.
+   */
+  private void mergeRootStatuses(final List<CCaseStatusPlanner.RootWork> works, final List<CompletableFuture<RootStatus>> futures) {
+    RuntimeException failure = null;
+    int failed = 0;
+    for (int i = 0; i < futures.size(); i++) {
+      final RootStatus status;
+      try {
+        status = futures.get(i).join();
+      }
+      catch (RuntimeException e) {
+        final RuntimeException cause = CleartoolExecutor.unwrap(e);
+        if (cause instanceof ProcessCanceledException ||
+            cause instanceof ClearCaseAbortedException && ((ClearCaseAbortedException)cause).isCancelled() ||
+            cause instanceof ClearCaseNoServerException || TransparentVcs.isServerDownMessage(cause.getMessage())) {
+          waitForAll(futures);
+          throw cause;
+        }
+        LOG.warn("Failed to get the status of the files under " + works.get(i).root + ": " + cause.getMessage());
+        if (failure == null) failure = cause;
+        failed++;
+        keepPreviousStatuses(works.get(i));
+        continue;
+      }
+      processViewStatusResults(status.unversioned, status.checkedOut, status.hijacked, status.locallyDeleted);
+      confirmBaselines(works.get(i).staleFiles, status);
+    }
+    if (failure != null && failed == futures.size()) {
+      throw failure;
+    }
+  }
+
+  /**
+   * The statuses of the root's files could not be computed: report what the
+   * change list manager knew of them, rather than let them look unchanged,
+   * and have them refreshed again.
+   */
+  private void keepPreviousStatuses(final CCaseStatusPlanner.RootWork work) {
+    final RootStatus previous = new RootStatus();
+    final VcsDirtyScopeManager dirtyScopeManager = VcsDirtyScopeManager.getInstance(project);
+    final Set<FilePath> deleted = new HashSet<>();
+    for (LocallyDeletedChange change : myChangeListManager.getDeletedFiles()) {
+      deleted.add(change.getPath());
+    }
+    for (String path : work.staleFiles) {
+      final FilePath filePath = VcsUtil.getFilePath(path);
+      final VirtualFile file = filePath.getVirtualFile();
+      final FileStatus status = file != null ? myChangeListManager.getStatus(file) : null;
+      if (FileStatus.UNKNOWN.equals(status)) {
+        previous.unversioned.add(path);
+      } else if (FileStatus.MODIFIED.equals(status)) {
+        previous.checkedOut.add(path);
+      } else if (FileStatus.HIJACKED.equals(status)) {
+        previous.hijacked.add(path);
+      } else if (file == null && deleted.contains(filePath)) {
+        previous.locallyDeleted.add(path);
+      }
+      dirtyScopeManager.fileDirty(filePath);
+    }
+    for (String dir : work.coveringDirs) {
+      dirtyScopeManager.dirDirtyRecursively(VcsUtil.getFilePath(dir, true));
+    }
+    processViewStatusResults(previous.unversioned, previous.checkedOut, previous.hijacked, previous.locallyDeleted);
+  }
+
+  private static void confirmBaselines(final List<String> files, final RootStatus status) {
+    final CCaseContentBaseline baseline = CCaseContentBaseline.getInstance();
+    if (!baseline.isEnabled()) return;
+
+    final Set<String> checkedOut = new HashSet<>(status.checkedOut);
+    final Set<String> unversioned = new HashSet<>(status.unversioned);
+    for (String path : files) {
+      baseline.statusKnown(path, checkedOut.contains(path) ? Status.CHECKED_OUT
+                                 : unversioned.contains(path) ? Status.NOT_AN_ELEMENT : Status.CHECKED_IN);
+    }
+  }
+
+  //  So that no command is left running behind the caller's back.
+  private static void waitForAll(final List<CompletableFuture<RootStatus>> futures) {
+    for (CompletableFuture<RootStatus> future : futures) {
+      try {
+        future.join();
+      }
+      catch (RuntimeException ignored) {
+      }
+    }
+  }
+
+  /**
+   * Runs on a pooled thread: must not touch the provider's sets.
+   */
+  private RootStatus executePlan(final CCaseStatusPlanner.Plan plan) {
+    final CCaseStatusPlanner.RootWork work = plan.work;
+    final RootStatus result = new RootStatus();
+    final long start = System.currentTimeMillis();
+    final List<String> toList = new ArrayList<>(plan.leftovers);
+    switch (plan.strategy) {
+      case CACHE_ONLY:
+        return result;
+      case BATCHED_LS:
+        analyzeWritableFiles(plan.leftovers, result);
+        return result;
+      case RECURSIVE_LS:
+        final StatusMultipleProcessor processor = new StatusMultipleProcessor(work.coveringDirs);
+        processor.setRecursive(true);
+        processor.setViewOnly(true);
+        processor.execute();
+        result.add(processor);
+        recordStatuses(plan.covered, processor);
+        //  A listing of the whole root is its view-private inventory as well.
+        if (work.coveringDirs.size() == 1 && work.coveringDirs.get(0).equals(work.root)) {
+          CCaseViewPrivateInventory.getInstance().store(work.root, processor);
+        }
+        break;
+      case CHECKOUTS_AND_PRIVATE:
+        toList.addAll(statusFromCheckoutsAndPrivate(work, plan.covered, result));
+        break;
+    }
+    CCaseStatusPlanner.getInstance().recordWalk(work.view, plan.strategy, work.elements, System.currentTimeMillis() - start);
+    analyzeWritableFiles(toList, result);
+    return result;
+  }
+
+  /**
+   * Snapshot views only: a writable file is checked out if "lsco" lists it
+   * and private if "lsprivate" does. "lsprivate" lists the whole VOB, only
+   * the paths under the covering folders are kept.
+   * @return files which neither lists: hijacked or missing files, or files
+   *         the listings failed to tell about - to be listed by "ls".
+   */
+  private List<String> statusFromCheckoutsAndPrivate(final CCaseStatusPlanner.RootWork work, final List<String> files,
+                                                     final RootStatus result) {
+    final Set<String> checkouts = new HashSet<>();
+    final List<String> lsco = new ArrayList<>(Arrays.asList(LIST_CHECKOUTS_CMD, CURR_VIEW_ONLY_SWITCH, RECURSE_SWITCH, SHORT_SWITCH));
+    lsco.addAll(work.coveringDirs);
+    final Runner lscoRunner = TransparentVcs.cleartoolWithListener(new PathCollector(checkouts, work.coveringDirs),
+                                                                   ArrayUtil.toStringArray(lsco));
+    if (!lscoRunner.isSuccessfull()) {
+      return files;
+    }
+
+    final Set<String> privates = new HashSet<>();
+    final Runner runner = new Runner();
+    runner.workingDir = work.root;
+    runner.run(Runner.getCommand(TransparentVcs.CLEARTOOL_CMD,
+                                 new String[] { LIST_PRIVATE_CMD, SHORT_SWITCH, OTHER_SWITCH, IN_VOB_SWITCH, work.root }),
+               true, new PathCollector(privates, work.coveringDirs));
+    if (!runner.isSuccessfull()) {
+      return files;
+    }
+
+    final CCaseStatusIndex index = CCaseStatusIndex.getInstance();
+    final List<String> unclassified = new ArrayList<>();
+    for (String path : files) {
+      final Status status;
+      if (checkouts.contains(path)) {
+        result.checkedOut.add(path);
+        status = Status.CHECKED_OUT;
+      } else if (privates.contains(path)) {
+        result.unversioned.add(path);
+        status = Status.NOT_AN_ELEMENT;
+      } else {
+        unclassified.add(path);
+        continue;
+      }
+      if (index.isEnabled() && path.equals(pending.discoverOldName(path))) {
+        index.record(path, status, null);
+      }
+    }
+    return unclassified;
+  }
+
+  /**
+   * Collects the listed paths which are under the given folders.
+   */
+  private static class PathCollector implements Runner.LineListener {
+    private final Set<String> paths;
+    private final List<String> scope;
+
+    PathCollector(Set<String> paths, List<String> scope) {
+      this.paths = paths;
+      this.scope = scope;
+    }
+
+    public void onOutputLine(@NotNull String line) {
+      final String path = line.trim().replace('\\', '/');
+      if (!path.isEmpty() && CCaseStatusPlanner.isUnderAny(path, scope)) {
+        paths.add(path);
+      }
+    }
+
+    public void onErrorLine(@NotNull String line) {
+      LOG.debug(line);
+    }
+  }
+
+  /**
+   * Incremental mode relies on the status index for the files which did not
+   * change, so it is off when the index is, and for an explicit refresh of
+   * everything (the Refresh action, markEverythingDirty).
+   */
+  private boolean isIncrementalStatus()
+  {
+    return config.incrementalStatus && !isFullRefresh && CCaseStatusIndex.getInstance().isEnabled();
+  }
+
+  /**
+   * @return files whose status must be computed by cleartool: those which
+   *         are not in the index, changed since, were reported dirty, are
+   *         renamed or are marked by the checkout or merge.
+   */
+  private HashSet<String> filterOutIndexedFiles( final Set<String> writables )
+  {
+    final CCaseStatusIndex index = CCaseStatusIndex.getInstance();
+    final HashSet<String> stale = new HashSet<>();
+    final List<String> unversioned = new ArrayList<>();
+    final List<String> checkedOut = new ArrayList<>();
+    final List<String> hijacked = new ArrayList<>();
+
+    for( String path : writables )
+    {
+      final CCaseStatusIndex.Entry entry = index.isEnabled() && !filesDirty.contains( path ) ? index.getValid( path ) : null;
+      final VirtualFile file = VcsUtil.getVirtualFile( path );
+      if( entry == null || file == null || !path.equals( pending.discoverOldName( path ) ) ||
+          file.getUserData( SUCCESSFUL_CHECKOUT ) != null || file.getUserData( MERGE_CONFLICT ) != null )
+        stale.add( path );
+      else
+      if( entry.status == Status.NOT_AN_ELEMENT )
+        unversioned.add( path );
+      else
+      if( entry.status == Status.CHECKED_OUT )
+        checkedOut.add( path );
+      else
+      if( entry.status == Status.HIJACKED )
+        hijacked.add( path );
+      else
+        stale.add( path );
+    }
+
+    LOG.debug( "ChangeProvider - " + (writables.size() - stale.size()) + " writable files taken from the status index." );
+    processViewStatusResults( unversioned, checkedOut, hijacked, Collections.emptyList() );
+    return stale;
+  }
+
+  /**
+   * Put the statuses just computed for the (not renamed) writable files into
+   * the status index, missing files which are still loaded are kept as
+   * missing; files which were not reported are dropped from it.
+   */
+  private void recordStatuses( final Collection<String> analyzed, final StatusMultipleProcessor processor )
+  {
+    final CCaseStatusIndex index = CCaseStatusIndex.getInstance();
+    if( !index.isEnabled() )
+      return;
+
+    final Map<String, String> versions = processor.getVersions();
+    for( String path : analyzed )
+    {
+      if( processor.getLocallyDeleted().contains( path ) )
+      {
+        index.recordMissing( path, false );
+        continue;
+      }
+
+      final Status status;
+      if( processor.getUnversioned().contains( path ) )
+        status = Status.NOT_AN_ELEMENT;
+      else
+      if( processor.getCheckoutFiles().contains( path ) )
+        status = Status.CHECKED_OUT;
+      else
+      if( processor.getHijackedFiles().contains( path ) )
+        status = Status.HIJACKED;
+      else
+        status = null;
+
+      if( status == null || !path.equals( pending.discoverOldName( path ) ) )
+        index.remove( path );
+      else
+        index.record( path, status, versions.get( path ) );
     }
   }
 
   private void processViewStatusResults(final StatusMultipleProcessor processor) {
-    for (String path : processor.getUnversioned()) {
+    processViewStatusResults(processor.getUnversioned(), processor.getCheckoutFiles(), processor.getHijackedFiles(),
+                             processor.getLocallyDeleted());
+  }
+
+  private void processViewStatusResults(final Collection<String> unversioned, final Collection<String> checkedOut,
+                                        final Collection<String> hijacked, final Collection<String> locallyDeleted) {
+    for (String path : unversioned) {
       filesNew.add(path);
     }
-    for (String path : processor.getCheckoutFiles()) {
-      if (host.renamedFiles.containsValue(path) || host.renamedFolders.containsValue(path)) continue;
+    for (String path : checkedOut) {
+      if (pending.renamedFiles.containsValue(path) || pending.renamedFolders.containsValue(path)) continue;
       filesChanged.add(path);
     }
-    for (String path : processor.getHijackedFiles()) {
-      final String oldName = host.discoverOldName(path);
+    for (String path : hijacked) {
+      final String oldName = pending.discoverOldName(path);
       if (path.equals(oldName)) {
         filesHijacked.add(path);
       } else {
         filesChanged.add(path);
       }
     }
-    for (String path : processor.getLocallyDeleted()) {
-      final String newName = host.discoverNewName(path);
+    for (String path : locallyDeleted) {
+      final String newName = pending.discoverNewName(path);
       // map holds new -> old
-      if (! host.renamedFiles.containsKey(newName)) {
+      if (! pending.renamedFiles.containsKey(newName)) {
         if (! path.equals(newName)) {
           //host.renamedFiles.put(newName, path);
           final File newFile = new File(newName);
@@ -375,7 +915,7 @@ public class CCaseChangeProvider implements ChangeProvider {
             filesChanged.add(newName);
           }
           continue;
-        } if (! host.renamedFolders.containsValue(newName)) {
+        } if (! pending.renamedFolders.containsValue(newName)) {
           filesLocallyDeleted.add(path);
         }
       } else {
@@ -384,49 +924,50 @@ public class CCaseChangeProvider implements ChangeProvider {
     }
   }
 
-  private void analyzeWritableFiles( HashSet<String> writables )
+  /**
+   * Runs on a pooled thread, see {@link #executePlan}.
+   */
+  private void analyzeWritableFiles( final List<String> writableFiles, final RootStatus result )
   {
-    if( writables.size() == 0 )
+    if( writableFiles.size() == 0 )
       return;
 
-    //-------------------------------------------------------------------------
-    //  1. Exclude those files for which status is known apriori:
-    //    - file has status "changed" right after it was checked out
-    //    - file has status "Merge Conflict" if that was indicated during
-    //      the last commit operation.
-    //  2. Guess file status given its previous file status.
-    //-------------------------------------------------------------------------
-    List<String> writableFiles = filterOutMarkedFiles( writables );
-
-    //-------------------------------------------------------------------------
     List<String> refNames = new ArrayList<>();
     for( String file : writableFiles )
     {
-      String legalName = host.discoverOldName(file).replace('\\', '/');
+      String legalName = pending.discoverOldName(file).replace('\\', '/');
       refNames.add(legalName);
     }
 
-    LOG.debug( "ChangeProvider - Analyzing writables in batch mode using CLEARTOOL on " + writables.size() + " files." );
+    LOG.debug( "ChangeProvider - Analyzing writables in batch mode using CLEARTOOL on " + writableFiles.size() + " files." );
 
     StatusMultipleProcessor processor = new StatusMultipleProcessor( refNames );
     processor.execute();
     LOG.debug( "ChangeProvider - \"CLEARTOOL LS\" batch command finished." );
 
-    processViewStatusResults(processor);
+    result.add(processor);
+    recordStatuses(writableFiles, processor);
   }
 
   /**
    * Do not analyze the file if we know that this file just has been
    * successfully checked out from the repository, its RO status is
-   * writable and it is ready for editing.
+   * writable and it is ready for editing; or it has status "Merge Conflict"
+   * indicated during the last commit operation.
    */
-  private List<String> filterOutMarkedFiles( HashSet<String> list )
+  private List<String> filterOutMarkedFiles( Set<String> list )
   {
     ArrayList<String> files = new ArrayList<>();
     for( String path : list )
     {
       VirtualFile file = VcsUtil.getVirtualFile( path );
 
+      //  Missing files are checked for being locally deleted.
+      if( file == null )
+      {
+        files.add( path );
+      }
+      else
       if( file.getUserData( SUCCESSFUL_CHECKOUT ) != null  )
       {
         //  Do not forget to delete this property right after the change
@@ -488,7 +1029,13 @@ public class CCaseChangeProvider implements ChangeProvider {
       }
       else
       {
-        filesHijacked.add( fileName );
+        //  Without a baseline there is no telling, assume the worst.
+        Status status = CCaseContentBaseline.getInstance().guessStatus( fileName );
+        if( Status.CHECKED_OUT.equals( status ) )
+          filesChanged.add( fileName );
+        else
+        if( status == null || Status.HIJACKED.equals( status ) )
+          filesHijacked.add( fileName );
       }
     }
   }
@@ -513,7 +1060,7 @@ public class CCaseChangeProvider implements ChangeProvider {
     {
       //  In the case of file rename or parent folder rename we should
       //  refer to the list of new files by the
-      final String refName = host.discoverOldName(fileName);
+      final String refName = pending.discoverOldName(fileName);
 
       if (! refName.equals(fileName)) {
         //filesChanged.add(fileName);
@@ -558,7 +1105,7 @@ public class CCaseChangeProvider implements ChangeProvider {
     List<String> refFilesToCheck = new ArrayList<>();
     for( String fileName : files )
     {
-      refFilesToCheck.add(host.discoverOldName(fileName));
+      refFilesToCheck.add(pending.discoverOldName(fileName));
     }
 
     DescribeMultipleProcessor processor = new DescribeMultipleProcessor( refFilesToCheck );
@@ -600,24 +1147,24 @@ public class CCaseChangeProvider implements ChangeProvider {
    */
   private void addChangedFiles( final ChangelistBuilder builder )
   {
-    filesChanged.removeAll(host.renamedFolders.keySet());
+    filesChanged.removeAll(pending.renamedFolders.keySet());
     //filesChanged.removeAll(host.renamedFiles.keySet());
 
     for( String fileName : filesChanged )
     {
-      String validRefName = host.discoverOldName(fileName);
+      String validRefName = pending.discoverOldName(fileName);
       add2ChangeList( builder, FileStatus.MODIFIED, fileName, validRefName );
     }
 
     for( String fileName : filesHijacked )
     {
-      String validRefName = host.discoverOldName(fileName);
+      String validRefName = pending.discoverOldName(fileName);
       add2ChangeList( builder, FileStatus.HIJACKED, fileName, validRefName );
     }
 
-    for( String folderName : host.renamedFolders.keySet() )
+    for( String folderName : pending.renamedFolders.keySet() )
     {
-      String oldFolderName = host.renamedFolders.get( folderName );
+      String oldFolderName = pending.renamedFolders.get( folderName );
 
       final FilePath refPath = VcsUtil.getFilePath( oldFolderName, true );
       final FilePath currPath = VcsUtil.getFilePath( folderName ); // == refPath if no rename occured
@@ -642,17 +1189,17 @@ public class CCaseChangeProvider implements ChangeProvider {
   private void addRemovedFiles( final ChangelistBuilder builder )
   {
     //  Use additional set to remove async modification conflicts
-    final HashSet<String> files = new HashSet<>(host.removedFolders);
+    final HashSet<String> files = new HashSet<>(pending.removedFolders);
     for( String path : files )
       builder.processLocallyDeletedFile( VcsUtil.getFilePath( path, true ) );
 
     files.clear();
-    files.addAll( host.removedFiles );
+    files.addAll( pending.removedFiles );
     for( String path : files )
       builder.processLocallyDeletedFile( VcsUtil.getFilePath( path, false ) );
 
     files.clear();
-    files.addAll( host.deletedFolders );
+    files.addAll( pending.deletedFolders );
     for( String path : files )
     {
       FilePath refPath = VcsUtil.getFilePath( path, true );
@@ -661,7 +1208,7 @@ public class CCaseChangeProvider implements ChangeProvider {
     }
 
     files.clear();
-    files.addAll( host.deletedFiles );
+    files.addAll( pending.deletedFiles );
     for( String path : files )
     {
       FilePath refPath = VcsUtil.getFilePath( path, false );
@@ -712,6 +1259,8 @@ public class CCaseChangeProvider implements ChangeProvider {
   {
     filesLocallyDeleted.clear();
     filesWritable.clear();
+    filesDirty.clear();
+    elementsUnder.clear();
     filesNew.clear();
     filesChanged.clear();
     filesHijacked.clear();
@@ -745,12 +1294,7 @@ public class CCaseChangeProvider implements ChangeProvider {
 
   @Nullable
   private String getUnderRenamedFolder(String fileName) {
-    for (String folder : host.renamedFolders.keySet()) {
-      if (fileName.startsWith(folder)) {
-        return folder;
-      }
-    }
-    return null;
+    return pending.renamedFolders.findRenamedAncestor(fileName);
   }
 
   static boolean isValidFile( VirtualFile file )
@@ -5,15 +5,16 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.FileStatusManager;
+import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.ByteBackedContentRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.CharsetToolkit;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.encoding.EncodingProjectManager;
-import com.intellij.util.ArrayUtil;
 import com.intellij.util.WaitForProgressToShow;
 import com.intellij.vcsUtil.VcsImplUtil;
 import com.intellij.vcsUtil.VcsUtil;
+import net.sourceforge.transparent.History.CCaseHistoryCache;
 import net.sourceforge.transparent.History.CCaseHistoryParser;
 import net.sourceforge.transparent.TransparentVcs;
 import org.jetbrains.annotations.NonNls;
@@ -149,7 +150,7 @@ public class CCaseContentRevision implements ByteBackedContentRevision
     return content;
   }
 
-  private void detectVersion(FileStatusManager mgr) {
+  private void detectVersion(FileStatusManager mgr) throws VcsException {
     if(file == null) {
       String out = TransparentVcs.cleartoolWithOutput("describe", revisionPath.getPath());
       myVersion = parseLastRepositoryVersion( out );
@@ -162,15 +163,12 @@ public class CCaseContentRevision implements ByteBackedContentRevision
       //  does not work for this file if only we did not specify "@@" at
       //  the end, explicitely telling that we are interesting in the
       //  repository object. In this case we need only to extract the version
-      //  identifier latest in the hitory (first record).
+      //  identifier latest in the hitory (first record), known to the
+      //  history cache once the history was shown.
       //---------------------------------------------------------------------
       if( mgr.getStatus( file ) == FileStatus.HIJACKED ) {
-        final List<String> commandParts = new ArrayList<>();
-        commandParts.add("lshistory");
-        CCaseHistoryParser.fillParametersVersionOnly(commandParts);
-        commandParts.add(file.getPath() + VERSION_SEPARATOR);
-        String log = TransparentVcs.cleartoolWithOutput(ArrayUtil.toStringArray(commandParts));
-        ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryParser.parse( log );
+        final List<CCaseHistoryParser.SubmissionData> changes = new ArrayList<>();
+        CCaseHistoryCache.getInstance().getHistory(file.getPath() + VERSION_SEPARATOR, 1, changes::add);
         if(changes.size() > 0) {
           myVersion = changes.get( 0 ).version;
 
@@ -179,7 +177,7 @@ public class CCaseContentRevision implements ByteBackedContentRevision
             myVersion = myVersion.substring( 2 );
         }
       } else {
-        String out = TransparentVcs.cleartoolWithOutput( "describe", file.getPath() );
+        String out = TransparentVcs.cachedCleartoolWithOutput( file.getPath(), "describe" );
         myVersion = parseLastRepositoryVersion( out );
       }
     }
@@ -0,0 +1,270 @@
+package net.sourceforge.transparent.ChangeManagement;
+
+import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.CleartoolBatcher;
+import net.sourceforge.transparent.CleartoolExecutor;
+import net.sourceforge.transparent.CleartoolMetrics;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses, per content root, how the change provider learns the status of
+ * the writable files it could not take from the status index:
+ * - nothing to ask ("cache only") when all of them are indexed;
+ * - "ls -directory" over the files, in as few batches as the command line
+ *   allows;
+ * - "ls -recurse -view_only" over the minimal set of the recursively dirty
+ *   folders which cover the files;
+ * - "lsco -cview -recurse" over the same folders plus "lsprivate -other" of
+ *   the VOB, restricted to the folders (snapshot views only): files which
+ *   are neither checked out nor private are listed by "ls -directory".
+ * Files outside the covering folders are always listed by "ls -directory".
+ *
+ * The latency of the "ls -directory" batches is fitted from the calls made
+ * so far in the view (see {@link CleartoolMetrics.Stat#getLatencyModel}),
+ * apart from the recursive "ls" calls, which cost per element of the tree
+ * rather than per path; the recursive commands are estimated by the time
+ * per element, measured after every run of such a plan. Until there are
+ * measurements, rough defaults are used.
+ */
+public class CCaseStatusPlanner
+{
+  @NonNls private static final String LS = "ls";
+  @NonNls private static final String LSPRIVATE = "lsprivate";
+  @NonNls private static final String[] LS_BATCH_PREFIX = { LS, CleartoolMetrics.DIRECTORY_SWITCH };
+  @NonNls private static final String LS_BATCH = CleartoolMetrics.getCommandKey( LS_BATCH_PREFIX );
+  @NonNls private static final String LS_RECURSIVE = CleartoolMetrics.getCommandKey( new String[] { LS, CleartoolMetrics.RECURSE_SWITCH } );
+  @NonNls private static final String LSCO_RECURSIVE = CleartoolMetrics.getCommandKey( new String[] { "lsco", CleartoolMetrics.RECURSE_SWITCH } );
+
+  //  "path@@/main/branch/12   Rule: ..." - the path plus this much.
+  private static final int LS_LINE_OVERHEAD = 40;
+
+  private static final double DEFAULT_FIXED_MILLIS = 300;
+  private static final double DEFAULT_MILLIS_PER_CHAR = 0.1;
+  private static final double DEFAULT_RECURSIVE_MILLIS_PER_ELEMENT = 2;
+  private static final double DEFAULT_CHECKOUTS_MILLIS_PER_ELEMENT = 3;
+
+  //  Weight of the last measurement of the time per element.
+  private static final double ALPHA = 0.3;
+
+  private static final CCaseStatusPlanner ourInstance = new CCaseStatusPlanner();
+
+  public enum Strategy
+  {
+    CACHE_ONLY( "cache only" ),
+    BATCHED_LS( "ls -directory" ),
+    RECURSIVE_LS( "ls -recurse -view_only" ),
+    CHECKOUTS_AND_PRIVATE( "lsco -recurse + lsprivate" );
+
+    private final String title;
+
+    Strategy( String title )  {  this.title = title;  }
+
+    public String toString()  {  return title;  }
+  }
+
+  /**
+   * What has to be found out under one content root.
+   */
+  public static class RootWork
+  {
+    public final String root;
+    public final String view;
+    public final boolean snapshot;
+    public final List<String> staleFiles;
+    public final List<String> coveringDirs;
+    public final int elements;
+
+    /**
+     * @param coveringDirs minimal set of the recursively dirty folders under the root.
+     * @param elements     number of files and folders under them.
+     */
+    public RootWork( String root, String view, boolean snapshot, List<String> staleFiles, List<String> coveringDirs, int elements )
+    {
+      this.root = root;
+      this.view = view;
+      this.snapshot = snapshot;
+      this.staleFiles = staleFiles;
+      this.coveringDirs = coveringDirs;
+      this.elements = elements;
+    }
+  }
+
+  public static class Plan
+  {
+    public final RootWork work;
+    public final Strategy strategy;
+    //  Stale files under the covering folders and the rest of them.
+    public final List<String> covered;
+    public final List<String> leftovers;
+    public final Map<Strategy, Double> estimates;
+
+    Plan( RootWork work, Strategy strategy, List<String> covered, List<String> leftovers, Map<Strategy, Double> estimates )
+    {
+      this.work = work;
+      this.strategy = strategy;
+      this.covered = covered;
+      this.leftovers = leftovers;
+      this.estimates = estimates;
+    }
+
+    public String toString()
+    {
+      StringBuilder buf = new StringBuilder();
+      buf.append( work.root ).append( " [" ).append( work.view ).append( "]: " ).append( strategy )
+         .append( " for " ).append( work.staleFiles.size() ).append( " files" );
+      if( strategy == Strategy.RECURSIVE_LS || strategy == Strategy.CHECKOUTS_AND_PRIVATE )
+        buf.append( " under " ).append( work.coveringDirs.size() ).append( " folders (" ).append( work.elements )
+           .append( " elements), " ).append( leftovers.size() ).append( " more by ls -directory" );
+      buf.append( "; estimates:" );
+      for( Map.Entry<Strategy, Double> entry : estimates.entrySet() )
+        buf.append( ' ' ).append( entry.getKey() ).append( " = " ).append( Math.round( entry.getValue() ) ).append( " ms;" );
+      return buf.toString();
+    }
+  }
+
+  //  Measured ms per element, by view and strategy.
+  private final Map<String, Double> millisPerElement = new ConcurrentHashMap<>();
+
+  public static CCaseStatusPlanner getInstance() {  return ourInstance;  }
+
+  @NotNull
+  public Plan plan( @NotNull RootWork work )
+  {
+    Map<Strategy, Double> estimates = new EnumMap<>( Strategy.class );
+    if( work.staleFiles.isEmpty() )
+    {
+      estimates.put( Strategy.CACHE_ONLY, 0.0 );
+      return new Plan( work, Strategy.CACHE_ONLY, Collections.emptyList(), Collections.emptyList(), estimates );
+    }
+
+    List<String> covered = new ArrayList<>();
+    List<String> leftovers = new ArrayList<>();
+    for( String path : work.staleFiles )
+    {
+      if( isUnderAny( path, work.coveringDirs ) )
+        covered.add( path );
+      else
+        leftovers.add( path );
+    }
+
+    estimates.put( Strategy.BATCHED_LS, estimateBatchedLs( work.view, work.staleFiles ) );
+    if( !covered.isEmpty() )
+    {
+      double rest = leftovers.isEmpty() ? 0 : estimateBatchedLs( work.view, leftovers );
+      int parallel = Math.max( 1, Math.min( getParallelism(), work.coveringDirs.size() ) );
+
+      //  Measurements are the elapsed time, the folders being listed in parallel.
+      Double measured = millisPerElement.get( getKey( work.view, Strategy.RECURSIVE_LS ) );
+      double recursive = measured != null ? work.elements * measured
+                                          : (work.coveringDirs.size() * getLatencyModel( LS_RECURSIVE, work.view )[ 0 ] +
+                                             work.elements * DEFAULT_RECURSIVE_MILLIS_PER_ELEMENT) / parallel;
+      estimates.put( Strategy.RECURSIVE_LS, recursive + rest );
+
+      if( work.snapshot )
+      {
+        measured = millisPerElement.get( getKey( work.view, Strategy.CHECKOUTS_AND_PRIVATE ) );
+        double checkouts = measured != null ? work.elements * measured
+                                            : getLatencyModel( LSCO_RECURSIVE, work.view )[ 0 ] +
+                                              getLatencyModel( LSPRIVATE, work.view )[ 0 ] +
+                                              work.elements * DEFAULT_CHECKOUTS_MILLIS_PER_ELEMENT;
+        estimates.put( Strategy.CHECKOUTS_AND_PRIVATE, checkouts + rest );
+      }
+    }
+
+    Strategy best = Strategy.BATCHED_LS;
+    for( Map.Entry<Strategy, Double> entry : estimates.entrySet() )
+    {
+      if( entry.getValue() < estimates.get( best ) )
+        best = entry.getKey();
+    }
+    return best == Strategy.BATCHED_LS ? new Plan( work, best, Collections.emptyList(), work.staleFiles, estimates )
+                                       : new Plan( work, best, covered, leftovers, estimates );
+  }
+
+  /**
+   * Remember how long the recursive commands of a plan took over its folders
+   * (the start of the commands included).
+   */
+  public void recordWalk( @NotNull String view, @NotNull Strategy strategy, int elements, long millis )
+  {
+    if( elements <= 0 )
+      return;
+
+    double measured = (double)millis / elements;
+    millisPerElement.merge( getKey( view, strategy ), measured,
+                            (previous, last) -> previous * (1 - ALPHA) + last * ALPHA );
+  }
+
+  private double estimateBatchedLs( String view, List<String> files )
+  {
+    String[] paths = ArrayUtil.toStringArray( files );
+    int parallel = getParallelism();
+    int batches = CleartoolBatcher.split( LS_BATCH_PREFIX, paths, parallel ).size();
+
+    long chars = 0;
+    for( String path : paths )
+      chars += path.length() + LS_LINE_OVERHEAD;
+
+    double[] model = getLatencyModel( LS_BATCH, view );
+    double total = batches * model[ 0 ] + chars * model[ 1 ];
+    return total / Math.max( 1, Math.min( parallel, batches ) );
+  }
+
+  private static String getKey( String view, Strategy strategy )
+  {
+    return view + '\t' + strategy.name();
+  }
+
+  /**
+   * @param subcommand as accounted by {@link CleartoolMetrics#getCommandKey}.
+   * @return {fixed ms per call, ms per output char} of the subcommand in the view.
+   */
+  private static double[] getLatencyModel( String subcommand, String view )
+  {
+    CleartoolMetrics.Stat stat = CleartoolMetrics.getInstance().getStatistics( subcommand, view );
+    double[] model = stat != null ? stat.getLatencyModel() : null;
+    if( model != null )
+      return model;
+
+    //  Only the fixed cost is known from a few calls.
+    if( stat != null && stat.getCount() > 0 )
+      return new double[] { (double)stat.getTotalMillis() / stat.getCount(), DEFAULT_MILLIS_PER_CHAR };
+    return new double[] { DEFAULT_FIXED_MILLIS, DEFAULT_MILLIS_PER_CHAR };
+  }
+
+  private static int getParallelism()
+  {
+    return Math.max( 1, CleartoolExecutor.getInstance().getMaxConcurrentPerVob() );
+  }
+
+  static boolean isUnderAny( @NotNull String path, @NotNull Collection<String> dirs )
+  {
+    for( String dir : dirs )
+    {
+      if( path.startsWith( dir ) && (path.length() == dir.length() || path.charAt( dir.length() ) == '/' || dir.endsWith( "/" )) )
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return folders of the list which are not under another one of them.
+   */
+  @NotNull
+  static List<String> getCoveringSet( @NotNull Collection<String> dirs )
+  {
+    List<String> sorted = new ArrayList<>( dirs );
+    Collections.sort( sorted );
+    List<String> result = new ArrayList<>();
+    for( String dir : sorted )
+    {
+      if( !isUnderAny( dir, result ) )
+        result.add( dir );
+    }
+    return result;
+  }
+}
@@ -8,7 +8,8 @@ import com.intellij.openapi.vcs.VirtualFileFilter;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.hash.HashMap;
-import com.intellij.util.containers.hash.HashSet;
+import net.sourceforge.transparent.CCasePathSet;
+import net.sourceforge.transparent.CCasePathTrie;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -16,16 +17,24 @@ import java.util.*;
 public class CCaseWriteableAndUnversionedCollector {
   private final Project myProject;
   private final TransparentI myTransparentI;
-  private final Set<String> myFilesWritable;
-  private final Set<String> myFilesIgnored;
+  private final CCasePathSet myFilesWritable;
+  private final CCasePathSet myFilesIgnored;
   private final TreeSet<VirtualFile> myDirs;
+  private int myFilesVisited;
 
   public CCaseWriteableAndUnversionedCollector(Project project, final TransparentI transparentI) {
+    this(project, transparentI, new CCasePathTrie());
+  }
+
+  /**
+   * @param trie trie of the sets the results are to be added to.
+   */
+  public CCaseWriteableAndUnversionedCollector(Project project, final TransparentI transparentI, @NotNull final CCasePathTrie trie) {
     myProject = project;
     myTransparentI = transparentI;
     myDirs = new TreeSet<>(FilePathComparator.getInstance());
-    myFilesIgnored = new HashSet<>();
-    myFilesWritable = new HashSet<>();
+    myFilesIgnored = new CCasePathSet(trie);
+    myFilesWritable = new CCasePathSet(trie);
   }
 
   public Set<String> getFilesWritable() {
@@ -40,6 +49,14 @@ public class CCaseWriteableAndUnversionedCollector {
     return myDirs;
   }
 
+  /**
+   * @return number of files and folders met by the walk, the size of the
+   *         subtree for the cost estimates.
+   */
+  public int getFilesVisited() {
+    return myFilesVisited;
+  }
+
   /**
    * Iterate over the project structure and collect two types of files:
    * - writable files, they are the subject for subsequent analysis
@@ -56,6 +73,7 @@ public class CCaseWriteableAndUnversionedCollector {
       ProjectLevelVcsManager.getInstance(myProject).iterateVcsRoot(vf, file -> {
         final String path = file.getPath().replace('\\', '/');
         final VirtualFile vFile = file.getVirtualFile();
+        myFilesVisited++;
         if (vFile == null || ! vFile.isValid()) return true;
         if (myTransparentI.isFileIgnored(vFile)) {
           myFilesIgnored.add(path);
@@ -112,7 +130,8 @@ public class CCaseWriteableAndUnversionedCollector {
   private boolean directoryIsVersioned(@NotNull final VirtualFile virtualFile) {
     final String dirPath = virtualFile.getPath();
     return Boolean.TRUE.equals(virtualFile.getUserData(CCaseChangeProvider.ourVersionedKey)) ||
-           myTransparentI.isRenamedFolder(dirPath) || myTransparentI.isCheckedOutFolder(dirPath);
+           myTransparentI.isRenamedFolder(dirPath) || myTransparentI.isCheckedOutFolder(dirPath) ||
+           myTransparentI.isIndexedVersionedFolder(dirPath);
   }
 
   private void removeParentsFromUnversioned(VirtualFile vFile) {
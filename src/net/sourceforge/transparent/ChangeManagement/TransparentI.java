@@ -7,4 +7,5 @@ public interface TransparentI {
   boolean isRenamedFile(final String path);
   boolean isRenamedFolder(final String path);
   boolean isCheckedOutFolder(final String path);
+  boolean isIndexedVersionedFolder(final String path);
 }
@@ -2,11 +2,11 @@ package net.sourceforge.transparent.Checkin;
 
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.CleartoolBatcher;
 import net.sourceforge.transparent.TransparentVcs;
 import org.jetbrains.annotations.NonNls;
 
 import java.util.HashSet;
-import java.util.LinkedList;
 
 public class AddMultipleProcessor
 {
@@ -14,8 +14,6 @@ public class AddMultipleProcessor
   @NonNls private static final String COMMENT_SWITCH = "-c";
   @NonNls private static final String NO_COMMENT_SWITCH = "-nc";
 
-  private static final int  CMDLINE_MAX_LENGTH = 1024;
-
   private final String[] files;
   private final String comment;
 
@@ -27,36 +25,13 @@ public class AddMultipleProcessor
 
   public void execute()
   {
-    int currFileIndex = 0;
-    int cmdLineLen;
-    LinkedList<String> options = new LinkedList<>();
-    while( currFileIndex < files.length )
-    {
-      options.clear();
-      options.add(MKELEM_COMMAND);
-      if( StringUtil.isNotEmpty( comment ) )
-      {
-        options.add( COMMENT_SWITCH );
-        options.add( quote(comment) );
-        cmdLineLen = MKELEM_COMMAND.length() + COMMENT_SWITCH.length() + comment.length();
-      }
-      else
-      {
-        options.add( NO_COMMENT_SWITCH );
-        cmdLineLen = MKELEM_COMMAND.length() + NO_COMMENT_SWITCH.length();
-      }
-
-      while( currFileIndex < files.length && cmdLineLen < CMDLINE_MAX_LENGTH )
-      {
-        String path = files[ currFileIndex++ ];
-        options.add( path );
-        cmdLineLen += path.length() + 1;
-      }
-
-      String[] aOptions = ArrayUtil.toStringArray(options);
-       TransparentVcs.cleartoolWithOutput( aOptions );
-    }
+    String[] prefix = StringUtil.isNotEmpty( comment ) ? new String[] { MKELEM_COMMAND, COMMENT_SWITCH, comment }
+                                                       : new String[] { MKELEM_COMMAND, NO_COMMENT_SWITCH };
+
+    //  Batches are not run concurrently here: "mkelem" checks out the parent
+    //  folder of every new element, and two commands adding files into the
+    //  same folder would fail on each other's checkout.
+    for( String[] batch : CleartoolBatcher.split( prefix, files, 1 ) )
+      TransparentVcs.cleartoolWithOutput( batch );
   }
-  
-  private  static String quote(String str) {  return "\"" + str.replaceAll("\"", "\\\"") + "\"";  }
 }
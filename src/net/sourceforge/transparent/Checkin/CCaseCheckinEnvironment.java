@@ -22,6 +22,7 @@ import com.intellij.util.NullableFunction;
 import com.intellij.util.PairConsumer;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.*;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -33,8 +34,10 @@ import java.awt.event.FocusListener;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static com.intellij.util.containers.ContainerUtil.map;
 import static com.intellij.util.containers.ContainerUtil.map2Array;
@@ -90,8 +93,7 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
    */
   public String getDefaultMessageFor( FilePath[] filesToCheckin )
   {
-    ClearCase cc = host.getClearCase();
-    HashSet<String> commentsPerFile = new HashSet<>();
+    List<String> checkedOut = new ArrayList<>();
     for( FilePath path : filesToCheckin )
     {
       //  For ADDED or DELETED files checkout comment has no sence.
@@ -102,14 +104,24 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
       {
         FileStatus status = FileStatusManager.getInstance(project).getStatus( vfile );
         if( status != FileStatus.ADDED )
-        {
-          String fileComment = cc.getCheckoutComment( new File( path.getPresentableUrl() ) );
-          if( StringUtil.isNotEmpty( fileComment ) )
-            commentsPerFile.add( fileComment );
-        }
+          checkedOut.add( path.getPresentableUrl() );
       }
     }
 
+    //  Ask for the comments of all files at once - the dialog must not wait
+    //  for a cleartool process per file.
+    CheckoutInfoMultipleProcessor processor = new CheckoutInfoMultipleProcessor( checkedOut );
+    processor.execute();
+
+    //  LinkedHashSet: keep the comments in the order of files in the dialog.
+    Set<String> commentsPerFile = new LinkedHashSet<>();
+    for( String path : checkedOut )
+    {
+      String fileComment = processor.getInfo( path ).comment;
+      if( StringUtil.isNotEmpty( fileComment ) )
+        commentsPerFile.add( fileComment );
+    }
+
     StringBuilder overallComment = new StringBuilder();
     for( String comment : commentsPerFile )
     {
@@ -188,14 +200,28 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
   }
 
   private void checkForUnchangedFolders(List<Change> changes, final List<VcsException> errors, final String comment) {
+    final List<File> folders = new ArrayList<>();
+    final List<CompletableFuture<Status>> statuses = new ArrayList<>();
     for (Change change : changes) {
       final FilePath filePath = ChangesUtil.getFilePath(change);
       final File ioFile = filePath.getIOFile();
       if (filePath.isDirectory() && ioFile.exists()) {
-        final Status status = host.getStatus(ioFile);
-        if (Status.CHECKED_OUT.equals(status)) {
-          host.checkinFile(ioFile, comment, errors);
-        }
+        folders.add(ioFile);
+        statuses.add(host.getStatusAsync(ioFile));
+      }
+    }
+
+    final List<Status> results;
+    try {
+      results = CleartoolExecutor.joinAll(statuses);
+    }
+    catch (ClearCaseException e) {
+      errors.add(new VcsException(e));
+      return;
+    }
+    for (int i = 0; i < folders.size(); i++) {
+      if (Status.CHECKED_OUT.equals(results.get(i))) {
+        host.checkinFile(folders.get(i), comment, errors);
       }
     }
   }
@@ -266,7 +292,7 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
         {
           host.moveRenameAndCheckInFile( oldFile.getPath(), newFile.getVirtualFileParent().getPath(), newFile.getName(), comment, errors );
         }
-        host.renamedFolders.remove( newFile.getPath() );
+        host.updatePendingChanges( () -> host.renamedFolders.remove( newFile.getPath() ) );
         incrementProgress( newFile.getPath() );
       }
     }
@@ -441,9 +467,11 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
         final FilePath fp = change.getBeforeRevision().getFile();
         host.removeFile( fp.getIOFile(), comment, errors );
 
-        String path = VcsUtil.getCanonicalLocalPath( fp.getPath() );
-        host.deletedFiles.remove( path );
-        host.deletedFolders.remove( path );
+        final String path = VcsUtil.getCanonicalLocalPath( fp.getPath() );
+        host.updatePendingChanges( () -> {
+          host.deletedFiles.remove( path );
+          host.deletedFolders.remove( path );
+        } );
 
         incrementProgress( fp.getPath() );
         VcsDirtyScopeManager.getInstance(project).fileDirty(fp);
@@ -454,6 +482,8 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
   private void commitChanged( List<Change> changes, String comment,
                               HashSet<FilePath> processedFiles, List<VcsException> errors )
   {
+    //  Plain checkins go to cleartool all at once, renames one by one.
+    List<FilePath> checkins = new ArrayList<>();
     for( Change change : changes )
     {
       if( !VcsUtil.isChangeForNew( change ) &&
@@ -480,33 +510,42 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
             String newFolder = file.getVirtualFileParent().getPath();
             host.moveRenameAndCheckInFile( oldPath, newFolder, file.getName(), comment, errors );
           }
-          host.renamedFiles.remove( newPath );
+          host.updatePendingChanges( () -> host.renamedFiles.remove( newPath ) );
+          processedFiles.add( file );
+          incrementProgress( file.getPath() );
         }
         else
         {
-          host.checkinFile( file, comment, errors );
-
-          CCaseViewsManager viewsManager = CCaseViewsManager.getInstance( project );
-          if( CCaseSharedConfig.getInstance(project).isUseUcmModel() && viewsManager.isUcmViewForFile( file ) )
-          {
-            //  If the file was checked out using one view's activity but has then
-            //  been moved to another changelist (activity) we must issue "chactivity"
-            //  command for the file element so that subsequent "checkin" command
-            //  behaves as desired.
-
-            String activity = viewsManager.getCheckoutActivityForFile( file.getPath() );
-            if(( activity != null ) && !activity.equals( submittedChangeListName ) )
-            {
-              TransparentVcs.LOG.info( " --changeActivityForLastVersion - activities do not coinside: [" +
-                                       activity + "] vs [" + submittedChangeListName + "]" );
-              host.changeActivityForLastVersion( file, activity, submittedChangeListName, errors );
-            }
-          }
+          checkins.add( file );
         }
+      }
+    }
+    if( checkins.isEmpty() )
+      return;
 
-        processedFiles.add( file );
-        incrementProgress( file.getPath() );
+    host.checkinFiles( checkins, comment, errors );
+
+    CCaseViewsManager viewsManager = CCaseViewsManager.getInstance( project );
+    for( FilePath file : checkins )
+    {
+      if( CCaseSharedConfig.getInstance(project).isUseUcmModel() && viewsManager.isUcmViewForFile( file ) )
+      {
+        //  If the file was checked out using one view's activity but has then
+        //  been moved to another changelist (activity) we must issue "chactivity"
+        //  command for the file element so that subsequent "checkin" command
+        //  behaves as desired.
+
+        String activity = viewsManager.getCheckoutActivityForFile( file.getPath() );
+        if(( activity != null ) && !activity.equals( submittedChangeListName ) )
+        {
+          TransparentVcs.LOG.info( " --changeActivityForLastVersion - activities do not coinside: [" +
+                                   activity + "] vs [" + submittedChangeListName + "]" );
+          host.changeActivityForLastVersion( file, activity, submittedChangeListName, errors );
+        }
       }
+
+      processedFiles.add( file );
+      incrementProgress( file.getPath() );
     }
   }
 
@@ -518,14 +557,16 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
     List<VcsException> errors = new ArrayList<>();
     for( FilePath file : paths )
     {
-      String path = VcsUtil.getCanonicalLocalPath( file.getPath() );
+      final String path = VcsUtil.getCanonicalLocalPath( file.getPath() );
       if( host.removedFiles.contains( path ) || host.removedFolders.contains( path ) )
       {
         host.removeFile( file.getIOFile(), null, errors );
       }
 
-      host.removedFiles.remove( path );
-      host.removedFolders.remove( path );
+      host.updatePendingChanges( () -> {
+        host.removedFiles.remove( path );
+        host.removedFolders.remove( path );
+      } );
     }
     return errors;
   }
@@ -546,18 +587,16 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
   private Set<VirtualFile> getNecessaryRenamedFoldersForList( List<Change> changes )
   {
     Set<VirtualFile> set = new HashSet<>();
+    CCasePendingChanges pending = host.getPendingChanges();
     for( Change change : changes )
     {
       ContentRevision rev = change.getAfterRevision();
       if( rev != null )
       {
-        for( String newFolderName : host.renamedFolders.keySet() )
+        for( String newFolderName : pending.renamedFolders.findRenamedAncestors( rev.getFile().getPath() ) )
         {
-          if( rev.getFile().getPath().startsWith( newFolderName ) )
-          {
-            VirtualFile parent = VcsUtil.getVirtualFile( newFolderName );
-            set.add( parent );
-          }
+          VirtualFile parent = VcsUtil.getVirtualFile( newFolderName );
+          set.add( parent );
         }
       }
     }
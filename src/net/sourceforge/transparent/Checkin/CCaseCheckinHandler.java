@@ -5,6 +5,7 @@ import com.intellij.openapi.vcs.CheckinProjectPanel;
 import com.intellij.openapi.vcs.checkin.CheckinHandler;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
+import net.sourceforge.transparent.CCasePendingChanges;
 import net.sourceforge.transparent.TransparentVcs;
 
 import java.util.Collection;
@@ -30,15 +31,13 @@ public class CCaseCheckinHandler extends CheckinHandler
 
     //  Add those folders which are renamed and are parents for the files
     //  marked for checkin.
+    CCasePendingChanges pending = host.getPendingChanges();
     for( VirtualFile file : files )
     {
-      for( String newFolderName : host.renamedFolders.keySet() )
+      for( String newFolderName : pending.renamedFolders.findRenamedAncestors( file.getPath() ) )
       {
-        if( file.getPath().startsWith( newFolderName ) )
-        {
-          VirtualFile parent = VcsUtil.getVirtualFile( newFolderName );
-          set.add( parent );
-        }
+        VirtualFile parent = VcsUtil.getVirtualFile( newFolderName );
+        set.add( parent );
       }
     }
 
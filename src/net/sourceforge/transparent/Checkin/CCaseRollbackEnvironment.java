@@ -83,7 +83,7 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
         File folderOld = oldFolderPath.getIOFile();
         
         folderNew.renameTo( folderOld );
-        host.renamedFolders.remove( VcsUtil.getCanonicalLocalPath( folderNew.getPath() ) );
+        host.updatePendingChanges( () -> host.renamedFolders.remove( VcsUtil.getCanonicalLocalPath( folderNew.getPath() ) ) );
 
         processedFiles.add( oldFolderPath );
         LocalFileSystem.getInstance().refreshAndFindFileByPath(folderOld.getPath());
@@ -203,7 +203,7 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
             errors.addAll( localErrors );
           }
 
-          host.renamedFiles.remove( filePath.getPath() );
+          host.updatePendingChanges( () -> host.renamedFiles.remove( filePath.getPath() ) );
           FileUtil.delete( new File( path ) );
         }
         else
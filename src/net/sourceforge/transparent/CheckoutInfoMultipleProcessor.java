@@ -0,0 +1,196 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Retrieves the checkout metadata (reservation, comment, activity, user and
+ * the version checked out from) for many files with one "lscheckout -fmt"
+ * per batch instead of a separate cleartool process per file and property.
+ */
+public class CheckoutInfoMultipleProcessor
+{
+  @NonNls private static final String LSCHECKOUT_COMMAND = "lscheckout";
+  @NonNls private static final String CURRENT_VIEW_SWITCH = "-cview";
+  @NonNls private static final String DIR_SWITCH = "-directory";
+  @NonNls private static final String FMT_SWITCH = "-fmt";
+
+  //  Comments may span several lines, so every record is explicitly
+  //  terminated; the markers use no characters special to any shell or to
+  //  the interactive cleartool line parser.
+  @NonNls private static final String FIELD_SIG = "~#~";
+  @NonNls private static final String RECORD_END_SIG = "~##~";
+  @NonNls private static final String FORMAT_SIG = "%En" + FIELD_SIG + "%Rf" + FIELD_SIG + "%u" + FIELD_SIG +
+                                                   "%[activity]p" + FIELD_SIG + "%PVn" + FIELD_SIG + "%c" + RECORD_END_SIG + "\\n";
+  @NonNls private static final String RESERVED_SIG = "reserved";
+  @NonNls private static final String UNRESERVED_SIG = "unreserved";
+  private static final int FIELDS_NUMBER = 6;
+
+  public static class CheckoutInfo
+  {
+    public static final CheckoutInfo NOT_CHECKED_OUT = new CheckoutInfo( CheckedOutStatus.NOT_CHECKED_OUT, "", "", "", "" );
+
+    public final CheckedOutStatus status;
+    public final String comment;
+    public final String user;
+    public final String activity;
+    /** Version the file was checked out from. */
+    public final String version;
+
+    CheckoutInfo( CheckedOutStatus status, String comment, String user, String activity, String version )
+    {
+      this.status = status;
+      this.comment = comment;
+      this.user = user;
+      this.activity = activity;
+      this.version = version;
+    }
+  }
+
+  private final String[] files;
+  //  Normalized folder the batches run in (see CleartoolBatcher.execute).
+  private final String workingDir;
+  private final HashMap<String, String> normalized2File = new HashMap<>();
+  private final HashMap<String, CheckoutInfo> file2Info = new HashMap<>();
+
+  public CheckoutInfoMultipleProcessor( Collection<String> paths )
+  {
+    files = ArrayUtil.toStringArray( paths );
+    for( String path : files )
+      normalized2File.put( normalize( path ), path );
+    workingDir = normalize( CleartoolBatcher.getCommonParent( files ) );
+  }
+
+  /**
+   * Single-file variant which goes through {@link CleartoolQueryCache}, so
+   * that consecutive requests for the status and the comment of the same
+   * file cost one cleartool call.
+   */
+  @NotNull
+  public static CheckoutInfo getInfo( @NotNull File file )
+  {
+    final String path = file.getAbsolutePath();
+    CleartoolQueryCache.Result result =
+      CleartoolQueryCache.getInstance().query( path, LSCHECKOUT_COMMAND, CURRENT_VIEW_SWITCH, FMT_SWITCH, FORMAT_SIG, DIR_SWITCH );
+    if( !result.successful || result.output == null )
+      return CheckoutInfo.NOT_CHECKED_OUT;
+
+    CheckoutInfoMultipleProcessor processor = new CheckoutInfoMultipleProcessor( Collections.singletonList( path ) );
+    RecordParser parser = processor.new RecordParser();
+    for( String line : result.output.split( "\n", -1 ) )
+      parser.onOutputLine( line );
+    return processor.getInfo( path );
+  }
+
+  public void execute()
+  {
+    final String[] prefix = { LSCHECKOUT_COMMAND, CURRENT_VIEW_SWITCH, FMT_SWITCH, FORMAT_SIG, DIR_SWITCH };
+    List<String[]> batches = CleartoolBatcher.split( prefix, files, CleartoolExecutor.getInstance().getMaxConcurrentPerVob() );
+
+    //  Every batch gets its own parser since records of different batches
+    //  interleave when they run concurrently.
+    CleartoolBatcher.execute( batches, CleartoolExecutor.getVobKey( files ),
+                              batch -> TransparentVcs.cleartoolWithListener( new RecordParser(), batch ) );
+  }
+
+  /**
+   * @return checkout metadata of the file, {@link CheckoutInfo#NOT_CHECKED_OUT}
+   *         if it is not checked out in the current view (or is not an element).
+   */
+  @NotNull
+  public CheckoutInfo getInfo( String fileName )
+  {
+    synchronized( file2Info )
+    {
+      CheckoutInfo info = file2Info.get( fileName );
+      return info == null ? CheckoutInfo.NOT_CHECKED_OUT : info;
+    }
+  }
+
+  /**
+   * Joins the output lines into records and the records into CheckoutInfo.
+   * NB: besides the records the output may contain info or warning messages
+   *     from different subsystems; they always come on their own lines before
+   *     the element name, which is the first field of a record.
+   */
+  private class RecordParser implements Runner.LineListener
+  {
+    private final StringBuilder record = new StringBuilder();
+
+    public void onOutputLine( @NotNull String line )
+    {
+      int end = line.indexOf( RECORD_END_SIG );
+      if( end == -1 )
+      {
+        record.append( line ).append( '\n' );
+        return;
+      }
+
+      record.append( line, 0, end );
+      parseRecord( record.toString() );
+      record.setLength( 0 );
+    }
+
+    public void onErrorLine( @NotNull String line )
+    {
+      TransparentVcs.LOG.debug( line );
+    }
+
+    private void parseRecord( String text )
+    {
+      String[] fields = text.split( FIELD_SIG, FIELDS_NUMBER );
+      if( fields.length < FIELDS_NUMBER )
+        return;
+
+      String elementName = fields[ 0 ].substring( fields[ 0 ].lastIndexOf( '\n' ) + 1 ).trim();
+      String file = findFile( elementName );
+      if( file == null )
+        return;
+
+      CheckedOutStatus status = fields[ 1 ].equalsIgnoreCase( RESERVED_SIG ) ? CheckedOutStatus.RESERVED :
+                                fields[ 1 ].equalsIgnoreCase( UNRESERVED_SIG ) ? CheckedOutStatus.UNRESERVED :
+                                CheckedOutStatus.NOT_CHECKED_OUT;
+      String comment = fields[ 5 ];
+      while( comment.endsWith( "\n" ) || comment.endsWith( "\r" ) )
+        comment = comment.substring( 0, comment.length() - 1 );
+
+      CheckoutInfo info = new CheckoutInfo( status, comment, fields[ 2 ], fields[ 3 ], fields[ 4 ] );
+      synchronized( file2Info )
+      {
+        file2Info.put( file, info );
+      }
+    }
+  }
+
+  /**
+   * cleartool reports the element name in the form it was given, but may
+   * shorten it relative to the working folder or change the separators.
+   */
+  @Nullable
+  private String findFile( String elementName )
+  {
+    String normalized = normalize( elementName );
+    String file = normalized2File.get( normalized );
+    if( file == null && !workingDir.isEmpty() )
+    {
+      String relative = normalized.startsWith( "./" ) ? normalized.substring( 2 ) : normalized;
+      file = normalized2File.get( workingDir + "/" + relative );
+    }
+    return file;
+  }
+
+  private static String normalize( String path )
+  {
+    String normalized = path.replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? normalized : normalized.toLowerCase();
+  }
+}
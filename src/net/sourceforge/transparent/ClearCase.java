@@ -6,6 +6,7 @@
 package net.sourceforge.transparent;
 
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
 // Referenced classes of package net.sourceforge.transparent:
 //            Status, CheckedOutStatus
@@ -28,4 +29,7 @@ public interface ClearCase
     void cleartool(String s);
     CheckedOutStatus getCheckedOutStatus(File file);
     String getCheckoutComment(File file);
+
+    CompletableFuture<Status> getStatusAsync(File file);
+    CompletableFuture<Void> checkInAsync(File file, String comment);
 }
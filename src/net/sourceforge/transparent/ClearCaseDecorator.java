@@ -1,6 +1,7 @@
 package net.sourceforge.transparent;
 
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
 public class ClearCaseDecorator implements ClearCase
 {
@@ -40,4 +41,7 @@ public class ClearCaseDecorator implements ClearCase
   public String getCheckoutComment(File file) {  return clearCase.getCheckoutComment(file);  }
 
   public void cleartool(String cmd) {  clearCase.cleartool(cmd);  }
+
+  public CompletableFuture<Status> getStatusAsync(File file) {  return clearCase.getStatusAsync(file);  }
+  public CompletableFuture<Void> checkInAsync(File file, String comment) {  return clearCase.checkInAsync(file, comment);  }
 }
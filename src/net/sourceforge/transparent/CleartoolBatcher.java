@@ -0,0 +1,188 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.util.SystemInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Splits a list of paths into as few cleartool command lines as the OS
+ * allows and runs the resulting batches concurrently through
+ * {@link CleartoolExecutor}.
+ *
+ * NB: cleartool has no option to read the list of pathnames from a file or
+ *     from stdin (the interactive mode reads commands, not arguments), so a
+ *     list which does not fit into one command line is always split.
+ */
+public class CleartoolBatcher
+{
+  //  Windows: CreateProcess() limit for the whole command line, in chars.
+  private static final int WINDOWS_CMDLINE_MAX = 32767;
+  //  Unix: ARG_MAX covers arguments and environment together, in bytes.
+  //  Linux allows much more nowadays (1/4 of the stack limit) but 128K is
+  //  the value guaranteed by any kernel; macOS has 256K.
+  private static final int LINUX_ARG_MAX = 128 * 1024;
+  private static final int MAC_ARG_MAX = 256 * 1024;
+  private static final int POINTER_SIZE = 8;
+  //  Leave some room for the variables set by the JVM and for the safety.
+  private static final int RESERVE = 4096;
+
+  //  Do not split small lists just to occupy more workers - the process
+  //  startup costs more than the work itself.
+  static final int MIN_FILES_PER_PARALLEL_BATCH = 50;
+
+  private static int ourBudget = -1;
+
+  private CleartoolBatcher() {}
+
+  /**
+   * @return the number of chars (Windows) or bytes (Unix) available for the
+   *         arguments of one cleartool process.
+   */
+  public static synchronized int getCommandLineBudget()
+  {
+    if( ourBudget < 0 )
+    {
+      if( SystemInfo.isWindows )
+      {
+        ourBudget = WINDOWS_CMDLINE_MAX - TransparentVcs.CLEARTOOL_CMD.length() - RESERVE;
+      }
+      else
+      {
+        int envSize = 0;
+        for( Map.Entry<String, String> var : System.getenv().entrySet() )
+          envSize += utf8Length( var.getKey() ) + utf8Length( var.getValue() ) + 2 + POINTER_SIZE;
+
+        int argMax = SystemInfo.isMac ? MAC_ARG_MAX : LINUX_ARG_MAX;
+        ourBudget = Math.max( RESERVE, argMax - envSize - RESERVE );
+      }
+    }
+    return ourBudget;
+  }
+
+  /**
+   * Cost of one argument on the command line: on Windows it is a separating
+   * space plus possible quotes, on Unix the terminating zero and the pointer
+   * in argv.
+   */
+  static int getArgumentCost( String arg )
+  {
+    return SystemInfo.isWindows ? arg.length() + 3 : utf8Length( arg ) + 1 + POINTER_SIZE;
+  }
+
+  private static int utf8Length( String s )
+  {
+    for( int i = 0; i < s.length(); i++ )
+    {
+      if( s.charAt( i ) > 0x7F )
+        return s.getBytes( StandardCharsets.UTF_8 ).length;
+    }
+    return s.length();
+  }
+
+  /**
+   * @param prefix      subcommand and options common to all batches.
+   * @param paths       arguments to distribute among the batches.
+   * @param parallelism desired number of batches when the list is large
+   *                    enough, even if fewer batches would fit.
+   * @return complete subcommands (without the leading "cleartool").
+   */
+  @NotNull
+  public static List<String[]> split( @NotNull String[] prefix, @NotNull String[] paths, int parallelism )
+  {
+    return split( prefix, paths, parallelism, getCommandLineBudget() );
+  }
+
+  @NotNull
+  static List<String[]> split( @NotNull String[] prefix, @NotNull String[] paths, int parallelism, int budget )
+  {
+    List<String[]> batches = new ArrayList<>();
+    if( paths.length == 0 )
+      return batches;
+
+    int prefixCost = 0;
+    for( String arg : prefix )
+      prefixCost += getArgumentCost( arg );
+    final int available = Math.max( 1, budget - prefixCost );
+
+    //  Spread the paths evenly among the batches so that they finish at about
+    //  the same time: limit the amount of files per batch as well.
+    //  A path longer than the budget takes one batch, whatever its length.
+    int totalCost = 0;
+    for( String path : paths )
+      totalCost += Math.min( available, getArgumentCost( path ) );
+    int batchCount = Math.max( (totalCost + available - 1) / available,
+                               Math.min( parallelism, paths.length / MIN_FILES_PER_PARALLEL_BATCH ) );
+    int maxFiles = (paths.length + Math.max( 1, batchCount ) - 1) / Math.max( 1, batchCount );
+
+    List<String> current = new ArrayList<>( Arrays.asList( prefix ) );
+    int currentCost = 0;
+    for( String path : paths )
+    {
+      int cost = getArgumentCost( path );
+      int currentFiles = current.size() - prefix.length;
+      if( currentFiles > 0 && (currentCost + cost > available || currentFiles >= maxFiles) )
+      {
+        batches.add( current.toArray( new String[ current.size() ] ) );
+        current = new ArrayList<>( Arrays.asList( prefix ) );
+        currentCost = 0;
+      }
+      //  A single path longer than the budget still gets its own command -
+      //  let cleartool (or the OS) report the problem for it.
+      current.add( path );
+      currentCost += cost;
+    }
+    batches.add( current.toArray( new String[ current.size() ] ) );
+    return batches;
+  }
+
+  /**
+   * Run the batches concurrently (within the limits of {@link CleartoolExecutor})
+   * and wait for all of them. A single batch is run in the calling thread.
+   * The command may be called from several threads at once.
+   *
+   * @param vobKey key for the per-VOB concurrency limit.
+   */
+  public static void execute( @NotNull List<String[]> batches, @NotNull String vobKey, @NotNull Consumer<String[]> command )
+  {
+    if( batches.size() == 1 )
+    {
+      command.accept( batches.get( 0 ) );
+      return;
+    }
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>( batches.size() );
+    for( final String[] batch : batches )
+      futures.add( CleartoolExecutor.getInstance().run( vobKey, () -> command.accept( batch ) ) );
+    CleartoolExecutor.joinAll( futures );
+  }
+
+  /**
+   * @return longest common parent folder of the paths, '/'-separated.
+   */
+  @NotNull
+  public static String getCommonParent( @NotNull String[] paths )
+  {
+    if( paths.length == 0 )
+      return "";
+
+    String common = paths[ 0 ].replace( '\\', '/' );
+    for( int i = 1; i < paths.length && !common.isEmpty(); i++ )
+    {
+      String path = paths[ i ].replace( '\\', '/' );
+      int len = Math.min( common.length(), path.length() );
+      int j = 0;
+      while( j < len && common.charAt( j ) == path.charAt( j ) )
+        j++;
+      common = common.substring( 0, j );
+    }
+    int slash = common.lastIndexOf( '/' );
+    return (slash == -1) ? common : common.substring( 0, slash );
+  }
+}
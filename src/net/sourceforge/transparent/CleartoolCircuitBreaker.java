@@ -0,0 +1,311 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.containers.ContainerUtil;
+import net.sourceforge.transparent.exceptions.ClearCaseNoServerException;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Stops sending commands to a ClearCase server which does not answer, so
+ * that an outage costs the callers milliseconds instead of a network
+ * timeout per command.
+ *
+ * There is one breaker per view (as found by {@link CleartoolMetrics#findView}).
+ * A breaker opens after the configured number of consecutive failures - a
+ * command timed out, took longer than the "slow" threshold or printed one
+ * of the "server is down" messages; the latter opens the breakers of all the
+ * views at once, since the registry is shared by them. The slow threshold
+ * grows with the number of paths a command is given, and does not apply to
+ * the commands whose duration follows the size of the view (see
+ * {@link CleartoolDeadline#isLongRunning}) - only their timeout counts. While open, commands
+ * fail at once with ClearCaseNoServerException, and a cheap probe command is
+ * repeated in background; the first successful probe closes the breaker.
+ */
+public class CleartoolCircuitBreaker
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CleartoolCircuitBreaker");
+
+  private static final int  DEFAULT_FAILURE_THRESHOLD = 3;
+  private static final long DEFAULT_SLOW_CALL = TimeUnit.SECONDS.toMillis( 60 );
+  private static final long DEFAULT_PROBE_PERIOD = TimeUnit.SECONDS.toMillis( 15 );
+  private static final long PROBE_TIMEOUT = TimeUnit.SECONDS.toMillis( 10 );
+  //  A batch of paths may run this many times longer for every such number
+  //  of paths it has.
+  private static final int PATHS_PER_SLOW_CALL = 100;
+
+  //  Probe of a known view asks the registry about the view (from its root);
+  //  otherwise only the local albd is checked.
+  @NonNls private static final String[] VIEW_PROBE = { "lsview", "-cview", "-short" };
+  @NonNls private static final String[] HOST_PROBE = { "hostinfo" };
+
+  private static final CleartoolCircuitBreaker ourInstance =
+    new CleartoolCircuitBreaker( AppExecutorUtil.getAppScheduledExecutorService(), CleartoolCircuitBreaker::runProbe );
+
+  public interface Listener
+  {
+    /**
+     * Called on a pooled thread when some breaker opens while all the others
+     * were closed ({@code available == false}), and when the last open
+     * breaker closes ({@code available == true}).
+     */
+    void availabilityChanged( boolean available );
+  }
+
+  private static class Breaker
+  {
+    int failures;
+    boolean open;
+    long openedAt;
+    String reason;
+    ScheduledFuture<?> probe;
+  }
+
+  //  Where the probes of the open breakers are scheduled and how a view is
+  //  probed; fakes in the tests.
+  private final ScheduledExecutorService scheduler;
+  private final Function<String, Runner.ProbeResult> prober;
+
+  private final Map<String, Breaker> breakers = new HashMap<>();
+  private final List<Listener> listeners = ContainerUtil.createLockFreeCopyOnWriteList();
+  private volatile boolean enabled = true;
+  private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+  private volatile long slowCallMillis = DEFAULT_SLOW_CALL;
+  private volatile long probePeriod = DEFAULT_PROBE_PERIOD;
+
+  CleartoolCircuitBreaker( @NotNull ScheduledExecutorService scheduler, @NotNull Function<String, Runner.ProbeResult> prober )
+  {
+    this.scheduler = scheduler;
+    this.prober = prober;
+  }
+
+  public static CleartoolCircuitBreaker getInstance() {  return ourInstance;  }
+
+  public void setEnabled( boolean value )
+  {
+    enabled = value;
+    if( !value )
+      closeAll();
+  }
+
+  /**
+   * @param failures     consecutive failures which open a breaker.
+   * @param slowSeconds  a command (with up to a hundred paths) running longer counts as a
+   *                     failure, 0 to ignore the duration.
+   * @param probeSeconds period of the probe while a breaker is open.
+   */
+  public void setLimits( int failures, int slowSeconds, int probeSeconds )
+  {
+    failureThreshold = Math.max( 1, failures );
+    slowCallMillis = slowSeconds > 0 ? TimeUnit.SECONDS.toMillis( slowSeconds ) : Long.MAX_VALUE;
+    probePeriod = TimeUnit.SECONDS.toMillis( Math.max( 1, probeSeconds ) );
+  }
+
+  public void addListener( @NotNull Listener listener )     {  listeners.add( listener );     }
+  public void removeListener( @NotNull Listener listener )  {  listeners.remove( listener );  }
+
+  /**
+   * @throws ClearCaseNoServerException if the breaker of the view is open.
+   */
+  public void checkAvailable( @NotNull String view, @NotNull String[] subcmd )
+  {
+    if( !enabled )
+      return;
+
+    String reason;
+    synchronized( this )
+    {
+      Breaker breaker = breakers.get( view );
+      if( breaker == null || !breaker.open )
+        return;
+      reason = breaker.reason;
+    }
+    throw new ClearCaseNoServerException( "ClearCase server is unavailable (" + reason + "), cleartool " +
+                                          (subcmd.length > 0 ? subcmd[ 0 ] : "") + " was not started" );
+  }
+
+  public synchronized boolean isOpen( @NotNull String view )
+  {
+    Breaker breaker = breakers.get( view );
+    return breaker != null && breaker.open;
+  }
+
+  public synchronized boolean isAnyOpen()
+  {
+    for( Breaker breaker : breakers.values() )
+    {
+      if( breaker.open )
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Outcome of a command which ran to the end or was aborted on timeout.
+   * @param output whatever the command printed, checked for "server down" messages.
+   */
+  public void recordOutcome( @NotNull String view, @NotNull String[] subcmd, long millis, boolean timedOut, @Nullable String output )
+  {
+    if( !enabled )
+      return;
+
+    if( TransparentVcs.isServerDownMessage( output ) )
+    {
+      openAll( view, firstLine( output ) );
+      return;
+    }
+
+    boolean failed = timedOut || millis >= getSlowCallMillis( subcmd );
+    boolean opened = false;
+    synchronized( this )
+    {
+      Breaker breaker = breakers.computeIfAbsent( view, key -> new Breaker() );
+      if( breaker.open )
+        return;
+      if( !failed )
+      {
+        breaker.failures = 0;
+        return;
+      }
+      if( ++breaker.failures >= failureThreshold )
+      {
+        opened = !isAnyOpen();
+        open( view, breaker, timedOut ? "commands time out" : "commands take longer than " + slowCallMillis / 1000 + " s" );
+      }
+    }
+    if( opened )
+      fireAvailabilityChanged( false );
+  }
+
+  private long getSlowCallMillis( String[] subcmd )
+  {
+    long slow = slowCallMillis;
+    if( slow == Long.MAX_VALUE || CleartoolDeadline.isLongRunning( subcmd ) )
+      return Long.MAX_VALUE;
+
+    int paths = 0;
+    for( int i = 1; i < subcmd.length; i++ )
+    {
+      if( !subcmd[ i ].startsWith( "-" ) )
+        paths++;
+    }
+    return slow * (1 + paths / PATHS_PER_SLOW_CALL);
+  }
+
+  private void openAll( String view, String reason )
+  {
+    boolean opened;
+    synchronized( this )
+    {
+      opened = !isAnyOpen();
+      breakers.computeIfAbsent( view, key -> new Breaker() );
+      breakers.computeIfAbsent( CleartoolMetrics.NO_VIEW, key -> new Breaker() );
+      for( Map.Entry<String, Breaker> entry : breakers.entrySet() )
+      {
+        if( !entry.getValue().open )
+          open( entry.getKey(), entry.getValue(), reason );
+      }
+    }
+    if( opened )
+      fireAvailabilityChanged( false );
+  }
+
+  //  Under the lock.
+  private void open( String view, Breaker breaker, String reason )
+  {
+    LOG.info( "Circuit breaker for view " + view + " is open: " + reason );
+    breaker.open = true;
+    breaker.openedAt = System.currentTimeMillis();
+    breaker.reason = reason;
+    breaker.probe = scheduler.scheduleWithFixedDelay(
+      () -> probe( view ), probePeriod, probePeriod, TimeUnit.MILLISECONDS );
+  }
+
+  private static Runner.ProbeResult runProbe( String view )
+  {
+    String root = CleartoolMetrics.NO_VIEW.equals( view ) ? null : CleartoolMetrics.getInstance().getViewRoot( view );
+    return Runner.probe( root, root != null ? VIEW_PROBE : HOST_PROBE, PROBE_TIMEOUT );
+  }
+
+  private void probe( String view )
+  {
+    Runner.ProbeResult result = prober.apply( view );
+    if( !result.successful || TransparentVcs.isServerDownMessage( result.output ) )
+      return;
+
+    boolean closed;
+    synchronized( this )
+    {
+      Breaker breaker = breakers.get( view );
+      if( breaker == null || !breaker.open )
+        return;
+      LOG.info( "Circuit breaker for view " + view + " is closed after " +
+                (System.currentTimeMillis() - breaker.openedAt) / 1000 + " s" );
+      close( breaker );
+      closed = !isAnyOpen();
+    }
+    if( closed )
+      fireAvailabilityChanged( true );
+  }
+
+  //  Under the lock.
+  private static void close( Breaker breaker )
+  {
+    breaker.open = false;
+    breaker.failures = 0;
+    breaker.reason = null;
+    if( breaker.probe != null )
+    {
+      breaker.probe.cancel( false );
+      breaker.probe = null;
+    }
+  }
+
+  public void closeAll()
+  {
+    boolean closed;
+    synchronized( this )
+    {
+      closed = isAnyOpen();
+      for( Breaker breaker : breakers.values() )
+        close( breaker );
+      breakers.clear();
+    }
+    if( closed )
+      fireAvailabilityChanged( true );
+  }
+
+  public synchronized String getState()
+  {
+    List<String> open = new ArrayList<>();
+    for( Map.Entry<String, Breaker> entry : breakers.entrySet() )
+    {
+      if( entry.getValue().open )
+        open.add( entry.getKey() + " (" + entry.getValue().reason + ")" );
+    }
+    return open.isEmpty() ? "all closed" : "open: " + open;
+  }
+
+  private void fireAvailabilityChanged( boolean available )
+  {
+    for( Listener listener : listeners )
+      listener.availabilityChanged( available );
+  }
+
+  private static String firstLine( String output )
+  {
+    int eol = output.indexOf( '\n' );
+    return (eol == -1 ? output : output.substring( 0, eol )).trim();
+  }
+}
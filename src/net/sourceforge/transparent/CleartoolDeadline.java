@@ -0,0 +1,126 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a cleartool command must be aborted: the progress indicator of the
+ * thread which started it was cancelled, or the time allowed for the
+ * subcommand is over.
+ *
+ * The indicator is the one bound to the calling thread by ProgressManager;
+ * {@link CleartoolExecutor} passes it on to the pooled threads it starts.
+ */
+public class CleartoolDeadline
+{
+  private static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis( 10 );
+  private static final long DEFAULT_LONG_TIMEOUT = TimeUnit.HOURS.toMillis( 1 );
+
+  //  Subcommands which legitimately run for a long time on big views.
+  @NonNls private static final Set<String> LONG_COMMANDS = new HashSet<>( Arrays.asList(
+    "update", "merge", "findmerge", "mkview", "setcs", "rebase", "deliver", "lsprivate", "lspri" ) );
+  //  Options which make any subcommand walk a whole tree or VOB.
+  @NonNls private static final Set<String> TREE_OPTIONS = new HashSet<>( Arrays.asList(
+    "-recurse", "-r", "-all", "-avobs", "-invob" ) );
+  @NonNls private static final Set<String> HISTORY_COMMANDS = new HashSet<>( Arrays.asList( "lshistory", "lshis" ) );
+  //  Options which limit a history listing to its newest part.
+  @NonNls private static final Set<String> HISTORY_LIMITS = new HashSet<>( Arrays.asList( "-last", "-since" ) );
+
+  private static volatile long ourTimeout = DEFAULT_TIMEOUT;
+  private static volatile long ourLongTimeout = DEFAULT_LONG_TIMEOUT;
+
+  @Nullable private final ProgressIndicator indicator;
+  private final long timeoutMillis;       //  0 for no limit
+  private final long deadlineNanos;
+
+  private CleartoolDeadline( @Nullable ProgressIndicator indicator, long timeoutMillis )
+  {
+    this.indicator = indicator;
+    this.timeoutMillis = timeoutMillis;
+    deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMillis );
+  }
+
+  /**
+   * @param seconds     time limit of the ordinary commands, 0 for none.
+   * @param longSeconds time limit of "update", "merge" and the like, 0 for none.
+   */
+  public static void setTimeouts( int seconds, int longSeconds )
+  {
+    ourTimeout = TimeUnit.SECONDS.toMillis( seconds );
+    ourLongTimeout = TimeUnit.SECONDS.toMillis( longSeconds );
+  }
+
+  public static CleartoolDeadline forCommand( String[] subcmd )
+  {
+    long timeout = isLongRunning( subcmd ) ? ourLongTimeout : ourTimeout;
+    return new CleartoolDeadline( ProgressManager.getInstance().getProgressIndicator(), Math.max( 0, timeout ) );
+  }
+
+  /**
+   * @return true for the commands whose running time grows with the size of
+   *         the view or of the history rather than with their arguments:
+   *         "update" and the like, recursive listings, "lsprivate" and
+   *         "lshistory" without -last or -since.
+   */
+  public static boolean isLongRunning( String[] subcmd )
+  {
+    if( subcmd.length == 0 )
+      return false;
+    if( LONG_COMMANDS.contains( subcmd[ 0 ] ) )
+      return true;
+
+    boolean limited = false;
+    for( int i = 1; i < subcmd.length; i++ )
+    {
+      if( TREE_OPTIONS.contains( subcmd[ i ] ) )
+        return true;
+      limited |= HISTORY_LIMITS.contains( subcmd[ i ] );
+    }
+    return HISTORY_COMMANDS.contains( subcmd[ 0 ] ) && !limited;
+  }
+
+  /**
+   * Plain time limit, not bound to any indicator.
+   */
+  public static CleartoolDeadline after( long timeoutMillis )
+  {
+    return new CleartoolDeadline( null, timeoutMillis );
+  }
+
+  public long getRemainingMillis()
+  {
+    if( timeoutMillis == 0 )
+      return Long.MAX_VALUE;
+    return Math.max( 0, TimeUnit.NANOSECONDS.toMillis( deadlineNanos - System.nanoTime() ) );
+  }
+
+  public boolean isCancelled()
+  {
+    return indicator != null && indicator.isCanceled();
+  }
+
+  public boolean isExpired()
+  {
+    return timeoutMillis != 0 && deadlineNanos - System.nanoTime() <= 0;
+  }
+
+  /**
+   * @return why the command must be aborted or null if it may go on.
+   */
+  @Nullable
+  public String getAbortReason()
+  {
+    if( isCancelled() )
+      return "cancelled";
+    if( isExpired() )
+      return "did not complete within " + TimeUnit.MILLISECONDS.toSeconds( timeoutMillis ) + " s";
+    return null;
+  }
+}
@@ -0,0 +1,292 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs cleartool invocations on pooled threads and limits how many of them
+ * may run at once - globally and per VOB (content root), so that bulk
+ * operations can saturate the server without overloading it.
+ *
+ * Work over the limits waits in queues, not on pooled threads: a command
+ * is handed to the pool only when it may start, and each finished command
+ * starts the next ones.
+ */
+public class CleartoolExecutor
+{
+  private static final int DEFAULT_MAX_CONCURRENT = 8;
+  private static final int DEFAULT_MAX_CONCURRENT_PER_VOB = 4;
+  private static final int DEFAULT_MAX_CONCURRENT_TASKS = 4;
+
+  private static final CleartoolExecutor ourInstance = new CleartoolExecutor();
+
+  private final Executor pooled = r -> ApplicationManager.getApplication().executeOnPooledThread( r );
+
+  //  Guarded by this. VOBs are served in turn, in the order their first
+  //  waiting command came.
+  private final LinkedHashMap<String, ArrayDeque<Runnable>> waiting = new LinkedHashMap<>();
+  private final HashMap<String, Integer> runningPerVob = new HashMap<>();
+  private int running;
+  private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+  private int maxPerVob = DEFAULT_MAX_CONCURRENT_PER_VOB;
+
+  private final ArrayDeque<Runnable> waitingTasks = new ArrayDeque<>();
+  private int runningTasks;
+  private int maxTasks = DEFAULT_MAX_CONCURRENT_TASKS;
+
+  public static CleartoolExecutor getInstance() {  return ourInstance;  }
+
+  /**
+   * New limits apply from the next command started; commands already
+   * running are not affected.
+   */
+  public void setLimits( int maxConcurrent, int maxConcurrentPerVob )
+  {
+    synchronized( this )
+    {
+      this.maxConcurrent = Math.max( 1, maxConcurrent );
+      maxPerVob = Math.max( 1, maxConcurrentPerVob );
+    }
+    startCommands();
+  }
+
+  public synchronized int getMaxConcurrentPerVob() {  return maxPerVob;  }
+
+  /**
+   * @param maxTasks how many tasks submitted by {@link #submitTask} may run at once.
+   */
+  public void setTaskLimit( int maxTasks )
+  {
+    synchronized( this )
+    {
+      this.maxTasks = Math.max( 1, maxTasks );
+    }
+    startTasks();
+  }
+
+  /**
+   * @param vobKey string identifying the VOB the command works against, as
+   *               given by {@link #getVobKey}; commands with the same key
+   *               share the per-VOB limit.
+   */
+  public <T> CompletableFuture<T> submit( @NotNull String vobKey, @NotNull Supplier<T> command )
+  {
+    //  Commands run on behalf of the caller: cancelling its progress must
+    //  abort them too (see CleartoolDeadline).
+    final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    final CompletableFuture<T> result = new CompletableFuture<>();
+
+    Runnable job = () -> {
+      try
+      {
+        result.complete( runUnderProgress( command, indicator ) );
+      }
+      catch( Throwable e )
+      {
+        result.completeExceptionally( e );
+      }
+      finally
+      {
+        commandFinished( vobKey );
+      }
+    };
+    synchronized( this )
+    {
+      waiting.computeIfAbsent( vobKey, key -> new ArrayDeque<>() ).addLast( job );
+    }
+    startCommands();
+    return result;
+  }
+
+  /**
+   * Run a task which itself issues cleartool commands through this executor
+   * (e.g. the status of one content root) on a pooled thread. Tasks have a
+   * limit of their own and hold no command slots while they wait for
+   * their commands, so that they cannot starve them.
+   */
+  public <T> CompletableFuture<T> submitTask( @NotNull Supplier<T> task )
+  {
+    final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    final CompletableFuture<T> result = new CompletableFuture<>();
+
+    Runnable job = () -> {
+      try
+      {
+        result.complete( runUnderProgress( task, indicator ) );
+      }
+      catch( Throwable e )
+      {
+        result.completeExceptionally( e );
+      }
+      finally
+      {
+        synchronized( this ) {  runningTasks--;  }
+        startTasks();
+      }
+    };
+    synchronized( this )
+    {
+      waitingTasks.addLast( job );
+    }
+    startTasks();
+    return result;
+  }
+
+  private void commandFinished( String vobKey )
+  {
+    synchronized( this )
+    {
+      running--;
+      int count = runningPerVob.get( vobKey ) - 1;
+      if( count == 0 )
+        runningPerVob.remove( vobKey );
+      else
+        runningPerVob.put( vobKey, count );
+    }
+    startCommands();
+  }
+
+  /**
+   * Hand to the pool as many waiting commands as the limits allow.
+   */
+  private void startCommands()
+  {
+    List<Runnable> ready = new ArrayList<>();
+    synchronized( this )
+    {
+      boolean started = true;
+      while( started && running < maxConcurrent )
+      {
+        started = false;
+        for( Iterator<Map.Entry<String, ArrayDeque<Runnable>>> it = waiting.entrySet().iterator();
+             it.hasNext() && running < maxConcurrent; )
+        {
+          Map.Entry<String, ArrayDeque<Runnable>> entry = it.next();
+          int count = runningPerVob.getOrDefault( entry.getKey(), 0 );
+          if( count >= maxPerVob )
+            continue;
+
+          ready.add( entry.getValue().pollFirst() );
+          runningPerVob.put( entry.getKey(), count + 1 );
+          running++;
+          started = true;
+          if( entry.getValue().isEmpty() )
+            it.remove();
+        }
+      }
+    }
+    for( Runnable job : ready )
+      pooled.execute( job );
+  }
+
+  private void startTasks()
+  {
+    List<Runnable> ready = new ArrayList<>();
+    synchronized( this )
+    {
+      while( runningTasks < maxTasks && !waitingTasks.isEmpty() )
+      {
+        ready.add( waitingTasks.pollFirst() );
+        runningTasks++;
+      }
+    }
+    for( Runnable job : ready )
+      pooled.execute( job );
+  }
+
+  private static <T> T runUnderProgress( Supplier<T> command, ProgressIndicator indicator )
+  {
+    if( indicator == null )
+      return command.get();
+
+    final Ref<T> result = new Ref<>();
+    ProgressManager.getInstance().executeProcessUnderProgress( () -> result.set( command.get() ), indicator );
+    return result.get();
+  }
+
+  /**
+   * Key of the per-VOB limit for a path: the VCS root it lies under, the
+   * closest thing to the VOB we know without asking cleartool. Paths under
+   * no root of an open project share the empty key.
+   */
+  @NotNull
+  public static String getVobKey( @NotNull String path )
+  {
+    FilePath filePath = VcsUtil.getFilePath( path );
+    for( Project project : ProjectManager.getInstance().getOpenProjects() )
+    {
+      if( project.isDisposed() )
+        continue;
+      VirtualFile root = VcsUtil.getVcsRootFor( project, filePath );
+      if( root != null )
+        return root.getPath();
+    }
+    return "";
+  }
+
+  /**
+   * Key of the per-VOB limit for the paths of one bulk command, which all
+   * come from one content root: the key of the first of them.
+   */
+  @NotNull
+  public static String getVobKey( @NotNull String[] paths )
+  {
+    return (paths.length == 0) ? "" : getVobKey( paths[ 0 ] );
+  }
+
+  public CompletableFuture<Void> run( @NotNull String vobKey, @NotNull Runnable command )
+  {
+    return submit( vobKey, () -> {
+      command.run();
+      return null;
+    } );
+  }
+
+  /**
+   * Wait for all the futures and return their results in the same order.
+   * The first failure is rethrown as ClearCaseException after all futures
+   * are done, so that no command is left running behind the caller's back.
+   */
+  public static <T> List<T> joinAll( @NotNull Collection<CompletableFuture<T>> futures )
+  {
+    try
+    {
+      CompletableFuture.allOf( futures.toArray( new CompletableFuture[ futures.size() ] ) ).join();
+    }
+    catch( CompletionException e )
+    {
+      throw unwrap( e );
+    }
+
+    List<T> result = new ArrayList<>( futures.size() );
+    for( CompletableFuture<T> future : futures )
+      result.add( future.join() );
+    return result;
+  }
+
+  public static RuntimeException unwrap( Throwable e )
+  {
+    Throwable cause = e;
+    while( cause instanceof CompletionException && cause.getCause() != null )
+      cause = cause.getCause();
+
+    if( cause instanceof RuntimeException )
+      return (RuntimeException) cause;
+    return new ClearCaseException( cause.getMessage() );
+  }
+}
@@ -0,0 +1,387 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the cleartool invocations made through {@link Runner}, kept
+ * per subcommand and per view: number of calls, latency histogram, output
+ * volume, exit codes and the number of calls in flight. The recursive and
+ * the "-directory" forms of a subcommand cost differently and are kept
+ * apart (see {@link #getCommandKey}).
+ *
+ * The view of a command is found by the longest registered view root which
+ * is a prefix of the working folder or of a path argument; commands which
+ * do not work on a path in a known view (e.g. "lsactivity -view") are
+ * accounted under {@link #NO_VIEW}.
+ */
+public class CleartoolMetrics
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CleartoolMetrics");
+
+  @NonNls public static final String NO_VIEW = "-";
+
+  @NonNls public static final String RECURSE_SWITCH = "-recurse";
+  @NonNls public static final String DIRECTORY_SWITCH = "-directory";
+
+  //  Exit code recorded for the commands which failed to start or were
+  //  interrupted, so that no output and no exit code is available.
+  public static final int NOT_COMPLETED = Integer.MIN_VALUE;
+
+  //  Upper bounds (ms) of the latency buckets, growing by ~25% so that the
+  //  percentiles are estimated within that precision.
+  private static final long[] BUCKET_BOUNDS;
+  static
+  {
+    List<Long> bounds = new ArrayList<>();
+    for( double bound = 1; bound < TimeUnit.MINUTES.toMillis( 30 ); bound *= 1.25 )
+    {
+      long rounded = Math.round( bound );
+      if( bounds.isEmpty() || bounds.get( bounds.size() - 1 ) != rounded )
+        bounds.add( rounded );
+    }
+    BUCKET_BOUNDS = new long[ bounds.size() ];
+    for( int i = 0; i < BUCKET_BOUNDS.length; i++ )
+      BUCKET_BOUNDS[ i ] = bounds.get( i );
+  }
+
+  private static final CleartoolMetrics ourInstance = new CleartoolMetrics();
+
+  private final ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, String> viewTagsByRoot = new ConcurrentHashMap<>();
+  private final long created = System.currentTimeMillis();
+
+  private ScheduledFuture<?> exportTask;
+  private File exportFile;
+
+  public static CleartoolMetrics getInstance() {  return ourInstance;  }
+
+  /**
+   * Statistics of one subcommand in one view.
+   */
+  public static class Stat
+  {
+    public final String subcommand;
+    public final String view;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+    private final AtomicLong outputChars = new AtomicLong();
+    private final long[] buckets = new long[ BUCKET_BOUNDS.length + 1 ];
+    private final TreeMap<Integer, Long> exitCodes = new TreeMap<>();
+    //  Sums for the least squares fit of latency against output size.
+    private double sumSquaredChars;
+    private double sumCharsMillis;
+
+    Stat( String subcommand, String view )
+    {
+      this.subcommand = subcommand;
+      this.view = view;
+    }
+
+    public long getCount()        {  return count.get();        }
+    public int  getInFlight()     {  return inFlight.get();     }
+    public long getTotalMillis()  {  return totalMillis.get();  }
+    public long getMaxMillis()    {  return maxMillis.get();    }
+    public long getOutputChars()  {  return outputChars.get();  }
+
+    public synchronized Map<Integer, Long> getExitCodes()  {  return new TreeMap<>( exitCodes );  }
+
+    /**
+     * @param percentile 0..100
+     * @return upper bound of the latency bucket the percentile falls into.
+     */
+    public synchronized long getPercentileMillis( double percentile )
+    {
+      long total = 0;
+      for( long bucket : buckets )
+        total += bucket;
+      if( total == 0 )
+        return 0;
+
+      long rank = (long)Math.ceil( total * percentile / 100 );
+      long seen = 0;
+      for( int i = 0; i < buckets.length; i++ )
+      {
+        seen += buckets[ i ];
+        if( seen >= Math.max( 1, rank ) )
+          return i < BUCKET_BOUNDS.length ? Math.min( BUCKET_BOUNDS[ i ], maxMillis.get() ) : maxMillis.get();
+      }
+      return maxMillis.get();
+    }
+
+    /**
+     * Latency of one call estimated as {@code fixed + perChar * outputChars}
+     * by the least squares over the recorded calls.
+     * @return {fixed ms, ms per output char} or null if the calls so far do
+     *         not allow the fit (too few or all of the same size).
+     */
+    @Nullable
+    public synchronized double[] getLatencyModel()
+    {
+      long n = count.get();
+      if( n < 3 )
+        return null;
+
+      double sumChars = outputChars.get();
+      double sumMillis = totalMillis.get();
+      double denominator = n * sumSquaredChars - sumChars * sumChars;
+      if( denominator <= 0 )
+        return null;
+
+      double perChar = Math.max( 0, (n * sumCharsMillis - sumChars * sumMillis) / denominator );
+      double fixed = Math.max( 0, (sumMillis - perChar * sumChars) / n );
+      return new double[] { fixed, perChar };
+    }
+
+    private void record( long millis, int exitCode, long chars )
+    {
+      count.incrementAndGet();
+      totalMillis.addAndGet( millis );
+      maxMillis.accumulateAndGet( millis, Math::max );
+      outputChars.addAndGet( chars );
+
+      int index = Arrays.binarySearch( BUCKET_BOUNDS, millis );
+      if( index < 0 )
+        index = -index - 1;
+      synchronized( this )
+      {
+        buckets[ index ]++;
+        exitCodes.merge( exitCode, 1L, Long::sum );
+        sumSquaredChars += (double)chars * chars;
+        sumCharsMillis += (double)chars * millis;
+      }
+    }
+  }
+
+  /**
+   * One running command, returned by {@link #started} and to be passed to
+   * {@link #finished} exactly once.
+   */
+  public static class Invocation
+  {
+    private final Stat stat;
+    private final long startNanos = System.nanoTime();
+
+    private Invocation( Stat stat )  {  this.stat = stat;  }
+  }
+
+  public void registerView( @NotNull String root, @NotNull String tag )
+  {
+    viewTagsByRoot.put( normalize( root ), tag );
+  }
+
+  public void unregisterView( @NotNull String root )
+  {
+    viewTagsByRoot.remove( normalize( root ) );
+  }
+
+  /**
+   * @param view as returned by {@link #findView}.
+   */
+  @NotNull
+  public Invocation started( @NotNull String[] subcmd, @NotNull String view )
+  {
+    String subcommand = getCommandKey( subcmd );
+    Stat stat = stats.computeIfAbsent( subcommand + '\t' + view, key -> new Stat( subcommand, view ) );
+    stat.inFlight.incrementAndGet();
+    return new Invocation( stat );
+  }
+
+  public void finished( @NotNull Invocation invocation, int exitCode, long outputChars )
+  {
+    long millis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - invocation.startNanos );
+    invocation.stat.inFlight.decrementAndGet();
+    invocation.stat.record( millis, exitCode, outputChars );
+  }
+
+  /**
+   * @return the subcommand, followed by "-recurse" or "-directory" if it was
+   *         given one of them (or its abbreviation): "ls -recurse" walks a
+   *         tree, "ls -directory" lists the given paths only.
+   */
+  @NotNull
+  public static String getCommandKey( @NotNull String[] subcmd )
+  {
+    if( subcmd.length == 0 )
+      return "";
+
+    boolean directory = false;
+    for( int i = 1; i < subcmd.length; i++ )
+    {
+      String arg = subcmd[ i ];
+      if( arg.equals( RECURSE_SWITCH ) || arg.equals( "-r" ) )
+        return subcmd[ 0 ] + ' ' + RECURSE_SWITCH;
+      directory |= arg.equals( DIRECTORY_SWITCH ) || arg.equals( "-d" );
+    }
+    return directory ? subcmd[ 0 ] + ' ' + DIRECTORY_SWITCH : subcmd[ 0 ];
+  }
+
+  /**
+   * @param subcommand as returned by {@link #getCommandKey}.
+   */
+  @Nullable
+  public Stat getStatistics( @NotNull String subcommand, @NotNull String view )
+  {
+    return stats.get( subcommand + '\t' + view );
+  }
+
+  public List<Stat> getStatistics()
+  {
+    List<Stat> result = new ArrayList<>( stats.values() );
+    result.sort( Comparator.comparingLong( Stat::getTotalMillis ).reversed() );
+    return result;
+  }
+
+  public void reset()
+  {
+    //  Commands in flight keep their (now detached) Stat and are lost.
+    stats.clear();
+  }
+
+  /**
+   * @return tag of the view the command works in, {@link #NO_VIEW} if unknown.
+   */
+  @NotNull
+  public String findView( @NotNull String[] subcmd, @Nullable String workingDir )
+  {
+    if( viewTagsByRoot.isEmpty() )
+      return NO_VIEW;
+
+    String view = workingDir != null ? findViewForPath( workingDir ) : null;
+    //  Paths are the last arguments usually.
+    for( int i = subcmd.length - 1; i > 0 && view == null; i-- )
+    {
+      if( subcmd[ i ].startsWith( "-" ) || !new File( subcmd[ i ] ).isAbsolute() )
+        continue;
+      view = findViewForPath( subcmd[ i ] );
+    }
+    return view != null ? view : NO_VIEW;
+  }
+
+  @Nullable
+  private String findViewForPath( String path )
+  {
+    String normalized = normalize( path );
+    String bestRoot = null;
+    for( String root : viewTagsByRoot.keySet() )
+    {
+      if( (normalized.equals( root ) || normalized.startsWith( root + '/' )) &&
+          (bestRoot == null || root.length() > bestRoot.length()) )
+        bestRoot = root;
+    }
+    return bestRoot != null ? viewTagsByRoot.get( bestRoot ) : null;
+  }
+
+  @Nullable
+  public String getViewRoot( @NotNull String tag )
+  {
+    for( Map.Entry<String, String> entry : viewTagsByRoot.entrySet() )
+    {
+      if( entry.getValue().equals( tag ) )
+        return entry.getKey();
+    }
+    return null;
+  }
+
+  private static String normalize( String path )
+  {
+    String normalized = FileUtil.toSystemIndependentName( path );
+    while( normalized.length() > 1 && normalized.endsWith( "/" ) )
+      normalized = normalized.substring( 0, normalized.length() - 1 );
+    return normalized;
+  }
+
+  //---------------------------------------------------------------------------
+  //  Report and periodic export
+  //---------------------------------------------------------------------------
+
+  public String getReport()
+  {
+    SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
+    StringBuilder buf = new StringBuilder();
+    buf.append( "cleartool invocations since " ).append( format.format( new Date( created ) ) )
+       .append( ", reported at " ).append( format.format( new Date() ) ).append( '\n' );
+    buf.append( String.format( "%-14s %-24s %8s %6s %10s %8s %8s %8s %8s %12s  %s%n",
+                               "subcommand", "view", "calls", "flight", "total ms", "p50", "p95", "p99", "max",
+                               "output", "exit codes" ) );
+    for( Stat stat : getStatistics() )
+    {
+      StringBuilder codes = new StringBuilder();
+      for( Map.Entry<Integer, Long> entry : stat.getExitCodes().entrySet() )
+      {
+        if( codes.length() > 0 ) codes.append( ", " );
+        codes.append( entry.getKey() == NOT_COMPLETED ? "none" : String.valueOf( entry.getKey() ) )
+             .append( ':' ).append( entry.getValue() );
+      }
+      buf.append( String.format( "%-14s %-24s %8d %6d %10d %8d %8d %8d %8d %12d  %s%n",
+                                 stat.subcommand, stat.view, stat.getCount(), stat.getInFlight(), stat.getTotalMillis(),
+                                 stat.getPercentileMillis( 50 ), stat.getPercentileMillis( 95 ),
+                                 stat.getPercentileMillis( 99 ), stat.getMaxMillis(), stat.getOutputChars(), codes ) );
+    }
+    return buf.toString();
+  }
+
+  public void logReport()
+  {
+    LOG.info( getReport() );
+  }
+
+  /**
+   * Rewrites the file with the current report every {@code periodSeconds};
+   * replaces the export started before, if any.
+   */
+  public synchronized void startExport( @NotNull File file, int periodSeconds )
+  {
+    stopExport();
+    exportFile = file;
+    long period = Math.max( 1, periodSeconds );
+    exportTask = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay( this::export, period, period, TimeUnit.SECONDS );
+  }
+
+  public synchronized void stopExport()
+  {
+    if( exportTask != null )
+    {
+      exportTask.cancel( false );
+      exportTask = null;
+      export();
+    }
+  }
+
+  private void export()
+  {
+    File file;
+    synchronized( this )
+    {
+      file = exportFile;
+    }
+    if( file == null )
+      return;
+
+    try
+    {
+      FileUtil.writeToFile( file, getReport() );
+    }
+    catch( IOException e )
+    {
+      LOG.info( "Failed to export cleartool metrics to " + file + ": " + e.getMessage() );
+    }
+  }
+}
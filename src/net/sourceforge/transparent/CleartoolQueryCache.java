@@ -0,0 +1,299 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Short-lived cache for the results of read-only cleartool queries over a
+ * single path ("ls -directory", "describe", "lscheckout -directory"), which
+ * are issued for the same file many times within seconds by the edit
+ * provider, the checkin dialog and the change provider.
+ *
+ * An entry is reused only while
+ * - it is younger than the TTL, and
+ * - the file's mtime, size, existence and writable bit are the same as at
+ *   the moment the query was run.
+ * Entries are dropped explicitly on VFS events and after every mutating
+ * cleartool command (see {@link #commandExecuted}).
+ */
+public class CleartoolQueryCache
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CleartoolQueryCache");
+
+  private static final long DEFAULT_TTL = 3000;
+  private static final int  MAX_ENTRIES = 5000;
+  @NonNls private static final char KEY_DELIMITER = '\u0000';
+
+  private static final CleartoolQueryCache ourInstance = new CleartoolQueryCache( CleartoolQueryCache::runCleartool );
+
+  //  Runs the subcommand of a query; a fake one in the tests.
+  private final Function<String[], Result> cleartool;
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>( 256, 0.75f, true )
+  {
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest ) {  return size() > MAX_ENTRIES;  }
+  };
+
+  //  Queries being run. An invalidation which covers the path of such a
+  //  query marks it: its result may be already stale and is not stored.
+  private final Set<Query> running = new HashSet<>();
+  private volatile long ttl = DEFAULT_TTL;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong staleHits = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public static class Result
+  {
+    public final String  output;
+    public final boolean successful;
+
+    public Result( String output, boolean successful )
+    {
+      this.output = output;
+      this.successful = successful;
+    }
+  }
+
+  private static class Query
+  {
+    final String path;
+    boolean invalidated;
+
+    Query( String path ) {  this.path = path;  }
+  }
+
+  private static class Entry
+  {
+    final Result result;
+    final String path;
+    final long   created;
+    final long   stamp;
+    final long   length;
+    final boolean exists;
+    final boolean writable;
+
+    Entry( Result result, String path, File file )
+    {
+      this.result = result;
+      this.path = path;
+      created = System.currentTimeMillis();
+      exists = file.exists();
+      stamp = file.lastModified();
+      length = file.length();
+      writable = file.canWrite();
+    }
+
+    boolean isValid( long ttl )
+    {
+      if( System.currentTimeMillis() - created > ttl )
+        return false;
+
+      File file = new File( path );
+      return exists == file.exists() && stamp == file.lastModified() &&
+             length == file.length() && writable == file.canWrite();
+    }
+  }
+
+  CleartoolQueryCache( @NotNull Function<String[], Result> cleartool )
+  {
+    this.cleartool = cleartool;
+  }
+
+  public static CleartoolQueryCache getInstance() {  return ourInstance;  }
+
+  /**
+   * @param millis time to live of the cached results, zero disables the cache.
+   */
+  public void setTimeToLive( long millis )
+  {
+    ttl = Math.max( 0, millis );
+    if( ttl == 0 )
+      invalidateAll();
+  }
+
+  /**
+   * Run "cleartool options... path" or return its recent result.
+   * The path must be the last argument of the command and denote a local
+   * file or folder - it is used both as a part of the key and for validation.
+   */
+  @NotNull
+  public Result query( @NotNull String path, @NonNls String... options )
+  {
+    final String normalized = normalize( path );
+    final String key = getKey( normalized, options );
+    final Query query;
+
+    if( ttl > 0 )
+    {
+      synchronized( this )
+      {
+        Entry entry = entries.get( key );
+        if( entry != null )
+        {
+          if( entry.isValid( ttl ) )
+          {
+            hits.incrementAndGet();
+            return entry.result;
+          }
+          entries.remove( key );
+          staleHits.incrementAndGet();
+        }
+        query = new Query( normalized );
+        running.add( query );
+      }
+    }
+    else
+    {
+      query = null;
+    }
+    misses.incrementAndGet();
+
+    String[] subcmd = Arrays.copyOf( options, options.length + 1 );
+    subcmd[ options.length ] = path;
+
+    //  Take the file stamp before the command is run: if the file changes
+    //  while cleartool works, the entry will fail validation next time.
+    final File file = new File( normalized );
+    final long stamp = file.lastModified();
+
+    Result result = null;
+    try
+    {
+      result = cleartool.apply( subcmd );
+    }
+    finally
+    {
+      if( query != null )
+      {
+        synchronized( this )
+        {
+          running.remove( query );
+          if( result != null && !query.invalidated && ttl > 0 )
+          {
+            Entry entry = new Entry( result, normalized, file );
+            if( entry.stamp == stamp )
+              entries.put( key, entry );
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Drop the results for the path, all paths under it and its parent folder
+   * (whose listing changes when a child is added, removed or renamed).
+   */
+  public synchronized void invalidate( @NotNull String path )
+  {
+    if( entries.isEmpty() && running.isEmpty() )
+      return;
+
+    final String normalized = normalize( path );
+    final String prefix = normalized + File.separatorChar;
+    final String parent = new File( normalized ).getParent();
+    for( Query query : running )
+    {
+      if( covers( query.path, normalized, prefix, parent ) )
+        query.invalidated = true;
+    }
+    for( Iterator<Entry> it = entries.values().iterator(); it.hasNext(); )
+    {
+      if( covers( it.next().path, normalized, prefix, parent ) )
+      {
+        it.remove();
+        invalidations.incrementAndGet();
+      }
+    }
+  }
+
+  private static boolean covers( String entryPath, String path, String prefix, String parent )
+  {
+    return entryPath.equals( path ) || entryPath.startsWith( prefix ) || entryPath.equals( parent );
+  }
+
+  public synchronized void invalidateAll()
+  {
+    for( Query query : running )
+      query.invalidated = true;
+    invalidations.addAndGet( entries.size() );
+    entries.clear();
+  }
+
+  /**
+   * Called for every cleartool command which has been run. Mutating commands
+   * drop the cached results for all the absolute paths they were given, or
+   * the whole cache if no such path can be recognized in the arguments.
+   */
+  public void commandExecuted( @NotNull String[] subcmd )
+  {
+    if( !Runner.changesView( subcmd ) )
+      return;
+
+    boolean hasPaths = false;
+    for( int i = 1; i < subcmd.length; i++ )
+    {
+      String arg = subcmd[ i ];
+      if( !arg.startsWith( "-" ) && new File( arg ).isAbsolute() )
+      {
+        invalidate( arg );
+        hasPaths = true;
+      }
+    }
+    if( !hasPaths )
+      invalidateAll();
+  }
+
+  public long getHits()           {  return hits.get();           }
+  public long getMisses()         {  return misses.get();         }
+  public long getStaleHits()      {  return staleHits.get();      }
+  public long getInvalidations()  {  return invalidations.get();  }
+
+  public synchronized int size()  {  return entries.size();  }
+
+  public String getStatistics()
+  {
+    long hitCount = hits.get();
+    long total = hitCount + misses.get();
+    long ratio = (total == 0) ? 0 : hitCount * 100 / total;
+    return "hits: " + hitCount + ", misses: " + misses.get() + " (" + staleHits.get() + " stale), hit ratio: " + ratio +
+           "%, invalidated: " + invalidations.get() + ", entries: " + size();
+  }
+
+  public void logStatistics()
+  {
+    LOG.info( "cleartool query cache - " + getStatistics() );
+  }
+
+  private static Result runCleartool( String[] subcmd )
+  {
+    Runner runner = new Runner();
+    runner.run( Runner.getCommand( TransparentVcs.CLEARTOOL_CMD, subcmd ), true );
+    return new Result( runner.getOutput(), runner.isSuccessfull() );
+  }
+
+  private static String normalize( String path )
+  {
+    String normalized = new File( path ).getAbsolutePath();
+    while( normalized.length() > 1 && normalized.endsWith( File.separator ) )
+      normalized = normalized.substring( 0, normalized.length() - 1 );
+    return normalized;
+  }
+
+  private static String getKey( String path, String[] options )
+  {
+    StringBuilder key = new StringBuilder();
+    for( String option : options )
+      key.append( option ).append( KEY_DELIMITER );
+    return key.append( path ).toString();
+  }
+}
@@ -0,0 +1,172 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import net.sourceforge.transparent.History.CCaseHistoryCache;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lifecycle of the application-wide cleartool machinery (session pool,
+ * executor, query cache, view-private inventory, deadlines, circuit breaker,
+ * metrics export and the status, baseline and history stores), shared by
+ * all the open projects.
+ *
+ * Projects register while ClearCase is active in them. The settings are
+ * taken from all of them together, whatever the order they were opened in:
+ * the smallest limits and times to live, the longest timeouts (0, none, is
+ * the longest), and a feature is on only if every project has it on. The
+ * metrics are exported to the file of the first project which sets one.
+ * The pool is closed and the caches are dropped once, when the last project
+ * goes away.
+ */
+public class CleartoolRuntime
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CleartoolRuntime");
+
+  private static final CleartoolRuntime ourInstance = new CleartoolRuntime();
+
+  //  Active projects, in the order of activation.
+  private final Map<Project, CCaseConfig> projects = new LinkedHashMap<>();
+  private String exportFile;
+  private int exportPeriod;
+
+  public static CleartoolRuntime getInstance() {  return ourInstance;  }
+
+  public synchronized void projectActivated( @NotNull Project project, @NotNull CCaseConfig config )
+  {
+    projects.put( project, config );
+    applySettings();
+  }
+
+  public synchronized void projectDeactivated( @NotNull Project project )
+  {
+    if( projects.remove( project ) == null )
+      return;
+    if( !projects.isEmpty() )
+    {
+      applySettings();
+      return;
+    }
+
+    LOG.debug( "Last ClearCase project closed, releasing cleartool resources" );
+    CleartoolSessionPool.getInstance().closeAll();
+
+    CleartoolQueryCache queryCache = CleartoolQueryCache.getInstance();
+    queryCache.logStatistics();
+    queryCache.invalidateAll();
+    CCaseViewPrivateInventory.getInstance().invalidateAll();
+
+    CleartoolMetrics metrics = CleartoolMetrics.getInstance();
+    metrics.logReport();
+    metrics.stopExport();
+    exportFile = null;
+  }
+
+  public synchronized int getActiveProjects()  {  return projects.size();  }
+
+  /**
+   * The settings of an active project changed, apply them anew.
+   */
+  public synchronized void settingsChanged()
+  {
+    if( !projects.isEmpty() )
+      applySettings();
+  }
+
+  private void applySettings()
+  {
+    List<CCaseConfig> configs = new ArrayList<>( projects.values() );
+    CCaseConfig first = configs.get( 0 );
+
+    boolean interactiveSessions = true, inventoryEnabled = true, breakerEnabled = true;
+    boolean statusIndex = true, contentBaseline = true, historyCacheEnabled = true, compatibleParser = false;
+    int maxSessions = first.maxInteractiveSessions, maxCommands = first.maxConcurrentCommands;
+    int maxPerVob = first.maxConcurrentCommandsPerVob, maxRoots = first.maxConcurrentRoots;
+    int queryCacheTtl = first.queryCacheTimeToLive, inventoryTtl = first.viewPrivateInventoryTimeToLive;
+    int commandTimeout = first.commandTimeout, longCommandTimeout = first.longCommandTimeout;
+    int failureThreshold = first.breakerFailureThreshold, slowCall = first.breakerSlowCallSeconds;
+    int probePeriod = first.breakerProbePeriod;
+    int historyTtl = first.historyCacheTimeToLive, labelsTtl = first.historyLabelsTimeToLive;
+    CCaseConfig exporting = null;
+
+    for( CCaseConfig config : configs )
+    {
+      interactiveSessions &= config.useInteractiveSessions;
+      inventoryEnabled &= config.useViewPrivateInventory;
+      breakerEnabled &= config.useCircuitBreaker;
+      statusIndex &= config.useStatusIndex;
+      contentBaseline &= config.useContentBaseline;
+      historyCacheEnabled &= config.useHistoryCache;
+      compatibleParser |= config.useCompatibleHistoryParser;
+
+      maxSessions = Math.min( maxSessions, config.maxInteractiveSessions );
+      maxCommands = Math.min( maxCommands, config.maxConcurrentCommands );
+      maxPerVob = Math.min( maxPerVob, config.maxConcurrentCommandsPerVob );
+      maxRoots = Math.min( maxRoots, config.maxConcurrentRoots );
+      queryCacheTtl = Math.min( queryCacheTtl, config.queryCacheTimeToLive );
+      inventoryTtl = Math.min( inventoryTtl, config.viewPrivateInventoryTimeToLive );
+      historyTtl = Math.min( historyTtl, config.historyCacheTimeToLive );
+      labelsTtl = Math.min( labelsTtl, config.historyLabelsTimeToLive );
+      probePeriod = Math.min( probePeriod, config.breakerProbePeriod );
+
+      commandTimeout = longest( commandTimeout, config.commandTimeout );
+      longCommandTimeout = longest( longCommandTimeout, config.longCommandTimeout );
+      slowCall = longest( slowCall, config.breakerSlowCallSeconds );
+      failureThreshold = Math.max( failureThreshold, config.breakerFailureThreshold );
+
+      if( exporting == null && StringUtil.isNotEmpty( config.metricsExportFile ) )
+        exporting = config;
+    }
+
+    CleartoolSessionPool sessionPool = CleartoolSessionPool.getInstance();
+    sessionPool.setMaxSessions( maxSessions );
+    sessionPool.setEnabled( interactiveSessions );
+    CleartoolExecutor executor = CleartoolExecutor.getInstance();
+    executor.setLimits( maxCommands, maxPerVob );
+    executor.setTaskLimit( maxRoots );
+    CleartoolQueryCache.getInstance().setTimeToLive( queryCacheTtl );
+    CCaseViewPrivateInventory inventory = CCaseViewPrivateInventory.getInstance();
+    inventory.setTimeToLive( TimeUnit.SECONDS.toMillis( inventoryTtl ) );
+    inventory.setEnabled( inventoryEnabled );
+    CleartoolDeadline.setTimeouts( commandTimeout, longCommandTimeout );
+
+    CleartoolCircuitBreaker breaker = CleartoolCircuitBreaker.getInstance();
+    breaker.setLimits( failureThreshold, slowCall, probePeriod );
+    breaker.setEnabled( breakerEnabled );
+
+    String file = exporting != null ? exporting.metricsExportFile : null;
+    int period = exporting != null ? exporting.metricsExportPeriod : 0;
+    if( !StringUtil.equals( file, exportFile ) || period != exportPeriod )
+    {
+      CleartoolMetrics metrics = CleartoolMetrics.getInstance();
+      if( file != null )
+        metrics.startExport( new File( file ), period );
+      else
+        metrics.stopExport();
+      exportFile = file;
+      exportPeriod = period;
+    }
+
+    CCaseStatusIndex.getInstance().setEnabled( statusIndex );
+    CCaseContentBaseline.getInstance().setEnabled( contentBaseline );
+    CCaseHistoryCache historyCache = CCaseHistoryCache.getInstance();
+    historyCache.setTimeToLive( TimeUnit.SECONDS.toMillis( historyTtl ) );
+    historyCache.setLabelsTimeToLive( TimeUnit.SECONDS.toMillis( labelsTtl ) );
+    historyCache.setCompatibleParser( compatibleParser );
+    historyCache.setEnabled( historyCacheEnabled );
+  }
+
+  //  Of two time limits in seconds, 0 meaning none.
+  private static int longest( int a, int b )
+  {
+    return a == 0 || b == 0 ? 0 : Math.max( a, b );
+  }
+}
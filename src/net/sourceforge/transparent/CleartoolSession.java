@@ -0,0 +1,289 @@
+package net.sourceforge.transparent;
+
+import com.intellij.execution.process.OSProcessUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.process.ProcessCloseUtil;
+import net.sourceforge.transparent.exceptions.ClearCaseAbortedException;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One long-lived "cleartool" process running in the interactive mode.
+ * Commands are written to its stdin one per line; the process is started
+ * with "-status" switch so that cleartool prints the line
+ *   "Command <N> returned status <S>"
+ * after every command, which we use as the end-of-response sentinel.
+ *
+ * Stderr is merged into stdout so that error messages come strictly before
+ * the sentinel line of the command which caused them.
+ *
+ * A session is not thread safe - it is owned by one caller at a time, see
+ * {@link CleartoolSessionPool}.
+ */
+public class CleartoolSession
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CleartoolSession");
+
+  @NonNls private static final String STATUS_SWITCH = "-status";
+  @NonNls private static final String PROMPT_SIG = "cleartool> ";
+  @NonNls private static final String QUIT_CMD = "quit";
+  @NonNls private static final String HEALTH_CMD = "pwd";
+  @NonNls private static final String ERROR_PREFIX = "cleartool: ";
+  private static final long POLL_PERIOD = 200;
+  private static final Pattern SENTINEL = Pattern.compile( "^Command \\d+ returned status (\\d+)$" );
+
+  //  Marker object put into the queue by the reader when the process output
+  //  is closed (the process died or was killed).
+  private static final String EOF = new String( "<eof>" );
+
+  private final String workingDir;
+  private final Process process;
+  private final Writer stdin;
+  private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+  private final long created;
+  private long lastUsed;
+  private volatile boolean broken;
+
+  public static class Result
+  {
+    public final int    exitCode;
+    public final String output;
+
+    public Result( int exitCode, String output )
+    {
+      this.exitCode = exitCode;
+      this.output = output;
+    }
+  }
+
+  private CleartoolSession( @Nullable String workingDir, Process process )
+  {
+    this.workingDir = workingDir;
+    this.process = process;
+    stdin = new BufferedWriter( new OutputStreamWriter( process.getOutputStream() ) );
+    created = lastUsed = System.currentTimeMillis();
+  }
+
+  public static CleartoolSession start( @Nullable String workingDir ) throws IOException
+  {
+    ProcessBuilder builder = new ProcessBuilder( TransparentVcs.getCleartoolExecutable(), STATUS_SWITCH );
+    builder.redirectErrorStream( true );
+    if( workingDir != null )
+    {
+      File wrkDir = new File( workingDir );
+      if( !wrkDir.exists() || !wrkDir.isDirectory() )
+        throw new IOException( "Path " + workingDir + " is not a valid working directory for a cleartool session" );
+      builder.directory( wrkDir );
+    }
+
+    return attach( workingDir, builder.start() );
+  }
+
+  /**
+   * Session over a process already started with the "-status" switch
+   * (or one which behaves like it, in the tests).
+   */
+  static CleartoolSession attach( @Nullable String workingDir, Process process )
+  {
+    final CleartoolSession session = new CleartoolSession( workingDir, process );
+    ApplicationManager.getApplication().executeOnPooledThread( session::pumpOutput );
+    return session;
+  }
+
+  private void pumpOutput()
+  {
+    try
+    {
+      BufferedReader reader = new BufferedReader( new InputStreamReader( process.getInputStream() ) );
+      String line;
+      while( (line = reader.readLine()) != null )
+        lines.add( line );
+    }
+    catch( IOException e )
+    {
+      LOG.debug( e );
+    }
+    finally
+    {
+      broken = true;
+      lines.add( EOF );
+    }
+  }
+
+  @Nullable
+  public String getWorkingDir() {  return workingDir;  }
+  public long   getLastUsed()   {  return lastUsed;    }
+  public long   getCreated()    {  return created;     }
+
+  public boolean isAlive()
+  {
+    return !broken && process.isAlive();
+  }
+
+  /**
+   * Cheap liveness probe - issue a command which does not touch the server
+   * and check that the sentinel comes back in time.
+   */
+  public boolean ping( long timeoutMillis )
+  {
+    try
+    {
+      return execute( new String[] { HEALTH_CMD }, timeoutMillis ).exitCode == 0;
+    }
+    catch( IOException | ClearCaseException e )
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Execute one cleartool subcommand (without the leading "cleartool").
+   * @throws IOException if the session died or did not answer in time. In the
+   *         latter case the session is marked broken and must be discarded.
+   */
+  public Result execute( String[] subcmd, long timeoutMillis ) throws IOException
+  {
+    return execute( subcmd, CleartoolDeadline.after( timeoutMillis ), null );
+  }
+
+  /**
+   * Streaming variant: output lines are pushed into the listener instead of
+   * being collected, and {@link Result#output} holds only the error lines.
+   * Since stderr is merged into stdout here, lines with the "cleartool: "
+   * prefix (which cleartool puts on all its diagnostics) are treated as errors.
+   *
+   * If the session breaks after some lines were already delivered, the
+   * command can not be repeated through another channel without duplicating
+   * them - ClearCaseException is thrown in this case instead of IOException.
+   *
+   * When the deadline is cancelled or expires the process is killed and
+   * ClearCaseAbortedException with the output received so far is thrown.
+   */
+  public Result execute( String[] subcmd, CleartoolDeadline deadline, @Nullable Runner.LineListener listener ) throws IOException
+  {
+    if( !isAlive() )
+      throw new IOException( "cleartool session is not alive" );
+
+    lines.clear();
+    stdin.write( getCommandLine( subcmd ) );
+    stdin.write( '\n' );
+    stdin.flush();
+
+    final StringBuilder out = new StringBuilder();
+    boolean delivered = false;
+    try
+    {
+      while( true )
+      {
+        //  Wake up regularly to notice the cancellation of the indicator.
+        String line = lines.poll( Math.min( POLL_PERIOD, Math.max( 1, deadline.getRemainingMillis() ) ), TimeUnit.MILLISECONDS );
+        if( line == null )
+        {
+          String reason = deadline.getAbortReason();
+          if( reason == null )
+            continue;
+
+          broken = true;
+          OSProcessUtil.killProcessTree( process );
+          throw new ClearCaseAbortedException( "cleartool session aborted: " + getCommandLine( subcmd ) + " - " + reason,
+                                               deadline.isCancelled(), out.toString() );
+        }
+        if( line == EOF )
+        {
+          broken = true;
+          String message = "cleartool session terminated while executing: " + getCommandLine( subcmd );
+          if( delivered )
+            throw new ClearCaseException( message );
+          throw new IOException( message );
+        }
+
+        line = stripPrompt( line );
+        Matcher m = SENTINEL.matcher( line );
+        if( m.matches() )
+        {
+          lastUsed = System.currentTimeMillis();
+          return new Result( Integer.parseInt( m.group( 1 ) ), out.toString() );
+        }
+
+        if( listener != null && !line.startsWith( ERROR_PREFIX ) )
+        {
+          listener.onOutputLine( line );
+          delivered = true;
+          continue;
+        }
+        if( listener != null )
+        {
+          listener.onErrorLine( line );
+          delivered = true;
+        }
+        if( out.length() != 0 ) out.append( '\n' );
+        out.append( line );
+      }
+    }
+    catch( InterruptedException e )
+    {
+      broken = true;
+      Thread.currentThread().interrupt();
+      throw new IOException( "Interrupted while waiting for cleartool session" );
+    }
+  }
+
+  public void close()
+  {
+    broken = true;
+    try
+    {
+      stdin.write( QUIT_CMD );
+      stdin.write( '\n' );
+      stdin.flush();
+      if( !process.waitFor( 1, TimeUnit.SECONDS ) )
+        process.destroy();
+    }
+    catch( Exception e )
+    {
+      process.destroy();
+    }
+    finally
+    {
+      ProcessCloseUtil.close( process );
+    }
+  }
+
+  private static String stripPrompt( String line )
+  {
+    while( line.startsWith( PROMPT_SIG ) )
+      line = line.substring( PROMPT_SIG.length() );
+    return line;
+  }
+
+  /**
+   * Interactive cleartool splits the input line by whitespace, thus every
+   * argument containing whitespace or quotes must be quoted. Callers pass
+   * the arguments as they would to a separate process and leave the quoting
+   * to this method; an argument quoted as a whole (see
+   * CommandLineClearCase.quote) is left as it is.
+   */
+  static String getCommandLine( String[] subcmd )
+  {
+    StringBuilder buf = new StringBuilder();
+    for( String arg : subcmd )
+    {
+      if( buf.length() != 0 ) buf.append( ' ' );
+      boolean quoted = arg.length() > 1 && arg.startsWith( "\"" ) && arg.endsWith( "\"" );
+      if( !quoted && (arg.isEmpty() || arg.indexOf( ' ' ) != -1 || arg.indexOf( '\t' ) != -1 || arg.indexOf( '"' ) != -1) )
+        buf.append( '"' ).append( arg.replace( "\"", "\\\"" ) ).append( '"' );
+      else
+        buf.append( arg );
+    }
+    return buf.toString();
+  }
+}
@@ -0,0 +1,267 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Pool of interactive cleartool sessions keyed by the working directory
+ * (and thus by the view the directory belongs to). Saves process startup,
+ * ClearCase client initialization and registry lookups on every command.
+ *
+ * - A session is leased to exactly one caller for the duration of a command.
+ * - Sessions idle for too long are pinged before reuse and restarted if they
+ *   do not answer; a session which does not answer a command within the
+ *   timeout is killed.
+ * - Total amount of sessions is limited; when the limit is reached and no idle
+ *   session exists for the key, the caller is told to use the plain exec path.
+ * - Sessions are closed outside the pool lock: shutting down a process may
+ *   take a while and must not hold up the other callers.
+ */
+public class CleartoolSessionPool
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.CleartoolSessionPool");
+
+  private static final String DEFAULT_KEY = "";
+  private static final int  DEFAULT_MAX_SESSIONS = 4;
+  private static final long PING_TIMEOUT = 5000;
+  private static final long IDLE_BEFORE_PING = 30 * 1000;
+  private static final long MAX_IDLE = 10 * 60 * 1000;
+  private static final int  MAX_INTERACTIVE_LINE = 8192;
+
+  private static final CleartoolSessionPool ourInstance = new CleartoolSessionPool();
+
+  private final Map<String, Deque<CleartoolSession>> idle = new HashMap<>();
+  private int leased;
+  private int idleCount;
+
+  private volatile boolean enabled;
+  private volatile int maxSessions = DEFAULT_MAX_SESSIONS;
+
+  public static CleartoolSessionPool getInstance() {  return ourInstance;  }
+
+  public boolean isEnabled()  {  return enabled;  }
+
+  public void setEnabled( boolean value )
+  {
+    enabled = value;
+    if( !value )
+      closeAll();
+  }
+
+  public void setMaxSessions( int value )  {  maxSessions = Math.max( 1, value );  }
+
+  /**
+   * Multi-line arguments (e.g. comments) can not be passed through the
+   * interactive session since every line is a separate command. Very long
+   * command lines (large batches of paths) go through the exec path too:
+   * cleartool's line reader is not meant for them, and the process startup
+   * is negligible against such a command anyway.
+   */
+  public static boolean canExecute( String[] subcmd )
+  {
+    int length = 0;
+    for( String arg : subcmd )
+    {
+      if( arg.indexOf( '\n' ) != -1 || arg.indexOf( '\r' ) != -1 )
+        return false;
+      length += arg.length() + 3;
+    }
+    return length <= MAX_INTERACTIVE_LINE;
+  }
+
+  /**
+   * @return result of the command or null if the command could not be run
+   *         through a session (pool is disabled or exhausted, session failed to
+   *         start or died). The caller must fall back to the exec path then.
+   */
+  @Nullable
+  public CleartoolSession.Result execute( @Nullable String workingDir, String[] subcmd )
+  {
+    return execute( workingDir, subcmd, null );
+  }
+
+  /**
+   * NB: once the listener has been fed with some lines the command can not be
+   *     safely repeated through the exec path, see {@link CleartoolSession#execute}.
+   */
+  @Nullable
+  public CleartoolSession.Result execute( @Nullable String workingDir, String[] subcmd, @Nullable Runner.LineListener listener )
+  {
+    return execute( workingDir, subcmd, listener, CleartoolDeadline.forCommand( subcmd ) );
+  }
+
+  /**
+   * When the deadline is cancelled or expires the session is killed and
+   * ClearCaseAbortedException is thrown - repeating the command through
+   * the exec path would only hang on the same server once more.
+   */
+  @Nullable
+  public CleartoolSession.Result execute( @Nullable String workingDir, String[] subcmd, @Nullable Runner.LineListener listener,
+                                          CleartoolDeadline deadline )
+  {
+    if( !enabled || !canExecute( subcmd ) )
+      return null;
+
+    final String key = (workingDir == null) ? DEFAULT_KEY : workingDir;
+    CleartoolSession session = lease( key );
+    if( session == null )
+      return null;
+
+    boolean healthy = false;
+    try
+    {
+      CleartoolSession.Result result = session.execute( subcmd, deadline, listener );
+      healthy = true;
+      return result;
+    }
+    catch( IOException e )
+    {
+      LOG.info( "Interactive cleartool session failed, falling back to a separate process: " + e.getMessage() );
+      return null;
+    }
+    finally
+    {
+      release( key, session, healthy );
+    }
+  }
+
+  @Nullable
+  private CleartoolSession lease( String key )
+  {
+    CleartoolSession candidate = null;
+    List<CleartoolSession> toClose = new ArrayList<>();
+    try
+    {
+      synchronized( this )
+      {
+        evictExpired( toClose );
+        Deque<CleartoolSession> sessions = idle.get( key );
+        while( candidate == null && sessions != null && !sessions.isEmpty() )
+        {
+          CleartoolSession session = sessions.pollFirst();
+          idleCount--;
+          if( session.isAlive() )
+            candidate = session;
+          else
+            toClose.add( session );
+        }
+
+        if( candidate == null && leased + idleCount >= maxSessions && !evictOldestIdle( toClose ) )
+          return null;
+        leased++;
+      }
+    }
+    finally
+    {
+      close( toClose );
+    }
+
+    //  Sessions which were idle for a while may hang on a dead server
+    //  connection - check them before use and restart if necessary.
+    if( candidate != null )
+    {
+      if( System.currentTimeMillis() - candidate.getLastUsed() < IDLE_BEFORE_PING || candidate.ping( PING_TIMEOUT ) )
+        return candidate;
+
+      LOG.info( "Restarting hung cleartool session for [" + key + "]" );
+      candidate.close();
+    }
+
+    try
+    {
+      return CleartoolSession.start( key.equals( DEFAULT_KEY ) ? null : key );
+    }
+    catch( IOException e )
+    {
+      LOG.info( "Failed to start interactive cleartool session: " + e.getMessage() );
+      synchronized( this ) {  leased--;  }
+      return null;
+    }
+  }
+
+  private void release( String key, CleartoolSession session, boolean healthy )
+  {
+    synchronized( this )
+    {
+      leased--;
+      if( healthy && enabled && session.isAlive() )
+      {
+        Deque<CleartoolSession> sessions = idle.get( key );
+        if( sessions == null )
+        {
+          sessions = new ArrayDeque<>();
+          idle.put( key, sessions );
+        }
+        sessions.addFirst( session );
+        idleCount++;
+        return;
+      }
+    }
+    session.close();
+  }
+
+  private void evictExpired( List<CleartoolSession> toClose )
+  {
+    long now = System.currentTimeMillis();
+    for( Iterator<Deque<CleartoolSession>> it = idle.values().iterator(); it.hasNext(); )
+    {
+      Deque<CleartoolSession> sessions = it.next();
+      for( Iterator<CleartoolSession> sit = sessions.iterator(); sit.hasNext(); )
+      {
+        CleartoolSession session = sit.next();
+        if( now - session.getLastUsed() > MAX_IDLE || !session.isAlive() )
+        {
+          sit.remove();
+          idleCount--;
+          toClose.add( session );
+        }
+      }
+      if( sessions.isEmpty() )
+        it.remove();
+    }
+  }
+
+  private boolean evictOldestIdle( List<CleartoolSession> toClose )
+  {
+    CleartoolSession oldest = null;
+    Deque<CleartoolSession> owner = null;
+    for( Deque<CleartoolSession> sessions : idle.values() )
+    {
+      CleartoolSession candidate = sessions.peekLast();
+      if( candidate != null && (oldest == null || candidate.getLastUsed() < oldest.getLastUsed()) )
+      {
+        oldest = candidate;
+        owner = sessions;
+      }
+    }
+    if( oldest == null )
+      return false;
+
+    owner.removeLast();
+    idleCount--;
+    toClose.add( oldest );
+    return true;
+  }
+
+  public void closeAll()
+  {
+    List<CleartoolSession> toClose = new ArrayList<>();
+    synchronized( this )
+    {
+      for( Deque<CleartoolSession> sessions : idle.values() )
+        toClose.addAll( sessions );
+      idle.clear();
+      idleCount = 0;
+    }
+    close( toClose );
+  }
+
+  private static void close( List<CleartoolSession> sessions )
+  {
+    for( CleartoolSession session : sessions )
+      session.close();
+  }
+}
@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class CommandLineClearCase implements ClearCase
 {
@@ -118,15 +119,32 @@ public class CommandLineClearCase implements ClearCase
     if( activity != null && !file.isDirectory() )
     {
       CCaseViewsManager viewsManager = CCaseViewsManager.getInstance( host.getProject() );
-      viewsManager.addFile2Changelist( file.getPath(), activity );
 
-      //  If the current activity for a view was changed in the CCase Explorer
-      //  and we did not synchronize that in IDEA, we can catch that automatically
-      //  by the monitoring the last activity for checked out file.
-      viewsManager.checkChangedActivityForView( file.getPath(), activity );
+      //  Checkouts may run concurrently (see TransparentVcs.checkoutFiles).
+      synchronized( viewsManager )
+      {
+        viewsManager.addFile2Changelist( file.getPath(), activity );
+
+        //  If the current activity for a view was changed in the CCase Explorer
+        //  and we did not synchronize that in IDEA, we can catch that automatically
+        //  by the monitoring the last activity for checked out file.
+        viewsManager.checkChangedActivityForView( file.getPath(), activity );
+      }
     }
   }
 
+  public CompletableFuture<Void> checkInAsync( final File file, final String comment )
+  {
+    String vobKey = CleartoolExecutor.getVobKey( file.getAbsolutePath() );
+    return CleartoolExecutor.getInstance().run( vobKey, () -> checkIn( file, comment ) );
+  }
+
+  public CompletableFuture<Status> getStatusAsync( final File file )
+  {
+    String vobKey = CleartoolExecutor.getVobKey( file.getAbsolutePath() );
+    return CleartoolExecutor.getInstance().submit( vobKey, () -> getStatus( file ) );
+  }
+
   public void delete( File file, String comment)
   {
     String canonName;
@@ -210,11 +228,11 @@ public class CommandLineClearCase implements ClearCase
   {
     String fileName = VcsUtil.getCanonicalPath( file );
 
-    Runner runner = cleartool( new String[] { "ls", "-directory", fileName }, true );
-    String output = runner.getOutput();
+    CleartoolQueryCache.Result result = CleartoolQueryCache.getInstance().query( fileName, "ls", "-directory" );
+    String output = result.output;
     if (output == null)
       output = "";
-    return parseLine(output, runner.isSuccessfull());
+    return parseLine(output, result.successful);
   }
 
   private Status parseLine(@NotNull String output, final boolean wasSuccessful) {
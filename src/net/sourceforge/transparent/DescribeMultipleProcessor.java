@@ -5,8 +5,8 @@ import com.intellij.util.ArrayUtil;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 
 public class DescribeMultipleProcessor
@@ -16,8 +16,6 @@ public class DescribeMultipleProcessor
   @NonNls private static final String FORMAT_SIG = "%Xn --> %[activity]p\n";
   @NonNls private static final String DELIMITER = " --> ";
 
-  private static final int  CMDLINE_MAX_LENGTH = 500;
-
   private final String[] files;
   private HashMap<String, String> file2Activity;
 
@@ -30,31 +28,12 @@ public class DescribeMultipleProcessor
   {
     file2Activity = new HashMap<>();
 
-    int currFileIndex = 0;
-    int batchStartIndex = 0;
-    int cmdLineLen;
-    LinkedList<String> options = new LinkedList<>();
-    while( currFileIndex < files.length )
-    {
-      cmdLineLen = DESCRIBE_COMMAND.length() + FMT_SWITCH.length() + FORMAT_SIG.length();
-
-      options.clear();
-      options.add( DESCRIBE_COMMAND );
-      options.add( FMT_SWITCH );
-      options.add( FORMAT_SIG );
-
-      while( currFileIndex < files.length && cmdLineLen < CMDLINE_MAX_LENGTH )
-      {
-        String path = files[ currFileIndex++ ];
-        options.add( path );
-        cmdLineLen += path.length() + 1;
-      }
-
-      String[] aOptions = ArrayUtil.toStringArray(options);
-      String out = TransparentVcs.cleartoolWithOutput( aOptions );
-      parseCleartoolOutput( out, batchStartIndex );
-      batchStartIndex = currFileIndex;
-    }
+    final String[] prefix = { DESCRIBE_COMMAND, FMT_SWITCH, FORMAT_SIG };
+    List<String[]> batches = CleartoolBatcher.split( prefix, files, CleartoolExecutor.getInstance().getMaxConcurrentPerVob() );
+    CleartoolBatcher.execute( batches, CleartoolExecutor.getVobKey( files ), batch -> {
+      String out = TransparentVcs.cleartoolWithOutput( batch );
+      parseCleartoolOutput( out, Arrays.copyOfRange( batch, prefix.length, batch.length ) );
+    } );
   }
 
   @Nullable
@@ -73,7 +52,7 @@ public class DescribeMultipleProcessor
    *
    * Thus we can rely only on some patterns which strip out known garbage messages.
    */
-  private void parseCleartoolOutput( final String out, int startIndex )
+  private void parseCleartoolOutput( final String out, String[] batchFiles )
   {
     TransparentVcs.LOG.info( "\n" + out );
 
@@ -85,7 +64,10 @@ public class DescribeMultipleProcessor
       if( index != -1 )
       {
         String activity = line.substring( index + DELIMITER.length() );
-        file2Activity.put( files[ shiftIndex + startIndex ], activity );
+        synchronized( file2Activity )
+        {
+          file2Activity.put( batchFiles[ shiftIndex ], activity );
+        }
         shiftIndex++;
       }
     }
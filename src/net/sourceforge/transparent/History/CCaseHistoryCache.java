@@ -0,0 +1,765 @@
+package net.sourceforge.transparent.History;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.Consumer;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import net.sourceforge.transparent.Runner;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * Parsed "lshistory" records of the elements, kept between the history
+ * requests and the IDE sessions. Versions never change once created, so a
+ * known history is only brought up to date:
+ * - while it is younger than the TTL it is used as is;
+ * - then only the events since the newest known one are listed
+ *   ("lshistory -since", given the locale independent "%Nd" date of the
+ *   event), or since the oldest checkout event, which may be gone by now.
+ *   Each branch keeps the number of its newest known version (the
+ *   high-water mark), the versions at or below it are not new;
+ * - labels can move, so they are listed anew (just the labels) when older
+ *   than their own TTL.
+ * Checkin, label and other commands run by the IDE on the element make its
+ * history stale at once (see {@link #commandExecuted}), commands which
+ * rewrite the history drop it. A failed or empty listing is never kept.
+ *
+ * A history fetched with "-last" holds the newest records only and serves
+ * requests for at most as many. Elements are keyed by their path (without
+ * the version extension): an object id would itself cost a cleartool call.
+ *
+ * The cache is one file in the IDE system folder, read in background at
+ * activation and written on {@link #flush}. Format (big endian): int magic,
+ * int format version, int count, then per element: path, boolean complete,
+ * int record count, per record: action, version, submitter, date, numeric
+ * date, comment, labels. Strings are int length (-1 for null) and UTF-8
+ * bytes; the marks are taken from the records when read.
+ */
+public class CCaseHistoryCache
+{
+  private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.History.CCaseHistoryCache");
+
+  private static final int MAGIC = 0x43434843;   //  "CCHC"
+  private static final int FORMAT_VERSION = 2;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_ENTRIES = 1000;
+
+  private static final long DEFAULT_TTL = 30 * 1000;
+  private static final long DEFAULT_LABELS_TTL = 10 * 60 * 1000;
+
+  @NonNls private static final String HISTORY_CMD = "lshistory";
+  @NonNls private static final String LIMITED_SWITCH = "-last";
+  @NonNls private static final String SINCE_SWITCH = "-since";
+  @NonNls private static final String FORMAT_SWITCH = "-fmt";
+  @NonNls private static final String LABELS_FORMAT = "%n\1%l\n";
+  @NonNls private static final char LABELS_DELIMITER = '\1';
+  @NonNls private static final String NOT_A_VOB_OBJECT = "Not a vob object";
+  @NonNls private static final String VERSION_DELIM = "@@";
+  @NonNls private static final String CHECKEDOUT_SIG = "CHECKEDOUT";
+  @NonNls private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+                                                   "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+  @NonNls private static final String CACHE_FILE = "clearcase" + File.separator + "history-cache.bin";
+  @NonNls private static final String TEMP_EXT = ".tmp";
+
+  //  New versions or checkouts of the elements given come with the commands
+  //  of Runner.changesView; these change only the labels.
+  @NonNls private static final Set<String> LABEL_COMMANDS = new HashSet<>( Arrays.asList( "mklabel", "rmlabel" ) );
+  //  Commands which change or remove the known records.
+  @NonNls private static final Set<String> REWRITING_COMMANDS = new HashSet<>( Arrays.asList(
+    "chevent", "rmver", "rmbranch", "rmelem", "chtype", "rmtype" ) );
+
+  private static final CCaseHistoryCache ourInstance = new CCaseHistoryCache();
+
+  private static class Entry
+  {
+    //  Newest first, as "lshistory" lists them.
+    final List<CCaseHistoryParser.SubmissionData> records;
+    //  Branch -> number of its newest version among the records.
+    final Map<String, Integer> highWater;
+    //  The whole history, not only the newest records.
+    final boolean complete;
+    volatile long checkedAt;
+    volatile long labelsCheckedAt;
+
+    Entry( List<CCaseHistoryParser.SubmissionData> records, boolean complete )
+    {
+      this.records = records;
+      this.complete = complete;
+      highWater = new HashMap<>();
+      for( CCaseHistoryParser.SubmissionData record : records )
+        raiseHighWater( highWater, record );
+      for( int i = 0; i < records.size(); i++ )
+        records.get( i ).order = i;
+      checkedAt = labelsCheckedAt = System.currentTimeMillis();
+    }
+
+    boolean covers( int limit )
+    {
+      return complete || (limit > 0 && records.size() >= limit);
+    }
+  }
+
+  private Map<String, Entry> entries;
+  private Future<?> loading;
+  private boolean dirty;
+  private volatile boolean enabled = true;
+  private volatile long ttl = DEFAULT_TTL;
+  private volatile long labelsTtl = DEFAULT_LABELS_TTL;
+  private volatile boolean compatibleParser;
+  private File storage;
+
+  public static CCaseHistoryCache getInstance() {  return ourInstance;  }
+
+  public void setEnabled( boolean value )
+  {
+    enabled = value;
+  }
+
+  public void setTimeToLive( long millis )        {  ttl = millis;        }
+  public void setLabelsTimeToLive( long millis )  {  labelsTtl = millis;  }
+
+  /**
+   * @param value list the histories for the line-guessing {@link CCaseHistoryParser}
+   *              instead of {@link CCaseHistoryRecordParser}.
+   */
+  public void setCompatibleParser( boolean value )
+  {
+    compatibleParser = value;
+  }
+
+  /**
+   * @param file where the cache is kept; null for the default one in the
+   *             IDE system folder.
+   */
+  public synchronized void setStorage( @Nullable File file )
+  {
+    storage = file;
+    entries = null;
+    loading = null;
+    dirty = false;
+  }
+
+  /**
+   * Start reading the cache in background, the first request waits for it.
+   */
+  public synchronized void startLoading()
+  {
+    if( enabled && entries == null && loading == null )
+      loading = AppExecutorUtil.getAppExecutorService().submit( this::getEntries );
+  }
+
+  /**
+   * Pass the history records of the element to the consumer, the newest
+   * first. A history fetched in full is streamed as cleartool prints it,
+   * a known one is brought up to date first.
+   *
+   * @param path  the element; with "@@" to point to the vob object of a
+   *              hijacked file.
+   * @param limit number of the newest records, 0 for all.
+   */
+  public void getHistory( @NotNull String path, int limit,
+                          @NotNull Consumer<CCaseHistoryParser.SubmissionData> consumer ) throws VcsException
+  {
+    if( !enabled )
+    {
+      fetch( path, limit, null, consumer );
+      return;
+    }
+
+    String key = getKey( path );
+    Entry entry = getEntry( key );
+    if( entry == null || !entry.covers( limit ) )
+    {
+      List<CCaseHistoryParser.SubmissionData> records = new ArrayList<>();
+      boolean successful = fetch( path, limit, null, record -> {
+        records.add( record );
+        consumer.consume( record );
+      } );
+      storeFetched( key, entry, records, limit == 0 || records.size() < limit, successful );
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    if( now - entry.checkedAt > ttl )
+      entry = update( path, key, entry );
+    if( now - entry.labelsCheckedAt > labelsTtl )
+      entry = updateLabels( path, key, entry );
+
+    List<CCaseHistoryParser.SubmissionData> records = entry.records;
+    int count = limit > 0 ? Math.min( limit, records.size() ) : records.size();
+    for( int i = 0; i < count; i++ )
+      consumer.consume( records.get( i ) );
+  }
+
+  /**
+   * A cleartool command was run; forget what it may have changed.
+   */
+  public void commandExecuted( @NotNull String[] subcmd )
+  {
+    if( !enabled || subcmd.length == 0 )
+      return;
+
+    String command = subcmd[ 0 ];
+    boolean history = Runner.changesView( subcmd );
+    boolean labels = LABEL_COMMANDS.contains( command );
+    boolean rewriting = REWRITING_COMMANDS.contains( command );
+    if( !history && !labels && !rewriting )
+      return;
+
+    List<String> keys = new ArrayList<>();
+    for( int i = 1; i < subcmd.length; i++ )
+    {
+      String arg = subcmd[ i ];
+      if( !arg.startsWith( "-" ) && new File( arg ).isAbsolute() )
+        keys.add( getKey( arg ) );
+    }
+
+    synchronized( this )
+    {
+      Collection<Entry> affected;
+      if( keys.isEmpty() )
+      {
+        if( rewriting )
+        {
+          getEntries().clear();
+          dirty = true;
+          return;
+        }
+        affected = getEntries().values();
+      }
+      else
+      {
+        affected = new ArrayList<>();
+        for( String key : keys )
+        {
+          Entry entry = rewriting ? getEntries().remove( key ) : getEntries().get( key );
+          dirty |= rewriting && entry != null;
+          if( entry != null && !rewriting )
+            affected.add( entry );
+        }
+      }
+
+      for( Entry entry : affected )
+      {
+        if( history )
+          entry.checkedAt = 0;
+        if( labels )
+          entry.labelsCheckedAt = 0;
+      }
+    }
+  }
+
+  public synchronized void invalidateAll()
+  {
+    if( entries != null && !entries.isEmpty() )
+    {
+      entries.clear();
+      dirty = true;
+    }
+  }
+
+  public void flush()
+  {
+    synchronized( this )
+    {
+      if( !dirty || entries == null )
+        return;
+      dirty = false;
+    }
+    if( !save() )
+    {
+      synchronized( this )
+      {
+        dirty = true;
+      }
+    }
+  }
+
+  //---------------------------------------------------------------------------
+  //  Bringing a known history up to date
+  //---------------------------------------------------------------------------
+
+  private Entry update( String path, String key, Entry entry ) throws VcsException
+  {
+    //  Checkouts may be cancelled meanwhile: list the events since the
+    //  oldest of them, or since the newest record if there is none.
+    List<CCaseHistoryParser.SubmissionData> records = entry.records;
+    String since = records.isEmpty() ? null : toSinceDate( records.get( 0 ).numericDate );
+    for( CCaseHistoryParser.SubmissionData record : records )
+    {
+      if( isCheckout( record ) )
+        since = toSinceDate( record.numericDate );
+    }
+
+    List<CCaseHistoryParser.SubmissionData> fetched = new ArrayList<>();
+    if( since == null || !fetch( path, 0, since, fetched::add ) )
+    {
+      //  No date of the record (or the element changed too much to tell):
+      //  list it all again.
+      LOG.debug( "History of " + path + " is fetched anew" );
+      int limit = entry.complete ? 0 : records.size();
+      fetched.clear();
+      boolean successful = fetch( path, limit, null, fetched::add );
+      return storeFetched( key, entry, fetched, limit == 0 || fetched.size() < limit, successful );
+    }
+
+    //  The events fetched are the newest ones and replace all the known
+    //  records they cover.
+    List<CCaseHistoryParser.SubmissionData> merged = new ArrayList<>( fetched );
+    Set<String> fetchedEvents = new HashSet<>();
+    int newVersions = 0;
+    for( CCaseHistoryParser.SubmissionData record : fetched )
+    {
+      fetchedEvents.add( getEventKey( record ) );
+      String branch = getBranch( record.version );
+      Integer mark = branch == null ? null : entry.highWater.get( branch );
+      if( branch != null && (mark == null || getVersionNumber( record.version ) > mark) )
+        newVersions++;
+    }
+    for( CCaseHistoryParser.SubmissionData record : records )
+    {
+      if( !isCheckout( record ) && !fetchedEvents.contains( getEventKey( record ) ) )
+        merged.add( copyOf( record ) );
+    }
+    if( newVersions > 0 )
+      LOG.debug( "History of " + path + ": " + newVersions + " new versions" );
+
+    Entry updated = storeFetched( key, entry, merged, entry.complete, true );
+    updated.labelsCheckedAt = entry.labelsCheckedAt;
+    return updated;
+  }
+
+  private Entry updateLabels( String path, String key, Entry entry )
+  {
+    final Map<String, String> labels = new HashMap<>();
+    List<String> commandParts = new ArrayList<>();
+    commandParts.add( HISTORY_CMD );
+    if( !entry.complete )
+    {
+      commandParts.add( LIMITED_SWITCH );
+      commandParts.add( String.valueOf( entry.records.size() ) );
+    }
+    commandParts.add( FORMAT_SWITCH );
+    commandParts.add( LABELS_FORMAT );
+    commandParts.add( path );
+
+    Runner runner = TransparentVcs.cleartoolWithListener( new Runner.LineListener()
+    {
+      public void onOutputLine( @NotNull String line )
+      {
+        int delim = line.indexOf( LABELS_DELIMITER );
+        int versionStart = line.indexOf( VERSION_DELIM );
+        if( delim != -1 && versionStart != -1 && versionStart < delim )
+          labels.put( line.substring( versionStart, delim ), line.substring( delim + 1 ) );
+      }
+
+      public void onErrorLine( @NotNull String line ) {}
+    }, ArrayUtil.toStringArray( commandParts ) );
+    if( !runner.isSuccessfull() )
+      return entry;
+
+    List<CCaseHistoryParser.SubmissionData> records = new ArrayList<>( entry.records.size() );
+    boolean changed = false;
+    for( CCaseHistoryParser.SubmissionData record : entry.records )
+    {
+      String current = labels.get( record.version );
+      if( current != null && !current.equals( record.labels ) )
+      {
+        record = copyOf( record );
+        record.labels = current;
+        changed = true;
+      }
+      records.add( record );
+    }
+    if( !changed )
+    {
+      entry.labelsCheckedAt = System.currentTimeMillis();
+      return entry;
+    }
+
+    Entry updated = new Entry( records, entry.complete );
+    updated.checkedAt = entry.checkedAt;
+    return store( key, entry, updated );
+  }
+
+  /**
+   * @param since list only the events since this date, null for all.
+   * @return false if cleartool failed.
+   */
+  private boolean fetch( String path, int limit, @Nullable String since,
+                         Consumer<CCaseHistoryParser.SubmissionData> consumer ) throws VcsException
+  {
+    if( compatibleParser )
+      return fetchCompatible( path, limit, since, 0, consumer );
+
+    List<String> commandParts = getCommand( limit, since );
+    CCaseHistoryRecordParser.fillParameters( commandParts );
+    commandParts.add( path );
+
+    CCaseHistoryRecordParser parser = new CCaseHistoryRecordParser( consumer );
+    Runner runner = TransparentVcs.cleartoolWithListener( parser, ArrayUtil.toStringArray( commandParts ) );
+    parser.finish();
+    checkErrors( parser.getErrors() );
+    if( parser.isMalformed() && runner.isSuccessfull() )
+    {
+      LOG.info( "History of " + path + " is not in the expected format, listed again for the line parser" );
+      return fetchCompatible( path, limit, since, parser.getRecordCount(), consumer );
+    }
+    return runner.isSuccessfull();
+  }
+
+  /**
+   * Listing for {@link CCaseHistoryParser}, which guesses the fields line by
+   * line.
+   * @param skip number of the newest records already passed on.
+   */
+  private static boolean fetchCompatible( String path, int limit, @Nullable String since, final int skip,
+                                          final Consumer<CCaseHistoryParser.SubmissionData> consumer ) throws VcsException
+  {
+    List<String> commandParts = getCommand( limit, since );
+    CCaseHistoryParser.fillParametersTail( commandParts );
+    commandParts.add( path );
+
+    CCaseHistoryParser.LineParser parser = new CCaseHistoryParser.LineParser( record -> {
+      if( record.order >= skip )
+        consumer.consume( record );
+    } );
+    Runner runner = TransparentVcs.cleartoolWithListener( parser, ArrayUtil.toStringArray( commandParts ) );
+    parser.finish();
+    checkErrors( parser.getErrors() );
+    return runner.isSuccessfull();
+  }
+
+  private static List<String> getCommand( int limit, @Nullable String since )
+  {
+    List<String> commandParts = new ArrayList<>();
+    commandParts.add( HISTORY_CMD );
+    if( since != null )
+    {
+      commandParts.add( SINCE_SWITCH );
+      commandParts.add( since );
+    }
+    if( limit > 0 )
+    {
+      commandParts.add( LIMITED_SWITCH );
+      commandParts.add( String.valueOf( limit ) );
+    }
+    return commandParts;
+  }
+
+  //  There may exist files for which we know nothing.
+  private static void checkErrors( String log ) throws VcsException
+  {
+    if( log.contains( NOT_A_VOB_OBJECT ) )
+      throw new VcsException( log );
+  }
+
+  //---------------------------------------------------------------------------
+  //  Records
+  //---------------------------------------------------------------------------
+
+  /**
+   * @param numericDate "%Nd" date of a record, "20090204.175132".
+   * @return the date as "-since" takes it in any locale, "04-Feb-2009.17:51:32";
+   *         null if the record has no such date.
+   */
+  @Nullable
+  public static String toSinceDate( @Nullable String numericDate )
+  {
+    if( numericDate == null || numericDate.length() != 15 || numericDate.charAt( 8 ) != '.' )
+      return null;
+    for( int i = 0; i < numericDate.length(); i++ )
+    {
+      if( i != 8 && !Character.isDigit( numericDate.charAt( i ) ) )
+        return null;
+    }
+    int month = Integer.parseInt( numericDate.substring( 4, 6 ) );
+    if( month < 1 || month > MONTHS.length )
+      return null;
+
+    return numericDate.substring( 6, 8 ) + '-' + MONTHS[ month - 1 ] + '-' + numericDate.substring( 0, 4 ) + '.' +
+           numericDate.substring( 9, 11 ) + ':' + numericDate.substring( 11, 13 ) + ':' + numericDate.substring( 13 );
+  }
+
+  private static boolean isCheckout( CCaseHistoryParser.SubmissionData record )
+  {
+    return record.version == null || record.version.isEmpty() || record.version.endsWith( CHECKEDOUT_SIG );
+  }
+
+  private static String getEventKey( CCaseHistoryParser.SubmissionData record )
+  {
+    String date = record.numericDate == null || record.numericDate.isEmpty() ? record.changeDate : record.numericDate;
+    return record.action + '\0' + record.version + '\0' + date;
+  }
+
+  /**
+   * @return branch of the version ("@@\main\3" -> "\main"), null if it is
+   *         not a numbered version.
+   */
+  @Nullable
+  private static String getBranch( @Nullable String version )
+  {
+    if( version == null )
+      return null;
+    int sep = Math.max( version.lastIndexOf( '\\' ), version.lastIndexOf( '/' ) );
+    if( sep == -1 || sep == version.length() - 1 )
+      return null;
+    for( int i = sep + 1; i < version.length(); i++ )
+    {
+      if( !Character.isDigit( version.charAt( i ) ) )
+        return null;
+    }
+    return version.substring( 0, sep );
+  }
+
+  private static int getVersionNumber( String version )
+  {
+    int sep = Math.max( version.lastIndexOf( '\\' ), version.lastIndexOf( '/' ) );
+    try
+    {
+      return Integer.parseInt( version.substring( sep + 1 ) );
+    }
+    catch( NumberFormatException e )
+    {
+      return -1;
+    }
+  }
+
+  private static void raiseHighWater( Map<String, Integer> highWater, CCaseHistoryParser.SubmissionData record )
+  {
+    String branch = getBranch( record.version );
+    if( branch != null )
+    {
+      int number = getVersionNumber( record.version );
+      Integer mark = highWater.get( branch );
+      if( mark == null || number > mark )
+        highWater.put( branch, number );
+    }
+  }
+
+  private static CCaseHistoryParser.SubmissionData copyOf( CCaseHistoryParser.SubmissionData record )
+  {
+    CCaseHistoryParser.SubmissionData copy = new CCaseHistoryParser.SubmissionData( record.order );
+    copy.action = record.action;
+    copy.version = record.version;
+    copy.submitter = record.submitter;
+    copy.changeDate = record.changeDate;
+    copy.numericDate = record.numericDate;
+    copy.comment = record.comment;
+    copy.labels = record.labels;
+    return copy;
+  }
+
+  //---------------------------------------------------------------------------
+  //  The entries
+  //---------------------------------------------------------------------------
+
+  //  The element of a version-extended path ("foo.java@@\main\3").
+  private static String getKey( String path )
+  {
+    int versionStart = path.indexOf( VERSION_DELIM );
+    return FileUtil.toSystemIndependentName( versionStart == -1 ? path : path.substring( 0, versionStart ) );
+  }
+
+  @Nullable
+  private synchronized Entry getEntry( String key )
+  {
+    return getEntries().get( key );
+  }
+
+  /**
+   * Keep a listing of the element, unless cleartool failed or listed
+   * nothing (an element has at least its creation event); such a listing
+   * replaces the known entry but is passed on only.
+   */
+  private Entry storeFetched( String key, @Nullable Entry previous, List<CCaseHistoryParser.SubmissionData> records,
+                              boolean complete, boolean successful )
+  {
+    Entry entry = new Entry( records, complete );
+    if( successful && !records.isEmpty() )
+      return store( key, previous, entry );
+
+    forget( key, previous );
+    return entry;
+  }
+
+  private synchronized void forget( String key, @Nullable Entry previous )
+  {
+    if( previous != null && getEntries().get( key ) == previous )
+    {
+      getEntries().remove( key );
+      dirty = true;
+    }
+  }
+
+  //  Unless the entry was changed or dropped meanwhile (by a command).
+  private synchronized Entry store( String key, @Nullable Entry previous, Entry entry )
+  {
+    Entry current = getEntries().get( key );
+    if( current == previous )
+    {
+      getEntries().put( key, entry );
+      dirty = true;
+    }
+    return entry;
+  }
+
+  private synchronized Map<String, Entry> getEntries()
+  {
+    if( entries == null )
+    {
+      Map<String, Entry> loaded = load( getFile() );
+      entries = new LinkedHashMap<String, Entry>( Math.max( 16, loaded.size() * 2 ), 0.75f, true )
+      {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest ) {  return size() > MAX_ENTRIES;  }
+      };
+      entries.putAll( loaded );
+    }
+    return entries;
+  }
+
+  //---------------------------------------------------------------------------
+  //  Reading and writing the cache file
+  //---------------------------------------------------------------------------
+
+  private File getFile()
+  {
+    return storage != null ? storage : new File( PathManager.getSystemPath(), CACHE_FILE );
+  }
+
+  private static Map<String, Entry> load( File file )
+  {
+    Map<String, Entry> result = new LinkedHashMap<>();
+    if( !file.isFile() )
+      return result;
+
+    long start = System.currentTimeMillis();
+    try( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) ) )
+    {
+      if( in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION )
+      {
+        LOG.info( "History cache " + file + " has different format, ignored" );
+        return result;
+      }
+
+      int count = in.readInt();
+      for( int i = 0; i < count; i++ )
+      {
+        String path = readString( in );
+        boolean complete = in.readBoolean();
+        int size = in.readInt();
+        List<CCaseHistoryParser.SubmissionData> records = new ArrayList<>( size );
+        for( int j = 0; j < size; j++ )
+        {
+          CCaseHistoryParser.SubmissionData record = new CCaseHistoryParser.SubmissionData( j );
+          record.action = readString( in );
+          record.version = readString( in );
+          record.submitter = readString( in );
+          record.changeDate = readString( in );
+          record.numericDate = readString( in );
+          record.comment = readString( in );
+          record.labels = readString( in );
+          records.add( record );
+        }
+
+        //  Not checked in this session yet.
+        Entry entry = new Entry( records, complete );
+        entry.checkedAt = entry.labelsCheckedAt = 0;
+        if( !records.isEmpty() )
+          result.put( path, entry );
+      }
+      LOG.debug( "History cache: " + count + " elements read in " + (System.currentTimeMillis() - start) + " ms" );
+    }
+    catch( IOException | RuntimeException e )
+    {
+      //  The histories are fetched anew.
+      LOG.info( "Failed to read history cache " + file + ": " + e );
+      result.clear();
+    }
+    return result;
+  }
+
+  private boolean save()
+  {
+    File file;
+    Map<String, Entry> snapshot;
+    synchronized( this )
+    {
+      file = getFile();
+      snapshot = new LinkedHashMap<>( entries );
+    }
+
+    File temp = new File( file.getPath() + TEMP_EXT );
+    try
+    {
+      FileUtil.createParentDirs( temp );
+      try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ), BUFFER_SIZE ) ) )
+      {
+        out.writeInt( MAGIC );
+        out.writeInt( FORMAT_VERSION );
+        out.writeInt( snapshot.size() );
+        for( Map.Entry<String, Entry> element : snapshot.entrySet() )
+        {
+          Entry entry = element.getValue();
+          writeString( out, element.getKey() );
+          out.writeBoolean( entry.complete );
+          out.writeInt( entry.records.size() );
+          for( CCaseHistoryParser.SubmissionData record : entry.records )
+          {
+            writeString( out, record.action );
+            writeString( out, record.version );
+            writeString( out, record.submitter );
+            writeString( out, record.changeDate );
+            writeString( out, record.numericDate );
+            writeString( out, record.comment );
+            writeString( out, record.labels );
+          }
+        }
+      }
+      Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      return true;
+    }
+    catch( IOException | RuntimeException e )
+    {
+      LOG.info( "Failed to write history cache " + file + ": " + e );
+      return false;
+    }
+  }
+
+  private static void writeString( DataOutputStream out, @Nullable String value ) throws IOException
+  {
+    if( value == null )
+    {
+      out.writeInt( -1 );
+      return;
+    }
+    byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  @Nullable
+  private static String readString( DataInputStream in ) throws IOException
+  {
+    int length = in.readInt();
+    if( length < 0 )
+      return null;
+    byte[] bytes = new byte[ length ];
+    in.readFully( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+}
@@ -2,6 +2,8 @@ package net.sourceforge.transparent.History;
 
 import com.intellij.openapi.util.text.LineTokenizer;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.Consumer;
+import net.sourceforge.transparent.Runner;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -9,6 +11,12 @@ import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * "lshistory" parser for the output of {@link #fillParametersTail}, which
+ * guesses the field of every line by its tag. Kept for compatibility: the
+ * histories are listed for {@link CCaseHistoryRecordParser} unless the
+ * configuration asks for this one, or when that output turns out malformed.
+ */
 public class CCaseHistoryParser
 {
   @NonNls public static final String BRANCH_COMMAND_SIG = "create branch";
@@ -30,6 +38,8 @@ public class CCaseHistoryParser
     public String version;
     public String submitter;
     public String changeDate;
+    //  "%Nd" - yyyymmdd.hhmmss, the same in any locale.
+    public String numericDate;
     public String comment;
     public String labels;
     public int    order;
@@ -39,10 +49,39 @@ public class CCaseHistoryParser
   {
     String[] lines = LineTokenizer.tokenize( content, false );
 
-    final LogParseResult resultHolder = new LogParseResult();
-    final FieldsDetector detector = new FieldsDetector();
-
+    final LineParser parser = new LineParser();
     for( String line : lines )
+    {
+      parser.onOutputLine( line );
+    }
+    return parser.getResult();
+  }
+
+  /**
+   * Incremental form of {@link #parse(String)}: parses "lshistory" output
+   * line by line as cleartool prints it, error lines are not taken into
+   * the records but kept for the caller to check.
+   *
+   * Given a sink, the parser passes each record to it as soon as the next
+   * one starts (the last one on {@link #finish}) and keeps none of them.
+   */
+  public static class LineParser implements Runner.LineListener
+  {
+    private final LogParseResult resultHolder;
+    private final FieldsDetector detector = new FieldsDetector();
+    private final StringBuffer errors = new StringBuffer();
+
+    public LineParser()
+    {
+      this( null );
+    }
+
+    public LineParser( @Nullable Consumer<SubmissionData> sink )
+    {
+      resultHolder = new LogParseResult( sink );
+    }
+
+    public void onOutputLine( @NotNull String line )
     {
       final Field field = detector.guess(line);
       if (field != null) {
@@ -54,7 +93,21 @@ public class CCaseHistoryParser
         }
       }
     }
-    return resultHolder.getResult();
+
+    public void onErrorLine( @NotNull String line )
+    {
+      if( errors.length() != 0 ) errors.append( '\n' );
+      errors.append( line );
+    }
+
+    public String getErrors() {  return errors.toString();  }
+
+    /**
+     * The output is over: pass the last record to the sink.
+     */
+    public void finish() {  resultHolder.finish();  }
+
+    public ArrayList<SubmissionData> getResult() {  return resultHolder.getResult();  }
   }
 
   private static class FieldsDetector {
@@ -93,14 +146,6 @@ public class CCaseHistoryParser
     }
   }
 
-  public static void fillParametersVersionOnly(final List<String> list) {
-    list.add(FMT);
-    final StringBuilder sb = new StringBuilder();
-    ourFields[4].append(sb);
-    list.add(sb.toString());
-
-  }
-
   public static void fillParametersTail(final List<String> list) {
     list.add(FMT);
     final StringBuilder sb = new StringBuilder();
@@ -117,6 +162,12 @@ public class CCaseHistoryParser
         data.changeDate = value == null ? "" : value;
       }
     },
+    new Field(6,"\\\"", "\"", "%Nd") {
+      protected void fill(@Nullable String value, CreatingIterator iterator) {
+        final SubmissionData data = iterator.getCurrent();
+        data.numericDate = value == null ? "" : value;
+      }
+    },
     new Field(1,"\\\"", "\"", "%Fu") {
       protected void fill(@Nullable String value, CreatingIterator iterator) {
         final SubmissionData data = iterator.getCurrent();
@@ -213,23 +264,39 @@ public class CCaseHistoryParser
 
   private static class LogParseResult implements CreatingIterator {
     private final ArrayList<SubmissionData> myResult;
+    @Nullable private final Consumer<SubmissionData> mySink;
+    @Nullable private SubmissionData myCurrent;
+    private int myCount;
 
-    private LogParseResult() {
+    private LogParseResult(@Nullable Consumer<SubmissionData> sink) {
       myResult = new ArrayList<>();
+      mySink = sink;
     }
 
     @NotNull
     public SubmissionData getCurrent() {
-      if (myResult.isEmpty()) {
-        myResult.add(new SubmissionData(myResult.size()));
+      if (myCurrent == null) {
+        return createNext();
       }
-      return myResult.get(myResult.size() - 1);
+      return myCurrent;
     }
 
     @NotNull
     public SubmissionData createNext() {
-      myResult.add(new SubmissionData(myResult.size()));
-      return myResult.get(myResult.size() - 1);
+      finish();
+      myCurrent = new SubmissionData(myCount++);
+      if (mySink == null) {
+        myResult.add(myCurrent);
+      }
+      return myCurrent;
+    }
+
+    // the current record is complete
+    public void finish() {
+      if (mySink != null && myCurrent != null) {
+        mySink.consume(myCurrent);
+      }
+      myCurrent = null;
     }
 
     public ArrayList<SubmissionData> getResult() {
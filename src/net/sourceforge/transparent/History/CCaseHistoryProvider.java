@@ -1,18 +1,21 @@
 package net.sourceforge.transparent.History;
 
+import com.intellij.icons.AllIcons;
 import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.vcs.FilePath;
-import com.intellij.openapi.vcs.FileStatus;
-import com.intellij.openapi.vcs.FileStatusManager;
-import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.*;
 import com.intellij.openapi.vcs.history.*;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.ArrayUtil;
 import com.intellij.util.Consumer;
 import com.intellij.util.ui.ColumnInfo;
 import net.sourceforge.transparent.StatusMultipleProcessor;
 import net.sourceforge.transparent.TransparentVcs;
+import net.sourceforge.transparent.exceptions.ClearCaseAbortedException;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -21,19 +24,27 @@ import javax.swing.*;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHistorySessionFactory<Boolean, CCaseHistoryProvider.CCaseHistorySession> {
-  @NonNls private final static String HISTORY_CMD = "lshistory";
-  @NonNls private final static String LIMITED_SWITCH = "-last";
   @NonNls private final static String CCASE_DATE_COLUMN = "ClearCase Date";
   @NonNls private final static String ACTION_COLUMN = "Action";
   @NonNls private final static String LABEL_COLUMN = "Label";
 
-  @NonNls private final static String NOT_A_VOB_OBJECT = "Not a vob object";
+  private final static String SHOW_OLDER_TEXT = "Show Older Revisions";
+  private final static String SHOW_OLDER_DESCRIPTION = "Load one more page of the revisions beyond the history restriction";
+
+  //  Revisions passed to the history partner at once.
+  private static final int PAGE_SIZE = 50;
 
   private final Project project;
   private final TransparentVcs host;
 
+  //  Limits raised by ShowOlderRevisionsAction, taken by the refresh it
+  //  starts. Whether a listing stopped at its limit is kept by the session.
+  private final Map<String, Integer> requestedLimits = new ConcurrentHashMap<>();
+
   public CCaseHistoryProvider( Project project )
   {
     this.project = project;
@@ -100,73 +111,97 @@ public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHis
     return true;
   }
 
-  public AnAction[]   getAdditionalActions(final Runnable refresher) {  return AnAction.EMPTY_ARRAY;   }
+  public AnAction[]   getAdditionalActions(final Runnable refresher) {  return new AnAction[] { new ShowOlderRevisionsAction( refresher ) };   }
   public VcsDependentHistoryComponents getUICustomization(final VcsHistorySession session, JComponent forShortcutRegistration)  {  return VcsDependentHistoryComponents.createOnlyColumns(new ColumnInfo[] { CCASE_DATE, ACTION, LABEL });  }
 
   public VcsHistorySession createSessionFor( FilePath filePath ) throws VcsException
   {
-    String log;
-    String path = filePath.getPath();
-    if( host.renamedFiles.containsKey( path ) )
-      path = host.renamedFiles.get( path );
+    final String path = getHistoryPath( project, filePath );
+    final int limit = takeRevisionsLimit( filePath );
+    final ArrayList<VcsFileRevision> revisions = new ArrayList<>();
+    CCaseHistoryCache.getInstance().getHistory( path, limit, change -> addRevision( change, path, revisions ) );
+    return new CCaseHistorySession( revisions, filePath, limit, limit > 0 && revisions.size() >= limit );
+  }
 
-    //  Cleartool can not handle history for hijacked files. Thus we have to
-    //  construct "versioned" path, which directly points to the vob-object.
-    VirtualFile vfile = filePath.getVirtualFile();
-    if( vfile != null )
-    {
-      FileStatus status = FileStatusManager.getInstance( project ).getStatus( vfile );
-      if( status == FileStatus.HIJACKED )
-      {
-        path += "@@";
-      }
+  public static void historyGetter(final Project project, final FilePath filePath, final int maxCnt,
+                                   final Consumer<CCaseHistoryParser.SubmissionData> consumer) throws VcsException {
+    final TransparentVcs host = TransparentVcs.getInstance(project);
+    int limit = 0;
+    if (maxCnt > 0) {
+      limit = maxCnt;
+    } else if (host.getConfig().isHistoryResticted) {
+      limit = host.getConfig().getHistoryRevisionsMargin();
     }
+    CCaseHistoryCache.getInstance().getHistory(getHistoryPath(project, filePath), limit, consumer);
+  }
 
-    final List<String> commandParts = new ArrayList<>();
-    commandParts.add(HISTORY_CMD);
-    if (host.getConfig().isHistoryResticted) {
-      int margin = host.getConfig().getHistoryRevisionsMargin();
-      commandParts.add(LIMITED_SWITCH);
-      commandParts.add(String.valueOf( margin ));
+  /**
+   * Revisions reach the partner in pages as "lshistory" prints them, the
+   * newest first; a history {@link CCaseHistoryCache} knows comes at once.
+   * When the history is restricted, the older revisions are loaded on demand by {@link ShowOlderRevisionsAction}, a page (the
+   * configured number of revisions) at a time. Cancelling the progress
+   * stops the command.
+   */
+  public void reportAppendableHistory(FilePath filePath, final VcsAppendableHistorySessionPartner partner) throws VcsException {
+    final String path = getHistoryPath( project, filePath );
+    final int limit = takeRevisionsLimit( filePath );
+    final CCaseHistorySession session = new CCaseHistorySession( new ArrayList<>(), filePath, limit, false );
+    partner.reportCreatedEmptySession( session );
+
+    final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    final List<VcsFileRevision> page = new ArrayList<>( PAGE_SIZE );
+    final int[] count = new int[ 1 ];
+    try
+    {
+      CCaseHistoryCache.getInstance().getHistory( path, limit, change -> {
+        count[ 0 ]++;
+        if( indicator != null && indicator.isCanceled() )
+          return;
+        addRevision( change, path, page );
+        if( page.size() == PAGE_SIZE )
+          acceptPage( page, partner );
+      } );
     }
-    CCaseHistoryParser.fillParametersTail(commandParts);
-    commandParts.add(path);
-
-    log = TransparentVcs.cleartoolWithOutput(ArrayUtil.toStringArray(commandParts));
-
-    //  There may exist files for which we know nothing.
-    ArrayList<VcsFileRevision> revisions = new ArrayList<>();
-    if( log.contains( NOT_A_VOB_OBJECT )) {
-      throw new VcsException( log );
-    } else {
-      ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryParser.parse( log );
-      for( CCaseHistoryParser.SubmissionData change : changes )
-      {
-        //  When file is being committed into the repository, "lshistory"
-        //  returns a intermediate record with commit date in the invalid format
-        //  which can not be parsed (actually, it contains only full date wihtout
-        //  time information delimited by '.'). Just skip this record.
-        try
-        {
-          VcsFileRevision rev = new CCaseFileRevision(change, path, project);
-          revisions.add( rev );
-        }
-        catch( NullPointerException e)
-        {
-          TransparentVcs.LOG.info( "Can not parse history record, found intermediate record.");
-        }
-      }
+    catch( ClearCaseAbortedException e )
+    {
+      if( e.isCancelled() )
+        throw new ProcessCanceledException();
+      throw new VcsException( e.getMessage() );
     }
+    acceptPage( page, partner );
 
-    return new CCaseHistorySession(revisions, filePath);
+    //  As many records as asked for: there may be older ones.
+    session.myTruncated = limit > 0 && count[ 0 ] >= limit;
   }
 
-  public static void historyGetter(final Project project, final FilePath filePath, final int maxCnt,
-                                   final Consumer<CCaseHistoryParser.SubmissionData> consumer) throws VcsException {
+  private static void acceptPage( List<VcsFileRevision> page, VcsAppendableHistorySessionPartner partner )
+  {
+    for( VcsFileRevision revision : page )
+      partner.acceptRevision( revision );
+    page.clear();
+  }
+
+  private void addRevision( CCaseHistoryParser.SubmissionData change, String path, List<VcsFileRevision> revisions )
+  {
+    //  When file is being committed into the repository, "lshistory"
+    //  returns a intermediate record with commit date in the invalid format
+    //  which can not be parsed (actually, it contains only full date wihtout
+    //  time information delimited by '.'). Just skip this record.
+    try
+    {
+      revisions.add( new CCaseFileRevision( change, path, project ) );
+    }
+    catch( NullPointerException e)
+    {
+      TransparentVcs.LOG.info( "Can not parse history record, found intermediate record.");
+    }
+  }
+
+  private static String getHistoryPath( final Project project, final FilePath filePath )
+  {
     final TransparentVcs host = TransparentVcs.getInstance(project);
-    String log;
     String path = filePath.getPath();
-    if(host.renamedFiles.containsKey( path ) )
+    if( host.renamedFiles.containsKey( path ) )
       path = host.renamedFiles.get( path );
 
     //  Cleartool can not handle history for hijacked files. Thus we have to
@@ -180,36 +215,57 @@ public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHis
         path += "@@";
       }
     }
+    return path;
+  }
 
-    final List<String> commandParts = new ArrayList<>();
-    commandParts.add(HISTORY_CMD);
-    if (maxCnt > 0) {
-      commandParts.add(LIMITED_SWITCH);
-      commandParts.add(String.valueOf(maxCnt));
-    } else if (host.getConfig().isHistoryResticted) {
-      int margin = host.getConfig().getHistoryRevisionsMargin();
-      commandParts.add(LIMITED_SWITCH);
-      commandParts.add(String.valueOf( margin ));
+  /**
+   * @return number of the newest revisions to show for the file, 0 for all:
+   *         the limit requested by {@link ShowOlderRevisionsAction} for this
+   *         listing, if any, or the configured one.
+   */
+  private int takeRevisionsLimit( FilePath filePath )
+  {
+    Integer requested = requestedLimits.remove( filePath.getPath() );
+    if( !host.getConfig().isHistoryResticted )
+      return 0;
+    return requested != null ? requested : host.getConfig().getHistoryRevisionsMargin();
+  }
+
+  /**
+   * Lists one more page of the older revisions of the file whose history is
+   * shown, if "lshistory" stopped at the limit the last time.
+   */
+  private class ShowOlderRevisionsAction extends AnAction implements DumbAware
+  {
+    private final Runnable refresher;
+
+    ShowOlderRevisionsAction( Runnable refresher )
+    {
+      super( SHOW_OLDER_TEXT, SHOW_OLDER_DESCRIPTION, AllIcons.Actions.Download );
+      this.refresher = refresher;
     }
-    CCaseHistoryParser.fillParametersTail(commandParts);
-    commandParts.add(path);
 
-    log = TransparentVcs.cleartoolWithOutput(ArrayUtil.toStringArray(commandParts));
+    public void update( AnActionEvent e )
+    {
+      CCaseHistorySession session = getShownSession( e );
+      e.getPresentation().setEnabled( session != null && session.myTruncated );
+    }
 
-    if( log.contains( NOT_A_VOB_OBJECT )) {
-      throw new VcsException( log );
-    } else {
-      ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryParser.parse( log );
-      for (CCaseHistoryParser.SubmissionData change : changes) {
-        consumer.consume(change);
-      }
+    public void actionPerformed( AnActionEvent e )
+    {
+      CCaseHistorySession session = getShownSession( e );
+      if( session == null || !session.myTruncated )
+        return;
+      requestedLimits.put( session.myPath.getPath(), session.myLimit + host.getConfig().getHistoryRevisionsMargin() );
+      refresher.run();
     }
-  }
 
-  public void reportAppendableHistory(FilePath path, VcsAppendableHistorySessionPartner partner) throws VcsException {
-    // will implement it further
-    final VcsHistorySession session = createSessionFor(path);
-    partner.reportCreatedEmptySession((VcsAbstractHistorySession) session);
+    @Nullable
+    private CCaseHistorySession getShownSession( AnActionEvent e )
+    {
+      VcsHistorySession session = e.getData( VcsDataKeys.HISTORY_SESSION );
+      return session instanceof CCaseHistorySession ? (CCaseHistorySession)session : null;
+    }
   }
 
   public FilePath getUsedFilePath(CCaseHistorySession session) {
@@ -230,11 +286,22 @@ public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHis
   static class CCaseHistorySession extends VcsAbstractHistorySession
   {
     private final FilePath myPath;
+    //  Number of the newest revisions listed, 0 for all, and whether the
+    //  listing stopped at it.
+    private final int myLimit;
+    private volatile boolean myTruncated;
 
     public CCaseHistorySession( List<VcsFileRevision> revs, final FilePath path )
+    {
+      this( revs, path, 0, false );
+    }
+
+    CCaseHistorySession( List<VcsFileRevision> revs, final FilePath path, int limit, boolean truncated )
     {
       super( revs , currentRevisionImpl(path, revs));
       myPath = path;
+      myLimit = limit;
+      myTruncated = truncated;
     }
 
     public boolean isContentAvailable(VcsFileRevision revision)
@@ -290,7 +357,7 @@ public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHis
 
     @Override
     public VcsHistorySession copy() {
-      return new CCaseHistorySession(getRevisionList(), myPath);
+      return new CCaseHistorySession(getRevisionList(), myPath, myLimit, myTruncated);
     }
   }
 }
@@ -0,0 +1,268 @@
+package net.sourceforge.transparent.History;
+
+import com.intellij.util.Consumer;
+import net.sourceforge.transparent.Runner;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * "lshistory" parser for the output of {@link #fillParameters}: fields are
+ * separated by a unit separator and records terminated by a record
+ * separator (and a line break, so that the output still comes in lines),
+ * which leaves nothing to guess - the comment, the last field, may span
+ * any number of lines.
+ *
+ * The characters are consumed one by one, in one pass, into one growable
+ * field buffer; user names, actions and label sets are interned straight
+ * from the buffer, so a repeated one costs no allocation, and a version is
+ * cut from the buffer at "@@" without taking the path apart first. Records
+ * go to the consumer as soon as they are terminated.
+ *
+ * A record with too few fields (a separator in a comment, an output cut
+ * short) makes the output malformed: the parser stops passing records on,
+ * and the caller lists the history again for {@link CCaseHistoryParser},
+ * skipping the records already passed.
+ */
+public class CCaseHistoryRecordParser implements Runner.LineListener
+{
+  @NonNls private static final String FMT = "-fmt";
+  private static final char FIELD_SEPARATOR = '\u001F';
+  private static final char RECORD_SEPARATOR = '\u001E';
+  @NonNls private static final String FORMAT = "%d" + FIELD_SEPARATOR + "%Nd" + FIELD_SEPARATOR + "%Fu" + FIELD_SEPARATOR +
+                                                "%e" + FIELD_SEPARATOR + "%l" + FIELD_SEPARATOR + "%n" + FIELD_SEPARATOR +
+                                                "%Nc" + RECORD_SEPARATOR + "\n";
+
+  //  Fields in the order of FORMAT.
+  private static final int DATE = 0;
+  private static final int NUMERIC_DATE = 1;
+  private static final int SUBMITTER = 2;
+  private static final int ACTION = 3;
+  private static final int LABELS = 4;
+  private static final int VERSION = 5;
+  private static final int COMMENT = 6;
+
+  @NonNls private static final String VERSION_DELIM = "@@";
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final Consumer<CCaseHistoryParser.SubmissionData> consumer;
+  private final Interner interner = new Interner();
+  private final StringBuilder errors = new StringBuilder();
+
+  private char[] field = new char[ 256 ];
+  private int fieldLength;
+  private int fieldIndex;
+  private boolean atRecordStart = true;
+  private CCaseHistoryParser.SubmissionData current;
+  private int recordCount;
+  private boolean malformed;
+
+  public CCaseHistoryRecordParser( @NotNull Consumer<CCaseHistoryParser.SubmissionData> consumer )
+  {
+    this.consumer = consumer;
+  }
+
+  public static void fillParameters( @NotNull List<String> list )
+  {
+    list.add( FMT );
+    list.add( FORMAT );
+  }
+
+  /**
+   * Parse the whole output at once.
+   */
+  @NotNull
+  public static ArrayList<CCaseHistoryParser.SubmissionData> parse( @NotNull Reader reader ) throws IOException
+  {
+    ArrayList<CCaseHistoryParser.SubmissionData> result = new ArrayList<>();
+    CCaseHistoryRecordParser parser = new CCaseHistoryRecordParser( result::add );
+    char[] buffer = new char[ BUFFER_SIZE ];
+    for( int read; (read = reader.read( buffer )) != -1; )
+      parser.feed( buffer, 0, read );
+    parser.finish();
+    return result;
+  }
+
+  public void feed( @NotNull char[] chars, int start, int end )
+  {
+    for( int i = start; i < end && !malformed; i++ )
+      accept( chars[ i ] );
+  }
+
+  public void onOutputLine( @NotNull String line )
+  {
+    for( int i = 0; i < line.length() && !malformed; i++ )
+      accept( line.charAt( i ) );
+    accept( '\n' );
+  }
+
+  public void onErrorLine( @NotNull String line )
+  {
+    if( errors.length() != 0 ) errors.append( '\n' );
+    errors.append( line );
+  }
+
+  /**
+   * The output is over; an unterminated record makes it malformed.
+   */
+  public void finish()
+  {
+    if( !atRecordStart )
+      malformed = true;
+  }
+
+  public String  getErrors()       {  return errors.toString();  }
+  public boolean isMalformed()     {  return malformed;  }
+
+  /**
+   * @return number of the records passed to the consumer.
+   */
+  public int getRecordCount()  {  return recordCount;  }
+
+  private void accept( char c )
+  {
+    if( malformed || c == '\r' )
+      return;
+    if( atRecordStart )
+    {
+      if( c == '\n' )
+        return;
+      atRecordStart = false;
+      current = new CCaseHistoryParser.SubmissionData( recordCount );
+    }
+
+    //  The comment is the last field and may hold anything but the record
+    //  separator.
+    if( c == FIELD_SEPARATOR && fieldIndex < COMMENT )
+    {
+      endField();
+      fieldIndex++;
+    }
+    else
+    if( c == RECORD_SEPARATOR )
+    {
+      if( fieldIndex != COMMENT )
+      {
+        malformed = true;
+        return;
+      }
+      endField();
+      recordCount++;
+      consumer.consume( current );
+      current = null;
+      fieldIndex = 0;
+      atRecordStart = true;
+    }
+    else
+    {
+      if( fieldLength == field.length )
+      {
+        char[] grown = new char[ field.length * 2 ];
+        System.arraycopy( field, 0, grown, 0, fieldLength );
+        field = grown;
+      }
+      field[ fieldLength++ ] = c;
+    }
+  }
+
+  private void endField()
+  {
+    switch( fieldIndex )
+    {
+      case DATE:          current.changeDate = new String( field, 0, fieldLength );  break;
+      case NUMERIC_DATE:  current.numericDate = new String( field, 0, fieldLength );  break;
+      case SUBMITTER:     current.submitter = interner.intern( field, 0, fieldLength );  break;
+      case ACTION:        current.action = interner.intern( field, 0, fieldLength );  break;
+      case LABELS:        current.labels = interner.intern( field, 0, fieldLength );  break;
+      case VERSION:       current.version = cutVersion();  break;
+      case COMMENT:       current.comment = fieldLength == 0 ? "" : new String( field, 0, fieldLength );  break;
+    }
+    fieldLength = 0;
+  }
+
+  //  "path@@\main\3" -> "@@\main\3"; a checked out file has no "@@".
+  private String cutVersion()
+  {
+    for( int i = 0; i + 1 < fieldLength; i++ )
+    {
+      if( field[ i ] == VERSION_DELIM.charAt( 0 ) && field[ i + 1 ] == VERSION_DELIM.charAt( 1 ) )
+        return new String( field, i, fieldLength - i );
+    }
+    return "";
+  }
+
+  /**
+   * Strings met again and again, looked up by their characters. Open
+   * addressing over String.hashCode; stops growing at MAX_SIZE strings,
+   * later ones are just created.
+   */
+  private static class Interner
+  {
+    private static final int MAX_SIZE = 4096;
+
+    private String[] table = new String[ 64 ];
+    private int size;
+
+    String intern( char[] chars, int start, int length )
+    {
+      int hash = 0;
+      for( int i = start; i < start + length; i++ )
+        hash = 31 * hash + chars[ i ];
+
+      int mask = table.length - 1;
+      int slot = spread( hash ) & mask;
+      for( String s = table[ slot ]; s != null; s = table[ slot ] )
+      {
+        if( matches( s, chars, start, length ) )
+          return s;
+        slot = (slot + 1) & mask;
+      }
+
+      String s = new String( chars, start, length );
+      if( size < MAX_SIZE )
+      {
+        table[ slot ] = s;
+        if( ++size * 2 > table.length )
+          rehash();
+      }
+      return s;
+    }
+
+    private static boolean matches( String s, char[] chars, int start, int length )
+    {
+      if( s.length() != length )
+        return false;
+      for( int i = 0; i < length; i++ )
+      {
+        if( s.charAt( i ) != chars[ start + i ] )
+          return false;
+      }
+      return true;
+    }
+
+    private void rehash()
+    {
+      String[] old = table;
+      table = new String[ old.length * 2 ];
+      int mask = table.length - 1;
+      for( String s : old )
+      {
+        if( s == null )
+          continue;
+        int slot = spread( s.hashCode() ) & mask;
+        while( table[ slot ] != null )
+          slot = (slot + 1) & mask;
+        table[ slot ] = s;
+      }
+    }
+
+    private static int spread( int hash )
+    {
+      return hash ^ (hash >>> 16);
+    }
+  }
+}
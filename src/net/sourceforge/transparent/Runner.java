@@ -1,32 +1,85 @@
 package net.sourceforge.transparent;
 
+import com.intellij.execution.process.OSProcessUtil;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.process.ProcessCloseUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import net.sourceforge.transparent.History.CCaseHistoryCache;
+import net.sourceforge.transparent.exceptions.ClearCaseAbortedException;
 import net.sourceforge.transparent.exceptions.ClearCaseException;
+import net.sourceforge.transparent.exceptions.ClearCaseNoServerException;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Runner
 {
   private static final Logger LOG = Logger.getInstance("#net.sourceforge.transparent.Runner");
 
   private static final boolean DEBUG = false;
+  private static final long WATCHDOG_PERIOD = 200;
+
+  //  Subcommands which change the state of the elements they are given,
+  //  their parent folders or (for "update" and friends) whole subtrees.
+  @NonNls private static final Set<String> VIEW_CHANGING_COMMANDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+    "co", "checkout", "ci", "checkin", "unco", "uncheckout", "mkelem", "mkdir", "mkbranch", "rmname", "rmelem",
+    "rmver", "rmbranch", "mv", "move", "ln", "update", "reserve", "unreserve", "chactivity", "merge", "findmerge")));
+
   private boolean successfull;
   public String workingDir = null;
   private String myOutput;
+  private int myExitCode;
+  @Nullable private LineListener myListener;
+
+  /**
+   * The single list of the commands after which the caches of the view
+   * state (CleartoolQueryCache, CCaseStatusIndex, CCaseViewPrivateInventory,
+   * CCaseHistoryCache) must drop what the command may have changed.
+   */
+  public static boolean changesView(@NotNull String[] subcmd) {
+    return subcmd.length > 0 && VIEW_CHANGING_COMMANDS.contains(subcmd[0]);
+  }
+
+  /**
+   * Receives the command output line by line as soon as it is produced, so
+   * that large outputs are never kept in memory as a whole. Output and error
+   * lines are delivered separately; error lines may come from another thread.
+   */
+  public interface LineListener
+  {
+    void onOutputLine(@NotNull String line);
+    void onErrorLine(@NotNull String line);
+  }
 
   private static class Consumer implements Runnable
   {
     private final StringBuilder _buffer = new StringBuilder();
     private final BufferedReader _reader;
+    @Nullable private final java.util.function.Consumer<String> _sink;
+    private final boolean _keep;
 
     public Consumer(InputStream inputStream) {
+      this(inputStream, null, true);
+    }
+
+    public Consumer(InputStream inputStream, @Nullable java.util.function.Consumer<String> sink, boolean keep) {
        _reader = new BufferedReader(new InputStreamReader(inputStream));
+       _sink = sink;
+       _keep = keep;
     }
 
     public void run() {
@@ -34,6 +87,8 @@ public class Runner
         String line;
         while ((line = _reader.readLine()) != null) {
           if (DEBUG) System.out.println("      " + line);
+          if (_sink != null) _sink.accept(line);
+          if (!_keep) continue;
           if (_buffer.length() != 0) _buffer.append("\n");
           _buffer.append(line);
         }
@@ -49,6 +104,7 @@ public class Runner
 
   private Process createProcess(String[] command) throws IOException {
     String cmdLine = getCommandLine(command);
+    command = resolveExecutable(command);
 
     if (workingDir == null) {
       return Runtime.getRuntime().exec(command);
@@ -72,17 +128,29 @@ public class Runner
     return buf.toString();
   }
 
-  private static String consumeProcessOutputs(Process process) throws InterruptedException
+  private static String consumeProcessOutputs(Process process, @Nullable LineListener listener, AtomicReference<String> abortReason)
+    throws InterruptedException
   {
-    Consumer outputConsumer = new Consumer(process.getInputStream());
-    Consumer errorConsumer =  new Consumer(process.getErrorStream());
+    //  In the streaming mode stdout goes to the listener only, and the error
+    //  text is kept additionally to be reported as the command's output.
+    Consumer outputConsumer = listener == null ? new Consumer(process.getInputStream())
+                                               : new Consumer(process.getInputStream(), listener::onOutputLine, false);
+    Consumer errorConsumer = listener == null ? new Consumer(process.getErrorStream())
+                                              : new Consumer(process.getErrorStream(), listener::onErrorLine, true);
     final Future<?> errorDone = ApplicationManager.getApplication().executeOnPooledThread(errorConsumer);
-    outputConsumer.run();
+    //  Streams of a killed process may fail instead of reaching EOF; what was
+    //  read until then is kept as the partial output.
+    try {
+      outputConsumer.run();
+    }
+    catch (RuntimeException e) {
+      if (abortReason.get() == null) throw e;
+    }
     try {
       errorDone.get();
     }
     catch (ExecutionException e) {
-      LOG.error(e);
+      if (abortReason.get() == null) LOG.error(e);
     }
     final StringBuilder out = outputConsumer.get_buffer();
     final StringBuilder error = errorConsumer.get_buffer();
@@ -100,11 +168,18 @@ public class Runner
    }
 
   public static void runAsynchronously(String[] command) throws IOException {
-     Runtime.getRuntime().exec( command );
+     Runtime.getRuntime().exec( resolveExecutable( command ) );
   }
 
   public static void runAsynchronouslyOnPath( String path, String[] command) throws IOException {
-     Runtime.getRuntime().exec( command, null, new File( path ) );
+     Runtime.getRuntime().exec( resolveExecutable( command ), null, new File( path ) );
+  }
+
+  private static String[] resolveExecutable(String[] command) {
+    if (command.length == 0 || !TransparentVcs.CLEARTOOL_CMD.equals(command[0])) return command;
+    String[] resolved = command.clone();
+    resolved[0] = TransparentVcs.getCleartoolExecutable();
+    return resolved;
   }
 
    public void run( String   command ) {  run( command, false );   }
@@ -115,6 +190,21 @@ public class Runner
      return run( new String[] { command }, canFail );
    }
 
+   /**
+    * Run the command streaming its output into the listener. {@link #getOutput()}
+    * returns only the error output of the command afterwards.
+    */
+   public boolean run( String[] command, boolean canFail, @NotNull LineListener listener )
+   {
+     myListener = listener;
+     try {
+       return run( command, canFail );
+     }
+     finally {
+       myListener = null;
+     }
+   }
+
    public boolean run( String[] command, boolean canFail )
    {
      LOG.info( "|" + getCommandLine( command ) );
@@ -128,6 +218,12 @@ public class Runner
             if (!canFail) throw new ClearCaseException("Error executing " + getCommandLine(command) + " : " + myOutput);
             return false;
          }
+      } catch (ClearCaseAbortedException e) {
+        LOG.info( "CCase command aborted: " + e.getMessage() );
+        throw e;
+      } catch (ClearCaseNoServerException e) {
+        LOG.info( "CCase command not started: " + e.getMessage() );
+        throw e;
       } catch (RuntimeException e) {
         if( StringUtil.isNotEmpty( workingDir ) )
           LOG.info( "CCAse runtime exception (started in [" + workingDir + "]: " + e.getMessage(), e );
@@ -146,17 +242,150 @@ public class Runner
    }
 
   private boolean execProcess(String[] command) throws IOException, InterruptedException {
+    //  Prefer a long-lived interactive cleartool session; the separate process
+    //  is the fallback when the pool is off, exhausted or the session failed.
+    if (!isCleartoolCommand(command)) {
+      return execSeparateProcess(command, CleartoolDeadline.forCommand(command));
+    }
+
+    final String[] subcmd = Arrays.copyOfRange(command, 1, command.length);
+    final CleartoolDeadline deadline = CleartoolDeadline.forCommand(subcmd);
+    if (deadline.isCancelled()) {
+      throw new ClearCaseAbortedException("cleartool " + subcmd[0] + " was not started: cancelled", true, null);
+    }
+
+    final String view = CleartoolMetrics.getInstance().findView(subcmd, workingDir);
+    final CleartoolCircuitBreaker breaker = CleartoolCircuitBreaker.getInstance();
+    breaker.checkAvailable(view, subcmd);
+
+    final CleartoolMetrics.Invocation invocation = CleartoolMetrics.getInstance().started(subcmd, view);
+    final long started = System.currentTimeMillis();
+    final LineListener originalListener = myListener;
+    final CountingListener counter = originalListener == null ? null : new CountingListener(originalListener);
+    myListener = counter;
+    myExitCode = CleartoolMetrics.NOT_COMPLETED;
+    myOutput = null;
+    boolean completed = false;
+    boolean timedOut = false;
+    try {
+      final CleartoolSession.Result result = CleartoolSessionPool.getInstance().execute(workingDir, subcmd, myListener, deadline);
+      if (result != null) {
+        myOutput = result.output;
+        myExitCode = result.exitCode;
+        completed = true;
+        return result.exitCode == 0;
+      }
+      final boolean success = execSeparateProcess(command, deadline);
+      completed = true;
+      return success;
+    }
+    catch (ClearCaseAbortedException e) {
+      timedOut = !e.isCancelled();
+      throw e;
+    }
+    finally {
+      myListener = originalListener;
+      long outputChars = counter != null ? counter.chars.get() : myOutput != null ? myOutput.length() : 0;
+      CleartoolMetrics.getInstance().finished(invocation, myExitCode, outputChars);
+      if (completed || timedOut) {
+        breaker.recordOutcome(view, subcmd, System.currentTimeMillis() - started, timedOut, myOutput);
+      }
+
+      //  Even a failed command may have changed some elements' state.
+      CleartoolQueryCache.getInstance().commandExecuted(subcmd);
+      CCaseStatusIndex.getInstance().commandExecuted(subcmd);
+      CCaseViewPrivateInventory.getInstance().commandExecuted(subcmd);
+      CCaseHistoryCache.getInstance().commandExecuted(subcmd);
+    }
+  }
+
+  private boolean execSeparateProcess(String[] command, CleartoolDeadline deadline) throws IOException, InterruptedException {
     final Process process = createProcess(command);
+
+    //  Reading the output blocks until the process exits, so the deadline is
+    //  watched from outside: killing the process tree unblocks the readers.
+    final AtomicReference<String> abortReason = new AtomicReference<>();
+    final ScheduledFuture<?> watchdog = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(() -> {
+      String reason = deadline.getAbortReason();
+      if (reason != null && abortReason.compareAndSet(null, reason)) {
+        OSProcessUtil.killProcessTree(process);
+      }
+    }, WATCHDOG_PERIOD, WATCHDOG_PERIOD, TimeUnit.MILLISECONDS);
+
     try {
-      myOutput = consumeProcessOutputs(process);
-      final int retCode = process.waitFor();
-      return retCode == 0;
+      myOutput = consumeProcessOutputs(process, myListener, abortReason);
+      myExitCode = process.waitFor();
     }
     finally {
+      watchdog.cancel(false);
       ProcessCloseUtil.close(process);
     }
+
+    final String reason = abortReason.get();
+    if (reason != null) {
+      myExitCode = CleartoolMetrics.NOT_COMPLETED;
+      throw new ClearCaseAbortedException(getCommandLine(command) + "- " + reason, deadline.isCancelled(), myOutput);
+    }
+    return myExitCode == 0;
   }
 
+  /**
+   * Passes the lines through, counting their length for {@link CleartoolMetrics}.
+   */
+  private static class CountingListener implements LineListener
+  {
+    private final LineListener delegate;
+    private final AtomicLong chars = new AtomicLong();
+
+    CountingListener(LineListener delegate) {
+      this.delegate = delegate;
+    }
+
+    public void onOutputLine(@NotNull String line) {
+      chars.addAndGet(line.length() + 1);
+      delegate.onOutputLine(line);
+    }
+
+    public void onErrorLine(@NotNull String line) {
+      chars.addAndGet(line.length() + 1);
+      delegate.onErrorLine(line);
+    }
+  }
+
+
+  public static class ProbeResult
+  {
+    public final boolean successful;
+    public final String output;
+
+    ProbeResult(boolean successful, String output) {
+      this.successful = successful;
+      this.output = output;
+    }
+  }
+
+  /**
+   * Runs a cleartool subcommand in a separate process bypassing the sessions,
+   * the circuit breaker and the statistics - for {@link CleartoolCircuitBreaker}
+   * to find out whether the server is back.
+   */
+  static ProbeResult probe(@Nullable String workingDir, String[] subcmd, long timeoutMillis) {
+    final Runner runner = new Runner();
+    runner.workingDir = workingDir;
+    try {
+      final boolean success = runner.execSeparateProcess(getCommand(TransparentVcs.CLEARTOOL_CMD, subcmd),
+                                                         CleartoolDeadline.after(timeoutMillis));
+      return new ProbeResult(success, runner.myOutput);
+    }
+    catch (Exception e) {
+      LOG.debug(e);
+      return new ProbeResult(false, e.getMessage());
+    }
+  }
+
+  private static boolean isCleartoolCommand(String[] command) {
+    return command.length > 1 && TransparentVcs.CLEARTOOL_CMD.equals(command[0]);
+  }
 
   public String getOutput() {  return myOutput;   }
 
@@ -1,14 +1,16 @@
 package net.sourceforge.transparent;
 
-import com.intellij.openapi.util.text.LineTokenizer;
 import com.intellij.util.ArrayUtil;
 import net.sourceforge.transparent.exceptions.ClearCaseException;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 
 public class StatusMultipleProcessor
@@ -17,29 +19,35 @@ public class StatusMultipleProcessor
   @NonNls private static final String DIR_SWITCH = "-directory";
   @NonNls private static final String RECURSE_SWITCH = "-recurse";
   @NonNls private static final String VIEW_ONLY = "-view_only";
+  @NonNls private static final String FMT_SWITCH = "-fmt";
   @NonNls private static final String VERSIONED_SIG = "@@";
-  @NonNls private static final String HIJACKED_SIG = "[hijacked]";
-  @NonNls private static final String CHECKEDOUT_SIG = "Rule: CHECKEDOUT";
-  @NonNls private static final String LOCALLY_DELETED = "[loaded but missing]";
-  @NonNls private final static String CHECKEDOUT_REMOVED_SIG = "checkedout but removed";
+  @NonNls private static final String CHECKEDOUT_VERSION = "CHECKEDOUT";
 
-  @NonNls private final static String WARNING_TO_SKIP_SIG = "Warning: "; 
+  //  One record per line: element name and version selected by the view
+  //  (empty for a view-private object). The markers use no characters
+  //  special to any shell or to the interactive cleartool line parser.
+  @NonNls static final String FIELD_SIG = "~#~";
+  @NonNls static final String RECORD_END_SIG = "~##~";
+  @NonNls private static final String FORMAT_SIG = "%En" + FIELD_SIG + "%Vn" + RECORD_END_SIG + "\\n";
 
-  private static final int  CMDLINE_MAX_LENGTH = 512;
+  @NonNls private final static String WARNING_TO_SKIP_SIG = "Warning: "; 
 
   private final String[] files;
+  private final PathTable requests;
   private boolean myRecursive;
   private boolean myViewOnly;
 
   private HashSet<String> locallyDeleted;
-  private HashSet<String> deletedFiles;
   private HashSet<String> nonexistingFiles;
   private HashSet<String> checkoutFiles;
   private HashSet<String> hijackedFiles;
+  private HashMap<String, String> versions;
 
   public StatusMultipleProcessor( List<String> paths )
   {
     files = ArrayUtil.toStringArray(paths);
+    requests = new PathTable(files);
+    resetResults();
   }
 
   public HashSet<String> getLocallyDeleted() {
@@ -58,9 +66,18 @@ public class StatusMultipleProcessor
     return hijackedFiles;
   }
 
+  /**
+   * @return version selected by the view ("/main/3", "/main/CHECKEDOUT")
+   *         for every requested element; elements found by the recursive
+   *         listing are not included.
+   */
+  public HashMap<String, String> getVersions() {
+    return versions;
+  }
+
   @Nullable
   public static String getCurrentRevision(final String path) {
-    final String out = TransparentVcs.cleartoolWithOutput(STATUS_COMMAND, DIR_SWITCH, path);
+    final String out = TransparentVcs.cachedCleartoolWithOutput(path, STATUS_COMMAND, DIR_SWITCH);
     if (out.contains(WARNING_TO_SKIP_SIG)) return null;
     final int idxVer = out.indexOf(VERSIONED_SIG);
     if (idxVer == -1) return null;
@@ -69,97 +86,180 @@ public class StatusMultipleProcessor
 
   public void execute()
   {
-    deletedFiles = new HashSet<>();
-    nonexistingFiles = new HashSet<>();
-    checkoutFiles = new HashSet<>();
-    hijackedFiles = new HashSet<>();
-    locallyDeleted = new HashSet<>();
+    resetResults();
 
-    int currFileIndex = 0;
-    int batchStartIndex = 0;
-    int cmdLineLen;
-    LinkedList<String> options = new LinkedList<>();
-    while( currFileIndex < files.length )
-    {
-      cmdLineLen = 0;
-      options.clear();
-
-      options.add(STATUS_COMMAND);
-      cmdLineLen += STATUS_COMMAND.length() + 1;
-      if (myRecursive) {
-        options.add(RECURSE_SWITCH);
-        cmdLineLen += RECURSE_SWITCH.length() + 1;
-      } else {
-        options.add(DIR_SWITCH);
-        cmdLineLen += DIR_SWITCH.length() + 1;
-      }
-      if (myViewOnly) {
-        options.add(VIEW_ONLY);
-        cmdLineLen += VIEW_ONLY.length() + 1;
-      }
+    List<String> options = new ArrayList<>();
+    options.add( STATUS_COMMAND );
+    options.add( myRecursive ? RECURSE_SWITCH : DIR_SWITCH );
+    if( myViewOnly )
+      options.add( VIEW_ONLY );
+    options.add( FMT_SWITCH );
+    options.add( FORMAT_SIG );
 
-      while( currFileIndex < files.length && cmdLineLen < CMDLINE_MAX_LENGTH )
+    final Runner.LineListener listener = new Runner.LineListener()
+    {
+      public void onOutputLine( @NotNull String line )
       {
-        String path = files[ currFileIndex++ ];
-        options.add( path );
-        cmdLineLen += path.length() + 1;
+        try
+        {
+          parseCleartoolOutputLine( line );
+        }
+        catch( Exception e )
+        {
+          TransparentVcs.LOG.info( "Failed to parse LS output (possible unknown message format):" );
+          TransparentVcs.LOG.info( line );
+          throw new ClearCaseException( "Failed to parse LS output (possible unknown message format):" + e.getMessage() );
+        }
       }
 
-      String[] aOptions = ArrayUtil.toStringArray(options);
-      String out = TransparentVcs.cleartoolWithOutput( aOptions );
-      try
+      public void onErrorLine( @NotNull String line )
       {
-        parseCleartoolOutput( out, batchStartIndex );
+        TransparentVcs.LOG.debug( line );
       }
-      catch( Exception e )
-      {
-        TransparentVcs.LOG.info( "Failed to parse LS output (possible unknown message format):" );
-        TransparentVcs.LOG.info( out );
-        throw new ClearCaseException( "Failed to parse LS output (possible unknown message format):" + e.getMessage() );
-      }
-      batchStartIndex = currFileIndex;
-    }
+    };
+
+    List<String[]> batches = CleartoolBatcher.split( ArrayUtil.toStringArray( options ), files,
+                                                     CleartoolExecutor.getInstance().getMaxConcurrentPerVob() );
+    CleartoolBatcher.execute( batches, CleartoolExecutor.getVobKey( files ),
+                              batch -> TransparentVcs.cleartoolWithListener( listener, batch ) );
+  }
+
+  void resetResults()
+  {
+    nonexistingFiles = new HashSet<>();
+    checkoutFiles = new HashSet<>();
+    hijackedFiles = new HashSet<>();
+    locallyDeleted = new HashSet<>();
+    versions = new HashMap<>();
   }
 
   /**
-   * NB: The strict format (hm, grammar, boys!) of the command output is not
-   *     defined since it may contain info, warning and error messages from
-   *     different subsystems involved during the command execution.
-   * Example: !> cleartool ls <file>
-   *          !noname: Warning: Can not find a group named "XXX"
-   *          !<file>@@<version>  etc...
+   * Parse the output of "ls -fmt" with the format of this class, e.g.
+   * taken from a log or produced by a test.
+   */
+  public void parse( @NotNull String output )
+  {
+    for( String line : output.split( "\n" ) )
+      parseCleartoolOutputLine( line );
+  }
+
+  /**
+   * NB: besides the records the output may contain info and warning messages
+   *     from different subsystems, always on lines of their own:
+   *     !> cleartool ls -fmt ... <file>
+   *     !noname: Warning: Can not find a group named "XXX"
+   *     !<file>~#~/main/3~##~
+   *     Lines without the record end are skipped.
    *
-   * Thus we can rely only on some patterns which strip out known garbage messages.
+   * The fields are looked up from the end of the line, so a path which
+   * happens to contain the separator is still taken whole. "ls" has no
+   * format conversion for its annotations, so an element is hijacked if
+   * its file is writable while the view selects a checked-in version, and
+   * locally deleted if its file does not exist. The path is looked up among
+   * the requested ones without building a string, so that the results share
+   * the request strings and the order of the lines (several batches run at
+   * once) does not matter. Error output is not passed here at all.
+   */
+  synchronized void parseCleartoolOutputLine( final String line )
+  {
+    final int recordEnd = line.lastIndexOf( RECORD_END_SIG );
+    final int pathEnd = recordEnd == -1 ? -1 : line.lastIndexOf( FIELD_SIG, recordEnd );
+    if( pathEnd <= 0 )
+      return;
+
+    //  Recursive listings print the elements under the requested folders.
+    final String requested = myRecursive ? null : requests.find( line, pathEnd );
+    final String path = requested != null ? requested : normalizePath( line, pathEnd );
+    final String version = line.substring( pathEnd + FIELD_SIG.length(), recordEnd ).trim();
+    if( version.isEmpty() )
+    {
+      nonexistingFiles.add( path );
+      return;
+    }
+    if( requested != null )
+      versions.put( requested, version );
+
+    final File file = new File( path );
+    if( version.endsWith( CHECKEDOUT_VERSION ) )
+    {
+      if( file.exists() )
+        checkoutFiles.add( path );
+      else
+        locallyDeleted.add( path );
+    }
+    else
+    if( !file.exists() )
+      locallyDeleted.add( path );
+    else
+    if( file.isFile() && file.canWrite() )
+      hijackedFiles.add( path );
+  }
+
+  private static String normalizePath( String line, int end )
+  {
+    String path = line.substring( 0, end );
+    return path.indexOf( '\\' ) == -1 ? path : path.replace( '\\', '/' );
+  }
+
+  /**
+   * Requested paths (with '/' separators), found by a slice of a line with
+   * either separator. Open addressing over String.hashCode of the
+   * normalized path; read-only after construction.
    */
-  private void parseCleartoolOutput( final String out, int startIndex )
+  private static class PathTable
   {
-    int shiftIndex = 0;
-    String[] lines = LineTokenizer.tokenize( out, false );
+    private final String[] keys;
+    private final int[] hashes;
+    private final int mask;
 
-    for( String line : lines )
+    PathTable( String[] paths )
     {
-      if( line.indexOf( WARNING_TO_SKIP_SIG ) == -1 )
+      int capacity = Integer.highestOneBit( Math.max( 2, paths.length * 2 ) - 1 ) << 1;
+      keys = new String[ capacity ];
+      hashes = new int[ capacity ];
+      mask = capacity - 1;
+      for( String path : paths )
       {
-        final int versIdx = line.indexOf(VERSIONED_SIG);
-        if( versIdx == -1) {
-          nonexistingFiles.add(line.replace('\\', '/'));
-        } else if( line.indexOf( CHECKEDOUT_SIG ) != -1) {
-          checkoutFiles.add(filePathFromLine(line, versIdx));
-          // todo verify what below
-        } else if (line.indexOf(LOCALLY_DELETED) != -1 || line.indexOf( CHECKEDOUT_REMOVED_SIG ) != -1) {
-          locallyDeleted.add(filePathFromLine(line, versIdx));
-        } else if( line.indexOf( HIJACKED_SIG ) != -1 )
-          hijackedFiles.add(filePathFromLine(line, versIdx));
-
-        //  inc it only in the case of "known" line format. Assume that information
-        //  about files is printed in the order of input parameters (silly?).
-        shiftIndex++;
+        String key = path.replace( '\\', '/' );
+        int hash = key.hashCode();
+        int slot = mix( hash ) & mask;
+        while( keys[ slot ] != null && !keys[ slot ].equals( key ) )
+          slot = (slot + 1) & mask;
+        keys[ slot ] = key;
+        hashes[ slot ] = hash;
       }
     }
-  }
 
-  private String filePathFromLine(String line, int versIdx) {
-    return line.substring(0, versIdx).replace('\\', '/');
+    @Nullable
+    String find( String line, int end )
+    {
+      int hash = 0;
+      for( int i = 0; i < end; i++ )
+        hash = 31 * hash + normalized( line.charAt( i ) );
+
+      for( int slot = mix( hash ) & mask; keys[ slot ] != null; slot = (slot + 1) & mask )
+      {
+        if( hashes[ slot ] == hash && matches( keys[ slot ], line, end ) )
+          return keys[ slot ];
+      }
+      return null;
+    }
+
+    private static boolean matches( String key, String line, int end )
+    {
+      if( key.length() != end )
+        return false;
+      for( int i = 0; i < end; i++ )
+      {
+        if( key.charAt( i ) != normalized( line.charAt( i ) ) )
+          return false;
+      }
+      return true;
+    }
+
+    private static char normalized( char c )  {  return c == '\\' ? '/' : c;  }
+
+    private static int mix( int hash )  {  return hash ^ (hash >>> 16);  }
   }
 
   public void setRecursive(boolean recursive) {
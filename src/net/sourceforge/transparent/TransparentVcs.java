@@ -29,21 +29,25 @@ import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.HashSet;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.Annotations.CCaseAnnotationProvider;
+import net.sourceforge.transparent.CCasePendingJournal.Kind;
 import net.sourceforge.transparent.ChangeManagement.CCaseChangeProvider;
 import net.sourceforge.transparent.ChangeManagement.TransparentI;
 import net.sourceforge.transparent.Checkin.CCaseCheckinEnvironment;
 import net.sourceforge.transparent.Checkin.CCaseRollbackEnvironment;
 import net.sourceforge.transparent.History.CCaseDiffProvider;
+import net.sourceforge.transparent.History.CCaseHistoryCache;
 import net.sourceforge.transparent.History.CCaseHistoryProvider;
 import net.sourceforge.transparent.exceptions.ClearCaseException;
 import org.jdom.Element;
 import org.jetbrains.annotations.CalledInAwt;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static java.util.function.Function.identity;
 
@@ -54,6 +58,8 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
 
   @NonNls public static final String TEMPORARY_FILE_SUFFIX = ".deleteAndAdd";
   @NonNls public static final String CLEARTOOL_CMD = "cleartool";
+  //  Lets the tests and the performance harness substitute a cleartool stand-in.
+  @NonNls private static final String CLEARTOOL_PATH_PROPERTY = "clearcase.cleartool.path";
 
   @NonNls private static final String PERSISTENCY_REMOVED_FILE_TAG = "ClearCasePersistencyRemovedFile";
   @NonNls private static final String PERSISTENCY_REMOVED_FOLDER_TAG = "ClearCasePersistencyRemovedFolder";
@@ -76,33 +82,41 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
 
   @NonNls private static final String CHANGE_ACTIVITY_CMD = "chactivity";
 
-  @NonNls private final static String RESERVED_SIG = "reserved";
-  @NonNls private final static String UNRESERVED_SIG = "unreserved";
-
   //  Resolve the case when parent folder was already checked out by
   //  the presence of this substring in the error message.
   @NonNls private static final String ALREADY_CHECKEDOUT_SIG = "already checked out";
-  @NonNls private static final String NOT_A_VOB_OBJECT_SIG = "Not a vob object";
 
   private final BaseOrUCM myBaseOrUCM;
 
   public static final Key<Boolean> SUCCESSFUL_CHECKOUT = new Key<>("SUCCESSFUL_CHECKOUT");
   public static final Key<Boolean> MERGE_CONFLICT = new Key<>("MERGE_CONFLICT");
 
-  public  Set<String> removedFiles;
-  public  Set<String> removedFolders;
-  private final Set<VirtualFile> newFiles;
+  //  Paths met in the project's views, shared by the sets below and by
+  //  those of the change provider; freed with the project.
+  private final CCasePathTrie pathTrie = new CCasePathTrie();
+
+  //  Pending changes: paths are kept in the trie above (see CCasePathSet).
+  //  The VFS listener changes them while the change provider and checkin
+  //  read them; long readers work on getPendingChanges() instead. Removed,
+  //  deleted and renamed paths are changed only in updatePendingChanges().
+  public  CCasePathSet removedFiles;
+  public  CCasePathSet removedFolders;
+  private final CCaseLazyFileSet newFiles;
   // newName -> oldName
-  public  Map<String, String> renamedFiles;
+  public  CCaseRenameMap renamedFiles;
   // newName -> oldName
-  public  Map<String, String> renamedFolders;
-  public  Set<String> deletedFiles;
-  public  Set<String> deletedFolders;
-  public  Set<String> checkedOutFolders;
+  public  CCaseRenameMap renamedFolders;
+  public  CCasePathSet deletedFiles;
+  public  CCasePathSet deletedFolders;
+  public  CCasePathSet checkedOutFolders;
 
   //  Used to keep a set of modified files when user switches to the
   //  offline mode. Empty and unused in online mode.
-  private final Set<VirtualFile> modifiedFiles;
+  private final CCaseLazyFileSet modifiedFiles;
+  private final CCasePendingJournal journal;
+  private final Object pendingLock = new Object();
+  //  Published by getPendingChanges(), dropped by every update.
+  private volatile CCasePendingChanges pendingChanges;
 
   private ClearCase clearcase;
   private CCaseConfig config;
@@ -120,6 +134,8 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
   private VcsShowConfirmationOption addConfirmation;
   private VcsShowConfirmationOption removeConfirmation;
   private VirtualFileListener listener;
+  private CleartoolCircuitBreaker.Listener breakerListener;
+  private boolean wentOfflineAutomatically;
 
   // a hack, honestly
   private boolean myActivatePolicyCalculateUCM;
@@ -128,15 +144,16 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
   public TransparentVcs(@NotNull Project project) {
     super( project, NAME);
 
-    removedFiles = Collections.synchronizedSet(new HashSet<String>());
-    removedFolders = Collections.synchronizedSet(new HashSet<String>());
-    newFiles = Collections.synchronizedSet(new HashSet<VirtualFile>());
-    deletedFiles = Collections.synchronizedSet(new HashSet<String>());
-    deletedFolders = Collections.synchronizedSet(new HashSet<String>());
-    renamedFiles = Collections.synchronizedMap(new HashMap<String, String>());
-    renamedFolders = Collections.synchronizedMap(new HashMap<String, String>());
-    checkedOutFolders = Collections.synchronizedSet(new java.util.HashSet<String>());
-    modifiedFiles = Collections.synchronizedSet(new HashSet<VirtualFile>());
+    removedFiles = new CCasePathSet( pathTrie );
+    removedFolders = new CCasePathSet( pathTrie );
+    newFiles = new CCaseLazyFileSet( pathTrie );
+    deletedFiles = new CCasePathSet( pathTrie );
+    deletedFolders = new CCasePathSet( pathTrie );
+    renamedFiles = new CCaseRenameMap( pathTrie );
+    renamedFolders = new CCaseRenameMap( pathTrie );
+    checkedOutFolders = new CCasePathSet( pathTrie );
+    modifiedFiles = new CCaseLazyFileSet( pathTrie );
+    journal = new CCasePendingJournal( CCasePendingJournal.getDefaultFile( project ), pathTrie );
 
     myBaseOrUCM = new BaseOrUCM(this);
     myActivatePolicyCalculateUCM = ourActivatePolicyCalculateUCMDefault;
@@ -151,6 +168,14 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
   public String getMenuItemText()   {  return super.getMenuItemText();  }
   public static boolean isCmdImpl() {  return true; }
 
+  /**
+   * @return the executable which is actually started for {@link #CLEARTOOL_CMD}.
+   */
+  public static String getCleartoolExecutable()
+  {
+    return System.getProperty( CLEARTOOL_PATH_PROPERTY, CLEARTOOL_CMD );
+  }
+
   public VcsShowSettingOption      getCheckoutOptions()   {  return myCheckoutOptions;   }
   public VcsShowConfirmationOption getAddConfirmation()   {  return addConfirmation;     }
   public VcsShowConfirmationOption getRemoveConfirmation(){  return removeConfirmation;  }
@@ -219,6 +244,18 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     config.setHost( this );
     LOG.info( ">>> GetCOnfig().Offline == " + config.isOffline() );
 
+    //  The cleartool machinery is shared by all the open projects.
+    CleartoolRuntime.getInstance().projectActivated( myProject, config );
+    breakerListener = this::serverAvailabilityChanged;
+    CleartoolCircuitBreaker.getInstance().addListener( breakerListener );
+
+    //  Start reading the status indices now, the first refresh needs them.
+    CCaseStatusIndex statusIndex = CCaseStatusIndex.getInstance();
+    for( VirtualFile root : ProjectLevelVcsManager.getInstance( myProject ).getRootsUnderVcs( this ) )
+      statusIndex.registerRoot( root.getPath() );
+    CCaseContentBaseline.getInstance().startLoading();
+    CCaseHistoryCache.getInstance().startLoading();
+
     if( !config.isOffline() )
     {
       resetClearCaseFromConfiguration();
@@ -253,6 +290,39 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     LocalFileSystem.getInstance().removeVirtualFileListener( listener );
     CommandProcessor.getInstance().removeCommandListener( (CommandListener)listener );
     ContentRevisionFactory.detachListeners();
+
+    CleartoolCircuitBreaker.getInstance().removeListener( breakerListener );
+    CleartoolRuntime.getInstance().projectDeactivated( myProject );
+    CCaseStatusIndex.getInstance().flush();
+    CCaseContentBaseline.getInstance().flush();
+    CCaseHistoryCache.getInstance().flush();
+  }
+
+  /**
+   * Follows the state of the circuit breakers: goes offline when the server
+   * stops answering and back online when it is available again - unless
+   * the user switched the offline mode by hand in between.
+   */
+  private void serverAvailabilityChanged( boolean available )
+  {
+    ApplicationManager.getApplication().invokeLater( () -> {
+      if( myProject.isDisposed() || !config.autoOfflineMode )
+        return;
+
+      if( !available && !config.isOffline() )
+      {
+        LOG.info( "ClearCase server is unavailable, switching to the offline mode" );
+        wentOfflineAutomatically = true;
+        config.setOfflineMode( true );
+      }
+      else
+      if( available && config.isOffline() && wentOfflineAutomatically )
+      {
+        LOG.info( "ClearCase server is available again, switching to the online mode" );
+        wentOfflineAutomatically = false;
+        config.setOfflineMode( false );
+      }
+    } );
   }
 
   public void offlineModeChanged()
@@ -423,6 +493,15 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     return checkedOutFolders.contains(path);
   }
 
+  /**
+   * Versioned folders are known from the status index right after the
+   * start, before {@link CCaseChangeProvider#ourVersionedKey} is set on them.
+   */
+  @Override
+  public boolean isIndexedVersionedFolder(String path) {
+    return CCaseStatusIndex.getInstance().isVersionedFolder(path);
+  }
+
   public Set<String> getCheckedOutFolders() {
     return checkedOutFolders;
   }
@@ -506,6 +585,7 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
 
   public Status getStatus( VirtualFile file ) {  return getClearCase().getStatus( new File( file.getPath() ) );   }
   public Status getStatus( File file )        {  return getClearCase().getStatus( file );   }
+  public CompletableFuture<Status> getStatusAsync( File file ) {  return getClearCase().getStatusAsync( file );  }
 
   public void checkinFile( FilePath path, String comment, List<VcsException> errors )
   {
@@ -525,28 +605,67 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
         checkoutFile( ioFile, true, comment );
       }
       getClearCase().checkIn( ioFile, comment );
-
+      CCaseContentBaseline.getInstance().recordLoaded( ioFile.getPath() );
     }
-    catch( ClearCaseException e )
+    catch( Throwable e )
     {
-      //  In the case of the conflict upon checking in - remember the
-      //  particular status of this file for our ChangeProvider.
-      if( isMergeConflictMessage( e.getMessage() ))
+      checkinFailed( e, vFile, errors );
+    }
+  }
+
+  /**
+   * Check in the files at once: the checkins run concurrently, within the
+   * limits of {@link CleartoolExecutor}. Hijacked files are checked out
+   * first, one by one, as {@link #checkinFile} does it.
+   */
+  public void checkinFiles( List<FilePath> paths, String comment, List<VcsException> errors )
+  {
+    FileStatusManager fsmgr = FileStatusManager.getInstance( myProject );
+    List<File> files = new ArrayList<>();
+    List<CompletableFuture<Void>> checkins = new ArrayList<>();
+    for( FilePath path : paths )
+    {
+      File ioFile = path.getIOFile();
+      VirtualFile vFile = path.getVirtualFile();
+      try
       {
-        //  Sometimes we deal with renamed or moved files. For them we have no
-        //  VirtualFile object.
-        if( vFile != null )
-        {
-          vFile.putUserData( MERGE_CONFLICT, true );
-        }
+        if(( vFile != null ) && (fsmgr.getStatus( vFile ) == FileStatus.HIJACKED) && isCheckInToUseHijack() )
+          checkoutFile( ioFile, true, comment );
+        checkins.add( getClearCase().checkInAsync( ioFile, comment ) );
+        files.add( ioFile );
       }
+      catch( Throwable e )
+      {
+        checkinFailed( e, vFile, errors );
+      }
+    }
 
-      handleException( e, vFile, errors );
+    for( int i = 0; i < files.size(); i++ )
+    {
+      File ioFile = files.get( i );
+      try
+      {
+        checkins.get( i ).join();
+        CCaseContentBaseline.getInstance().recordLoaded( ioFile.getPath() );
+      }
+      catch( Throwable e )
+      {
+        checkinFailed( CleartoolExecutor.unwrap( e ), VcsUtil.getVirtualFile( ioFile ), errors );
+      }
     }
-    catch( Throwable e )
+  }
+
+  private static void checkinFailed( Throwable e, @Nullable VirtualFile vFile, List<VcsException> errors )
+  {
+    //  In the case of the conflict upon checking in - remember the
+    //  particular status of this file for our ChangeProvider.
+    //  Sometimes we deal with renamed or moved files. For them we have no
+    //  VirtualFile object.
+    if( e instanceof ClearCaseException && isMergeConflictMessage( e.getMessage() ) && vFile != null )
     {
-      handleException( e, vFile, errors );
+      vFile.putUserData( MERGE_CONFLICT, true );
     }
+    handleException( e, vFile, errors );
   }
 
   public boolean checkoutFile( VirtualFile file, boolean keepHijacked, String comment ) throws VcsException
@@ -571,6 +690,45 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     }
   }
 
+  /**
+   * Check out the files at once: the checkouts run concurrently, within the
+   * limits of {@link CleartoolExecutor}. The content of the files in
+   * keepHijacked is kept, as {@link #checkoutFile} does it, also when the
+   * checkout fails.
+   *
+   * @return the files checked out; failures are added to the errors.
+   */
+  public List<VirtualFile> checkoutFiles( List<VirtualFile> files, Set<VirtualFile> keepHijacked, String comment,
+                                          List<VcsException> errors )
+  {
+    //  Every file is moved aside, checked out and put back as one command,
+    //  so that a file waiting for its turn is never left renamed.
+    List<CompletableFuture<Void>> checkouts = new ArrayList<>();
+    for( VirtualFile file : files )
+    {
+      final File ioFile = new File( file.getPath() );
+      final boolean keep = keepHijacked.contains( file );
+      checkouts.add( CleartoolExecutor.getInstance().run( CleartoolExecutor.getVobKey( ioFile.getAbsolutePath() ),
+                                                          () -> checkoutFile( ioFile, keep, comment ) ) );
+    }
+
+    List<VirtualFile> checkedOut = new ArrayList<>();
+    for( int i = 0; i < files.size(); i++ )
+    {
+      VirtualFile file = files.get( i );
+      try
+      {
+        checkouts.get( i ).join();
+        checkedOut.add( file );
+      }
+      catch( Throwable e )
+      {
+        handleException( CleartoolExecutor.unwrap( e ), file, errors );
+      }
+    }
+    return checkedOut;
+  }
+
   private boolean checkoutFile( File ioFile, boolean keepHijacked, String comment ) {
     File newFile = null;
     if( keepHijacked )
@@ -578,11 +736,20 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
       newFile = new File( ioFile.getParentFile().getAbsolutePath(), ioFile.getName() + HIJACKED_EXT );
       ioFile.renameTo( newFile );
     }
-    getClearCase().checkOut( ioFile, config.checkoutReserved, comment, false);
-    if( newFile != null )
+    try
     {
-      ioFile.delete();
-      newFile.renameTo( ioFile );
+      getClearCase().checkOut( ioFile, config.checkoutReserved, comment, false);
+      //  Before the hijacked content is put back.
+      CCaseContentBaseline.getInstance().recordCheckedOut( ioFile.getPath() );
+    }
+    finally
+    {
+      //  Put the hijacked content back whether the checkout succeeded or not.
+      if( newFile != null )
+      {
+        ioFile.delete();
+        newFile.renameTo( ioFile );
+      }
     }
 
     return true;
@@ -604,6 +771,7 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     try
     {
       getClearCase().undoCheckOut(ioFile);
+      CCaseContentBaseline.getInstance().recordLoaded( ioFile.getPath() );
     }
     catch( Throwable e )
     {
@@ -892,6 +1060,8 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
         error = new VcsException( msg );
       }
     }
+    if( error == null && file.isFile() )
+      CCaseContentBaseline.getInstance().recordCheckedOut( file.getPath() );
     return error;
   }
 
@@ -900,35 +1070,17 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
 
   public static CheckedOutStatus getCheckedOutStatus( File file )
   {
-    @NonNls Runner runner = new Runner();
-    runner.run(new String[]{CLEARTOOL_CMD, "lscheckout", "-fmt", "%Rf", "-directory", file.getAbsolutePath()}, true);
-
-    if (!runner.isSuccessfull())
-      return CheckedOutStatus.NOT_CHECKED_OUT;
-
-    if (runner.getOutput().equalsIgnoreCase( RESERVED_SIG ) )
-      return CheckedOutStatus.RESERVED;
-
-    if (runner.getOutput().equalsIgnoreCase( UNRESERVED_SIG ))
-      return CheckedOutStatus.UNRESERVED;
-
-    return CheckedOutStatus.NOT_CHECKED_OUT;
+    return CheckoutInfoMultipleProcessor.getInfo( file ).status;
   }
 
+  /**
+   * NB: for a hijacked file "lscheckout" says it has been successfully run but
+   *     returns a rubbish ("Not a vob object") as the result; such output is
+   *     not a checkout record and thus the comment is empty.
+   */
   public static String getCheckoutComment(File file)
   {
-    @NonNls Runner runner = new Runner();
-    runner.run(new String[]{CLEARTOOL_CMD, "lscheckout", "-fmt", "%c", "-directory", file.getAbsolutePath()}, true);
-
-    String output = runner.getOutput();
-
-    //  We return the output from the command only if the command executed
-    //  successfully OR ELSE it does not says us that this is not a valid
-    //  repository object.
-    //  NB: the latter though is fantastic!!! E.g. for a hijacked file the
-    //      command says it has been successfully run but returns a rubbish
-    //      as the result.
-    return !runner.isSuccessfull() || (output.indexOf( NOT_A_VOB_OBJECT_SIG ) != -1)? "" : output;
+    return CheckoutInfoMultipleProcessor.getInfo( file ).comment;
   }
 
   public static void cleartool(@NonNls String... subcmd) throws ClearCaseException
@@ -960,6 +1112,26 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     return runner.getOutput();
   }
 
+  /**
+   * Run cleartool streaming its standard output into the listener line by
+   * line; the returned runner's output contains only the error output.
+   */
+  public static Runner cleartoolWithListener(@NotNull Runner.LineListener listener, @NonNls String... subcmd)
+  {
+    Runner runner = new Runner();
+    runner.run(Runner.getCommand(CLEARTOOL_CMD, subcmd), true, listener);
+    return runner;
+  }
+
+  /**
+   * Same as {@link #cleartoolWithOutput} for a read-only query whose last
+   * argument is the local path; the result may come from {@link CleartoolQueryCache}.
+   */
+  public static String cachedCleartoolWithOutput( @NotNull String path, @NonNls String... options )
+  {
+    return CleartoolQueryCache.getInstance().query( path, options ).output;
+  }
+
   public static String cleartoolOnLocalPathWithOutput( String path, @NonNls String... subcmd) throws ClearCaseException
   {
     Runner runner = new Runner();
@@ -1010,28 +1182,84 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
   @Override
   public void readExternal(final Element element) throws InvalidDataException
   {
-    HashSet<String> tmp = new HashSet<>();
-    readElements( element, removedFiles, PERSISTENCY_REMOVED_FILE_TAG, false );
-    readElements( element, removedFolders, PERSISTENCY_REMOVED_FOLDER_TAG, false );
-    readElements( element, deletedFiles, PERSISTENCY_DELETED_FILE_TAG, false );
-    readElements( element, deletedFolders, PERSISTENCY_DELETED_FOLDER_TAG, false );
+    //  The pending changes are in the journal; the workspace has them only
+    //  if written by an older version, or when the journal failed to save.
+    if( hasPersistedElements( element ) )
+    {
+      journal.discard();
+      readPersistedElements( element );
+      return;
+    }
+
+    journal.load();
+    updatePendingChanges( () -> {
+      addExisting( journal.getPaths( Kind.REMOVED_FILES ), removedFiles, false );
+      addExisting( journal.getPaths( Kind.REMOVED_FOLDERS ), removedFolders, false );
+      addExisting( journal.getPaths( Kind.DELETED_FILES ), deletedFiles, false );
+      addExisting( journal.getPaths( Kind.DELETED_FOLDERS ), deletedFolders, false );
+      addExisting( journal.getRenames( Kind.RENAMED_FILES ), renamedFiles );
+      addExisting( journal.getRenames( Kind.RENAMED_FOLDERS ), renamedFolders );
+    } );
+    addExisting( journal.getPaths( Kind.CHECKED_OUT_FOLDERS ), checkedOutFolders, true );
+
+    //  Resolved to files only when asked about.
+    newFiles.clear();
+    newFiles.addUnresolved( journal.getPaths( Kind.NEW_FILES ) );
+    modifiedFiles.clear();
+    modifiedFiles.addUnresolved( journal.getPaths( Kind.MODIFIED_FILES ) );
+  }
+
+  private static boolean hasPersistedElements( final Element element )
+  {
+    for( String tag : new String[] { PERSISTENCY_REMOVED_FILE_TAG, PERSISTENCY_REMOVED_FOLDER_TAG, PERSISTENCY_DELETED_FILE_TAG,
+                                     PERSISTENCY_DELETED_FOLDER_TAG, PERSISTENCY_NEW_FILE_TAG, PERSISTENCY_MODIFIED_FILE_TAG,
+                                     PERSISTENCY_RENAMED_FILE_TAG, PERSISTENCY_RENAMED_FOLDER_TAG, PERSISTENCY_CHECKED_OUT_FOLDER_TAG } )
+    {
+      if( element.getChild( tag ) != null )
+        return true;
+    }
+    return false;
+  }
 
+  private void readPersistedElements( final Element element )
+  {
+    updatePendingChanges( () -> {
+      readElements( element, removedFiles, PERSISTENCY_REMOVED_FILE_TAG, false );
+      readElements( element, removedFolders, PERSISTENCY_REMOVED_FOLDER_TAG, false );
+      readElements( element, deletedFiles, PERSISTENCY_DELETED_FILE_TAG, false );
+      readElements( element, deletedFolders, PERSISTENCY_DELETED_FOLDER_TAG, false );
+      readRenamedElements( element, renamedFiles, PERSISTENCY_RENAMED_FILE_TAG, true );
+      readRenamedElements( element, renamedFolders, PERSISTENCY_RENAMED_FOLDER_TAG, true );
+    } );
+
+    HashSet<String> tmp = new HashSet<>();
     readElements( element, tmp, PERSISTENCY_NEW_FILE_TAG, true );
-    convertStringSet2VFileSet( tmp, newFiles );
+    newFiles.clear();
+    newFiles.addUnresolved( tmp );
+    tmp.clear();
     readElements( element, tmp, PERSISTENCY_MODIFIED_FILE_TAG, true );
-    convertStringSet2VFileSet( tmp, modifiedFiles );
+    modifiedFiles.clear();
+    modifiedFiles.addUnresolved( tmp );
 
-    readRenamedElements( element, renamedFiles, PERSISTENCY_RENAMED_FILE_TAG, true );
-    readRenamedElements( element, renamedFolders, PERSISTENCY_RENAMED_FOLDER_TAG, true );
     readElements(element, checkedOutFolders, PERSISTENCY_CHECKED_OUT_FOLDER_TAG, true);
   }
 
-  private static void convertStringSet2VFileSet( final Set<String> set, Set<VirtualFile> vSet )
+  // Safety check - file can be added or deleted again between IDE sessions.
+  private static void addExisting( final Set<String> paths, Set<String> list, boolean isExist )
   {
-    vSet.clear();
-    for( String path : set ){
-      VirtualFile file = VcsUtil.getVirtualFile( path );
-      if( file != null )  vSet.add( file );
+    for( String path : paths )
+    {
+      if( new File( path ).exists() == isExist )
+        list.add( path );
+    }
+  }
+
+  private static void addExisting( final Map<String, String> renames, Map<String, String> list )
+  {
+    for( Map.Entry<String, String> entry : renames.entrySet() )
+    {
+      if( new File( entry.getKey() ).exists() )
+        list.put( entry.getKey(), entry.getValue() );
     }
   }
 
@@ -1079,31 +1307,49 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
   @Override
   public void writeExternal(final Element element ) throws WriteExternalException
   {
-    writeElement( element, removedFiles, PERSISTENCY_REMOVED_FILE_TAG );
-    writeElement( element, removedFolders, PERSISTENCY_REMOVED_FOLDER_TAG );
-    writeElement( element, deletedFiles, PERSISTENCY_DELETED_FILE_TAG );
-    writeElement(element, deletedFolders, PERSISTENCY_DELETED_FOLDER_TAG);
+    CCasePendingChanges pending = getPendingChanges();
+    Map<Kind, CCasePathSet> paths = new EnumMap<>( Kind.class );
+    paths.put( Kind.REMOVED_FILES, pending.removedFiles );
+    paths.put( Kind.REMOVED_FOLDERS, pending.removedFolders );
+    paths.put( Kind.DELETED_FILES, pending.deletedFiles );
+    paths.put( Kind.DELETED_FOLDERS, pending.deletedFolders );
+    paths.put( Kind.CHECKED_OUT_FOLDERS, checkedOutFolders.snapshot() );
+    paths.put( Kind.NEW_FILES, getPersistentPaths( newFiles, FileStatus.ADDED ) );
+    paths.put( Kind.MODIFIED_FILES, getPersistentPaths( modifiedFiles, FileStatus.MODIFIED ) );
+
+    Map<Kind, Map<String, String>> renames = new EnumMap<>( Kind.class );
+    renames.put( Kind.RENAMED_FILES, pending.renamedFiles );
+    renames.put( Kind.RENAMED_FOLDERS, pending.renamedFolders );
+
+    if( journal.save( paths, renames ) )
+      return;
 
-    HashSet<String> tmp = new HashSet<>();
-    for( VirtualFile file : newFiles )
-    {
-      FileStatus status = FileStatusManager.getInstance( myProject ).getStatus( file );
-      if( status == FileStatus.ADDED )
-        tmp.add( file.getPath() );
-    }
-    writeElement( element, tmp, PERSISTENCY_NEW_FILE_TAG );
+    //  Keep them in the workspace then, the journal is rewritten next time.
+    writeElement( element, paths.get( Kind.REMOVED_FILES ), PERSISTENCY_REMOVED_FILE_TAG );
+    writeElement( element, paths.get( Kind.REMOVED_FOLDERS ), PERSISTENCY_REMOVED_FOLDER_TAG );
+    writeElement( element, paths.get( Kind.DELETED_FILES ), PERSISTENCY_DELETED_FILE_TAG );
+    writeElement( element, paths.get( Kind.DELETED_FOLDERS ), PERSISTENCY_DELETED_FOLDER_TAG );
+    writeElement( element, paths.get( Kind.NEW_FILES ), PERSISTENCY_NEW_FILE_TAG );
+    writeElement( element, paths.get( Kind.MODIFIED_FILES ), PERSISTENCY_MODIFIED_FILE_TAG );
+    writePairedElement( element, renames.get( Kind.RENAMED_FILES ), PERSISTENCY_RENAMED_FILE_TAG );
+    writePairedElement( element, renames.get( Kind.RENAMED_FOLDERS ), PERSISTENCY_RENAMED_FOLDER_TAG );
+    writeElement( element, paths.get( Kind.CHECKED_OUT_FOLDERS ), PERSISTENCY_CHECKED_OUT_FOLDER_TAG );
+  }
 
-    for( VirtualFile file : modifiedFiles )
+  /**
+   * Files not resolved since the start were not touched in this session and
+   * are kept as they are; the others only while they still have the status.
+   */
+  private CCasePathSet getPersistentPaths( CCaseLazyFileSet files, FileStatus status )
+  {
+    CCasePathSet result = new CCasePathSet( pathTrie, files.getUnresolvedPaths() );
+    FileStatusManager mgr = FileStatusManager.getInstance( myProject );
+    for( VirtualFile file : files.getResolvedFiles() )
     {
-      FileStatus status = FileStatusManager.getInstance( myProject ).getStatus( file );
-      if( status == FileStatus.MODIFIED )
-        tmp.add( file.getPath() );
+      if( mgr.getStatus( file ) == status )
+        result.add( file.getPath() );
     }
-    writeElement( element, tmp, PERSISTENCY_MODIFIED_FILE_TAG );
-
-    writePairedElement( element, renamedFiles, PERSISTENCY_RENAMED_FILE_TAG );
-    writePairedElement( element, renamedFolders, PERSISTENCY_RENAMED_FOLDER_TAG );
-    writeElement(element, checkedOutFolders, PERSISTENCY_CHECKED_OUT_FOLDER_TAG);
+    return result.snapshot();
   }
 
   private static void writeElement( final Element element, Set<String> files, String tag )
@@ -1178,32 +1424,84 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     }
   }
 
-  public String discoverNewName(final String oldName) {
-    String canonicName = VcsUtil.getCanonicalLocalPath(oldName);
-    if (renamedFiles.containsValue(canonicName)) {
-      for (Map.Entry<String, String> entry : renamedFiles.entrySet()) {
-        if (Comparing.equal(entry.getValue(), canonicName)) {
-          return entry.getKey();
+  /**
+   * @return the trie of the paths of the project's pending changes and of
+   *         the path sets working with them.
+   */
+  @NotNull
+  public CCasePathTrie getPathTrie() {
+    return pathTrie;
+  }
+
+  /**
+   * @return the pending changes as of now, for a reader which must not see
+   *         them change under its feet. Every update is either seen whole
+   *         or not at all; the result is shared by the readers until the
+   *         next update.
+   */
+  @NotNull
+  public CCasePendingChanges getPendingChanges() {
+    CCasePendingChanges changes = pendingChanges;
+    if (changes == null) {
+      synchronized (pendingLock) {
+        changes = pendingChanges;
+        if (changes == null) {
+          changes = new CCasePendingChanges(this);
+          pendingChanges = changes;
         }
       }
-    } else {
-      for (Map.Entry<String, String> entry : renamedFolders.entrySet()) {
-        if (canonicName.startsWith(entry.getValue())) {
-          return entry.getKey() + canonicName.substring(entry.getValue().length());
-        }
+    }
+    return changes;
+  }
+
+  /**
+   * Change the removed, deleted or renamed files and folders. The change is
+   * run under the lock of the pending changes, so that an event changing
+   * several of them is published in one piece.
+   */
+  public void updatePendingChanges(@NotNull Runnable update) {
+    synchronized (pendingLock) {
+      try {
+        update.run();
+      }
+      finally {
+        pendingChanges = null;
+      }
+    }
+  }
+
+  public String discoverNewName(final String oldName) {
+    return discoverNewName(renamedFiles, renamedFolders, oldName);
+  }
+
+  public String discoverOldName( String file ) {
+    return discoverOldName(renamedFiles, renamedFolders, file);
+  }
+
+  static String discoverNewName(CCaseRenameMap renamedFiles, CCaseRenameMap renamedFolders, final String oldName) {
+    String canonicName = VcsUtil.getCanonicalLocalPath(oldName);
+    String newName = renamedFiles.getNewName(canonicName);
+    if (newName != null) {
+      return newName;
+    }
+    String folder = renamedFolders.findAncestorRenamedFrom(canonicName);
+    if (folder != null) {
+      String oldFolderName = renamedFolders.get(folder);
+      if (oldFolderName != null) {
+        return folder + canonicName.substring(oldFolderName.length());
       }
     }
     return oldName;
   }
 
-  public String discoverOldName( String file )
+  static String discoverOldName( CCaseRenameMap renamedFiles, CCaseRenameMap renamedFolders, String file )
   {
     String canonicName = VcsUtil.getCanonicalLocalPath(file);
     String oldName = renamedFiles.get(canonicName);
     if( oldName == null ) {
       oldName = renamedFolders.get(canonicName);
       if(oldName == null) {
-        oldName = findInRenamedParentFolder(file);
+        oldName = findInRenamedParentFolder(renamedFolders, canonicName);
         if( oldName == null )
           oldName = file;
         else
@@ -1220,18 +1518,11 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     return oldName;
   }
 
-  private String findInRenamedParentFolder( String name )
+  @Nullable
+  private static String findInRenamedParentFolder( CCaseRenameMap renamedFolders, String name )
   {
-    String fileInOldFolder = name;
-    for( String folder : renamedFolders.keySet() )
-    {
-      String oldFolderName = renamedFolders.get( folder );
-      if( name.startsWith( folder ) )
-      {
-        fileInOldFolder = oldFolderName + name.substring( folder.length() );
-        break;
-      }
-    }
-    return fileInOldFolder;
+    String folder = renamedFolders.findRenamedAncestor( name );
+    String oldFolderName = folder == null ? null : renamedFolders.get( folder );
+    return oldFolderName == null ? null : oldFolderName + name.substring( folder.length() );
   }
 }
@@ -37,6 +37,8 @@ public class VFSListener implements CommandListener, VirtualFileListener {
   @Override
   public void fileCreated(@NotNull VirtualFileEvent event) {
     VirtualFile file = event.getFile();
+    CleartoolQueryCache.getInstance().invalidate(file.getPath());
+    CCaseViewPrivateInventory.getInstance().markChanged(file.getPath());
 
     //  In the case of multi-vcs project configurations, we need to skip all
     //  notifications on non-owned files
@@ -66,11 +68,16 @@ public class VFSListener implements CommandListener, VirtualFileListener {
   }
 
   private void removeFromOldLists(final VirtualFile file) {
-    String path = file.getPath();
-    host.removedFiles.remove(path);
-    host.removedFolders.remove(path);
-    host.deletedFiles.remove(path);
-    host.deletedFolders.remove(path);
+    forgetRemoval(file.getPath());
+  }
+
+  private void forgetRemoval(final String path) {
+    host.updatePendingChanges(() -> {
+      host.removedFiles.remove(path);
+      host.removedFolders.remove(path);
+      host.deletedFiles.remove(path);
+      host.deletedFolders.remove(path);
+    });
   }
 
   private void toBeCreated(VirtualFileEvent event, VirtualFile newFile) {
@@ -108,6 +115,10 @@ public class VFSListener implements CommandListener, VirtualFileListener {
 
   @Override
   public void beforeFileDeletion(@NotNull VirtualFileEvent event) {
+    CleartoolQueryCache.getInstance().invalidate(event.getFile().getPath());
+    CCaseContentBaseline.getInstance().remove(event.getFile().getPath());
+    CCaseViewPrivateInventory.getInstance().markChanged(event.getFile().getPath());
+    recordMissing(event.getFile());
     try {
       if (!isIgnoredEvent(event)) {
         performDeleteFile(event.getFile());
@@ -118,6 +129,19 @@ public class VFSListener implements CommandListener, VirtualFileListener {
     }
   }
 
+  /**
+   * Deletions found by a refresh count too: the incremental status computation
+   * does not list the loaded files, so it learns about them only from here.
+   */
+  private void recordMissing(final VirtualFile file) {
+    if (!VcsUtil.isFileForVcs(file, project, host) || host.isFileIgnored(file)) return;
+
+    final FileStatus status = myChangeListManager.getStatus(file);
+    if (status != FileStatus.UNKNOWN && status != FileStatus.IGNORED && status != FileStatus.ADDED) {
+      CCaseStatusIndex.getInstance().recordMissing(file.getPath(), file.isDirectory());
+    }
+  }
+
   private void performDeleteFile(final VirtualFile file) {
     final LinkedList<VirtualFile> queue = new LinkedList<>();
     queue.add(file);
@@ -136,6 +160,8 @@ public class VFSListener implements CommandListener, VirtualFileListener {
 
   @Override
   public void fileMoved(@NotNull VirtualFileMoveEvent event) {
+    CleartoolQueryCache.getInstance().invalidate(event.getFile().getPath());
+    CCaseViewPrivateInventory.getInstance().markChanged(event.getFile().getPath());
     if (isIgnoredEvent(event)) {
       return;
     }
@@ -157,11 +183,13 @@ public class VFSListener implements CommandListener, VirtualFileListener {
 
   private void restore(VirtualFile file) {
     final String path = file.getPath();
-    if (file.isDirectory()) {
-      host.deletedFolders.remove(path);
-    } else {
-      host.deletedFiles.remove(path);
-    }
+    host.updatePendingChanges(() -> {
+      if (file.isDirectory()) {
+        host.deletedFolders.remove(path);
+      } else {
+        host.deletedFiles.remove(path);
+      }
+    });
   }
 
   private boolean wasDeleted(VirtualFile file) {
@@ -179,6 +207,9 @@ public class VFSListener implements CommandListener, VirtualFileListener {
 
   @Override
   public void beforeFileMovement(@NotNull VirtualFileMoveEvent event) {
+    CleartoolQueryCache.getInstance().invalidate(event.getFile().getPath());
+    CCaseContentBaseline.getInstance().remove(event.getFile().getPath());
+    CCaseViewPrivateInventory.getInstance().markChanged(event.getFile().getPath());
     if (isIgnoredEvent(event)) {
       return;
     }
@@ -214,6 +245,14 @@ public class VFSListener implements CommandListener, VirtualFileListener {
   @Override
   public void beforePropertyChange(@NotNull VirtualFilePropertyEvent event) {
     VirtualFile file = event.getFile();
+    CleartoolQueryCache.getInstance().invalidate(file.getPath());
+    if (event.getPropertyName().equals(VirtualFile.PROP_NAME)) {
+      CCaseViewPrivateInventory inventory = CCaseViewPrivateInventory.getInstance();
+      inventory.markChanged(file.getPath());
+      if (file.getParent() != null) {
+        inventory.markChanged(file.getParent().getPath() + "/" + event.getNewValue());
+      }
+    }
 
     //  In the case of multi-vcs project configurations, we need to skip all
     //  notifications on non-owned files
@@ -222,6 +261,10 @@ public class VFSListener implements CommandListener, VirtualFileListener {
     }
 
     if (event.getPropertyName().equals(VirtualFile.PROP_WRITABLE)) {
+      if (!file.isDirectory()) {
+        CCaseContentBaseline.getInstance().writableChanged(file.getPath(), Boolean.TRUE.equals(event.getNewValue()));
+      }
+
       //  If user managed to perform maerge on the file outside the
       //  environment, clear this mark so that we will not confuse ourselves.
       file.putUserData(TransparentVcs.MERGE_CONFLICT, null);
@@ -250,20 +293,29 @@ public class VFSListener implements CommandListener, VirtualFileListener {
     }
   }
 
-  private static void storeRenameOrMoveInfo(Map<String, String> store, String oldName, String newName) {
-    //  Newer name must refer to the oldest name in the chain of renamings
-    String prevName = store.get(oldName);
-    if (prevName == null) {
-      prevName = oldName;
-    }
+  @Override
+  public void contentsChanged(@NotNull VirtualFileEvent event) {
+    //  Content changes of a read-only file turn it into a hijacked one.
+    CleartoolQueryCache.getInstance().invalidate(event.getFile().getPath());
+    CCaseViewPrivateInventory.getInstance().markChanged(event.getFile().getPath());
+  }
 
-    //  Check whether we are trying to rename the file back - if so,
-    //  just delete the old key-value pair
-    if (!prevName.equals(newName)) {
-      store.put(newName, prevName);
-    }
+  private void storeRenameOrMoveInfo(final Map<String, String> store, final String oldName, final String newName) {
+    host.updatePendingChanges(() -> {
+      //  Newer name must refer to the oldest name in the chain of renamings
+      String prevName = store.get(oldName);
+      if (prevName == null) {
+        prevName = oldName;
+      }
+
+      //  Check whether we are trying to rename the file back - if so,
+      //  just delete the old key-value pair
+      if (!prevName.equals(newName)) {
+        store.put(newName, prevName);
+      }
 
-    store.remove(oldName);
+      store.remove(oldName);
+    });
   }
 
   /**
@@ -383,10 +435,7 @@ public class VFSListener implements CommandListener, VirtualFileListener {
 
       //  In the case when the project content is synchronized over the
       //  occasionally removed files.
-      host.removedFiles.remove(path);
-      host.removedFolders.remove(path);
-      host.deletedFiles.remove(path);
-      host.deletedFolders.remove(path);
+      forgetRemoval(path);
 
       host.add2NewFile(file);
       VcsDirtyScopeManager.getInstance(project).fileDirty(file);
@@ -425,16 +474,17 @@ public class VFSListener implements CommandListener, VirtualFileListener {
   private void markFileRemoval(final Collection<FilePath> paths, Set<String> folders, Set<String> files) {
     final ArrayList<FilePath> allpaths = new ArrayList<>(paths);
     for (FilePath fpath : allpaths) {
-      String path = fpath.getPath();
-      path = VcsUtil.getCanonicalLocalPath(path);
-      if (fpath.isDirectory()) {
-        markSubfolderStructure(path);
-        folders.add(path);
-      }
-      else if (!isUnderDeletedFolder(host.removedFolders, path) &&
-               !isUnderDeletedFolder(host.deletedFolders, path)) {
-        files.add(path);
-      }
+      final String path = VcsUtil.getCanonicalLocalPath(fpath.getPath());
+      host.updatePendingChanges(() -> {
+        if (fpath.isDirectory()) {
+          markSubfolderStructure(path);
+          folders.add(path);
+        }
+        else if (!isUnderDeletedFolder(host.removedFolders, path) &&
+                 !isUnderDeletedFolder(host.deletedFolders, path)) {
+          files.add(path);
+        }
+      });
 
       VcsDirtyScopeManager.getInstance(project).fileDirty(fpath);
     }
@@ -446,19 +496,10 @@ public class VFSListener implements CommandListener, VirtualFileListener {
    * the given one (including it).
    */
   private void markSubfolderStructure(String path) {
-    removeRecordFrom(host.removedFiles, path);
-    removeRecordFrom(host.removedFolders, path);
-    removeRecordFrom(host.deletedFiles, path);
-    removeRecordFrom(host.deletedFolders, path);
-  }
-
-  private static void removeRecordFrom(Set<String> set, String path) {
-    for (Iterator<String> it = set.iterator(); it.hasNext();) {
-      String strFile = it.next();
-      if (strFile.startsWith(path)) {
-        it.remove();
-      }
-    }
+    host.removedFiles.removeUnder(path);
+    host.removedFolders.removeUnder(path);
+    host.deletedFiles.removeUnder(path);
+    host.deletedFolders.removeUnder(path);
   }
 
   private static boolean isUnderDeletedFolder(Set<String> folders, String path) {
@@ -9,18 +9,19 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.DialogWrapper;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.Ref;
-import com.intellij.openapi.vcs.AbstractVcsHelper;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.TransparentVcs;
-import net.sourceforge.transparent.exceptions.ClearCaseException;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class CheckOutAction extends SynchronousAction {
   @NonNls private static final String ACTION_NAME = "Check Out";
@@ -89,17 +90,27 @@ public class CheckOutAction extends SynchronousAction {
     pm.runProcessWithProgressSynchronously(() -> {
       final ProgressIndicator indicator = pm.getProgressIndicator();
       indicator.setIndeterminate(true);
+      final List<VirtualFile> toCheckOut = new ArrayList<>();
+      final Set<VirtualFile> keepHijacked = new HashSet<>();
       for (VirtualFile file : files) {
-        performOnFile(project, file, finalComment, errors, indicator);
+        collectFiles(project, file, toCheckOut, keepHijacked, errors, indicator);
       }
+      indicator.setText("Checking out " + toCheckOut.size() + " files");
+      indicator.setText2("");
+      checkOut(project, toCheckOut, keepHijacked, finalComment, errors);
     }, title, true, project);
   }
 
-  private void performOnFile(final Project project,
-                             VirtualFile file,
-                             String comment,
-                             List<VcsException> errors,
-                             ProgressIndicator indicator) {
+  /**
+   * Choose the files to check out (asking about the hijacked ones), so that
+   * they can be checked out at once.
+   */
+  private void collectFiles(final Project project,
+                            VirtualFile file,
+                            List<VirtualFile> toCheckOut,
+                            Set<VirtualFile> keepHijacked,
+                            List<VcsException> errors,
+                            ProgressIndicator indicator) {
     if (indicator != null) {
       indicator.checkCanceled();
       final VirtualFile parent = file.getParent();
@@ -108,15 +119,12 @@ public class CheckOutAction extends SynchronousAction {
       ++cnt;
     }
     if (isEnabled(file, project)) {
-      VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
       try {
-        perform(file, comment, project);
-        mgr.fileDirty(file);
-      }
-      catch (VcsException ex) {
-        if (!isIgnorableMessage(ex.getMessage())) {
-          ex.setVirtualFile(file);
-          errors.add(ex);
+        if (select(file, project)) {
+          toCheckOut.add(file);
+          if (getFileStatus(project, file) == FileStatus.HIJACKED && askIfUseHijackedFileAsCheckedOut(file)) {
+            keepHijacked.add(file);
+          }
         }
       }
       catch (RuntimeException ex) {
@@ -126,52 +134,48 @@ public class CheckOutAction extends SynchronousAction {
           errors.add(vcsEx);
         }
       }
-      executeRecursively(project, file, comment, errors, indicator);
     }
-  }
-
-  private void executeRecursively(final Project project,
-                                  VirtualFile file,
-                                  String comment,
-                                  List<VcsException> errors,
-                                  ProgressIndicator indicator) {
     if (file.isDirectory()) {
       for (VirtualFile child : file.getChildren()) {
-        performOnFile(project, child, comment, errors, indicator);
+        collectFiles(project, child, toCheckOut, keepHijacked, errors, indicator);
       }
     }
   }
 
-  protected static void perform(VirtualFile file, String comment, final Project project) throws VcsException {
-    final TransparentVcs vcs = TransparentVcs.getInstance(project);
+  /**
+   * @return true if the file is to be checked out by cleartool.
+   */
+  private static boolean select(VirtualFile file, final Project project) {
     //  Checkout command can be issued for a folder - we do not support this as
     //  the separate operation.
     if (file.isDirectory()) {
-      vcs.folderCheckedOut(file.getPath());
+      TransparentVcs.getInstance(project).folderCheckedOut(file.getPath());
     }
 
     FileStatus status = getFileStatus(project, file);
-    if (status == FileStatus.UNKNOWN || status == FileStatus.MODIFIED) {
-      return;
-    }
-
-    boolean keepHijack = false;
-    if (status == FileStatus.HIJACKED) {
-      keepHijack = askIfUseHijackedFileAsCheckedOut(file);
-    }
-
-    try {
-      vcs.checkoutFile(file, keepHijack, comment);
+    return status != FileStatus.UNKNOWN && status != FileStatus.MODIFIED;
+  }
 
+  private static void checkOut(final Project project,
+                               List<VirtualFile> files,
+                               Set<VirtualFile> keepHijacked,
+                               String comment,
+                               List<VcsException> errors) {
+    final TransparentVcs vcs = TransparentVcs.getInstance(project);
+    final List<VcsException> failures = new ArrayList<>();
+    final VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
+    for (VirtualFile file : vcs.checkoutFiles(files, keepHijacked, comment, failures)) {
       //  Assign the special marker to the file indicating that there is no need
       //  to run <cleartool> command on the file - it is known to be modified
       //  after the checkout command.
       file.putUserData(TransparentVcs.SUCCESSFUL_CHECKOUT, true);
       file.refresh(true, file.isDirectory());
+      mgr.fileDirty(file);
     }
-    catch (ClearCaseException exc) {
-      VcsException vcsExc = new VcsException(exc);
-      AbstractVcsHelper.getInstance(project).showError(vcsExc, ACTION_NAME);
+    for (VcsException failure : failures) {
+      if (!isIgnorableMessage(failure.getMessage())) {
+        errors.add(failure);
+      }
     }
   }
 
@@ -0,0 +1,39 @@
+package net.sourceforge.transparent.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.testFramework.LightVirtualFile;
+import net.sourceforge.transparent.CleartoolCircuitBreaker;
+import net.sourceforge.transparent.CleartoolMetrics;
+import org.jetbrains.annotations.NonNls;
+
+/**
+ * Dumps the per-subcommand cleartool statistics into the log and opens
+ * them in an editor tab.
+ */
+public class CleartoolMetricsAction extends AnAction implements DumbAware
+{
+  @NonNls private final static String REPORT_FILE_NAME = "cleartool-metrics.txt";
+
+  public void update( AnActionEvent e )
+  {
+    e.getPresentation().setEnabled( e.getProject() != null );
+  }
+
+  public void actionPerformed( AnActionEvent e )
+  {
+    Project project = e.getProject();
+    if( project == null )
+      return;
+
+    CleartoolMetrics metrics = CleartoolMetrics.getInstance();
+    metrics.logReport();
+    String text = metrics.getReport() + "\nCircuit breakers: " + CleartoolCircuitBreaker.getInstance().getState() + "\n";
+    LightVirtualFile report = new LightVirtualFile( REPORT_FILE_NAME, text );
+    report.setWritable( false );
+    FileEditorManager.getInstance( project ).openFile( report, true );
+  }
+}
@@ -0,0 +1,21 @@
+package net.sourceforge.transparent.exceptions;
+
+/**
+ * The command was killed because the operation was cancelled or the server
+ * did not answer in time; carries the output received until then.
+ */
+public class ClearCaseAbortedException extends ClearCaseException
+{
+  private final boolean cancelled;
+  private final String partialOutput;
+
+  public ClearCaseAbortedException( String error, boolean cancelled, String partialOutput )
+  {
+    super( partialOutput == null || partialOutput.isEmpty() ? error : error + "\nOutput received so far:\n" + partialOutput );
+    this.cancelled = cancelled;
+    this.partialOutput = partialOutput == null ? "" : partialOutput;
+  }
+
+  public boolean isCancelled()      {  return cancelled;      }
+  public String  getPartialOutput() {  return partialOutput;  }
+}
@@ -0,0 +1,124 @@
+package net.sourceforge.transparent;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CleartoolBatcherTest extends TestCase
+{
+  private static final String[] PREFIX = { "ls", "-short" };
+  private static final int BIG_BUDGET = 1024 * 1024;
+
+  private static String[] paths( int count )
+  {
+    final String[] paths = new String[ count ];
+    for( int i = 0; i < count; i++ )
+      paths[ i ] = "/vobs/src/File" + (1000 + i) + ".java";
+    return paths;
+  }
+
+  private static int cost( String... args )
+  {
+    int cost = 0;
+    for( String arg : args )
+      cost += CleartoolBatcher.getArgumentCost( arg );
+    return cost;
+  }
+
+  //  Paths of the batches in order; every batch must start with the prefix.
+  private static List<String> pathsOf( List<String[]> batches )
+  {
+    final List<String> result = new ArrayList<>();
+    for( String[] batch : batches )
+    {
+      Assert.assertTrue( batch.length > PREFIX.length );
+      Assert.assertEquals( Arrays.asList( PREFIX ), Arrays.asList( batch ).subList( 0, PREFIX.length ) );
+      result.addAll( Arrays.asList( batch ).subList( PREFIX.length, batch.length ) );
+    }
+    return result;
+  }
+
+  private static List<Integer> sizesOf( List<String[]> batches )
+  {
+    final List<Integer> sizes = new ArrayList<>();
+    for( String[] batch : batches )
+      sizes.add( batch.length - PREFIX.length );
+    return sizes;
+  }
+
+  public void testNoPathsNoBatches()
+  {
+    Assert.assertTrue( CleartoolBatcher.split( PREFIX, new String[ 0 ], 4, BIG_BUDGET ).isEmpty() );
+  }
+
+  public void testSmallListIsOneBatch()
+  {
+    final String[] paths = paths( 10 );
+    final List<String[]> batches = CleartoolBatcher.split( PREFIX, paths, 4, BIG_BUDGET );
+    Assert.assertEquals( 1, batches.size() );
+    Assert.assertEquals( Arrays.asList( paths ), pathsOf( batches ) );
+  }
+
+  public void testSplitAtBudgetBoundary()
+  {
+    final String[] paths = paths( 6 );
+    final int perPath = cost( paths[ 0 ] );
+
+    //  Exactly two paths fit.
+    List<String[]> batches = CleartoolBatcher.split( PREFIX, paths, 1, cost( PREFIX ) + 2 * perPath );
+    Assert.assertEquals( Arrays.asList( 2, 2, 2 ), sizesOf( batches ) );
+    Assert.assertEquals( Arrays.asList( paths ), pathsOf( batches ) );
+
+    //  One byte less and the second path does not.
+    batches = CleartoolBatcher.split( PREFIX, paths, 1, cost( PREFIX ) + 2 * perPath - 1 );
+    Assert.assertEquals( Arrays.asList( 1, 1, 1, 1, 1, 1 ), sizesOf( batches ) );
+    Assert.assertEquals( Arrays.asList( paths ), pathsOf( batches ) );
+
+    //  Five fit: the paths are spread evenly instead of five and one.
+    batches = CleartoolBatcher.split( PREFIX, paths, 1, cost( PREFIX ) + 5 * perPath );
+    Assert.assertEquals( Arrays.asList( 3, 3 ), sizesOf( batches ) );
+  }
+
+  public void testParallelBatchesHaveMinimumSize()
+  {
+    final int min = CleartoolBatcher.MIN_FILES_PER_PARALLEL_BATCH;
+
+    //  Not enough files for two batches.
+    Assert.assertEquals( 1, CleartoolBatcher.split( PREFIX, paths( 2 * min - 1 ), 4, BIG_BUDGET ).size() );
+    Assert.assertEquals( Arrays.asList( min, min ), sizesOf( CleartoolBatcher.split( PREFIX, paths( 2 * min ), 4, BIG_BUDGET ) ) );
+
+    //  Never more batches than asked for.
+    final List<String[]> batches = CleartoolBatcher.split( PREFIX, paths( 20 * min ), 4, BIG_BUDGET );
+    Assert.assertEquals( Arrays.asList( 5 * min, 5 * min, 5 * min, 5 * min ), sizesOf( batches ) );
+    Assert.assertEquals( Arrays.asList( paths( 20 * min ) ), pathsOf( batches ) );
+
+    //  The budget still wins over the parallelism.
+    final int budget = cost( PREFIX ) + 10 * cost( paths( 1 )[ 0 ] );
+    Assert.assertEquals( 2 * min / 10, CleartoolBatcher.split( PREFIX, paths( 2 * min ), 1, budget ).size() );
+  }
+
+  public void testPathLongerThanBudgetGetsItsOwnBatch()
+  {
+    final StringBuilder longPath = new StringBuilder( "/vobs/src" );
+    while( longPath.length() < 300 )
+      longPath.append( "/very_long_folder_name" );
+    final String[] paths = { "/vobs/src/A.java", "/vobs/src/B.java", longPath.toString(), "/vobs/src/C.java" };
+    final int budget = cost( PREFIX ) + cost( paths[ 0 ], paths[ 1 ] );
+    Assert.assertTrue( cost( PREFIX ) + cost( longPath.toString() ) > budget );
+
+    final List<String[]> batches = CleartoolBatcher.split( PREFIX, paths, 1, budget );
+    Assert.assertEquals( Arrays.asList( 2, 1, 1 ), sizesOf( batches ) );
+    Assert.assertEquals( Arrays.asList( paths ), pathsOf( batches ) );
+  }
+
+  public void testPrefixLongerThanBudget()
+  {
+    //  Every path still gets a command.
+    final String[] paths = paths( 3 );
+    final List<String[]> batches = CleartoolBatcher.split( PREFIX, paths, 1, 1 );
+    Assert.assertEquals( Arrays.asList( 1, 1, 1 ), sizesOf( batches ) );
+  }
+}
@@ -0,0 +1,269 @@
+package net.sourceforge.transparent;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.sourceforge.transparent.exceptions.ClearCaseNoServerException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class CleartoolCircuitBreakerTest extends TestCase
+{
+  private static final String[] LS = { "ls", "-short", "/vobs/src/A.java" };
+  private static final String SERVER_DOWN = "cleartool: Error: albd_contact call failed: RPC: Unable to receive\n" +
+                                            "cleartool: Error: Unable to contact View - ClearCase object not found";
+
+  private FakeScheduler myScheduler;
+  private final ArrayDeque<Runner.ProbeResult> myProbeResults = new ArrayDeque<>();
+  private final List<String> myProbedViews = new ArrayList<>();
+  private final List<Boolean> myEvents = new ArrayList<>();
+  private CleartoolCircuitBreaker myBreaker;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myScheduler = new FakeScheduler();
+    myBreaker = new CleartoolCircuitBreaker( myScheduler, view -> {
+      myProbedViews.add( view );
+      return myProbeResults.removeFirst();
+    } );
+    myBreaker.setLimits( 3, 60, 15 );
+    myBreaker.addListener( myEvents::add );
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myScheduler.shutdownNow();
+    super.tearDown();
+  }
+
+  private void timeOut( String view ) {
+    myBreaker.recordOutcome( view, LS, 100, true, null );
+  }
+
+  private void succeed( String view ) {
+    myBreaker.recordOutcome( view, LS, 100, false, "A.java" );
+  }
+
+  private boolean isAvailable( String view ) {
+    try
+    {
+      myBreaker.checkAvailable( view, LS );
+      return true;
+    }
+    catch( ClearCaseNoServerException e )
+    {
+      return false;
+    }
+  }
+
+  public void testOpensAfterConsecutiveFailures() {
+    timeOut( "view1" );
+    timeOut( "view1" );
+    succeed( "view1" );
+    timeOut( "view1" );
+    timeOut( "view1" );
+    Assert.assertFalse( myBreaker.isOpen( "view1" ) );
+    Assert.assertTrue( myEvents.isEmpty() );
+
+    timeOut( "view1" );
+    Assert.assertTrue( myBreaker.isOpen( "view1" ) );
+    Assert.assertFalse( isAvailable( "view1" ) );
+    Assert.assertTrue( isAvailable( "view2" ) );
+    Assert.assertEquals( Collections.singletonList( false ), myEvents );
+
+    //  One probe, every 15 s.
+    Assert.assertEquals( 1, myScheduler.myTasks.size() );
+    Assert.assertEquals( TimeUnit.SECONDS.toMillis( 15 ), myScheduler.myTasks.get( 0 ).myDelay );
+
+    //  Outcomes while open change nothing.
+    succeed( "view1" );
+    Assert.assertTrue( myBreaker.isOpen( "view1" ) );
+    Assert.assertEquals( 1, myScheduler.myTasks.size() );
+  }
+
+  public void testSecondOpenBreakerDoesNotNotifyAgain() {
+    for( int i = 0; i < 3; i++ )
+      timeOut( "view1" );
+    for( int i = 0; i < 3; i++ )
+      timeOut( "view2" );
+    Assert.assertTrue( myBreaker.isOpen( "view2" ) );
+    Assert.assertEquals( Collections.singletonList( false ), myEvents );
+    Assert.assertEquals( 2, myScheduler.myTasks.size() );
+  }
+
+  public void testSlowCallRule() {
+    myBreaker.setLimits( 1, 10, 15 );
+
+    myBreaker.recordOutcome( "view1", LS, 9999, false, "" );
+    Assert.assertFalse( myBreaker.isOpen( "view1" ) );
+
+    //  The threshold grows with every hundred paths.
+    final String[] batch = new String[ 151 ];
+    batch[ 0 ] = "ls";
+    for( int i = 1; i < batch.length; i++ )
+      batch[ i ] = "/vobs/src/File" + i + ".java";
+    myBreaker.recordOutcome( "view1", batch, 19999, false, "" );
+    Assert.assertFalse( myBreaker.isOpen( "view1" ) );
+
+    //  Commands which walk the whole view may take any time, only their
+    //  timeout counts.
+    myBreaker.recordOutcome( "view1", new String[] { "update", "-force" }, 3600000, false, "" );
+    myBreaker.recordOutcome( "view1", new String[] { "ls", "-recurse", "/vobs/src" }, 3600000, false, "" );
+    Assert.assertFalse( myBreaker.isOpen( "view1" ) );
+
+    myBreaker.recordOutcome( "view1", batch, 20000, false, "" );
+    Assert.assertTrue( myBreaker.isOpen( "view1" ) );
+
+    //  No slow threshold at all.
+    myBreaker.setLimits( 1, 0, 15 );
+    myBreaker.recordOutcome( "view2", LS, 3600000, false, "" );
+    Assert.assertFalse( myBreaker.isOpen( "view2" ) );
+  }
+
+  public void testServerDownMessageOpensAllViews() {
+    succeed( "view1" );
+    succeed( "view2" );
+    myBreaker.recordOutcome( "view1", LS, 100, false, SERVER_DOWN );
+
+    Assert.assertTrue( myBreaker.isOpen( "view1" ) );
+    Assert.assertTrue( myBreaker.isOpen( "view2" ) );
+    Assert.assertTrue( myBreaker.isOpen( CleartoolMetrics.NO_VIEW ) );
+    Assert.assertEquals( Collections.singletonList( false ), myEvents );
+    Assert.assertEquals( 3, myScheduler.myTasks.size() );
+    Assert.assertTrue( myBreaker.getState().contains( "albd_contact call failed" ) );
+  }
+
+  public void testProbeClosesTheBreaker() {
+    for( int i = 0; i < 3; i++ )
+      timeOut( "view1" );
+    final ScheduledTask probe = myScheduler.myTasks.get( 0 );
+
+    //  Half open: the probes run, the callers still fail at once until one
+    //  of them succeeds.
+    myProbeResults.add( new Runner.ProbeResult( false, "cleartool: Error: timed out" ) );
+    myProbeResults.add( new Runner.ProbeResult( true, SERVER_DOWN ) );
+    myProbeResults.add( new Runner.ProbeResult( true, "view1" ) );
+    probe.myTask.run();
+    probe.myTask.run();
+    Assert.assertTrue( myBreaker.isOpen( "view1" ) );
+    Assert.assertFalse( isAvailable( "view1" ) );
+    Assert.assertFalse( probe.isCancelled() );
+
+    probe.myTask.run();
+    Assert.assertFalse( myBreaker.isOpen( "view1" ) );
+    Assert.assertTrue( isAvailable( "view1" ) );
+    Assert.assertTrue( probe.isCancelled() );
+    Assert.assertEquals( Arrays.asList( "view1", "view1", "view1" ), myProbedViews );
+    Assert.assertEquals( Arrays.asList( false, true ), myEvents );
+
+    //  The failures are counted anew.
+    timeOut( "view1" );
+    timeOut( "view1" );
+    Assert.assertFalse( myBreaker.isOpen( "view1" ) );
+    timeOut( "view1" );
+    Assert.assertTrue( myBreaker.isOpen( "view1" ) );
+    Assert.assertEquals( 2, myScheduler.myTasks.size() );
+  }
+
+  public void testAvailableOnlyWhenTheLastBreakerCloses() {
+    myBreaker.recordOutcome( "view1", LS, 100, false, SERVER_DOWN );
+    final List<ScheduledTask> probes = new ArrayList<>( myScheduler.myTasks );
+    Assert.assertEquals( 2, probes.size() );
+
+    myProbeResults.add( new Runner.ProbeResult( true, "" ) );
+    probes.get( 0 ).myTask.run();
+    Assert.assertEquals( Collections.singletonList( false ), myEvents );
+    Assert.assertTrue( myBreaker.isAnyOpen() );
+
+    myProbeResults.add( new Runner.ProbeResult( true, "" ) );
+    probes.get( 1 ).myTask.run();
+    Assert.assertEquals( Arrays.asList( false, true ), myEvents );
+    Assert.assertFalse( myBreaker.isAnyOpen() );
+  }
+
+  public void testDisablingClosesAllAndStopsProbes() {
+    for( int i = 0; i < 3; i++ )
+      timeOut( "view1" );
+    myBreaker.setEnabled( false );
+
+    Assert.assertFalse( myBreaker.isOpen( "view1" ) );
+    Assert.assertTrue( myScheduler.myTasks.get( 0 ).isCancelled() );
+    Assert.assertEquals( Arrays.asList( false, true ), myEvents );
+
+    for( int i = 0; i < 5; i++ )
+      timeOut( "view1" );
+    Assert.assertTrue( isAvailable( "view1" ) );
+    Assert.assertEquals( 1, myScheduler.myTasks.size() );
+  }
+
+  /**
+   * Keeps the periodic tasks instead of running them; the test runs a probe
+   * when it wants to.
+   */
+  private static class FakeScheduler extends ScheduledThreadPoolExecutor
+  {
+    final List<ScheduledTask> myTasks = new ArrayList<>();
+
+    FakeScheduler() {
+      super( 1 );
+    }
+
+    @NotNull
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay( @NotNull Runnable command, long initialDelay, long delay, @NotNull TimeUnit unit ) {
+      final ScheduledTask task = new ScheduledTask( command, unit.toMillis( delay ) );
+      myTasks.add( task );
+      return task;
+    }
+  }
+
+  private static class ScheduledTask implements ScheduledFuture<Object>
+  {
+    final Runnable myTask;
+    final long myDelay;
+    private boolean myCancelled;
+
+    ScheduledTask( Runnable task, long delay ) {
+      myTask = task;
+      myDelay = delay;
+    }
+
+    public long getDelay( @NotNull TimeUnit unit ) {
+      return unit.convert( myDelay, TimeUnit.MILLISECONDS );
+    }
+
+    public int compareTo( @NotNull Delayed o ) {
+      return Long.compare( getDelay( TimeUnit.MILLISECONDS ), o.getDelay( TimeUnit.MILLISECONDS ) );
+    }
+
+    public boolean cancel( boolean mayInterruptIfRunning ) {
+      myCancelled = true;
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return myCancelled;
+    }
+
+    public boolean isDone() {
+      return myCancelled;
+    }
+
+    public Object get() {
+      return null;
+    }
+
+    public Object get( long timeout, @NotNull TimeUnit unit ) {
+      return null;
+    }
+  }
+}
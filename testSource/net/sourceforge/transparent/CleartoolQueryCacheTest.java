@@ -0,0 +1,179 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CleartoolQueryCacheTest extends TestCase
+{
+  private File myRoot;
+  private final List<String> myCommands = Collections.synchronizedList( new ArrayList<>() );
+  //  Called while the fake cleartool runs a command.
+  private Runnable myDuringCommand;
+  private CleartoolQueryCache myCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = FileUtil.createTempDirectory( "queryCache", null );
+    myCache = new CleartoolQueryCache( subcmd -> {
+      myCommands.add( String.join( " ", subcmd ) );
+      if( myDuringCommand != null )
+        myDuringCommand.run();
+      return new CleartoolQueryCache.Result( "output " + myCommands.size(), true );
+    } );
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete( myRoot );
+    super.tearDown();
+  }
+
+  private File file( String relativePath ) throws IOException {
+    final File file = new File( myRoot, relativePath );
+    file.getParentFile().mkdirs();
+    try( FileWriter writer = new FileWriter( file ) )
+    {
+      writer.write( "content" );
+    }
+    return file;
+  }
+
+  private String query( File file ) {
+    return myCache.query( file.getPath(), "ls", "-directory" ).output;
+  }
+
+  public void testResultIsReusedWithinTtl() throws Exception {
+    final File file = file( "A.java" );
+    Assert.assertEquals( "output 1", query( file ) );
+    Assert.assertEquals( "output 1", query( file ) );
+    Assert.assertEquals( Collections.singletonList( "ls -directory " + file.getPath() ), myCommands );
+    Assert.assertEquals( 1, myCache.getHits() );
+
+    //  Other options are another query.
+    Assert.assertEquals( "output 2", myCache.query( file.getPath(), "describe" ).output );
+  }
+
+  public void testEntryExpiresAfterTtl() throws Exception {
+    final File file = file( "A.java" );
+    myCache.setTimeToLive( 50 );
+    query( file );
+    Thread.sleep( 150 );
+    Assert.assertEquals( "output 2", query( file ) );
+    Assert.assertEquals( 1, myCache.getStaleHits() );
+  }
+
+  public void testZeroTtlDisablesTheCache() throws Exception {
+    final File file = file( "A.java" );
+    myCache.setTimeToLive( 0 );
+    query( file );
+    query( file );
+    Assert.assertEquals( 2, myCommands.size() );
+    Assert.assertEquals( 0, myCache.size() );
+  }
+
+  public void testChangedModificationTimeInvalidates() throws Exception {
+    final File file = file( "A.java" );
+    query( file );
+    Assert.assertTrue( file.setLastModified( file.lastModified() - 10000 ) );
+    Assert.assertEquals( "output 2", query( file ) );
+  }
+
+  public void testChangedSizeInvalidates() throws Exception {
+    final File file = file( "A.java" );
+    final long stamp = file.lastModified();
+    query( file );
+    try( FileWriter writer = new FileWriter( file, true ) )
+    {
+      writer.write( " and more" );
+    }
+    //  Same time stamp, as with a coarse file system clock.
+    Assert.assertTrue( file.setLastModified( stamp ) );
+    Assert.assertEquals( "output 2", query( file ) );
+  }
+
+  public void testChangedWritableBitInvalidates() throws Exception {
+    final File file = file( "A.java" );
+    query( file );
+    Assert.assertTrue( file.setWritable( false ) );
+    //  The superuser may write any file, its files never look read-only.
+    if( file.canWrite() )
+      return;
+    Assert.assertEquals( "output 2", query( file ) );
+    Assert.assertEquals( "output 2", query( file ) );
+  }
+
+  public void testRemovedFileInvalidates() throws Exception {
+    final File file = file( "A.java" );
+    query( file );
+    Assert.assertTrue( file.delete() );
+    Assert.assertEquals( "output 2", query( file ) );
+  }
+
+  public void testInvalidateCoversSubtreeAndParentByWholeSegments() throws Exception {
+    final File folder = new File( myRoot, "src" );
+    final File file = file( "src/A.java" );
+    final File nested = file( "src/sub/B.java" );
+    final File sibling = file( "src-1/C.java" );
+    final File other = file( "other/D.java" );
+    for( File f : Arrays.asList( myRoot, folder, file, nested, sibling, other ) )
+      query( f );
+    Assert.assertEquals( 6, myCache.size() );
+
+    myCache.invalidate( folder.getPath() );
+    //  The folder, everything under it and its parent; "src-1" only shares
+    //  a prefix of the name.
+    Assert.assertEquals( 2, myCache.size() );
+    Assert.assertEquals( 4, myCache.getInvalidations() );
+    final int commands = myCommands.size();
+    query( sibling );
+    query( other );
+    Assert.assertEquals( commands, myCommands.size() );
+    query( myRoot );
+    query( nested );
+    Assert.assertEquals( commands + 2, myCommands.size() );
+  }
+
+  public void testInvalidateOfFileDropsItsFolderListing() throws Exception {
+    final File file = file( "src/A.java" );
+    final File folder = file.getParentFile();
+    query( folder );
+    query( file );
+
+    myCache.invalidate( file.getPath() + File.separator );
+    Assert.assertEquals( 0, myCache.size() );
+  }
+
+  public void testQueryInvalidatedWhileRunningIsNotStored() throws Exception {
+    final File file = file( "src/A.java" );
+    myDuringCommand = () -> myCache.invalidate( file.getParent() );
+    Assert.assertEquals( "output 1", query( file ) );
+    Assert.assertEquals( 0, myCache.size() );
+
+    myDuringCommand = null;
+    Assert.assertEquals( "output 2", query( file ) );
+    Assert.assertEquals( "output 2", query( file ) );
+    Assert.assertEquals( 1, myCache.size() );
+  }
+
+  public void testMutatingCommandInvalidatesItsPaths() throws Exception {
+    final File file = file( "src/A.java" );
+    final File other = file( "other/B.java" );
+    query( file );
+    query( other );
+
+    myCache.commandExecuted( new String[] { "checkout", "-nc", file.getPath() } );
+    Assert.assertEquals( 1, myCache.size() );
+    myCache.commandExecuted( new String[] { "ls", "-short", other.getPath() } );
+    Assert.assertEquals( 1, myCache.size() );
+  }
+}
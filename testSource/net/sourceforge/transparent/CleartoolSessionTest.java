@@ -0,0 +1,246 @@
+package net.sourceforge.transparent;
+
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
+import com.intellij.testFramework.fixtures.IdeaTestFixtureFactory;
+import com.intellij.util.ui.UIUtil;
+import junit.framework.Assert;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class CleartoolSessionTest extends PlatformTestCase {
+  private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+  private IdeaProjectTestFixture myProjectFixture;
+
+  @Override
+  public void setUp() throws Exception {
+    myProjectFixture = IdeaTestFixtureFactory.getFixtureFactory().createFixtureBuilder(getClass().getSimpleName()).getFixture();
+    myProjectFixture.setUp();
+  }
+
+  @Override
+  public void tearDown() {
+    UIUtil.invokeAndWaitIfNeeded((Runnable)() -> {
+      try {
+        myProjectFixture.tearDown();
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  public void testSentinelEndsTheResponse() throws Exception {
+    final FakeCleartool process = new FakeCleartool(command -> {
+      if (command.equals("ls -short A.java")) {
+        return Arrays.asList("cleartool> A.java@@/main/3", "Command 1 returned status 0");
+      }
+      return Arrays.asList("cleartool: Error: Unable to access \"B.java\": No such file or directory.",
+                           "Command 2 returned status 1");
+    });
+    final CleartoolSession session = CleartoolSession.attach(null, process);
+
+    CleartoolSession.Result result = session.execute(new String[]{"ls", "-short", "A.java"}, TIMEOUT);
+    Assert.assertEquals(0, result.exitCode);
+    Assert.assertEquals("A.java@@/main/3", result.output);
+
+    result = session.execute(new String[]{"ls", "-short", "B.java"}, TIMEOUT);
+    Assert.assertEquals(1, result.exitCode);
+    Assert.assertEquals("cleartool: Error: Unable to access \"B.java\": No such file or directory.", result.output);
+    Assert.assertTrue(session.isAlive());
+    Assert.assertEquals(Arrays.asList("ls -short A.java", "ls -short B.java"), process.getCommands());
+  }
+
+  public void testErrorLinesInStreamingMode() throws Exception {
+    final FakeCleartool process = new FakeCleartool(command -> Arrays.asList(
+      "A.java~#~/main/3~##~", "cleartool: Warning: Can not find a group named \"XXX\"", "B.java~#~~##~",
+      "Command 1 returned status 0"));
+    final CleartoolSession session = CleartoolSession.attach(null, process);
+
+    final CollectingListener listener = new CollectingListener();
+    final CleartoolSession.Result result =
+      session.execute(new String[]{"ls", "A.java", "B.java"}, CleartoolDeadline.after(TIMEOUT), listener);
+
+    Assert.assertEquals(0, result.exitCode);
+    Assert.assertEquals(Arrays.asList("A.java~#~/main/3~##~", "B.java~#~~##~"), listener.output);
+    Assert.assertEquals(Collections.singletonList("cleartool: Warning: Can not find a group named \"XXX\""), listener.errors);
+    Assert.assertEquals("cleartool: Warning: Can not find a group named \"XXX\"", result.output);
+  }
+
+  public void testProcessDiesBeforeAnyOutput() throws Exception {
+    final FakeCleartool process = new FakeCleartool(command -> null);
+    final CleartoolSession session = CleartoolSession.attach(null, process);
+
+    try {
+      session.execute(new String[]{"pwd"}, TIMEOUT);
+      Assert.fail("no error for a dead session");
+    }
+    catch (IOException e) {
+      //  expected: nothing was delivered, the command may be run again elsewhere
+    }
+    Assert.assertFalse(session.isAlive());
+
+    try {
+      session.execute(new String[]{"pwd"}, TIMEOUT);
+      Assert.fail("a broken session was used");
+    }
+    catch (IOException e) {
+      //  expected
+    }
+  }
+
+  public void testProcessDiesAfterStreamingSomeLines() throws Exception {
+    final FakeCleartool process = new FakeCleartool(command -> Arrays.asList("A.java~#~/main/3~##~", null));
+    final CleartoolSession session = CleartoolSession.attach(null, process);
+
+    final CollectingListener listener = new CollectingListener();
+    try {
+      session.execute(new String[]{"ls", "A.java", "B.java"}, CleartoolDeadline.after(TIMEOUT), listener);
+      Assert.fail("no error for a dead session");
+    }
+    catch (ClearCaseException e) {
+      //  expected: repeating the command would deliver the lines twice
+    }
+    Assert.assertEquals(Collections.singletonList("A.java~#~/main/3~##~"), listener.output);
+    Assert.assertFalse(session.isAlive());
+  }
+
+  public void testCommandLineQuoting() {
+    Assert.assertEquals("ls -short A.java", CleartoolSession.getCommandLine(new String[]{"ls", "-short", "A.java"}));
+    Assert.assertEquals("ls \"/vobs/my src/A.java\"", CleartoolSession.getCommandLine(new String[]{"ls", "/vobs/my src/A.java"}));
+    Assert.assertEquals("mkelem -c \"a\tb\" A.java", CleartoolSession.getCommandLine(new String[]{"mkelem", "-c", "a\tb", "A.java"}));
+    Assert.assertEquals("mkelem -c \"\" A.java", CleartoolSession.getCommandLine(new String[]{"mkelem", "-c", "", "A.java"}));
+    //  Quotes inside an argument are escaped, also without whitespace.
+    Assert.assertEquals("mkelem -c \"say \\\"hi\\\"\" A.java",
+                        CleartoolSession.getCommandLine(new String[]{"mkelem", "-c", "say \"hi\"", "A.java"}));
+    Assert.assertEquals("mkelem -c \"a\\\"b\" A.java", CleartoolSession.getCommandLine(new String[]{"mkelem", "-c", "a\"b", "A.java"}));
+    //  Quoted as a whole already (CommandLineClearCase.quote): left as it is.
+    Assert.assertEquals("ci -c \"a comment\" A.java", CleartoolSession.getCommandLine(new String[]{"ci", "-c", "\"a comment\"", "A.java"}));
+  }
+
+  private static class CollectingListener implements Runner.LineListener {
+    final List<String> output = new ArrayList<>();
+    final List<String> errors = new ArrayList<>();
+
+    public void onOutputLine(@NotNull String line) {
+      output.add(line);
+    }
+
+    public void onErrorLine(@NotNull String line) {
+      errors.add(line);
+    }
+  }
+
+  /**
+   * Process which answers every command line written to its stdin with the
+   * lines given by the script; a null line (or a null answer) closes its
+   * output, as if it died.
+   */
+  private static class FakeCleartool extends Process {
+    private final Function<String, List<String>> myScript;
+    private final PipedInputStream myStdout;
+    private final PipedOutputStream myStdoutWriter;
+    private final List<String> myCommands = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean myAlive = true;
+
+    FakeCleartool(Function<String, List<String>> script) throws IOException {
+      myScript = script;
+      myStdout = new PipedInputStream(64 * 1024);
+      myStdoutWriter = new PipedOutputStream(myStdout);
+    }
+
+    List<String> getCommands() {
+      return new ArrayList<>(myCommands);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new OutputStream() {
+        private final ByteArrayOutputStream myLine = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+          if (b != '\n') {
+            myLine.write(b);
+            return;
+          }
+          final String command = new String(myLine.toByteArray(), StandardCharsets.UTF_8);
+          myLine.reset();
+          myCommands.add(command);
+          answer(myScript.apply(command));
+        }
+      };
+    }
+
+    private void answer(List<String> lines) throws IOException {
+      if (!myAlive) {
+        throw new IOException("Broken pipe");
+      }
+      for (String line : lines == null ? Collections.<String>singletonList(null) : lines) {
+        if (line == null) {
+          destroy();
+          return;
+        }
+        myStdoutWriter.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+      myStdoutWriter.flush();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return myStdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() {
+      return 0;
+    }
+
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) {
+      return true;
+    }
+
+    @Override
+    public int exitValue() {
+      if (myAlive) {
+        throw new IllegalThreadStateException();
+      }
+      return 0;
+    }
+
+    @Override
+    public boolean isAlive() {
+      return myAlive;
+    }
+
+    @Override
+    public void destroy() {
+      if (!myAlive) {
+        return;
+      }
+      myAlive = false;
+      try {
+        myStdoutWriter.close();
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -2,8 +2,12 @@ package x;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
+import net.sourceforge.transparent.History.CCaseHistoryCache;
 import net.sourceforge.transparent.History.CCaseHistoryParser;
+import net.sourceforge.transparent.History.CCaseHistoryRecordParser;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 
 public class CCaseHistoryTest extends TestCase
@@ -34,4 +38,113 @@ public class CCaseHistoryTest extends TestCase
     Assert.assertEquals("create version", changes.get(1).action);
     Assert.assertEquals("04-\u0444\u0435\u0432-09.17:51:32", changes.get(1).changeDate);
   }
+
+  private static final String FS = "\u001F";
+  private static final String RS = "\u001E\n";
+
+  private static final String NUMERIC_DATE = "20090204.175132";
+
+  private static String record( String date, String user, String action, String labels, String name, String comment ) {
+    return date + FS + NUMERIC_DATE + FS + user + FS + action + FS + labels + FS + name + FS + comment + RS;
+  }
+
+  public void testRecordsWithMultilineComments() throws IOException {
+    final String contents =
+      record("04-\u0444\u0435\u0432-09.19:46:00", "Irina Chernushina", "checkout version", "",
+             "C:/TestProjects/ccase/test/it_test/ITVob/src/com/refactoring/users/User1.java",
+             "related issues: \"some quoted content\"") +
+      record("04-\u0444\u0435\u0432-09.17:51:32", "Irina Chernushina", "create version", "(REL_1, REL_2)",
+             "C:/TestProjects/ccase/test/it_test/ITVob/src/com/refactoring/users/User1.java@@\\main\\it_test\\3",
+             "related issues:\n0 - scr1\n1 - scr2\n2 - scr3");
+    final ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryRecordParser.parse(new StringReader(contents));
+    Assert.assertEquals(2, changes.size());
+    Assert.assertEquals("related issues: \"some quoted content\"", changes.get(0).comment);
+    Assert.assertEquals("checkout version", changes.get(0).action);
+    Assert.assertEquals("", changes.get(0).version);
+    Assert.assertEquals("04-\u0444\u0435\u0432-09.19:46:00", changes.get(0).changeDate);
+
+    Assert.assertEquals("related issues:\n0 - scr1\n1 - scr2\n2 - scr3", changes.get(1).comment);
+    Assert.assertEquals("create version", changes.get(1).action);
+    Assert.assertEquals("@@\\main\\it_test\\3", changes.get(1).version);
+    Assert.assertEquals("(REL_1, REL_2)", changes.get(1).labels);
+    Assert.assertEquals(1, changes.get(1).order);
+  }
+
+  public void testRecordParserAgreesWithLineParser() throws IOException {
+    final String tagged = "0\u000104-Feb-09.17:51:32\n" +
+                          "6\u0001" + NUMERIC_DATE + "\n" +
+                          "1\u0001jdoe\n" +
+                          "2\u0001create version\n" +
+                          "3\u0001REL_1\n" +
+                          "4\u0001/vob/src/A.java@@/main/dev/7\n" +
+                          "5\u0001first line\n" +
+                          "second line";
+    final String separated = record("04-Feb-09.17:51:32", "jdoe", "create version", "REL_1", "/vob/src/A.java@@/main/dev/7",
+                                    "first line\nsecond line");
+    final CCaseHistoryParser.SubmissionData expected = CCaseHistoryParser.parse(tagged).get(0);
+    final CCaseHistoryParser.SubmissionData actual = CCaseHistoryRecordParser.parse(new StringReader(separated)).get(0);
+    Assert.assertEquals(expected.changeDate, actual.changeDate);
+    Assert.assertEquals(NUMERIC_DATE, actual.numericDate);
+    Assert.assertEquals(expected.numericDate, actual.numericDate);
+    Assert.assertEquals(expected.submitter, actual.submitter);
+    Assert.assertEquals(expected.action, actual.action);
+    Assert.assertEquals(expected.labels, actual.labels);
+    Assert.assertEquals(expected.version, actual.version);
+    Assert.assertEquals(expected.comment, actual.comment);
+  }
+
+  public void testRepeatedValuesAreShared() throws IOException {
+    final String contents = record("d1", "jdoe", "create version", "", "/a@@/main/2", "") +
+                            record("d2", "jdoe", "create version", "", "/a@@/main/1", "");
+    final ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryRecordParser.parse(new StringReader(contents));
+    Assert.assertSame(changes.get(0).submitter, changes.get(1).submitter);
+    Assert.assertSame(changes.get(0).action, changes.get(1).action);
+    Assert.assertEquals("", changes.get(1).comment);
+  }
+
+  public void testRecordsStreamedLineByLine() {
+    final String contents = record("d1", "jdoe", "create version", "", "/a@@/main/2", "one\r\ntwo") +
+                            record("d2", "asmith", "create branch", "", "/a@@/main", "");
+    final ArrayList<CCaseHistoryParser.SubmissionData> changes = new ArrayList<>();
+    final CCaseHistoryRecordParser parser = new CCaseHistoryRecordParser(changes::add);
+    for (String line : contents.split("\\r?\\n")) {
+      parser.onOutputLine(line);
+    }
+    parser.finish();
+    Assert.assertFalse(parser.isMalformed());
+    Assert.assertEquals(2, changes.size());
+    Assert.assertEquals("one\ntwo", changes.get(0).comment);
+    Assert.assertEquals("@@/main", changes.get(1).version);
+  }
+
+  public void testMalformedRecordStopsParsing() throws IOException {
+    final String contents = record("d1", "jdoe", "create version", "", "/a@@/main/2", "") +
+                            "d2" + FS + "jdoe" + RS +
+                            record("d3", "jdoe", "create version", "", "/a@@/main/1", "");
+    final ArrayList<CCaseHistoryParser.SubmissionData> changes = new ArrayList<>();
+    final CCaseHistoryRecordParser parser = new CCaseHistoryRecordParser(changes::add);
+    final char[] chars = contents.toCharArray();
+    parser.feed(chars, 0, chars.length);
+    parser.finish();
+    Assert.assertTrue(parser.isMalformed());
+    Assert.assertEquals(1, parser.getRecordCount());
+    Assert.assertEquals(1, changes.size());
+  }
+
+  public void testUnterminatedRecordIsMalformed() {
+    final CCaseHistoryRecordParser parser = new CCaseHistoryRecordParser(data -> {});
+    parser.onOutputLine("d1" + FS + "jdoe" + FS + "create version");
+    parser.finish();
+    Assert.assertTrue(parser.isMalformed());
+    Assert.assertEquals(0, parser.getRecordCount());
+  }
+
+  public void testSinceDateDoesNotDependOnLocale() {
+    Assert.assertEquals("04-Feb-2009.17:51:32", CCaseHistoryCache.toSinceDate(NUMERIC_DATE));
+    Assert.assertEquals("31-Dec-2026.00:00:05", CCaseHistoryCache.toSinceDate("20261231.000005"));
+    Assert.assertNull(CCaseHistoryCache.toSinceDate("04-\u0444\u0435\u0432-09.17:51:32"));
+    Assert.assertNull(CCaseHistoryCache.toSinceDate("20091304.175132"));
+    Assert.assertNull(CCaseHistoryCache.toSinceDate(""));
+    Assert.assertNull(CCaseHistoryCache.toSinceDate(null));
+  }
 }
@@ -0,0 +1,100 @@
+package x;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.sourceforge.transparent.CCasePathSet;
+import net.sourceforge.transparent.CCasePathTrie;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+
+public class CCasePathSetTest extends TestCase
+{
+  private CCasePathTrie myTrie;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTrie = new CCasePathTrie();
+  }
+
+  private CCasePathSet set( String... paths ) {
+    return new CCasePathSet( myTrie, Arrays.asList( paths ) );
+  }
+
+  public void testAddRemoveContains() {
+    final CCasePathSet set = new CCasePathSet( myTrie );
+    Assert.assertTrue( set.add( "/vobs/src/A.java" ) );
+    Assert.assertFalse( set.add( "/vobs/src/A.java" ) );
+    Assert.assertTrue( set.add( "/vobs/src/B.java" ) );
+    Assert.assertEquals( 2, set.size() );
+
+    //  The folder is in the trie, but not in the set.
+    Assert.assertFalse( set.contains( "/vobs/src" ) );
+    Assert.assertFalse( set.contains( "/vobs/src/C.java" ) );
+    Assert.assertFalse( set.remove( "/vobs/src" ) );
+
+    Assert.assertTrue( set.remove( "/vobs/src/A.java" ) );
+    Assert.assertFalse( set.contains( "/vobs/src/A.java" ) );
+    Assert.assertEquals( Collections.singleton( "/vobs/src/B.java" ), new HashSet<>( set ) );
+  }
+
+  public void testRemoveUnderMatchesWholeSegments() {
+    final CCasePathSet set = set( "/vobs/src", "/vobs/src/A.java", "/vobs/src/sub/B.java", "/vobs/src-1/C.java", "/vobs/D.java" );
+    Assert.assertEquals( 3, set.removeUnder( "/vobs/src" ) );
+    Assert.assertEquals( new HashSet<>( Arrays.asList( "/vobs/src-1/C.java", "/vobs/D.java" ) ), new HashSet<>( set ) );
+    Assert.assertEquals( 0, set.removeUnder( "/vobs/none" ) );
+  }
+
+  public void testSnapshotIsImmutableAndStable() {
+    final CCasePathSet set = set( "/a/1", "/a/2" );
+    final CCasePathSet snapshot = set.snapshot();
+    set.add( "/a/3" );
+    set.remove( "/a/1" );
+
+    Assert.assertEquals( new HashSet<>( Arrays.asList( "/a/1", "/a/2" ) ), new HashSet<>( snapshot ) );
+    Assert.assertSame( snapshot, snapshot.snapshot() );
+    try
+    {
+      snapshot.add( "/a/4" );
+      Assert.fail( "snapshot changed" );
+    }
+    catch( UnsupportedOperationException e )
+    {
+      //  expected
+    }
+  }
+
+  public void testMinusAndAddAllOverOneTrie() {
+    final CCasePathSet left = set( "/a/1", "/a/2", "/a/3" );
+    final CCasePathSet right = set( "/a/2", "/b/4" );
+
+    Assert.assertEquals( new HashSet<>( Arrays.asList( "/a/1", "/a/3" ) ), new HashSet<>( left.minus( right ) ) );
+    Assert.assertTrue( left.addAll( right ) );
+    Assert.assertFalse( left.addAll( right ) );
+    Assert.assertEquals( 4, left.size() );
+  }
+
+  public void testMinusAndAddAllOverDifferentTries() {
+    final CCasePathSet left = set( "/a/1", "/a/2", "/a/3" );
+    final CCasePathSet right = new CCasePathSet( new CCasePathTrie(), Arrays.asList( "/b/4", "/a/2" ) );
+
+    Assert.assertEquals( new HashSet<>( Arrays.asList( "/a/1", "/a/3" ) ), new HashSet<>( left.minus( right ) ) );
+    Assert.assertEquals( Collections.singleton( "/b/4" ), new HashSet<>( right.minus( left ) ) );
+    Assert.assertTrue( left.addAll( right ) );
+    Assert.assertEquals( new HashSet<>( Arrays.asList( "/a/1", "/a/2", "/a/3", "/b/4" ) ), new HashSet<>( left ) );
+  }
+
+  public void testIteratorRemove() {
+    final CCasePathSet set = set( "/a/1", "/a/2", "/a/3" );
+    for( Iterator<String> it = set.iterator(); it.hasNext(); )
+    {
+      if( !it.next().equals( "/a/2" ) )
+        it.remove();
+    }
+    Assert.assertEquals( Collections.singleton( "/a/2" ), new HashSet<>( set ) );
+    Assert.assertEquals( 1, set.size() );
+  }
+}
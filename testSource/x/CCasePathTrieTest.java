@@ -0,0 +1,115 @@
+package x;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.sourceforge.transparent.CCasePathTrie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CCasePathTrieTest extends TestCase
+{
+  private CCasePathTrie myTrie;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTrie = new CCasePathTrie();
+  }
+
+  public void testPathsRoundTrip() {
+    final String[] paths = { "/vobs/src/A.java", "/vobs/src", "C:\\view\\vob\\B.java", "C:/view//vob/", "", "/",
+                             "relative/path", "//server/share" };
+    final int[] ids = new int[ paths.length ];
+    for( int i = 0; i < paths.length; i++ )
+      ids[ i ] = myTrie.intern( paths[ i ] );
+
+    for( int i = 0; i < paths.length; i++ )
+    {
+      Assert.assertEquals( paths[ i ], myTrie.getPath( ids[ i ] ) );
+      Assert.assertEquals( ids[ i ], myTrie.intern( paths[ i ] ) );
+      Assert.assertEquals( ids[ i ], myTrie.find( paths[ i ] ) );
+    }
+    Assert.assertEquals( CCasePathTrie.NONE, myTrie.find( "/vobs/src/B.java" ) );
+    Assert.assertEquals( CCasePathTrie.NONE, myTrie.find( "/vobs/src/A.java/" ) );
+    Assert.assertEquals( CCasePathTrie.NONE, myTrie.find( "C:/view/vob/B.java" ) );
+  }
+
+  public void testLeadingPartsAreShared() {
+    final int file = myTrie.intern( "/vobs/src/A.java" );
+    final int folder = myTrie.find( "/vobs/src" );
+    Assert.assertTrue( folder != CCasePathTrie.NONE );
+    Assert.assertEquals( folder, myTrie.getParent( file ) );
+    Assert.assertEquals( "/vobs", myTrie.getPath( myTrie.getParent( folder ) ) );
+    //  "", "/vobs", "/vobs/src", "/vobs/src/A.java"
+    Assert.assertEquals( 4, myTrie.size() );
+    Assert.assertEquals( CCasePathTrie.NONE, myTrie.getParent( myTrie.find( "" ) ) );
+
+    Assert.assertTrue( myTrie.isUnder( file, folder ) );
+    Assert.assertTrue( myTrie.isUnder( folder, folder ) );
+    Assert.assertFalse( myTrie.isUnder( folder, file ) );
+    Assert.assertFalse( myTrie.isUnder( myTrie.intern( "/vobs/src-1/B.java" ), folder ) );
+  }
+
+  public void testLongestPrefix() {
+    final int folder = myTrie.intern( "/vobs/src" );
+    Assert.assertEquals( folder, myTrie.findLongestPrefix( "/vobs/src/a/b/C.java" ) );
+    Assert.assertEquals( folder, myTrie.findLongestPrefix( "/vobs/src" ) );
+    Assert.assertEquals( myTrie.find( "/vobs" ), myTrie.findLongestPrefix( "/vobs/srcs/C.java" ) );
+    Assert.assertEquals( CCasePathTrie.NONE, myTrie.findLongestPrefix( "vobs/src" ) );
+  }
+
+  public void testManyNodesSurviveGrowth() {
+    final List<String> paths = new ArrayList<>();
+    for( int i = 0; i < 200; i++ )
+    {
+      for( int j = 0; j < 30; j++ )
+        paths.add( "/vobs/dir" + i + "/File" + j + ".java" );
+    }
+    final int[] ids = new int[ paths.size() ];
+    for( int i = 0; i < ids.length; i++ )
+      ids[ i ] = myTrie.intern( paths.get( i ) );
+
+    for( int i = 0; i < ids.length; i++ )
+    {
+      Assert.assertEquals( ids[ i ], myTrie.find( paths.get( i ) ) );
+      Assert.assertEquals( paths.get( i ), myTrie.getPath( ids[ i ] ) );
+    }
+    //  Every file, its folder, "/vobs" and "".
+    Assert.assertEquals( 200 * 30 + 200 + 2, myTrie.size() );
+  }
+
+  public void testReadersSeeCompleteNodesWhileAdding() throws InterruptedException {
+    final int count = 20000;
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final Thread writer = new Thread( () -> {
+      for( int i = 0; i < count; i++ )
+        myTrie.intern( "/vobs/d" + (i % 97) + "/F" + i );
+    } );
+    final Thread reader = new Thread( () -> {
+      for( int i = 0; i < count && failure.get() == null; i++ )
+      {
+        final String path = "/vobs/d" + (i % 97) + "/F" + i;
+        final int id = myTrie.find( path );
+        if( id != CCasePathTrie.NONE && !path.equals( myTrie.getPath( id ) ) )
+          failure.set( path + " -> " + myTrie.getPath( id ) );
+      }
+    } );
+    writer.start();
+    reader.start();
+    writer.join();
+    reader.join();
+
+    Assert.assertNull( failure.get() );
+    for( int i = 0; i < count; i++ )
+      Assert.assertEquals( "/vobs/d" + (i % 97) + "/F" + i, myTrie.getPath( myTrie.find( "/vobs/d" + (i % 97) + "/F" + i ) ) );
+  }
+
+  public void testProjectsDoNotShareNodes() {
+    myTrie.intern( "/vobs/src/A.java" );
+    final CCasePathTrie other = new CCasePathTrie();
+    Assert.assertEquals( CCasePathTrie.NONE, other.find( "/vobs/src/A.java" ) );
+    Assert.assertEquals( 0, other.size() );
+  }
+}
@@ -0,0 +1,151 @@
+package x;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.sourceforge.transparent.CCaseStatusIndex;
+import net.sourceforge.transparent.Status;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class CCaseStatusIndexTest extends TestCase
+{
+  private File myStorage;
+  private File myRoot;
+  private CCaseStatusIndex myIndex;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myStorage = Files.createTempDirectory( "status-index" ).toFile();
+    myRoot = Files.createTempDirectory( "status-root" ).toFile();
+    myIndex = CCaseStatusIndex.getInstance();
+    myIndex.setEnabled( true );
+    myIndex.setStorage( myStorage );
+    myIndex.registerRoot( myRoot.getPath() );
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myIndex.unregisterRoot( myRoot.getPath() );
+    myIndex.setStorage( null );
+    myIndex.setFolderTimeToLive( CCaseStatusIndex.DEFAULT_FOLDER_TTL );
+    FileUtil.delete( myRoot );
+    FileUtil.delete( myStorage );
+    super.tearDown();
+  }
+
+  private File createFile( String relative ) throws IOException {
+    final File file = new File( myRoot, relative );
+    FileUtil.createParentDirs( file );
+    Files.write( file.toPath(), relative.getBytes( "UTF-8" ) );
+    return file;
+  }
+
+  /** Writes the index and reads it anew, as after a restart. */
+  private void reload() {
+    myIndex.unregisterRoot( myRoot.getPath() );
+    myIndex.registerRoot( myRoot.getPath() );
+  }
+
+  public void testEntriesSurviveSaveAndLoad() throws IOException {
+    final File file = createFile( "src/A.java" );
+    final File other = createFile( "src/B.txt" );
+    final File folder = file.getParentFile();
+    myIndex.record( file.getPath(), Status.CHECKED_OUT, "\\main\\dev\\3" );
+    myIndex.record( other.getPath(), Status.HIJACKED, "\\main\\\u0432\u0435\u0442\u043a\u0430\\1" );
+    myIndex.record( folder.getPath(), Status.CHECKED_IN, null );
+
+    reload();
+
+    final CCaseStatusIndex.Entry entry = myIndex.getValid( file.getPath() );
+    Assert.assertNotNull( entry );
+    Assert.assertEquals( Status.CHECKED_OUT, entry.status );
+    Assert.assertEquals( "\\main\\dev\\3", entry.version );
+    Assert.assertEquals( file.length(), entry.size );
+    Assert.assertEquals( file.lastModified(), entry.mtime );
+
+    final CCaseStatusIndex.Entry otherEntry = myIndex.getValid( other.getPath() );
+    Assert.assertNotNull( otherEntry );
+    Assert.assertEquals( Status.HIJACKED, otherEntry.status );
+    Assert.assertEquals( "\\main\\\u0432\u0435\u0442\u043a\u0430\\1", otherEntry.version );
+
+    myIndex.record( other.getPath(), Status.NOT_AN_ELEMENT, null );
+    reload();
+    Assert.assertNull( myIndex.getValid( other.getPath() ).version );
+
+    Assert.assertTrue( myIndex.isVersionedFolder( folder.getPath() ) );
+  }
+
+  public void testChangedFileIsNotServedAfterLoad() throws IOException {
+    final File file = createFile( "A.java" );
+    myIndex.record( file.getPath(), Status.HIJACKED, null );
+
+    reload();
+    Assert.assertTrue( file.setLastModified( file.lastModified() - 10000 ) );
+
+    Assert.assertNull( myIndex.getValid( file.getPath() ) );
+  }
+
+  public void testInvalidationBeforeLoadIsApplied() throws IOException {
+    final File inside = createFile( "dir/A.java" );
+    final File sibling = createFile( "dir-1/B.java" );
+    myIndex.record( inside.getPath(), Status.CHECKED_OUT, null );
+    myIndex.record( sibling.getPath(), Status.CHECKED_OUT, null );
+
+    reload();
+    myIndex.invalidate( inside.getParent() );
+
+    Assert.assertNull( myIndex.getValid( inside.getPath() ) );
+    Assert.assertNotNull( myIndex.getValid( sibling.getPath() ) );
+  }
+
+  public void testFolderEntriesExpire() throws IOException {
+    final File folder = createFile( "dir/A.java" ).getParentFile();
+    myIndex.record( folder.getPath(), Status.CHECKED_IN, null );
+    Assert.assertTrue( myIndex.isVersionedFolder( folder.getPath() ) );
+
+    myIndex.setFolderTimeToLive( 0 );
+    Assert.assertFalse( myIndex.isVersionedFolder( folder.getPath() ) );
+  }
+
+  public void testMissingFilesAreElementsOnly() throws IOException {
+    final File hijacked = createFile( "dir/A.java" );
+    final File privateFile = createFile( "dir/B.java" );
+    final File loaded = createFile( "dir/C.java" );
+    myIndex.record( hijacked.getPath(), Status.HIJACKED, null );
+    myIndex.record( privateFile.getPath(), Status.NOT_AN_ELEMENT, null );
+    myIndex.recordMissing( loaded.getPath(), false );
+    Assert.assertTrue( hijacked.delete() );
+    Assert.assertTrue( privateFile.delete() );
+    Assert.assertTrue( loaded.delete() );
+
+    final Set<String> missing = new HashSet<>( myIndex.getMissingFiles( myRoot.getPath() ) );
+    Assert.assertEquals( new HashSet<>( Arrays.asList( path( hijacked ), path( loaded ) ) ), missing );
+    Assert.assertEquals( Collections.singletonList( path( loaded ) ), myIndex.getMissingFiles( loaded.getPath() ) );
+  }
+
+  public void testMissingElementIsKeptUntilRestored() throws IOException {
+    final File file = createFile( "A.java" );
+    myIndex.recordMissing( file.getPath(), false );
+    Assert.assertTrue( file.delete() );
+
+    myIndex.retainFiles( myRoot.getPath(), Collections.emptySet() );
+    reload();
+    Assert.assertEquals( Collections.singletonList( path( file ) ), myIndex.getMissingFiles( myRoot.getPath() ) );
+
+    createFile( "A.java" );
+    Assert.assertNull( myIndex.getValid( file.getPath() ) );
+    Assert.assertTrue( myIndex.getMissingFiles( myRoot.getPath() ).isEmpty() );
+  }
+
+  private static String path( File file ) {
+    return FileUtil.toSystemIndependentName( file.getPath() );
+  }
+}
@@ -219,5 +219,10 @@ public class CCaseWriteableAndUnversionedTest extends PlatformTestCase {
     public boolean isCheckedOutFolder(String path) {
       return myCheckedOutFolders.contains(path);
     }
+
+    @Override
+    public boolean isIndexedVersionedFolder(String path) {
+      return false;
+    }
   }
 }
@@ -0,0 +1,212 @@
+package x;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
+import com.intellij.testFramework.fixtures.IdeaTestFixtureFactory;
+import com.intellij.util.ui.UIUtil;
+import junit.framework.Assert;
+import net.sourceforge.transparent.CleartoolExecutor;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class CleartoolExecutorTest extends PlatformTestCase {
+  private IdeaProjectTestFixture myProjectFixture;
+  private CleartoolExecutor myExecutor;
+
+  @Override
+  public void setUp() throws Exception {
+    myProjectFixture = IdeaTestFixtureFactory.getFixtureFactory().createFixtureBuilder(getClass().getSimpleName()).getFixture();
+    myProjectFixture.setUp();
+    myExecutor = new CleartoolExecutor();
+  }
+
+  @Override
+  public void tearDown() {
+    UIUtil.invokeAndWaitIfNeeded((Runnable)() -> {
+      try {
+        myProjectFixture.tearDown();
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  public void testGlobalAndPerVobLimits() throws Exception {
+    myExecutor.setLimits(3, 2);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final ConcurrentHashMap<String, AtomicInteger> runningPerVob = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, AtomicInteger> maxPerVob = new ConcurrentHashMap<>();
+
+    final List<CompletableFuture<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      for (final String vob : Arrays.asList("/vobs/a", "/vobs/b", "/vobs/c")) {
+        futures.add(myExecutor.submit(vob, () -> {
+          final AtomicInteger vobRunning = runningPerVob.computeIfAbsent(vob, key -> new AtomicInteger());
+          raise(maxRunning, running.incrementAndGet());
+          raise(maxPerVob.computeIfAbsent(vob, key -> new AtomicInteger()), vobRunning.incrementAndGet());
+          sleep(20);
+          vobRunning.decrementAndGet();
+          running.decrementAndGet();
+          return vob;
+        }));
+      }
+    }
+
+    final List<String> results = CleartoolExecutor.joinAll(futures);
+    Assert.assertEquals(24, results.size());
+    Assert.assertEquals("/vobs/a", results.get(0));
+    Assert.assertEquals("/vobs/c", results.get(23));
+    Assert.assertEquals(3, maxRunning.get());
+    for (AtomicInteger max : maxPerVob.values()) {
+      Assert.assertTrue(max.get() <= 2);
+    }
+  }
+
+  public void testOneVobDoesNotGoOverItsLimit() throws Exception {
+    myExecutor.setLimits(8, 1);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      futures.add(myExecutor.run("/vobs/a", () -> {
+        raise(maxRunning, running.incrementAndGet());
+        sleep(20);
+        running.decrementAndGet();
+      }));
+    }
+    CleartoolExecutor.joinAll(futures);
+    Assert.assertEquals(1, maxRunning.get());
+  }
+
+  public void testTasksHoldNoCommandSlots() throws Exception {
+    //  A task waiting for its command must not keep that command from
+    //  starting, even with a single slot of each kind.
+    myExecutor.setLimits(1, 1);
+    myExecutor.setTaskLimit(1);
+    final AtomicInteger runningTasks = new AtomicInteger();
+    final AtomicInteger maxTasks = new AtomicInteger();
+
+    final List<CompletableFuture<Integer>> tasks = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      final int value = i;
+      tasks.add(myExecutor.submitTask(() -> {
+        raise(maxTasks, runningTasks.incrementAndGet());
+        final Supplier<Integer> command = () -> value * 10;
+        final int result = CleartoolExecutor.joinAll(Collections.singletonList(myExecutor.submit("/vobs/a", command))).get(0);
+        runningTasks.decrementAndGet();
+        return result;
+      }));
+    }
+
+    CompletableFuture.allOf(tasks.toArray(new CompletableFuture[tasks.size()])).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(Arrays.asList(0, 10, 20, 30), CleartoolExecutor.joinAll(tasks));
+    Assert.assertEquals(1, maxTasks.get());
+  }
+
+  public void testCancelledIndicatorReachesCommands() throws Exception {
+    final ProgressIndicatorBase indicator = new ProgressIndicatorBase();
+    indicator.start();
+    final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    ProgressManager.getInstance().runProcess(() -> {
+      futures.add(myExecutor.run("/vobs/a", () -> {
+        sleep(20);
+        ProgressManager.checkCanceled();
+      }));
+    }, indicator);
+    indicator.cancel();
+
+    try {
+      CleartoolExecutor.joinAll(futures);
+      Assert.fail("cancellation was lost");
+    }
+    catch (ProcessCanceledException e) {
+      //  expected
+    }
+  }
+
+  public void testCancelledIndicatorReachesTasks() throws Exception {
+    final ProgressIndicatorBase indicator = new ProgressIndicatorBase();
+    indicator.start();
+    indicator.cancel();
+    final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    ProgressManager.getInstance().runProcess(() -> {
+      futures.add(myExecutor.submitTask(() -> {
+        ProgressManager.checkCanceled();
+        return null;
+      }));
+    }, indicator);
+
+    try {
+      CleartoolExecutor.joinAll(futures);
+      Assert.fail("cancellation was lost");
+    }
+    catch (ProcessCanceledException e) {
+      //  expected
+    }
+  }
+
+  public void testJoinAllWaitsForAllBeforeFailing() throws Exception {
+    final AtomicInteger finished = new AtomicInteger();
+    final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    futures.add(myExecutor.run("/vobs/a", () -> {
+      throw new ClearCaseException("cleartool: Error: Unable to access \"x\"");
+    }));
+    futures.add(myExecutor.run("/vobs/b", () -> {
+      sleep(50);
+      finished.incrementAndGet();
+    }));
+
+    try {
+      CleartoolExecutor.joinAll(futures);
+      Assert.fail("failure was lost");
+    }
+    catch (ClearCaseException e) {
+      Assert.assertEquals("cleartool: Error: Unable to access \"x\"", e.getMessage());
+    }
+    Assert.assertEquals(1, finished.get());
+  }
+
+  public void testUnwrap() {
+    final IllegalStateException runtime = new IllegalStateException("state");
+    Assert.assertSame(runtime, CleartoolExecutor.unwrap(runtime));
+    Assert.assertSame(runtime, CleartoolExecutor.unwrap(new CompletionException(new CompletionException(runtime))));
+
+    final RuntimeException checked = CleartoolExecutor.unwrap(new CompletionException(new IOException("disk")));
+    Assert.assertTrue(checked instanceof ClearCaseException);
+    Assert.assertEquals("disk", checked.getMessage());
+
+    //  A completion exception without a cause is all there is.
+    final CompletionException bare = new CompletionException("bare", null);
+    Assert.assertSame(bare, CleartoolExecutor.unwrap(bare));
+  }
+
+  private static void raise(AtomicInteger max, int value) {
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
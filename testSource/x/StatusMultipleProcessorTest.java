@@ -0,0 +1,118 @@
+package x;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.sourceforge.transparent.StatusMultipleProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class StatusMultipleProcessorTest extends TestCase
+{
+  private static final String FS = "~#~";
+  private static final String RS = "~##~\n";
+
+  private File myRoot;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = Files.createTempDirectory( "ls-fmt" ).toFile();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete( myRoot );
+    super.tearDown();
+  }
+
+  private String createFile( String name, boolean writable ) throws IOException {
+    final File file = new File( myRoot, name );
+    Files.write( file.toPath(), name.getBytes( "UTF-8" ) );
+    Assert.assertTrue( file.setWritable( writable ) );
+    return path( file );
+  }
+
+  private String path( String name ) {
+    return path( new File( myRoot, name ) );
+  }
+
+  private static String path( File file ) {
+    return FileUtil.toSystemIndependentName( file.getPath() );
+  }
+
+  private static String record( String path, String version ) {
+    return path + FS + version + RS;
+  }
+
+  public void testStatusesOfRequestedFiles() throws IOException {
+    final String checkedOut = createFile( "CheckedOut.java", true );
+    final String hijacked = createFile( "Hijacked.java", true );
+    final String checkedIn = createFile( "CheckedIn.java", false );
+    final String privateFile = createFile( "Private.java", true );
+    final String deleted = path( "Deleted.java" );
+    final String deletedCheckout = path( "DeletedCheckout.java" );
+
+    final StatusMultipleProcessor processor =
+      new StatusMultipleProcessor( Arrays.asList( checkedOut, hijacked, checkedIn, privateFile, deleted, deletedCheckout ) );
+    processor.parse( record( checkedOut, "/main/dev/CHECKEDOUT" ) +
+                     record( hijacked, "/main/dev/3" ) +
+                     record( checkedIn.replace( '/', '\\' ), "\\main\\7" ) +
+                     record( privateFile, "" ) +
+                     record( deleted, "/main/2" ) +
+                     record( deletedCheckout, "/main/CHECKEDOUT" ) );
+
+    Assert.assertEquals( Collections.singleton( checkedOut ), processor.getCheckoutFiles() );
+    Assert.assertTrue( processor.getHijackedFiles().contains( hijacked ) );
+    //  The read-only bit does not stop a superuser, and neither does "canWrite".
+    Assert.assertEquals( new File( checkedIn ).canWrite(), processor.getHijackedFiles().contains( checkedIn ) );
+    Assert.assertEquals( 1 + (new File( checkedIn ).canWrite() ? 1 : 0), processor.getHijackedFiles().size() );
+    Assert.assertEquals( Collections.singleton( privateFile ), processor.getUnversioned() );
+    Assert.assertEquals( new HashSet<>( Arrays.asList( deleted, deletedCheckout ) ), processor.getLocallyDeleted() );
+
+    Assert.assertEquals( "/main/dev/CHECKEDOUT", processor.getVersions().get( checkedOut ) );
+    Assert.assertEquals( "\\main\\7", processor.getVersions().get( checkedIn ) );
+    Assert.assertNull( processor.getVersions().get( privateFile ) );
+  }
+
+  public void testNoiseLinesAreSkipped() throws IOException {
+    final String hijacked = createFile( "A.java", true );
+    final StatusMultipleProcessor processor = new StatusMultipleProcessor( Collections.singletonList( hijacked ) );
+    processor.parse( "noname: Warning: Can not find a group named \"XXX\"\n" +
+                     "> cleartool ls -directory -fmt ...\n" +
+                     record( hijacked, "/main/1" ) +
+                     "\n" );
+
+    Assert.assertEquals( Collections.singleton( hijacked ), processor.getHijackedFiles() );
+    Assert.assertTrue( processor.getUnversioned().isEmpty() );
+    Assert.assertEquals( 1, processor.getVersions().size() );
+  }
+
+  public void testPathWithSeparatorIsTakenWhole() throws IOException {
+    final String checkedOut = createFile( "a~#~b.txt", true );
+    final StatusMultipleProcessor processor = new StatusMultipleProcessor( Collections.singletonList( checkedOut ) );
+    processor.parse( record( checkedOut, "/main/CHECKEDOUT" ) );
+
+    Assert.assertEquals( Collections.singleton( checkedOut ), processor.getCheckoutFiles() );
+  }
+
+  public void testRecursiveListingReportsUnrequestedElements() throws IOException {
+    final String hijacked = createFile( "B.java", true );
+    final String privateFile = createFile( "C.java", true );
+    final StatusMultipleProcessor processor = new StatusMultipleProcessor( Collections.singletonList( path( myRoot ) ) );
+    processor.setRecursive( true );
+    processor.parse( record( path( myRoot ), "/main/4" ) +
+                     record( hijacked, "/main/1" ) +
+                     record( privateFile, "" ) );
+
+    Assert.assertEquals( Collections.singleton( hijacked ), processor.getHijackedFiles() );
+    Assert.assertEquals( Collections.singleton( privateFile ), processor.getUnversioned() );
+    Assert.assertTrue( processor.getLocallyDeleted().isEmpty() );
+    Assert.assertTrue( processor.getVersions().isEmpty() );
+  }
+}
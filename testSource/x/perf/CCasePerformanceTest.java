@@ -0,0 +1,196 @@
+package x.perf;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.MockChangeListManagerGate;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsDirectoryMapping;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.annotate.FileAnnotation;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.VcsDirtyScopeImpl;
+import com.intellij.openapi.vcs.history.VcsHistorySession;
+import com.intellij.openapi.vcs.impl.ProjectLevelVcsManagerImpl;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
+import com.intellij.testFramework.fixtures.IdeaTestFixtureFactory;
+import com.intellij.testFramework.vcs.MockChangelistBuilder;
+import com.intellij.util.ui.UIUtil;
+import com.intellij.vcsUtil.VcsUtil;
+import junit.framework.Assert;
+import net.sourceforge.transparent.CleartoolRuntime;
+import net.sourceforge.transparent.History.CCaseHistoryCache;
+import net.sourceforge.transparent.TransparentVcs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * End-to-end performance harness over the fake cleartool. Disabled unless
+ * started with -Dclearcase.perf=true; view sizes are given as
+ * -Dclearcase.perf.sizes=10000,100000,1000000 and the simulated server
+ * latency (ms per command) as -Dclearcase.perf.latency=20.
+ *
+ * Every scenario reports wall time, the number of cleartool processes and
+ * commands, and the allocation; the numbers are printed to stdout.
+ */
+public class CCasePerformanceTest extends PlatformTestCase {
+  private static final String ENABLED_PROPERTY = "clearcase.perf";
+  private static final String SIZES_PROPERTY = "clearcase.perf.sizes";
+  private static final String LATENCY_PROPERTY = "clearcase.perf.latency";
+  private static final String NOISE_PROPERTY = "clearcase.perf.noise";
+  private static final String CLEARTOOL_PATH_PROPERTY = "clearcase.cleartool.path";
+
+  private static final int COMMIT_SIZE = 100;
+  private static final int HISTORY_FILES = 20;
+  private static final int ANNOTATE_FILES = 20;
+
+  private IdeaProjectTestFixture myProjectFixture;
+  private Project myProject;
+
+  @Override
+  public void setUp() throws Exception {
+    myProjectFixture = IdeaTestFixtureFactory.getFixtureFactory().createFixtureBuilder(getClass().getSimpleName()).getFixture();
+    myProjectFixture.setUp();
+    myProject = myProjectFixture.getProject();
+  }
+
+  @Override
+  public void tearDown() {
+    System.clearProperty(CLEARTOOL_PATH_PROPERTY);
+    UIUtil.invokeAndWaitIfNeeded((Runnable)() -> {
+      try {
+        myProjectFixture.tearDown();
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  public void testViewSizes() throws Exception {
+    if (!Boolean.getBoolean(ENABLED_PROPERTY)) return;
+
+    for (String size : System.getProperty(SIZES_PROPERTY, "10000").split(",")) {
+      List<PerfMeasurement> results = runScenarios(Integer.parseInt(size.trim()));
+      System.out.println("=== ClearCase plugin performance, " + size.trim() + " elements ===");
+      for (PerfMeasurement result : results) {
+        System.out.println(result);
+      }
+    }
+  }
+
+  private List<PerfMeasurement> runScenarios(int elements) throws Exception {
+    final File root = new File(myProject.getBaseDir().getPath(), "view" + elements);
+    final FakeViewBuilder builder = new FakeViewBuilder(root)
+      .elements(elements)
+      .latency(Long.getLong(LATENCY_PROPERTY, 0), 0)
+      .noise(Double.parseDouble(System.getProperty(NOISE_PROPERTY, "0")));
+    builder.build();
+    System.setProperty(CLEARTOOL_PATH_PROPERTY, builder.writeLauncher().getPath());
+
+    final VirtualFile vRoot = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(root);
+    Assert.assertNotNull(vRoot);
+    VfsUtil.markDirtyAndRefresh(false, true, true, vRoot);
+
+    final ProjectLevelVcsManagerImpl vcsManager = (ProjectLevelVcsManagerImpl)ProjectLevelVcsManager.getInstance(myProject);
+    vcsManager.setDirectoryMappings(Collections.singletonList(new VcsDirectoryMapping(vRoot.getPath(), TransparentVcs.getKey().getName())));
+    vcsManager.updateActiveVcss();
+    final TransparentVcs host = TransparentVcs.getInstance(myProject);
+
+    final List<PerfMeasurement> results = new ArrayList<>();
+
+    //  Full refresh of the view, as after the project is opened.
+    final MockChangelistBuilder changes = new MockChangelistBuilder();
+    PerfMeasurement measurement = new PerfMeasurement("getChanges (full view)", root).start();
+    final VcsDirtyScopeImpl scope = new VcsDirtyScopeImpl(host, myProject);
+    scope.addDirtyDirRecursively(VcsUtil.getFilePath(vRoot));
+    host.getChangeProvider().getChanges(scope, changes, new EmptyProgressIndicator(),
+                                        new MockChangeListManagerGate(ChangeListManager.getInstance(myProject)));
+    results.add(measurement.stop());
+
+    //  Commit dialog (default message) and the commit itself.
+    final List<Change> toCommit = new ArrayList<>();
+    for (Change change : changes.getChanges()) {
+      if (change.getAfterRevision() != null && toCommit.size() < COMMIT_SIZE) toCommit.add(change);
+    }
+    final FilePath[] commitPaths = new FilePath[toCommit.size()];
+    for (int i = 0; i < commitPaths.length; i++) {
+      commitPaths[i] = toCommit.get(i).getAfterRevision().getFile();
+    }
+    measurement = new PerfMeasurement("commit (" + toCommit.size() + " files)", root).start();
+    host.getCheckinEnvironment().getDefaultMessageFor(commitPaths);
+    final List<VcsException> errors = host.getCheckinEnvironment().commit(toCommit, "perf commit");
+    results.add(measurement.stop());
+    Assert.assertTrue(String.valueOf(errors), errors == null || errors.isEmpty());
+
+    final List<VirtualFile> files = collectElementFiles(vRoot, Math.max(HISTORY_FILES, ANNOTATE_FILES));
+
+    //  Refresh of a few edited files ("ls -fmt" over just those).
+    final VcsDirtyScopeImpl fileScope = new VcsDirtyScopeImpl(host, myProject);
+    for (VirtualFile file : files) {
+      fileScope.addDirtyFile(VcsUtil.getFilePath(file));
+    }
+    measurement = new PerfMeasurement("getChanges (" + files.size() + " dirty files)", root).start();
+    host.getChangeProvider().getChanges(fileScope, new MockChangelistBuilder(), new EmptyProgressIndicator(),
+                                        new MockChangeListManagerGate(ChangeListManager.getInstance(myProject)));
+    results.add(measurement.stop());
+
+    final List<VirtualFile> historyFiles = files.subList(0, Math.min(HISTORY_FILES, files.size()));
+    measurement = new PerfMeasurement("history (" + historyFiles.size() + " files)", root).start();
+    for (VirtualFile file : historyFiles) {
+      host.getVcsHistoryProvider().createSessionFor(VcsUtil.getFilePath(file));
+    }
+    results.add(measurement.stop());
+
+    //  The same histories again, each cached one brought up to date by
+    //  "lshistory -since"; a rejected date would leave them empty.
+    final CCaseHistoryCache historyCache = CCaseHistoryCache.getInstance();
+    historyCache.setTimeToLive(0);
+    try {
+      measurement = new PerfMeasurement("history again (" + historyFiles.size() + " files)", root).start();
+      for (VirtualFile file : historyFiles) {
+        final VcsHistorySession session = host.getVcsHistoryProvider().createSessionFor(VcsUtil.getFilePath(file));
+        Assert.assertFalse(file.getPath(), session == null || session.getRevisionList().isEmpty());
+      }
+      results.add(measurement.stop());
+    }
+    finally {
+      CleartoolRuntime.getInstance().settingsChanged();
+    }
+
+    measurement = new PerfMeasurement("annotate (" + Math.min(ANNOTATE_FILES, files.size()) + " files)", root).start();
+    for (VirtualFile file : files.subList(0, Math.min(ANNOTATE_FILES, files.size()))) {
+      final FileAnnotation annotation = host.getAnnotationProvider().annotate(file);
+      annotation.dispose();
+    }
+    results.add(measurement.stop());
+
+    return results;
+  }
+
+  private static List<VirtualFile> collectElementFiles(VirtualFile dir, int limit) {
+    final List<VirtualFile> result = new ArrayList<>();
+    final List<VirtualFile> queue = new ArrayList<>();
+    queue.add(dir);
+    while (!queue.isEmpty() && result.size() < limit) {
+      final VirtualFile current = queue.remove(0);
+      for (VirtualFile child : current.getChildren()) {
+        if (child.isDirectory()) {
+          if (!child.getName().equals(FakeVob.META_DIR)) queue.add(child);
+        }
+        else if (child.getName().startsWith("F") && result.size() < limit) {
+          result.add(child);
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,984 @@
+package x.perf;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Scriptable stand-in for cleartool working over a {@link FakeVob}; started
+ * through the launcher written by {@link FakeViewBuilder#writeLauncher()}.
+ *
+ * Emulates the subset of commands and output formats the plugin relies on:
+ * ls, lsco/lscheckout, lsprivate, describe, lshistory, annotate, get, co, ci, unco,
+ * mkelem, rmname, mv, update, lsview, lsactivity, lsproj, pwd and the
+ * interactive "-status" mode. "-fmt" strings support the conversions used
+ * by the plugin. Output may be slowed down and interleaved with "Warning:"
+ * noise lines to reproduce the behaviour of a loaded server.
+ */
+public class FakeCleartool
+{
+  static final String ROOT_PROPERTY = "fakecc.root";
+  static final String CHECKOUT_PROPERTY = "fakecc.checkoutPermille";
+  static final String VERSIONS_PROPERTY = "fakecc.maxVersions";
+  static final String LINES_PROPERTY = "fakecc.linesPerFile";
+  static final String LATENCY_PROPERTY = "fakecc.latency";
+  static final String PATH_LATENCY_PROPERTY = "fakecc.latencyPerPath";
+  static final String NOISE_PROPERTY = "fakecc.noise";
+
+  private static final String NOISE_LINE = "noname: Warning: Can not find a group named \"XXX\"";
+  private static final String DATE = "04-Feb-09.17:51:32";
+  //  History events: the element and its branch are created at HISTORY_START,
+  //  version N an hour later than version N-1.
+  private static final LocalDateTime HISTORY_START = LocalDateTime.of( 2009, 2, 4, 17, 51, 32 );
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern( "dd-MMM-yy.HH:mm:ss", Locale.ENGLISH );
+  private static final DateTimeFormatter NUMERIC_DATE_FORMAT = DateTimeFormatter.ofPattern( "yyyyMMdd.HHmmss" );
+  private static final DateTimeFormatter SINCE_FORMAT = DateTimeFormatter.ofPattern( "d-MMM-yyyy.HH:mm:ss", Locale.ENGLISH );
+
+  private final FakeVob vob;
+  private final long latency;
+  private final long latencyPerPathMicros;
+  private final double noise;
+  private final Random random = new Random( 17 );
+  private File cwd = new File( System.getProperty( "user.dir" ) );
+
+  private PrintStream out;
+  private PrintStream err;
+  private int reportedPaths;
+
+  private FakeCleartool( FakeVob vob, long latency, long latencyPerPathMicros, double noise )
+  {
+    this.vob = vob;
+    this.latency = latency;
+    this.latencyPerPathMicros = latencyPerPathMicros;
+    this.noise = noise;
+  }
+
+  public static void main( String[] args ) throws IOException
+  {
+    FakeVob vob = new FakeVob( new File( System.getProperty( ROOT_PROPERTY ) ),
+                               Integer.getInteger( CHECKOUT_PROPERTY, 5 ),
+                               Integer.getInteger( VERSIONS_PROPERTY, 12 ),
+                               Integer.getInteger( LINES_PROPERTY, 40 ) );
+    FakeCleartool tool = new FakeCleartool( vob, Long.getLong( LATENCY_PROPERTY, 0 ), Long.getLong( PATH_LATENCY_PROPERTY, 0 ),
+                                            Double.parseDouble( System.getProperty( NOISE_PROPERTY, "0" ) ) );
+    vob.count( "P" );
+
+    PrintStream stdout = new PrintStream( new BufferedOutputStream( new FileOutputStream( FileDescriptor.out ) ), false, "UTF-8" );
+    PrintStream stderr = new PrintStream( new FileOutputStream( FileDescriptor.err ), true, "UTF-8" );
+    int exitCode;
+    if( args.length == 1 && "-status".equals( args[ 0 ] ) )
+    {
+      exitCode = tool.interactive( stdout );
+    }
+    else
+    {
+      exitCode = tool.execute( args, stdout, stderr );
+    }
+    stdout.flush();
+    System.exit( exitCode );
+  }
+
+  /**
+   * Interactive mode: one command per line, every command is followed by
+   * the "Command N returned status S" line; errors go to stdout as well
+   * since this is what the plugin sees with the merged streams.
+   */
+  private int interactive( PrintStream stdout ) throws IOException
+  {
+    BufferedReader in = new BufferedReader( new InputStreamReader( System.in, StandardCharsets.UTF_8 ) );
+    String line;
+    int number = 0;
+    while( (line = in.readLine()) != null )
+    {
+      String[] args = tokenize( line );
+      if( args.length == 0 )
+        continue;
+      if( "quit".equals( args[ 0 ] ) || "exit".equals( args[ 0 ] ) )
+        break;
+
+      int status = execute( args, stdout, stdout );
+      stdout.println( "Command " + (++number) + " returned status " + status );
+      stdout.flush();
+    }
+    return 0;
+  }
+
+  static String[] tokenize( String line )
+  {
+    List<String> result = new ArrayList<>();
+    StringBuilder current = null;
+    boolean quoted = false;
+    for( int i = 0; i < line.length(); i++ )
+    {
+      char c = line.charAt( i );
+      if( c == '\\' && quoted && i + 1 < line.length() && line.charAt( i + 1 ) == '"' )
+      {
+        current.append( '"' );
+        i++;
+      }
+      else if( c == '"' )
+      {
+        if( current == null ) current = new StringBuilder();
+        quoted = !quoted;
+      }
+      else if( Character.isWhitespace( c ) && !quoted )
+      {
+        if( current != null ) result.add( current.toString() );
+        current = null;
+      }
+      else
+      {
+        if( current == null ) current = new StringBuilder();
+        current.append( c );
+      }
+    }
+    if( current != null ) result.add( current.toString() );
+    return result.toArray( new String[ result.size() ] );
+  }
+
+  private int execute( String[] args, PrintStream out, PrintStream err )
+  {
+    this.out = out;
+    this.err = err;
+    reportedPaths = 0;
+    vob.count( "C " + args[ 0 ] );
+    try
+    {
+      vob.reload();
+      int status = dispatch( args[ 0 ], new Options( args ) );
+      delay();
+      return status;
+    }
+    catch( Exception e )
+    {
+      err.println( "cleartool: Error: " + e.getMessage() );
+      return 1;
+    }
+  }
+
+  private void delay()
+  {
+    long micros = latency * 1000 + latencyPerPathMicros * reportedPaths;
+    if( micros <= 0 )
+      return;
+    try
+    {
+      Thread.sleep( micros / 1000, (int)(micros % 1000) * 1000 );
+    }
+    catch( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private int dispatch( String command, Options options ) throws IOException
+  {
+    switch( command )
+    {
+      case "ls":          return ls( options );
+      case "lsco":
+      case "lsch":
+      case "lscheckout":  return lscheckout( options );
+      case "lsprivate":
+      case "lspri":       return lsprivate( options );
+      case "describe":
+      case "desc":        return describe( options );
+      case "lshistory":
+      case "lshis":       return lshistory( options );
+      case "annotate":    return annotate( options );
+      case "get":         return get( options );
+      case "co":
+      case "checkout":    return checkout( options );
+      case "ci":
+      case "checkin":     return checkin( options );
+      case "unco":
+      case "uncheckout":  return uncheckout( options );
+      case "mkelem":      return mkelem( options );
+      case "rmname":      return rmname( options );
+      case "mv":
+      case "move":        return move( options );
+      case "update":      return update( options );
+      case "lsview":      return lsview();
+      case "lsactivity":  return 0;
+      case "lsproj":
+        err.println( "cleartool: Error: Not a UCM PVOB: \"" + vob.getRoot() + "\"" );
+        return 1;
+      case "pwd":
+        out.println( cwd.getAbsolutePath() );
+        return 0;
+      case "hostinfo":
+        out.println( "localhost: ClearCase 9.0.0.0 (Linux)" );
+        return 0;
+      default:
+        err.println( "cleartool: Error: Unrecognized command: \"" + command + "\"" );
+        return 1;
+    }
+  }
+
+  //---------------------------------------------------------------------------
+  //  Listing commands
+  //---------------------------------------------------------------------------
+
+  private int ls( Options options )
+  {
+    boolean recurse = options.has( "-recurse", "-r" );
+    boolean directory = options.has( "-directory", "-d" );
+    boolean viewOnly = options.has( "-view_only", "-vie" );
+    String format = options.value( "-fmt" );
+    int status = 0;
+    for( String path : options.pathsOrCwd() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+      {
+        status = 1;
+        continue;
+      }
+      if( !file.exists() && vob.describe( file ).state == FakeVob.State.PRIVATE )
+      {
+        err.println( "cleartool: Error: Unable to access \"" + path + "\": No such file or directory." );
+        status = 1;
+        continue;
+      }
+
+      if( directory || file.isFile() )
+        lsOne( path, file, viewOnly, format );
+      else
+        walk( path, file, recurse, ( p, f ) -> lsOne( p, f, viewOnly, format ) );
+    }
+    return status;
+  }
+
+  private void lsOne( String path, File file, boolean viewOnly, String format )
+  {
+    FakeVob.Element element = vob.describe( file );
+    if( format != null )
+    {
+      if( !viewOnly || element.state != FakeVob.State.CHECKED_IN || !file.exists() )
+        print( expand( format, path, file, element, element.latest ) );
+      return;
+    }
+    String version = "@@/main/" + element.latest;
+    switch( element.state )
+    {
+      case PRIVATE:
+        println( path );
+        break;
+      case CHECKED_OUT:
+        println( path + "@@/main/CHECKEDOUT from /main/" + element.latest + (file.exists() ? "" : " [checkedout but removed]") +
+                 "             Rule: CHECKEDOUT" );
+        break;
+      case HIJACKED:
+        println( path + version + " [hijacked]        Rule: /main/LATEST" );
+        break;
+      case CHECKED_IN:
+        if( !file.exists() )
+          println( path + version + " [loaded but missing]             Rule: /main/LATEST" );
+        else if( !viewOnly )
+          println( path + version + "                     Rule: /main/LATEST" );
+        break;
+      default:
+        break;
+    }
+  }
+
+  private int lscheckout( Options options )
+  {
+    boolean recurse = options.has( "-recurse", "-r" );
+    boolean directory = options.has( "-directory", "-d" );
+    boolean shortFormat = options.has( "-short", "-s" );
+    String format = options.value( "-fmt" );
+
+    for( String path : options.pathsOrCwd() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+        return 1;
+
+      Walker printer = ( p, f ) -> {
+        FakeVob.Element element = vob.describe( f );
+        if( element.state != FakeVob.State.CHECKED_OUT )
+          return;
+        if( format != null )
+          print( expand( format, p, f, element, element.latest ) );
+        else if( shortFormat )
+          println( p );
+        else
+          println( DATE + "  " + FakeVob.USER + "    checkout version \"" + p + "\" from /main/" + element.latest +
+                   " (" + (element.reserved ? "reserved" : "unreserved") + ")" );
+      };
+      if( directory || file.isFile() )
+        printer.visit( path, file );
+      else
+        walk( path, file, recurse, printer );
+    }
+    return 0;
+  }
+
+  /**
+   * View-private objects and checkouts of the whole view (the VOB with
+   * "-invob", which is the same here) with absolute paths; checkouts are
+   * annotated unless "-short" is given.
+   */
+  private int lsprivate( Options options )
+  {
+    boolean checkoutsOnly = options.has( "-co" );
+    boolean othersOnly = options.has( "-other" );
+    boolean shortFormat = options.has( "-short", "-s" );
+    String vobSelector = options.value( "-invob" );
+    if( vobSelector != null )
+    {
+      String path = vobSelector.startsWith( "vob:" ) ? vobSelector.substring( 4 ) : vobSelector;
+      if( !checkInVob( path, resolve( path ) ) )
+        return 1;
+    }
+
+    walk( vob.getRoot().getAbsolutePath(), vob.getRoot(), true, ( p, f ) -> {
+      FakeVob.State state = vob.describe( f ).state;
+      if( state == FakeVob.State.PRIVATE && !checkoutsOnly )
+        println( p );
+      else if( state == FakeVob.State.CHECKED_OUT && !othersOnly )
+        println( shortFormat ? p : p + " [checkedout]" );
+    } );
+    return 0;
+  }
+
+  private int describe( Options options )
+  {
+    String format = options.value( "-fmt" );
+    int status = 0;
+    for( String arg : options.paths() )
+    {
+      String path = arg;
+      int requested = -1;
+      int versionIdx = arg.indexOf( "@@" );
+      if( versionIdx != -1 )
+      {
+        path = arg.substring( 0, versionIdx );
+        requested = parseVersion( arg.substring( versionIdx + 2 ) );
+      }
+
+      File file = resolve( path );
+      if( !checkInVob( arg, file ) )
+      {
+        status = 1;
+        continue;
+      }
+      FakeVob.Element element = vob.describe( file );
+      int version = requested >= 0 ? requested : element.latest;
+      if( format != null )
+      {
+        print( expand( format, path, file, element, version ) );
+        continue;
+      }
+
+      if( element.state == FakeVob.State.PRIVATE )
+      {
+        println( "View private file \"" + arg + "\"" );
+        println( "  Modified: " + DATE );
+        continue;
+      }
+
+      boolean checkedOut = element.state == FakeVob.State.CHECKED_OUT && requested < 0;
+      if( checkedOut )
+      {
+        println( "version \"" + path + "@@/main/CHECKEDOUT\" from /main/" + element.latest + " (" +
+                 (element.reserved ? "reserved" : "unreserved") + ")" );
+        println( "  checked out " + DATE + " by " + FakeVob.USER );
+        println( "  by view: " + FakeVob.VIEW_TAG );
+        println( "  \"" + element.comment + "\"" );
+      }
+      else
+      {
+        println( "version \"" + path + "@@/main/" + version + "\"" );
+        println( "  created " + DATE + " by " + FakeVob.USER );
+        println( "  \"" + getComment( vob.relativePath( file ), version ) + "\"" );
+      }
+      println( "  element type: text_file" );
+      int predecessor = checkedOut ? element.latest : version - 1;
+      if( predecessor >= 0 )
+        println( "  predecessor version: /main/" + predecessor );
+    }
+    return status;
+  }
+
+  private int lshistory( Options options )
+  {
+    String format = options.value( "-fmt" );
+    boolean shortFormat = options.has( "-short", "-s" );
+    String lastValue = options.value( "-last" );
+    int last = lastValue == null ? Integer.MAX_VALUE : Integer.parseInt( lastValue );
+    String sinceValue = options.value( "-since" );
+    LocalDateTime since = null;
+    if( sinceValue != null )
+    {
+      try
+      {
+        since = LocalDateTime.parse( unquote( sinceValue ), SINCE_FORMAT );
+      }
+      catch( DateTimeParseException e )
+      {
+        err.println( "cleartool: Error: Unable to parse date-time: \"" + sinceValue + "\"." );
+        return 1;
+      }
+    }
+
+    for( String arg : options.paths() )
+    {
+      String path = arg.endsWith( "@@" ) ? arg.substring( 0, arg.length() - 2 ) : arg;
+      File file = resolve( path );
+      if( !checkInVob( arg, file ) )
+        return 1;
+      FakeVob.Element element = vob.describe( file );
+      if( element.state == FakeVob.State.PRIVATE )
+      {
+        err.println( "cleartool: Error: Not a vob object: \"" + arg + "\"." );
+        return 1;
+      }
+
+      //  Newest first: versions, then the branch and the element creation.
+      List<String[]> events = new ArrayList<>();
+      if( element.state == FakeVob.State.CHECKED_OUT )
+        events.add( new String[] { "checkout version", "@@/main/CHECKEDOUT", "", String.valueOf( element.latest + 1 ) } );
+      for( int v = element.latest; v >= 0; v-- )
+        events.add( new String[] { "create version", "@@/main/" + v, String.valueOf( v ), String.valueOf( v ) } );
+      events.add( new String[] { "create branch", "@@/main", "", "0" } );
+      events.add( new String[] { "create file element", "@@", "", "0" } );
+
+      for( int i = 0; i < events.size() && i < last; i++ )
+      {
+        String[] event = events.get( i );
+        LocalDateTime date = HISTORY_START.plusHours( Integer.parseInt( event[ 3 ] ) );
+        if( since != null && date.isBefore( since ) )
+          break;
+
+        String version = path + event[ 1 ];
+        if( format != null )
+        {
+          int v = event[ 2 ].isEmpty() ? 0 : Integer.parseInt( event[ 2 ] );
+          print( expandHistory( format, version, event[ 0 ], date, vob.relativePath( file ), v ) );
+        }
+        else if( shortFormat )
+          println( version );
+        else
+          println( DATE_FORMAT.format( date ) + "  " + FakeVob.USER + "    " + event[ 0 ] + " \"" + version + "\"" );
+      }
+    }
+    return 0;
+  }
+
+  private int annotate( Options options ) throws IOException
+  {
+    String format = unquote( options.value( "-fmt" ) );
+    for( String path : options.paths() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+        return 1;
+      FakeVob.Element element = vob.describe( file );
+      if( element.state == FakeVob.State.PRIVATE )
+      {
+        err.println( "cleartool: Error: Not a vob object: \"" + path + "\"." );
+        return 1;
+      }
+
+      String rel = vob.relativePath( file );
+      List<String> lines = Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+      for( int i = 0; i < lines.size(); i++ )
+      {
+        int version = vob.lineVersion( rel, element.latest, i );
+        String prefix = format == null ? DATE + " " + FakeVob.USER + " /main/" + version + " | " :
+                        expand( format, path, file, element, version );
+        println( prefix + lines.get( i ) );
+      }
+    }
+    return 0;
+  }
+
+  private int get( Options options ) throws IOException
+  {
+    String target = options.value( "-to" );
+    for( String arg : options.paths() )
+    {
+      int versionIdx = arg.indexOf( "@@" );
+      String path = versionIdx == -1 ? arg : arg.substring( 0, versionIdx );
+      File file = resolve( path );
+      if( !checkInVob( arg, file ) )
+        return 1;
+      FakeVob.Element element = vob.describe( file );
+      int version = versionIdx == -1 ? element.latest : parseVersion( arg.substring( versionIdx + 2 ) );
+      Files.write( new File( target ).toPath(), vob.content( vob.relativePath( file ), version ).getBytes( StandardCharsets.UTF_8 ) );
+    }
+    return 0;
+  }
+
+  private int lsview()
+  {
+    println( "Tag: " + FakeVob.VIEW_TAG );
+    println( "  Global path: " + vob.getRoot().getAbsolutePath() );
+    println( "  Server host: localhost" );
+    println( "  Region: fake" );
+    println( "  Active: YES" );
+    println( "  View tag uuid:7d3b1e10.8f2a11dd.9a3c.00:16:35:7f:42:b1" );
+    println( "View on host: localhost" );
+    println( "View attributes: snapshot" );
+    return 0;
+  }
+
+  //---------------------------------------------------------------------------
+  //  Mutating commands
+  //---------------------------------------------------------------------------
+
+  private int checkout( Options options ) throws IOException
+  {
+    boolean reserved = !options.has( "-unreserved", "-unr" );
+    String comment = options.comment();
+    for( String path : options.paths() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+        return 1;
+      FakeVob.Element element = vob.describe( file );
+      if( element.state == FakeVob.State.PRIVATE )
+      {
+        err.println( "cleartool: Error: Not a vob object: \"" + path + "\"." );
+        return 1;
+      }
+      if( element.state == FakeVob.State.CHECKED_OUT )
+      {
+        err.println( "cleartool: Error: Element \"" + path + "\" is already checked out to view \"" + FakeVob.VIEW_TAG + "\"." );
+        return 1;
+      }
+      element.state = FakeVob.State.CHECKED_OUT;
+      element.reserved = reserved;
+      element.comment = comment;
+      vob.record( file, element );
+      file.setWritable( true );
+      println( "Checked out \"" + path + "\" from version \"/main/" + element.latest + "\"." );
+    }
+    return 0;
+  }
+
+  private int checkin( Options options ) throws IOException
+  {
+    boolean identical = options.has( "-identical", "-ide" );
+    String comment = options.comment();
+    for( String path : options.paths() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+        return 1;
+      FakeVob.Element element = vob.describe( file );
+      if( element.state != FakeVob.State.CHECKED_OUT )
+      {
+        err.println( "cleartool: Error: Element \"" + path + "\" is not checked out." );
+        return 1;
+      }
+      String rel = vob.relativePath( file );
+      if( !identical && file.isFile() &&
+          new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ).equals( vob.content( rel, element.latest ) ) )
+      {
+        err.println( "cleartool: Error: By default, won't create version with data identical to predecessor." );
+        return 1;
+      }
+
+      element.state = FakeVob.State.CHECKED_IN;
+      element.latest++;
+      element.comment = comment.isEmpty() ? element.comment : comment;
+      vob.record( file, element );
+      if( file.isFile() )
+        Files.write( file.toPath(), vob.content( rel, element.latest ).getBytes( StandardCharsets.UTF_8 ) );
+      file.setWritable( false );
+      println( "Checked in \"" + path + "\" version \"/main/" + element.latest + "\"." );
+    }
+    return 0;
+  }
+
+  private int uncheckout( Options options ) throws IOException
+  {
+    boolean keep = options.has( "-keep" );
+    for( String path : options.paths() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+        return 1;
+      FakeVob.Element element = vob.describe( file );
+      if( element.state != FakeVob.State.CHECKED_OUT )
+      {
+        err.println( "cleartool: Error: Element \"" + path + "\" is not checked out." );
+        return 1;
+      }
+      if( keep && file.isFile() )
+        Files.copy( file.toPath(), new File( file.getPath() + ".keep" ).toPath() );
+
+      element.state = FakeVob.State.CHECKED_IN;
+      vob.record( file, element );
+      if( file.isFile() )
+      {
+        file.setWritable( true );
+        Files.write( file.toPath(), vob.content( vob.relativePath( file ), element.latest ).getBytes( StandardCharsets.UTF_8 ) );
+      }
+      file.setWritable( false );
+      println( "Checkout cancelled for \"" + path + "\"." );
+    }
+    return 0;
+  }
+
+  private int mkelem( Options options ) throws IOException
+  {
+    String comment = options.comment();
+    for( String path : options.paths() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+        return 1;
+      if( vob.describe( file ).state != FakeVob.State.PRIVATE )
+      {
+        err.println( "cleartool: Error: Entry named \"" + file.getName() + "\" already exists." );
+        return 1;
+      }
+      FakeVob.Element element = new FakeVob.Element();
+      element.state = FakeVob.State.CHECKED_OUT;
+      element.reserved = true;
+      element.latest = 0;
+      element.comment = comment;
+      vob.record( file, element );
+      println( "Created element \"" + path + "\" (type \"" + (file.isDirectory() ? "directory" : "text_file") + "\")." );
+      println( "Checked out \"" + path + "\" from version \"/main/0\"." );
+    }
+    return 0;
+  }
+
+  private int rmname( Options options ) throws IOException
+  {
+    for( String path : options.paths() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+        return 1;
+      FakeVob.Element element = vob.describe( file );
+      element.state = FakeVob.State.REMOVED;
+      vob.record( file, element );
+      if( file.exists() )
+      {
+        file.setWritable( true );
+        Files.walk( file.toPath() ).sorted( Comparator.reverseOrder() ).forEach( p -> p.toFile().delete() );
+      }
+      println( "Removed \"" + path + "\"." );
+    }
+    return 0;
+  }
+
+  private int move( Options options ) throws IOException
+  {
+    List<String> paths = options.paths();
+    if( paths.size() != 2 )
+    {
+      err.println( "cleartool: Error: Usage: move source target" );
+      return 1;
+    }
+    File source = resolve( paths.get( 0 ) );
+    File target = resolve( paths.get( 1 ) );
+    if( !checkInVob( paths.get( 0 ), source ) || !checkInVob( paths.get( 1 ), target ) )
+      return 1;
+
+    FakeVob.Element element = vob.describe( source );
+    FakeVob.Element removed = new FakeVob.Element();
+    removed.state = FakeVob.State.REMOVED;
+    vob.record( source, removed );
+    vob.record( target, element );
+    if( source.exists() && !source.renameTo( target ) )
+    {
+      err.println( "cleartool: Error: Unable to rename \"" + paths.get( 0 ) + "\"." );
+      return 1;
+    }
+    println( "Moved \"" + paths.get( 0 ) + "\" to \"" + paths.get( 1 ) + "\"." );
+    return 0;
+  }
+
+  private int update( Options options ) throws IOException
+  {
+    for( String path : options.pathsOrCwd() )
+    {
+      File file = resolve( path );
+      if( !checkInVob( path, file ) )
+        return 1;
+      println( "Processing dir \"" + path + "\"." );
+      walk( path, file, true, ( p, f ) -> {
+        FakeVob.Element element = vob.describe( f );
+        if( element.state == FakeVob.State.HIJACKED )
+          println( "Keeping hijacked object \"" + p + "\" - base \"/main/" + element.latest + "\"." );
+      } );
+      println( "End dir \"" + path + "\"." );
+      println( "Done loading \"" + path + "\" (0 objects, copied 0 KB)." );
+      println( "Log has been written to \"" + vob.getRoot().getAbsolutePath() + File.separator + "update.updt\"." );
+    }
+    return 0;
+  }
+
+  //---------------------------------------------------------------------------
+  //  Helpers
+  //---------------------------------------------------------------------------
+
+  private interface Walker
+  {
+    void visit( String path, File file );
+  }
+
+  /**
+   * Lists the folder contents (recursively if asked), element names are
+   * printed with the same prefix the folder was given with.
+   */
+  private void walk( String path, File dir, boolean recurse, Walker walker )
+  {
+    File[] children = dir.listFiles();
+    if( children == null )
+      return;
+    Arrays.sort( children );
+    for( File child : children )
+    {
+      if( child.getName().equals( FakeVob.META_DIR ) )
+        continue;
+      String childPath = path + (path.endsWith( "/" ) || path.endsWith( File.separator ) ? "" : File.separator) + child.getName();
+      walker.visit( childPath, child );
+      if( recurse && child.isDirectory() )
+        walk( childPath, child, true, walker );
+    }
+  }
+
+  private boolean checkInVob( String path, File file )
+  {
+    if( vob.isUnderRoot( file ) )
+      return true;
+    err.println( "cleartool: Error: Pathname is not within a VOB: \"" + path + "\"" );
+    return false;
+  }
+
+  private File resolve( String path )
+  {
+    File file = new File( path );
+    return file.isAbsolute() ? file : new File( cwd, path );
+  }
+
+  private static int parseVersion( String version )
+  {
+    String last = version.substring( version.lastIndexOf( version.contains( "/" ) ? '/' : '\\' ) + 1 );
+    try
+    {
+      return Integer.parseInt( last );
+    }
+    catch( NumberFormatException e )
+    {
+      return 0;
+    }
+  }
+
+  private static String getComment( String rel, int version )
+  {
+    //  Every third comment spans several lines.
+    return version % 3 == 0 ? "Change " + version + " of " + rel + "\nrelated issues:\n0 - scr" + version :
+           "Change " + version + " of " + rel;
+  }
+
+  private void println( String line )
+  {
+    print( line + "\n" );
+  }
+
+  private void print( String text )
+  {
+    if( noise > 0 && random.nextDouble() < noise )
+      out.println( NOISE_LINE );
+    out.print( text );
+    reportedPaths++;
+  }
+
+  private static String unquote( String s )
+  {
+    if( s != null && s.length() > 1 && s.startsWith( "\"" ) && s.endsWith( "\"" ) )
+      return s.substring( 1, s.length() - 1 );
+    return s;
+  }
+
+  private String expandHistory( String format, String version, String event, LocalDateTime date, String rel, int v )
+  {
+    StringBuilder buf = new StringBuilder();
+    expand( unquote( format ), buf, ( conversion, width ) -> {
+      switch( conversion )
+      {
+        case "d":
+        case "Sd":  return DATE_FORMAT.format( date );
+        case "Nd":  return NUMERIC_DATE_FORMAT.format( date );
+        case "u":
+        case "Fu":  return FakeVob.USER;
+        case "e":   return event;
+        case "l":   return v % 5 == 0 && event.equals( "create version" ) ? "(REL_" + v + ")" : "";
+        case "n":   return version;
+        case "c":
+        case "Nc":  return event.equals( "create version" ) ? getComment( rel, v ) : "";
+        default:    return "";
+      }
+    } );
+    return buf.toString();
+  }
+
+  private String expand( String format, String path, File file, FakeVob.Element element, int version )
+  {
+    StringBuilder buf = new StringBuilder();
+    boolean checkedOut = element.state == FakeVob.State.CHECKED_OUT;
+    expand( unquote( format ), buf, ( conversion, width ) -> {
+      switch( conversion )
+      {
+        case "n":
+        case "En":  return path;
+        case "Xn":  return path + "@@/main/" + (checkedOut ? "CHECKEDOUT" : String.valueOf( version ));
+        case "Vn":  return element.state == FakeVob.State.PRIVATE ? "" :
+                           "/main/" + (checkedOut ? "CHECKEDOUT" : String.valueOf( version ));
+        case "PVn": return "/main/" + element.latest;
+        case "Rf":  return checkedOut ? (element.reserved ? "reserved" : "unreserved") : "";
+        case "u":
+        case "Fu":  return FakeVob.USER;
+        case "d":
+        case "Sd":  return DATE;
+        case "c":
+        case "Nc":  return checkedOut ? element.comment : getComment( vob.relativePath( file ), version );
+        case "[activity]p": return "";
+        default:    return "";
+      }
+    } );
+    return buf.toString();
+  }
+
+  private interface Conversions
+  {
+    String value( String conversion, String width );
+  }
+
+  /**
+   * Expands "-fmt" strings: "%[-][width][.precision]conversion" and the
+   * escapes "\n", "\t", "\\".
+   */
+  static void expand( String format, StringBuilder buf, Conversions conversions )
+  {
+    for( int i = 0; i < format.length(); i++ )
+    {
+      char c = format.charAt( i );
+      if( c == '\\' && i + 1 < format.length() )
+      {
+        char next = format.charAt( ++i );
+        buf.append( next == 'n' ? '\n' : next == 't' ? '\t' : next );
+      }
+      else if( c == '%' && i + 1 < format.length() )
+      {
+        int start = ++i;
+        while( i < format.length() && "-.0123456789".indexOf( format.charAt( i ) ) != -1 )
+          i++;
+        String width = format.substring( start, i );
+
+        int convStart = i;
+        if( i < format.length() && format.charAt( i ) == '[' )
+        {
+          i = format.indexOf( ']', i ) + 1;
+          i++;
+        }
+        else
+        {
+          while( i < format.length() && Character.isUpperCase( format.charAt( i ) ) )
+            i++;
+          i++;
+        }
+        i = Math.min( i, format.length() );
+        String value = conversions.value( format.substring( convStart, i ), width );
+        buf.append( applyWidth( value, width ) );
+        i--;
+      }
+      else
+        buf.append( c );
+    }
+  }
+
+  private static String applyWidth( String value, String width )
+  {
+    if( width.isEmpty() )
+      return value;
+    boolean left = width.startsWith( "-" );
+    String spec = left ? width.substring( 1 ) : width;
+    int dot = spec.indexOf( '.' );
+    int min = dot == -1 ? parse( spec ) : parse( spec.substring( 0, dot ) );
+    int max = dot == -1 ? Integer.MAX_VALUE : parse( spec.substring( dot + 1 ) );
+    if( value.length() > max )
+      value = value.substring( 0, max );
+    StringBuilder buf = new StringBuilder( value );
+    while( buf.length() < min )
+    {
+      if( left ) buf.append( ' ' );
+      else buf.insert( 0, ' ' );
+    }
+    return buf.toString();
+  }
+
+  private static int parse( String s )
+  {
+    return s.isEmpty() ? 0 : Integer.parseInt( s );
+  }
+
+  /**
+   * Command line options: switches, switches with a value and the paths.
+   */
+  private class Options
+  {
+    private final Set<String> switches = new HashSet<>();
+    private final Map<String, String> values = new HashMap<>();
+    private final List<String> paths = new ArrayList<>();
+
+    Options( String[] args )
+    {
+      Set<String> withValue = new HashSet<>( Arrays.asList( "-fmt", "-c", "-comment", "-to", "-out", "-last", "-since",
+                                                            "-branch", "-eltype", "-view", "-cfile", "-invob" ) );
+      for( int i = 1; i < args.length; i++ )
+      {
+        String arg = args[ i ];
+        if( arg.startsWith( "-" ) && arg.length() > 1 )
+        {
+          if( withValue.contains( arg ) && i + 1 < args.length )
+            values.put( arg, args[ ++i ] );
+          else
+            switches.add( arg );
+        }
+        else
+          paths.add( arg );
+      }
+    }
+
+    boolean has( String... names )
+    {
+      for( String name : names )
+      {
+        if( switches.contains( name ) )
+          return true;
+      }
+      return false;
+    }
+
+    String value( String name )  {  return values.get( name );  }
+
+    String comment()
+    {
+      String comment = values.get( "-c" );
+      if( comment == null )
+        comment = values.get( "-comment" );
+      return comment == null ? "" : unquote( comment );
+    }
+
+    List<String> paths()  {  return paths;  }
+
+    List<String> pathsOrCwd()
+    {
+      return paths.isEmpty() ? Collections.singletonList( cwd.getAbsolutePath() ) : paths;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package x.perf;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Creates on disk a snapshot view of the synthetic {@link FakeVob} and the
+ * script which starts {@link FakeCleartool} over it.
+ *
+ * Layout: folders "D<n>" with up to {@link #myFilesPerFolder} files
+ * "F<n>.java" each, nested so that no folder has more than
+ * {@link #myFoldersPerFolder} subfolders; plus some view-private files.
+ */
+public class FakeViewBuilder
+{
+  private final File myRoot;
+  private int myElements = 10000;
+  private int myFilesPerFolder = 50;
+  private int myFoldersPerFolder = 20;
+  private int myCheckoutPermille = 5;
+  private int myHijackPermille = 2;
+  private int myPrivatePermille = 3;
+  private int myMaxVersions = 12;
+  private int myLinesPerFile = 40;
+  private long myLatency;
+  private long myLatencyPerPathMicros;
+  private double myNoise;
+
+  public FakeViewBuilder( File root )
+  {
+    myRoot = root;
+  }
+
+  public FakeViewBuilder elements( int count )              {  myElements = count;  return this;  }
+  public FakeViewBuilder checkedOutPermille( int permille ) {  myCheckoutPermille = permille;  return this;  }
+  public FakeViewBuilder hijackedPermille( int permille )   {  myHijackPermille = permille;  return this;  }
+  public FakeViewBuilder privatePermille( int permille )    {  myPrivatePermille = permille;  return this;  }
+  public FakeViewBuilder maxVersions( int count )           {  myMaxVersions = count;  return this;  }
+  public FakeViewBuilder linesPerFile( int count )          {  myLinesPerFile = count;  return this;  }
+
+  /**
+   * @param millis            delay of every command, models the server round trip.
+   * @param perPathMicros     additional delay for every path a command reports.
+   */
+  public FakeViewBuilder latency( long millis, long perPathMicros )
+  {
+    myLatency = millis;
+    myLatencyPerPathMicros = perPathMicros;
+    return this;
+  }
+
+  /**
+   * @param probability share of output lines preceded with a "Warning:" line,
+   *                    as cleartool prints them when e.g. a group can not be found.
+   */
+  public FakeViewBuilder noise( double probability )  {  myNoise = probability;  return this;  }
+
+  public FakeVob getVob()
+  {
+    return new FakeVob( myRoot, myCheckoutPermille, myMaxVersions, myLinesPerFile );
+  }
+
+  public void build() throws IOException
+  {
+    FileUtil.delete( myRoot );
+    myRoot.mkdirs();
+    FakeVob vob = getVob();
+
+    int created = 0;
+    int folder = 0;
+    while( created < myElements )
+    {
+      File dir = new File( myRoot, getFolderPath( folder++ ) );
+      dir.mkdirs();
+      for( int i = 0; i < myFilesPerFolder && created < myElements; i++, created++ )
+      {
+        File file = new File( dir, "F" + created + ".java" );
+        String rel = vob.relativePath( file );
+        FakeVob.State state = vob.initialState( rel, false );
+        int latest = FakeVob.hash( rel ) % Math.max( 1, myMaxVersions );
+
+        String content = vob.content( rel, latest );
+        if( state == FakeVob.State.CHECKED_OUT )
+          content += "// modified in the view\n";
+        Files.write( file.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+
+        boolean hijacked = state == FakeVob.State.CHECKED_IN && isHijacked( rel );
+        if( hijacked )
+          Files.write( file.toPath(), (content + "// hijacked\n").getBytes( StandardCharsets.UTF_8 ) );
+        file.setWritable( state == FakeVob.State.CHECKED_OUT || hijacked );
+
+        if( (FakeVob.hash( rel + "#private" ) % 1000) < myPrivatePermille )
+          Files.write( new File( dir, "Private" + created + ".txt" ).toPath(), "private\n".getBytes( StandardCharsets.UTF_8 ) );
+      }
+    }
+    new File( myRoot, FakeVob.META_DIR ).mkdirs();
+  }
+
+  private boolean isHijacked( String rel )
+  {
+    return (FakeVob.hash( rel + "#hijack" ) % 1000) < myHijackPermille;
+  }
+
+  private String getFolderPath( int index )
+  {
+    //  Folder index written in base myFoldersPerFolder gives the nesting.
+    StringBuilder path = new StringBuilder( "D" + index );
+    int parent = index / myFoldersPerFolder;
+    while( parent > 0 )
+    {
+      path.insert( 0, "D" + (parent - 1) + "/" );
+      parent = (parent - 1) / myFoldersPerFolder;
+    }
+    return path.toString();
+  }
+
+  /**
+   * Writes the launcher of the fake cleartool and returns its path, to be
+   * set as "clearcase.cleartool.path" system property.
+   */
+  public File writeLauncher() throws IOException
+  {
+    File meta = new File( myRoot, FakeVob.META_DIR );
+    meta.mkdirs();
+
+    String java = new File( new File( System.getProperty( "java.home" ), "bin" ), SystemInfo.isWindows ? "java.exe" : "java" ).getPath();
+    String command = quote( java ) + " -Xshare:auto -XX:TieredStopAtLevel=1" +
+                     " -cp " + quote( System.getProperty( "java.class.path" ) ) +
+                     " -D" + FakeCleartool.ROOT_PROPERTY + "=" + quote( myRoot.getAbsolutePath() ) +
+                     " -D" + FakeCleartool.CHECKOUT_PROPERTY + "=" + myCheckoutPermille +
+                     " -D" + FakeCleartool.VERSIONS_PROPERTY + "=" + myMaxVersions +
+                     " -D" + FakeCleartool.LINES_PROPERTY + "=" + myLinesPerFile +
+                     " -D" + FakeCleartool.LATENCY_PROPERTY + "=" + myLatency +
+                     " -D" + FakeCleartool.PATH_LATENCY_PROPERTY + "=" + myLatencyPerPathMicros +
+                     " -D" + FakeCleartool.NOISE_PROPERTY + "=" + myNoise +
+                     " " + FakeCleartool.class.getName();
+
+    File launcher;
+    if( SystemInfo.isWindows )
+    {
+      launcher = new File( meta, "cleartool.cmd" );
+      Files.write( launcher.toPath(), ("@echo off\r\n" + command + " %*\r\n").getBytes( StandardCharsets.UTF_8 ) );
+    }
+    else
+    {
+      launcher = new File( meta, "cleartool" );
+      Files.write( launcher.toPath(), ("#!/bin/sh\nexec " + command + " \"$@\"\n").getBytes( StandardCharsets.UTF_8 ) );
+      launcher.setExecutable( true );
+    }
+    return launcher;
+  }
+
+  private static String quote( String s )
+  {
+    return "\"" + s + "\"";
+  }
+}
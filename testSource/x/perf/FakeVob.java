@@ -0,0 +1,268 @@
+package x.perf;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Synthetic VOB behind a snapshot view created by {@link FakeViewBuilder}.
+ *
+ * The state of every element is derived from the hash of its relative path,
+ * so that nothing has to be stored for a million of untouched elements:
+ * - files and folders named "F<n>.java" / "D<n>" are elements, all the
+ *   others are view-private;
+ * - a fixed share of elements is checked out (reserved or not);
+ * - an element which is not checked out but writable is hijacked, exactly
+ *   as ClearCase decides it in a snapshot view.
+ * Changes made by the mutating commands are appended to a journal in the
+ * ".fakecc" folder and replayed by every fake cleartool process, so that
+ * separate processes and interactive sessions see the same state.
+ */
+public class FakeVob
+{
+  public static final String META_DIR = ".fakecc";
+  private static final String JOURNAL = "journal";
+  private static final String STATS = "stats";
+  private static final Pattern ELEMENT_NAME = Pattern.compile( "^[FD]\\d+(\\.java)?$" );
+
+  public static final String VIEW_TAG = "fake_view";
+  public static final String USER = "perfuser";
+
+  public enum State { CHECKED_IN, CHECKED_OUT, HIJACKED, PRIVATE, REMOVED }
+
+  public static class Element
+  {
+    public State   state;
+    public boolean reserved;
+    public int     latest;
+    public String  comment = "";
+  }
+
+  private final File root;
+  private final int checkoutPermille;
+  private final int maxVersions;
+  private final int linesPerFile;
+  private final Map<String, Element> overrides = new HashMap<>();
+  private long journalLength;
+
+  public FakeVob( File root, int checkoutPermille, int maxVersions, int linesPerFile )
+  {
+    this.root = root;
+    this.checkoutPermille = checkoutPermille;
+    this.maxVersions = Math.max( 1, maxVersions );
+    this.linesPerFile = linesPerFile;
+  }
+
+  public File getRoot()  {  return root;  }
+
+  public boolean isUnderRoot( File file )
+  {
+    return relativePath( file ) != null;
+  }
+
+  /**
+   * @return path relative to the VOB root with '/' separators, "" for the
+   *         root itself or null if the file is outside the VOB.
+   */
+  public String relativePath( File file )
+  {
+    String rootPath = root.getAbsolutePath();
+    String path = file.getAbsolutePath();
+    if( path.equals( rootPath ) )
+      return "";
+    if( !path.startsWith( rootPath + File.separator ) )
+      return null;
+    return path.substring( rootPath.length() + 1 ).replace( File.separatorChar, '/' );
+  }
+
+  public Element describe( File file )
+  {
+    String rel = relativePath( file );
+    Element element = overrides.get( rel );
+    if( element == null )
+    {
+      element = new Element();
+      boolean isElement = rel.isEmpty() || isElementName( rel );
+      int hash = hash( rel );
+      element.latest = hash % maxVersions;
+      element.reserved = (hash & 1) == 0;
+      element.state = !isElement ? State.PRIVATE :
+                      !file.isDirectory() && (hash / maxVersions) % 1000 < checkoutPermille ? State.CHECKED_OUT :
+                      State.CHECKED_IN;
+      if( element.state == State.CHECKED_OUT )
+        element.comment = "Work on " + file.getName();
+    }
+    else
+    {
+      Element copy = new Element();
+      copy.state = element.state;
+      copy.reserved = element.reserved;
+      copy.latest = element.latest;
+      copy.comment = element.comment;
+      element = copy;
+    }
+
+    if( element.state == State.CHECKED_IN && file.isFile() && file.canWrite() )
+      element.state = State.HIJACKED;
+    return element;
+  }
+
+  /**
+   * The state the view builder should give to the file on disk, before any
+   * command was run.
+   */
+  public State initialState( String rel, boolean isDirectory )
+  {
+    if( !isElementName( rel ) )
+      return State.PRIVATE;
+    int hash = hash( rel );
+    if( !isDirectory && (hash / maxVersions) % 1000 < checkoutPermille )
+      return State.CHECKED_OUT;
+    return State.CHECKED_IN;
+  }
+
+  private static boolean isElementName( String rel )
+  {
+    return ELEMENT_NAME.matcher( rel.substring( rel.lastIndexOf( '/' ) + 1 ) ).matches();
+  }
+
+  public static int hash( String rel )
+  {
+    return rel.hashCode() & 0x7FFFFFFF;
+  }
+
+  public String content( String rel, int version )
+  {
+    StringBuilder buf = new StringBuilder();
+    buf.append( "// " ).append( rel ).append( '\n' );
+    for( int i = 0; i < linesPerFile; i++ )
+    {
+      //  Every version changes a few lines, so that annotations and diffs
+      //  have something to show.
+      int lineVersion = Math.min( version, (hash( rel ) + i * 7) % (version + 1) );
+      buf.append( "    int field" ).append( i ).append( " = " ).append( lineVersion ).append( ";\n" );
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Version which introduced the given line of the latest content.
+   */
+  public int lineVersion( String rel, int version, int line )
+  {
+    return line == 0 ? 0 : Math.min( version, (hash( rel ) + (line - 1) * 7) % (version + 1) );
+  }
+
+  //---------------------------------------------------------------------------
+  //  Journal of changes, shared between the processes.
+  //---------------------------------------------------------------------------
+
+  public void record( File file, Element element ) throws IOException
+  {
+    String line = relativePath( file ) + '\t' + element.state + '\t' + element.reserved + '\t' +
+                  element.latest + '\t' + escape( element.comment ) + '\n';
+    appendLocked( JOURNAL, line );
+    overrides.put( relativePath( file ), element );
+  }
+
+  /**
+   * Replays the journal entries appended since the last call.
+   */
+  public void reload() throws IOException
+  {
+    File journal = new File( new File( root, META_DIR ), JOURNAL );
+    if( !journal.exists() || journal.length() == journalLength )
+      return;
+
+    try( RandomAccessFile in = new RandomAccessFile( journal, "r" ) )
+    {
+      in.seek( journalLength );
+      byte[] bytes = new byte[ (int)(in.length() - journalLength) ];
+      in.readFully( bytes );
+      journalLength += bytes.length;
+      for( String line : new String( bytes, StandardCharsets.UTF_8 ).split( "\n" ) )
+      {
+        String[] fields = line.split( "\t", -1 );
+        if( fields.length < 5 )
+          continue;
+        Element element = new Element();
+        element.state = State.valueOf( fields[ 1 ] );
+        element.reserved = Boolean.parseBoolean( fields[ 2 ] );
+        element.latest = Integer.parseInt( fields[ 3 ] );
+        element.comment = unescape( fields[ 4 ] );
+        overrides.put( fields[ 0 ], element );
+      }
+    }
+  }
+
+  /**
+   * Counts processes ("P") and commands ("C <subcommand>") for the harness.
+   */
+  public void count( String record )
+  {
+    try
+    {
+      appendLocked( STATS, record + '\n' );
+    }
+    catch( IOException e )
+    {
+      //  Statistics are best effort.
+    }
+  }
+
+  public static Map<String, Integer> readStatistics( File root ) throws IOException
+  {
+    Map<String, Integer> result = new HashMap<>();
+    File stats = new File( new File( root, META_DIR ), STATS );
+    if( !stats.exists() )
+      return result;
+    for( String line : Files.readAllLines( stats.toPath(), StandardCharsets.UTF_8 ) )
+      result.merge( line, 1, Integer::sum );
+    return result;
+  }
+
+  public static void resetStatistics( File root ) throws IOException
+  {
+    Files.deleteIfExists( new File( new File( root, META_DIR ), STATS ).toPath() );
+  }
+
+  private void appendLocked( String name, String text ) throws IOException
+  {
+    File meta = new File( root, META_DIR );
+    meta.mkdirs();
+    try( FileChannel channel = FileChannel.open( new File( meta, name ).toPath(), StandardOpenOption.CREATE,
+                                                 StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+         FileLock ignored = channel.lock() )
+    {
+      channel.write( StandardCharsets.UTF_8.encode( text ) );
+    }
+  }
+
+  private static String escape( String s )
+  {
+    return s.replace( "\\", "\\\\" ).replace( "\n", "\\n" ).replace( "\t", "\\t" );
+  }
+
+  private static String unescape( String s )
+  {
+    StringBuilder buf = new StringBuilder();
+    for( int i = 0; i < s.length(); i++ )
+    {
+      char c = s.charAt( i );
+      if( c == '\\' && i + 1 < s.length() )
+      {
+        char next = s.charAt( ++i );
+        buf.append( next == 'n' ? '\n' : next == 't' ? '\t' : next );
+      }
+      else
+        buf.append( c );
+    }
+    return buf.toString();
+  }
+}
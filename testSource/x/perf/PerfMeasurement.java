@@ -0,0 +1,95 @@
+package x.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+/**
+ * Wall time, cleartool process/command counts (as seen by {@link FakeCleartool})
+ * and allocation of one harness scenario.
+ *
+ * NB: allocation is summed over the threads alive at the end of the
+ *     scenario, so the memory allocated by pooled threads which finished in
+ *     between is not counted - the figure is a lower bound.
+ */
+public class PerfMeasurement
+{
+  private final String myName;
+  private final File myVobRoot;
+  private long myStartNanos;
+  private long myStartAllocated;
+
+  private long myWallMillis;
+  private long myAllocated;
+  private int  myProcesses;
+  private int  myCommands;
+  private Map<String, Integer> myStatistics;
+
+  public PerfMeasurement( String name, File vobRoot )
+  {
+    myName = name;
+    myVobRoot = vobRoot;
+  }
+
+  public PerfMeasurement start() throws IOException
+  {
+    FakeVob.resetStatistics( myVobRoot );
+    myStartAllocated = getAllocatedBytes();
+    myStartNanos = System.nanoTime();
+    return this;
+  }
+
+  public PerfMeasurement stop() throws IOException
+  {
+    myWallMillis = (System.nanoTime() - myStartNanos) / 1000000;
+    myAllocated = Math.max( 0, getAllocatedBytes() - myStartAllocated );
+    myStatistics = FakeVob.readStatistics( myVobRoot );
+    myProcesses = myStatistics.getOrDefault( "P", 0 );
+    myCommands = 0;
+    for( Map.Entry<String, Integer> entry : myStatistics.entrySet() )
+    {
+      if( entry.getKey().startsWith( "C " ) )
+        myCommands += entry.getValue();
+    }
+    return this;
+  }
+
+  public long getWallMillis()  {  return myWallMillis;  }
+  public long getAllocated()   {  return myAllocated;   }
+  public int  getProcesses()   {  return myProcesses;   }
+  public int  getCommands()    {  return myCommands;    }
+
+  private static long getAllocatedBytes()
+  {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if( !(bean instanceof com.sun.management.ThreadMXBean) )
+      return 0;
+
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+    long total = 0;
+    for( long allocated : sunBean.getThreadAllocatedBytes( bean.getAllThreadIds() ) )
+    {
+      if( allocated > 0 )
+        total += allocated;
+    }
+    return total;
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder commands = new StringBuilder();
+    if( myStatistics != null )
+    {
+      for( Map.Entry<String, Integer> entry : myStatistics.entrySet() )
+      {
+        if( entry.getKey().startsWith( "C " ) )
+          commands.append( ' ' ).append( entry.getKey().substring( 2 ) ).append( '=' ).append( entry.getValue() );
+      }
+    }
+    return String.format( "%-28s %8d ms %6d processes %7d commands %10d KB allocated  [%s ]",
+                          myName, myWallMillis, myProcesses, myCommands, myAllocated / 1024, commands );
+  }
+}